@@ -34,6 +34,7 @@ dependencies {
     implementation("org.jetbrains.kotlinx:binary-compatibility-validator:0.18.1")
     runtimeOnly("org.jetbrains.kotlin:kotlin-metadata-jvm:2.2.0") // for binary-compatibility-validator
     implementation("com.gradleup.shadow:com.gradleup.shadow.gradle.plugin:8.3.7")
+    implementation("me.champeau.jmh:jmh-gradle-plugin:0.7.2")
     implementation("org.ow2.asm:asm-commons:9.3")
     implementation ("com.google.guava:guava:30.1.1-jre")
 
@@ -60,6 +60,11 @@ class FlowLayoutController(
     class Layout(var x: Float, var y: Float, var yPadding: Float)
     private val cachedLayout = mutableMapOf<UIComponent, Layout>()
 
+    // Inputs of the last layout, so we can skip re-doing it if nothing changed (e.g. while hovering or scrolling)
+    private var laidOutWidth = Float.NaN
+    private var laidOutSizes = FloatArray(0)
+    private var childrenChanged = true
+
     fun getLayout(component: UIComponent): Layout {
         // Recompute layout if required
         wrapperConstraint.getWidth(component)
@@ -70,46 +75,59 @@ class FlowLayoutController(
 
     private fun layout() {
         val containerWidth = component.getWidth()
+        val children = component.children
+
+        // Child sizes are interleaved as width, height
+        val sizes = FloatArray(children.size * 2)
+        for ((index, child) in children.withIndex()) {
+            sizes[index * 2] = child.getWidth()
+            sizes[index * 2 + 1] = child.getHeight()
+        }
+
+        if (!childrenChanged && containerWidth == laidOutWidth && sizes.contentEquals(laidOutSizes)) {
+            return
+        }
+        childrenChanged = false
+        laidOutWidth = containerWidth
+        laidOutSizes = sizes
 
         class Row(val startIndex: Int, override val size: Int, val maxHeight: Float) : AbstractList<Float>() {
-            override fun get(index: Int): Float = component.children[startIndex + index].getWidth()
+            override fun get(index: Int): Float = sizes[(startIndex + index) * 2]
         }
-        val rows = sequence {
-            val spacing = xSpacingMin.roundToRealPixels()
-            var startIndex = 0
-            var size = 0
-            var currentWidth = -spacing
-            var maxHeight = 0f
-            for ((index, child) in component.children.withIndex()) {
-                val childWidth = child.getWidth()
-                if (currentWidth + spacing + childWidth > containerWidth + EPSILON && size > 0) {
-                    yield(Row(startIndex, size, maxHeight))
-                    startIndex = index
-                    size = 0
-                    currentWidth = -spacing
-                    maxHeight = 0f
-                }
-                size++
-                currentWidth += spacing + childWidth
-                maxHeight = max(maxHeight, child.getHeight())
-            }
-            if (size > 0) {
-                yield(Row(startIndex, size, maxHeight))
+        val rows = mutableListOf<Row>()
+        val spacing = xSpacingMin.roundToRealPixels()
+        var startIndex = 0
+        var size = 0
+        var currentWidth = -spacing
+        var maxHeight = 0f
+        for (index in children.indices) {
+            val childWidth = sizes[index * 2]
+            if (currentWidth + spacing + childWidth > containerWidth + EPSILON && size > 0) {
+                rows.add(Row(startIndex, size, maxHeight))
+                startIndex = index
+                size = 0
+                currentWidth = -spacing
+                maxHeight = 0f
             }
+            size++
+            currentWidth += spacing + childWidth
+            maxHeight = max(maxHeight, sizes[index * 2 + 1])
+        }
+        if (size > 0) {
+            rows.add(Row(startIndex, size, maxHeight))
         }
 
         var y = 0f
         for ((rowIndex, row) in rows.withIndex()) {
             itemArrangement.arrange(containerWidth, row) { i, x ->
-                val child = component.children[row.startIndex + i]
-                val height = child.getHeight()
-                cachedLayout[child] = Layout(
-                    x = x,
-                    y = y + itemAlignment.align(row.maxHeight, height),
-                    // This allows ChildBasedSizeConstraint to function for the parent height by emitting negative
-                    // padding for all but the first item in a row
-                    yPadding = (if (i == 0) row.maxHeight + (if (rowIndex == 0) 0f else ySpacing) else 0f) - height,
-                )
+                val child = children[row.startIndex + i]
+                val height = sizes[(row.startIndex + i) * 2 + 1]
+                val layout = cachedLayout.getOrPut(child) { Layout(0f, 0f, 0f) }
+                layout.x = x
+                layout.y = y + itemAlignment.align(row.maxHeight, height)
+                // This allows ChildBasedSizeConstraint to function for the parent height by emitting negative
+                // padding for all but the first item in a row
+                layout.yPadding = (if (i == 0) row.maxHeight + (if (rowIndex == 0) 0f else ySpacing) else 0f) - height
             }
             y += row.maxHeight + ySpacing
         }
@@ -121,6 +139,7 @@ class FlowLayoutController(
             @Suppress("UNCHECKED_CAST")
             val event = maybeEvent as? ObservableListEvent<UIComponent> ?: return@addObserver
             wrapperConstraint.recalculate = true
+            childrenChanged = true
             when (event) {
                 is ObservableAddEvent -> applyConstraints(event.element.value)
                 is ObservableRemoveEvent -> cachedLayout.remove(event.element.value)
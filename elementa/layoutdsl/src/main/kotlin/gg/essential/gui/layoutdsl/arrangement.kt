@@ -40,8 +40,17 @@ abstract class ArrangementInstance(
     val mainAxis: Axis,
 ) {
     internal var recalculatePositions = true
+        set(value) {
+            field = value
+            if (value) {
+                recalculateSpacing = true
+            }
+        }
     internal var recalculateSizes = true
 
+    /** Set whenever [recalculatePositions] is, for values derived from the layout which are needed by [getPadding]. */
+    protected var recalculateSpacing = true
+
     protected lateinit var boundComponent: UIComponent
         private set
     protected val lastPosValues = hashMapOf<UIComponent, Float>()
@@ -123,6 +132,20 @@ private open class SpacedArrangement(
 ) : ArrangementInstance(axis) {
     open fun getSpacing(parent: UIComponent) = spacing
 
+    private var cachedSpacing = 0f
+
+    /**
+     * [getSpacing] for the bound component, cached until the next invalidation, because it is needed for the padding
+     * of every child and some arrangements need to sum up the size of all children to compute it.
+     */
+    private fun currentSpacing(): Float {
+        if (recalculateSpacing) {
+            cachedSpacing = getSpacing(boundComponent).roundToRealPixels()
+            recalculateSpacing = false
+        }
+        return cachedSpacing
+    }
+
     open fun getStartOffset(parent: UIComponent, spacing: Float): Float {
         val childrenSize = parent.children.sumOf { it.getMainAxisSize() } + spacing * (parent.children.size - 1)
         return when (floatPosition) {
@@ -133,7 +156,7 @@ private open class SpacedArrangement(
     }
 
     override fun layoutPositions() {
-        val spacing = getSpacing(boundComponent).roundToRealPixels()
+        val spacing = currentSpacing()
         var nextStart = boundComponent.getMainAxisStart() + getStartOffset(boundComponent, spacing).roundToRealPixels()
         boundComponent.children.forEach {
             lastPosValues[it] = nextStart
@@ -142,7 +165,7 @@ private open class SpacedArrangement(
     }
 
     override fun getPadding(child: UIComponent): Float {
-        return if (child === boundComponent.children.last()) 0f else getSpacing(boundComponent).roundToRealPixels()
+        return if (child === boundComponent.children.last()) 0f else currentSpacing()
     }
 
     data class Factory(val spacing: Float, val floatPosition: FloatPosition) : Arrangement {
@@ -12,8 +12,8 @@
 package gg.essential.gui.layoutdsl
 
 import gg.essential.elementa.components.UIContainer
-import gg.essential.elementa.components.Window
 import gg.essential.elementa.components.inspector.Inspector
+import gg.essential.gui.elementa.state.v2.FrameScheduler
 import gg.essential.gui.elementa.state.v2.MutableState
 import gg.essential.gui.elementa.state.v2.mutableStateOf
 import gg.essential.universal.UMatrixStack
@@ -21,6 +21,8 @@ import gg.essential.universal.UMatrixStack
 /**
  * Lazily initializes the inner scope by first only placing a [box] as described by [modifier] without any children and
  * only initializing the inner scope once that box has been rendered once.
+ * Initialization happens via [FrameScheduler.runLater], so when many lazy boxes become visible at the same time (e.g.
+ * when a screen is opened), they are initialized over multiple frames rather than all in one long frame.
  *
  * This should be a last reserve for initializing a large list of poorly optimized components, not a common shortcut to
  * "make it not lag". Properly profiling and fixing initialization performance issues should always be preferred.
@@ -39,11 +41,16 @@ fun LayoutScope.lazyBox(modifier: Modifier = Modifier.fillParent(), block: Layou
 }
 
 private class LazyComponent(private val initialized: MutableState<Boolean>) : UIContainer() {
+    private var scheduled = false
+
     override fun draw(matrixStack: UMatrixStack) {
         super.draw(matrixStack)
 
-        Window.enqueueRenderOperation {
-            initialized.set(true)
+        if (!scheduled) {
+            scheduled = true
+            FrameScheduler.forMainThread.runLater {
+                initialized.set(true)
+            }
         }
     }
 }
@@ -17,6 +17,7 @@ import gg.essential.gradle.util.setJvmDefault
 plugins {
     kotlin("jvm")
     id("gg.essential.defaults")
+    id("me.champeau.jmh")
 }
 
 universalLibs()
@@ -27,12 +28,22 @@ dependencies {
 
     testImplementation(kotlin("test"))
     testImplementation(libs.elementa)
+
+    jmhImplementation(libs.elementa)
 }
 
 tasks.test {
     useJUnitPlatform()
 }
 
+// Run with `./gradlew :elementa:statev2:jmh`, optionally with `-Pjmh.includes=<regex>` to only run some benchmarks.
+jmh {
+    jmhVersion.set("1.37")
+    (findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+    // Also report allocation rates and GC time, so the ReferenceHolder churn benchmarks are meaningful
+    profilers.add("gc")
+}
+
 // We need to use the compatibility mode on old versions because we used to use the old Kotlin defaults for those
 // And while this isn't currently part of our ABI, once stuff migrates to Elementa, it will be, so we consider it now.
 tasks.compileKotlin.setJvmDefault("all-compatibility")
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2.benchmark
+
+import gg.essential.gui.elementa.state.v2.ListState
+import gg.essential.gui.elementa.state.v2.MutableListState
+import gg.essential.gui.elementa.state.v2.MutableState
+import gg.essential.gui.elementa.state.v2.ReferenceHolderImpl
+import gg.essential.gui.elementa.state.v2.add
+import gg.essential.gui.elementa.state.v2.effect
+import gg.essential.gui.elementa.state.v2.filter
+import gg.essential.gui.elementa.state.v2.mapEach
+import gg.essential.gui.elementa.state.v2.mapList
+import gg.essential.gui.elementa.state.v2.mutableListStateOf
+import gg.essential.gui.elementa.state.v2.mutableStateOf
+import gg.essential.gui.elementa.state.v2.removeAt
+import gg.essential.gui.elementa.state.v2.zipWithEachElement
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State as JmhState
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the cost of a single-element change (an insert and a remove in the middle of the list) in a [size]-element
+ * list propagating through each of the common [ListState] combinators, as well as changing the other input of
+ * [zipWithEachElement].
+ * Each combinator gets its own source list, so each benchmark only measures the one combinator.
+ */
+@JmhState(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ListCombinatorBenchmark {
+    @Param(IMPL_BASIC, IMPL_INDEXED, IMPL_MINIMAL, IMPL_LEGACY)
+    @JvmField
+    var impl: String = ""
+
+    @Param("10000")
+    @JvmField
+    var size: Int = 0
+
+    private val referenceHolder = ReferenceHolderImpl()
+    private var sink = 0
+
+    private lateinit var filterSource: MutableListState<Int>
+    private lateinit var mapEachSource: MutableListState<Int>
+    private lateinit var mapListSource: MutableListState<Int>
+    private lateinit var zipSource: MutableListState<Int>
+    private lateinit var zipOther: MutableState<Int>
+
+    @Setup
+    fun setup() {
+        selectStateImpl(impl)
+
+        fun source() = mutableListStateOf(*Array(size) { it })
+        fun observe(state: ListState<*>) {
+            effect(referenceHolder) { sink += state().size }
+        }
+
+        filterSource = source()
+        observe(filterSource.filter { it % 2 == 0 })
+
+        mapEachSource = source()
+        observe(mapEachSource.mapEach { it * 2 })
+
+        mapListSource = source()
+        observe(mapListSource.mapList { list -> list.map { it * 2 } })
+
+        zipSource = source()
+        zipOther = mutableStateOf(0)
+        observe(zipSource.zipWithEachElement(zipOther) { a, b -> a + b })
+    }
+
+    private fun MutableListState<Int>.insertAndRemove(): Int {
+        val index = size / 2
+        add(index, -1)
+        removeAt(index)
+        return sink
+    }
+
+    @Benchmark
+    fun filter(): Int = filterSource.insertAndRemove()
+
+    @Benchmark
+    fun mapEach(): Int = mapEachSource.insertAndRemove()
+
+    @Benchmark
+    fun mapList(): Int = mapListSource.insertAndRemove()
+
+    @Benchmark
+    fun zipWithEachElement(): Int = zipSource.insertAndRemove()
+
+    @Benchmark
+    fun zipWithEachElementOther(): Int {
+        zipOther.set { it + 1 }
+        return sink
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2.benchmark
+
+import gg.essential.gui.elementa.state.v2.MutableState
+import gg.essential.gui.elementa.state.v2.ReferenceHolderImpl
+import gg.essential.gui.elementa.state.v2.State
+import gg.essential.gui.elementa.state.v2.effect
+import gg.essential.gui.elementa.state.v2.memo
+import gg.essential.gui.elementa.state.v2.mutableStateOf
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State as JmhState
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the cost of propagating a single change through common graph shapes:
+ * - [wideFanOut]: one mutable state observed directly by [size] effects (e.g. a shared clock or config flag)
+ * - [deepChain]: a chain of [depth] memos ending in a single effect
+ * - [diamonds]: [depth] layers of diamonds (`a -> (b, c) -> d`), where every node must only be evaluated once
+ * - [unobservedChange]: a change to a state which many effects depend on only through a memo that does not change
+ */
+@JmhState(Scope.Benchmark)
+@Fork(1, jvmArgsAppend = ["-Xss16m"])
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class PropagationBenchmark {
+    @Param(IMPL_BASIC, IMPL_INDEXED, IMPL_MINIMAL, IMPL_LEGACY)
+    @JvmField
+    var impl: String = ""
+
+    @Param("10000")
+    @JvmField
+    var size: Int = 0
+
+    /** Kept separate from [size] because evaluation of chains is recursive, so their depth is bounded by the stack. */
+    @Param("1000")
+    @JvmField
+    var depth: Int = 0
+
+    private val referenceHolder = ReferenceHolderImpl()
+    private var sink = 0
+
+    private lateinit var fanOutSource: MutableState<Int>
+    private lateinit var chainSource: MutableState<Int>
+    private lateinit var diamondSource: MutableState<Int>
+    private lateinit var unobservedSource: MutableState<Int>
+
+    @Setup
+    fun setup() {
+        selectStateImpl(impl)
+
+        fanOutSource = mutableStateOf(0)
+        repeat(size) {
+            effect(referenceHolder) { sink += fanOutSource() }
+        }
+
+        chainSource = mutableStateOf(0)
+        var chain: State<Int> = chainSource
+        repeat(depth) {
+            val previous = chain
+            chain = memo { previous() + 1 }
+        }
+        val chainEnd = chain
+        effect(referenceHolder) { sink += chainEnd() }
+
+        diamondSource = mutableStateOf(0)
+        var diamond: State<Int> = diamondSource
+        repeat(depth) {
+            val top = diamond
+            val left = memo { top() + 1 }
+            val right = memo { top() - 1 }
+            diamond = memo { (left() + right()) / 2 }
+        }
+        val diamondEnd = diamond
+        effect(referenceHolder) { sink += diamondEnd() }
+
+        unobservedSource = mutableStateOf(0)
+        val isNegative = memo { unobservedSource() < 0 }
+        repeat(size) {
+            effect(referenceHolder) { if (isNegative()) sink++ }
+        }
+    }
+
+    @Benchmark
+    fun wideFanOut(): Int {
+        fanOutSource.set { it + 1 }
+        return sink
+    }
+
+    @Benchmark
+    fun deepChain(): Int {
+        chainSource.set { it + 1 }
+        return sink
+    }
+
+    @Benchmark
+    fun diamonds(): Int {
+        diamondSource.set { it + 1 }
+        return sink
+    }
+
+    @Benchmark
+    fun unobservedChange(): Int {
+        unobservedSource.set { it + 1 }
+        return sink
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2.benchmark
+
+import gg.essential.gui.elementa.state.v2.MutableState
+import gg.essential.gui.elementa.state.v2.ReferenceHolderImpl
+import gg.essential.gui.elementa.state.v2.State
+import gg.essential.gui.elementa.state.v2.effect
+import gg.essential.gui.elementa.state.v2.memo
+import gg.essential.gui.elementa.state.v2.mutableStateOf
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State as JmhState
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Simulates UI components being created and thrown away (e.g. when scrolling through or re-filtering a list), each of
+ * which registers [effectsPerOp] effects on long-lived shared states.
+ *
+ * [dropHolder] relies on the garbage collector to clean up the effects (and the edges they left behind on the shared
+ * states), [disposeExplicitly] unregisters them manually. Run with `-prof gc` to see the allocation and GC pressure.
+ */
+@JmhState(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ReferenceHolderBenchmark {
+    @Param(IMPL_BASIC, IMPL_INDEXED, IMPL_MINIMAL, IMPL_LEGACY)
+    @JvmField
+    var impl: String = ""
+
+    @Param("100")
+    @JvmField
+    var effectsPerOp: Int = 0
+
+    private var sink = 0
+
+    private lateinit var shared: MutableState<Int>
+    private lateinit var sharedDerived: State<Int>
+
+    @Setup
+    fun setup() {
+        selectStateImpl(impl)
+
+        shared = mutableStateOf(0)
+        sharedDerived = memo { shared() / 2 }
+    }
+
+    @Benchmark
+    fun dropHolder(): Int {
+        val holder = ReferenceHolderImpl()
+        repeat(effectsPerOp) {
+            effect(holder) { sink += shared() + sharedDerived() }
+        }
+        shared.set { it + 1 }
+        return sink
+    }
+
+    @Benchmark
+    fun disposeExplicitly(): Int {
+        val holder = ReferenceHolderImpl()
+        val unregister = List(effectsPerOp) {
+            effect(holder) { sink += shared() + sharedDerived() }
+        }
+        shared.set { it + 1 }
+        unregister.forEach { it() }
+        return sink
+    }
+}
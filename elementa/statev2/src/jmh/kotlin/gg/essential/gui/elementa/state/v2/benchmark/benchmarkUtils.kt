@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2.benchmark
+
+/** Names accepted by the `elementa.statev2.impl` system property, see `state.kt`. */
+const val IMPL_BASIC = "basic"
+const val IMPL_INDEXED = "indexed"
+const val IMPL_MINIMAL = "minimal"
+const val IMPL_LEGACY = "legacy"
+
+/**
+ * Selects the statev2 implementation to be benchmarked.
+ *
+ * The implementation is picked once, when states are first used, so this must be called before any state is created.
+ * JMH runs every combination of `@Param`s in a separate fork, so calling this from a trial-level `@Setup` is sufficient.
+ */
+fun selectStateImpl(name: String) {
+    val previous = System.setProperty("elementa.statev2.impl", name)
+    check(previous == null || previous == name) { "Implementation already selected as $previous, cannot switch to $name" }
+}
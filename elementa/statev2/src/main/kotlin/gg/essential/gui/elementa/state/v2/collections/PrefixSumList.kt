@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2.collections
+
+import kotlin.random.Random
+
+/**
+ * A list of non-negative weights which, in addition to insertion and removal at arbitrary indices, can efficiently
+ * compute the sum of all weights before a given index.
+ *
+ * This is used by list combinators to map indices of their source list to indices in their result list, e.g. for
+ * `filter` each weight is `1` if the element at that index passed the filter and `0` otherwise, such that the index of
+ * the corresponding element in the filtered list is simply the prefix sum at that index.
+ *
+ * Implemented as an implicit treap (a randomized balanced binary tree keyed by position), so all operations take
+ * `O(log n)` expected time.
+ */
+internal class PrefixSumList {
+    private var root: Node? = null
+
+    val size: Int
+        get() = root.size
+
+    /** The sum of all weights. */
+    val sum: Int
+        get() = root.sum
+
+    /** Replaces the content of this list with the given weights in `O(n)`. */
+    fun reset(weights: IntArray) {
+        // Builds the Cartesian tree for the given weights and random priorities with the usual stack-based algorithm.
+        // The stack holds the right spine of the tree built so far.
+        val spine = ArrayList<Node>()
+        for (weight in weights) {
+            val node = Node(weight, Random.nextInt())
+            var lastPopped: Node? = null
+            while (spine.isNotEmpty() && spine.last().priority < node.priority) {
+                lastPopped = spine.removeAt(spine.lastIndex)
+            }
+            node.left = lastPopped
+            if (spine.isNotEmpty()) {
+                spine.last().right = node
+            }
+            spine.add(node)
+        }
+        root = spine.firstOrNull()?.also { updateAll(it) }
+    }
+
+    fun clear() {
+        root = null
+    }
+
+    operator fun get(index: Int): Int {
+        checkIndex(index, size)
+        var node = root!!
+        var i = index
+        while (true) {
+            val leftSize = node.left.size
+            node = when {
+                i < leftSize -> node.left!!
+                i > leftSize -> { i -= leftSize + 1; node.right!! }
+                else -> return node.weight
+            }
+        }
+    }
+
+    /** Returns the sum of the weights of all elements before (but not including) the given index. */
+    fun prefixSum(index: Int): Int {
+        checkIndex(index, size + 1)
+        var node = root
+        var i = index
+        var sum = 0
+        while (node != null) {
+            val leftSize = node.left.size
+            if (i <= leftSize) {
+                node = node.left
+            } else {
+                sum += node.left.sum + node.weight
+                i -= leftSize + 1
+                node = node.right
+            }
+        }
+        return sum
+    }
+
+    fun add(index: Int, weight: Int) {
+        checkIndex(index, size + 1)
+        root = insert(root, index, Node(weight, Random.nextInt()))
+    }
+
+    /** Removes the element at the given index and returns its weight. */
+    fun removeAt(index: Int): Int {
+        checkIndex(index, size)
+        val node = find(index)
+        root = remove(root!!, index)
+        return node.weight
+    }
+
+    /** Changes the weight of the element at the given index and returns its previous weight. */
+    operator fun set(index: Int, weight: Int): Int {
+        checkIndex(index, size)
+        return set(root!!, index, weight)
+    }
+
+    private fun find(index: Int): Node {
+        var node = root!!
+        var i = index
+        while (true) {
+            val leftSize = node.left.size
+            node = when {
+                i < leftSize -> node.left!!
+                i > leftSize -> { i -= leftSize + 1; node.right!! }
+                else -> return node
+            }
+        }
+    }
+
+    private fun insert(node: Node?, index: Int, newNode: Node): Node {
+        if (node == null) return newNode
+        val leftSize = node.left.size
+        return if (index <= leftSize) {
+            val left = insert(node.left, index, newNode)
+            node.left = left
+            if (left.priority > node.priority) rotateRight(node) else node.also { it.update() }
+        } else {
+            val right = insert(node.right, index - leftSize - 1, newNode)
+            node.right = right
+            if (right.priority > node.priority) rotateLeft(node) else node.also { it.update() }
+        }
+    }
+
+    private fun remove(node: Node, index: Int): Node? {
+        val leftSize = node.left.size
+        when {
+            index < leftSize -> node.left = remove(node.left!!, index)
+            index > leftSize -> node.right = remove(node.right!!, index - leftSize - 1)
+            else -> return merge(node.left, node.right)
+        }
+        node.update()
+        return node
+    }
+
+    private fun set(node: Node, index: Int, weight: Int): Int {
+        val leftSize = node.left.size
+        val previous = when {
+            index < leftSize -> set(node.left!!, index, weight)
+            index > leftSize -> set(node.right!!, index - leftSize - 1, weight)
+            else -> node.weight.also { node.weight = weight }
+        }
+        node.update()
+        return previous
+    }
+
+    private fun merge(left: Node?, right: Node?): Node? {
+        if (left == null) return right
+        if (right == null) return left
+        return if (left.priority > right.priority) {
+            left.right = merge(left.right, right)
+            left.also { it.update() }
+        } else {
+            right.left = merge(left, right.left)
+            right.also { it.update() }
+        }
+    }
+
+    private fun rotateRight(node: Node): Node {
+        val left = node.left!!
+        node.left = left.right
+        left.right = node
+        node.update()
+        left.update()
+        return left
+    }
+
+    private fun rotateLeft(node: Node): Node {
+        val right = node.right!!
+        node.right = right.left
+        right.left = node
+        node.update()
+        right.update()
+        return right
+    }
+
+    private fun updateAll(node: Node) {
+        node.left?.let { updateAll(it) }
+        node.right?.let { updateAll(it) }
+        node.update()
+    }
+
+    private fun checkIndex(index: Int, bound: Int) {
+        if (index < 0 || index >= bound) throw IndexOutOfBoundsException("Index: $index, Size: $size")
+    }
+
+    private class Node(var weight: Int, val priority: Int) {
+        var left: Node? = null
+        var right: Node? = null
+        var size: Int = 1
+        var sum: Int = weight
+
+        fun update() {
+            size = left.size + 1 + right.size
+            sum = left.sum + weight + right.sum
+        }
+    }
+
+    private companion object {
+        private val Node?.size: Int
+            get() = this?.size ?: 0
+
+        private val Node?.sum: Int
+            get() = this?.sum ?: 0
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2
+
+import gg.essential.elementa.state.v2.ReferenceHolder
+import java.time.Duration
+
+/**
+ * Spreads state-driven UI work over multiple frames.
+ *
+ * Three kinds of work can be handed to it:
+ * - [set] coalesces all updates of a [MutableState] made during one frame into a single update (and therefore a single
+ *   flush of the State system) at the start of the next frame.
+ * - [effect] with [Priority.Deferred] registers an effect which, instead of running synchronously whenever its
+ *   dependencies change, is queued and run at the next frame for which there is still time left in the [budget].
+ * - [runLater] queues a one-off task (e.g. creating some components) in the same way.
+ *
+ * The latter two are meant for work which isn't immediately visible (off-screen components, previews, etc.), so opening
+ * a screen full of such components doesn't result in a single, very long frame.
+ *
+ * Needs to be driven by calling [runFrame] once per frame (see [forMainThread]).
+ * Must only be used from the thread which calls [runFrame].
+ */
+class FrameScheduler(
+    private val budget: Duration = Duration.ofMillis(4),
+    private val nanoTime: () -> Long = System::nanoTime,
+) {
+    private val pendingSets = LinkedHashMap<MutableState<*>, Any?>()
+    /** Queued deferred effects and tasks, each returning whether it actually did any work. */
+    private val deferred = ArrayDeque<() -> Boolean>()
+
+    /** Statistics for the most recent [runFrame] call. */
+    var lastFrame: FrameStats = FrameStats(0, 0, 0, 0)
+        private set
+
+    /** Number of deferred effects and tasks which are currently waiting to be run. */
+    val pendingEffects: Int
+        get() = deferred.size
+
+    /**
+     * Sets the given [state] to [value] at the start of the next frame.
+     * If the state is set multiple times before then, only the last value is applied.
+     */
+    fun <T> set(state: MutableState<T>, value: T) {
+        pendingSets[state] = value
+    }
+
+    /**
+     * Like the global [effect] but, for [Priority.Deferred], the given function is not run immediately but only during
+     * a later [runFrame] call, once there is enough time left in that frame's budget.
+     * Any changes to its dependencies while it is waiting are merged into the same run.
+     */
+    fun effect(referenceHolder: ReferenceHolder, priority: Priority, func: Observer.() -> Unit): () -> Unit {
+        if (priority == Priority.Immediate) {
+            return effect(referenceHolder, func)
+        }
+        val task = DeferredEffect(func)
+        val unregister = effect(referenceHolder) { with(task) { run() } }
+        return {
+            task.disposed = true
+            unregister()
+        }
+    }
+
+    /**
+     * Runs the given [task] during a later [runFrame] call, once there is enough time left in that frame's budget.
+     * Tasks and deferred effects are run in the order in which they were queued.
+     */
+    fun runLater(task: () -> Unit) {
+        deferred.addLast {
+            task()
+            true
+        }
+    }
+
+    /**
+     * Applies all pending [set] calls and then runs deferred effects and tasks until either none are left or the
+     * [budget] is used up. At least one is run per frame, so progress is made even when the budget is tiny.
+     */
+    fun runFrame() {
+        val start = nanoTime()
+        val deadline = start + budget.toNanos()
+
+        val statesApplied = pendingSets.size
+        if (statesApplied > 0) {
+            val sets = pendingSets.entries.toList()
+            pendingSets.clear()
+            for ((state, value) in sets) {
+                @Suppress("UNCHECKED_CAST")
+                (state as MutableState<Any?>).set(value)
+            }
+        }
+
+        var effectsRun = 0
+        while (true) {
+            val task = deferred.removeFirstOrNull() ?: break
+            if (!task()) continue
+            effectsRun++
+
+            if (nanoTime() - deadline >= 0) break
+        }
+
+        lastFrame = FrameStats(effectsRun, deferred.size, statesApplied, nanoTime() - start)
+    }
+
+    private inner class DeferredEffect(private val func: Observer.() -> Unit) {
+        /** Bumped by [runFrame] to re-run the effect outside of the regular dependency tracking. */
+        val trigger = mutableStateOf(0)
+        var allowed = false
+        var queued = false
+        var disposed = false
+
+        /** Runs [func] (with dependency tracking) if this effect is still alive, returns whether it did. */
+        fun runQueued(): Boolean {
+            queued = false
+            if (disposed) return false
+
+            allowed = true
+            trigger.set { it + 1 }
+            // The effect may have been garbage collected, in which case the trigger did nothing
+            val ran = !allowed
+            allowed = false
+            return ran
+        }
+
+        fun Observer.run() {
+            trigger()
+            if (!allowed) {
+                // Note: We intentionally do not observe any of the actual dependencies here, there's no point in
+                // re-running just to queue ourselves again. They'll be observed once we actually run.
+                if (!queued) {
+                    queued = true
+                    deferred.addLast(::runQueued)
+                }
+                return
+            }
+            allowed = false
+            func()
+        }
+    }
+
+    enum class Priority {
+        /** Runs synchronously, exactly like the global [effect]. */
+        Immediate,
+        /** Runs during a later [runFrame] call, subject to its time budget. */
+        Deferred,
+    }
+
+    /**
+     * @param effectsRun Number of deferred effects and [runLater] tasks run during the frame
+     * @param effectsPending Number of deferred effects and tasks which did not fit into the frame's budget
+     * @param statesApplied Number of batched [set] calls applied at the start of the frame
+     * @param timeNanos Time spent in [runFrame], including any effects triggered by the batched states
+     */
+    data class FrameStats(
+        val effectsRun: Int,
+        val effectsPending: Int,
+        val statesApplied: Int,
+        val timeNanos: Long,
+    )
+
+    companion object {
+        /**
+         * Scheduler for the client thread.
+         *
+         * Its [runFrame] is called at the start of each render tick, right after [StateScheduler.updateSystemTime].
+         */
+        @JvmStatic
+        val forMainThread: FrameScheduler = FrameScheduler()
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2.impl.indexed
+
+import gg.essential.elementa.state.v2.ReferenceHolder
+import gg.essential.gui.elementa.state.v2.MutableState
+import gg.essential.gui.elementa.state.v2.Observer
+import gg.essential.gui.elementa.state.v2.ObserverImpl
+import gg.essential.gui.elementa.state.v2.State
+import gg.essential.gui.elementa.state.v2.impl.Impl
+import java.lang.ref.ReferenceQueue
+import java.lang.ref.WeakReference
+
+/**
+ * Semi-lazy node graph implementation with indexed dependency edges.
+ *
+ * Algorithmically, this is identical to [gg.essential.gui.elementa.state.v2.impl.basic.MarkThenPushAndPullImpl], see
+ * there for how it works. It only differs in how the edges of the graph are stored, which matters for nodes with many
+ * dependents (e.g. a shared clock or config flag, which may have hundreds of them):
+ * - Edges are stored in plain arrays which are iterated in place, so no allocations are necessary to propagate changes
+ *   through the graph.
+ * - Edges which were observed during the last evaluation of a node are indexed on their dependency node right before
+ *   the node is re-evaluated, so finding them again (the common case) is O(1) instead of requiring a linear scan.
+ * - Edges are removed from the dependents of a node lazily, so removing an edge is O(1) (amortized) regardless of how
+ *   many dependents the node has, while still preserving the order of the remaining ones.
+ */
+internal object IndexedMarkThenPushAndPullImpl : Impl {
+    override fun <T> mutableState(value: T): MutableState<T> {
+        val node = Node(NodeKind.Mutable, NodeState.Clean, UNREACHABLE, value)
+        return object : State<T> by node, MutableState<T> {
+            override fun set(mapper: (T) -> T) {
+                node.set(mapper(node.getUntracked()))
+            }
+        }
+    }
+
+    override fun <T> memo(func: Observer.() -> T): State<T> =
+        Node(NodeKind.Memo, NodeState.Dirty, func, null)
+
+    override fun effect(referenceHolder: ReferenceHolder, func: Observer.() -> Unit): () -> Unit {
+        val node = Node(NodeKind.Effect, NodeState.Dirty, func, Unit)
+        node.update(Update.get())
+        val refCleanup = referenceHolder.holdOnto(node)
+        return {
+            node.cleanup()
+            refCleanup()
+        }
+    }
+
+}
+
+private enum class NodeKind {
+    /**
+     * A leaf node which represents a manually updated value which only changes when [Node.set] is invoked.
+     * It does not have any dependencies nor a [Node.func].
+     */
+    Mutable,
+
+    /**
+     * An intermediate node which is lazily computed and lazily updated via [Node.func].
+     * May have any number of both dependencies and dependents.
+     */
+    Memo,
+
+    /**
+     * A node which represents the root of a dependency tree.
+     * It does not have any dependents and does not produce any value.
+     *
+     * Unlike [Memo], it is not lazy and will be updated when any of its dependencies change.
+     * If any of its dependencies are lazy, they too will be updated as necessary for this node to obtain a complete
+     * view of up-to-date values.
+     */
+    Effect,
+}
+
+private enum class NodeState {
+    /**
+     * The [Node.value] is up-to-date.
+     * For [NodeKind.Effect], the [Node.func] has been run with the latest values.
+     */
+    Clean,
+
+    /**
+     * Some of the node's dependencies, including transitive one, may be [Dirty] and need to be checked.
+     */
+    ToBeChecked,
+
+    /**
+     * The [Node.value] is outdated and needs to be re-evaluated.
+     * For [NodeKind.Effect], the [Node.func] needs to be re-run.
+     */
+    Dirty,
+
+    /**
+     * The node has been disposed off and should no longer be updated.
+     */
+    Dead,
+}
+
+private class Node<T>(
+    val kind: NodeKind,
+    private var state: NodeState,
+    private val func: Observer.() -> T,
+    private var value: T?,
+) : State<T>, Observer, ObserverImpl {
+    override val observerImpl: ObserverImpl
+        get() = this
+
+    /** Edges to the nodes this node depends on. Only the first [dependencyCount] entries are in use. */
+    private var dependencies: Array<Edge?> = NO_EDGES
+    private var dependencyCount = 0
+
+    /**
+     * Edges to the nodes which depend on this node. Only the first [dependentCount] entries are in use.
+     * Some of these may have been [Edge.removed] (or their dependent garbage collected) and are yet to be compacted.
+     */
+    private var dependents: Array<Edge?> = NO_EDGES
+    private var dependentCount = 0
+    private var removedDependentCount = 0
+
+    /**
+     * An edge from this node to one of its dependents, which the dependent is likely to look up in [getTracked] soon.
+     * Set for all dependencies of a node right before it is re-evaluated, see [update].
+     * If multiple dependents are evaluated at the same time (i.e. nested), only the most recent one will hit this
+     * index, the others fall back to [findEdge].
+     */
+    private var indexedEdge: Edge? = null
+
+    override fun Observer.get(): T {
+        return getTracked(this@get)
+    }
+
+    fun getTracked(observer: Observer): T {
+        val impl = observer.observerImpl
+        if (impl !is Node<*>) return getUntracked()
+        if (impl.state == NodeState.Dead) return getUntracked()
+
+        // Note: Need to get value before registering the dependent, otherwise if this node is dirty, getUntracked will
+        // re-evaluate it which marks all dependents as dirty, but this new dependent hasn't seen the old value, so it'd
+        // be wrong to mark it as dirty.
+        val value = getUntracked()
+
+        val dependency = this
+        val dependent = impl
+
+        // See if there's already an existing edge
+        val indexedEdge = indexedEdge
+        val existingEdge = if (indexedEdge != null && !indexedEdge.removed && indexedEdge.dependent === dependent) {
+            indexedEdge
+        } else {
+            findEdge(dependent)
+        }
+        if (existingEdge != null) {
+            existingEdge.suspended = false // may need to re-enable the edge if it's currently suspended
+            return value
+        }
+
+        // Create a new edge
+        val edge = Edge(dependency, dependent)
+        dependency.addDependent(edge)
+        dependent.addDependency(edge)
+        dependency.indexedEdge = edge // for when the same dependent accesses this node multiple times
+
+        // To prevent unbounded growth, we'll clean up any stale edges whenever we add a new one
+        // (this is really fast in when there isn't anything to do thanks to the ReferenceQueue)
+        cleanupStaleReferences()
+
+        return value
+    }
+
+    private fun findEdge(dependent: Node<*>): Edge? {
+        // Any existing edge will be in both lists, so we can pick the smaller one to iterate.
+        if (dependentCount < dependent.dependencyCount) {
+            for (i in 0 until dependentCount) {
+                val edge = dependents[i]!!
+                if (!edge.removed && edge.dependent === dependent) {
+                    return edge
+                }
+            }
+        } else {
+            for (i in 0 until dependent.dependencyCount) {
+                val edge = dependent.dependencies[i]!!
+                if (edge.dependency === this) {
+                    return edge
+                }
+            }
+        }
+        return null
+    }
+
+    private fun addDependency(edge: Edge) {
+        if (dependencyCount == dependencies.size) {
+            dependencies = dependencies.copyOf(maxOf(4, dependencyCount * 2))
+        }
+        dependencies[dependencyCount++] = edge
+    }
+
+    private fun addDependent(edge: Edge) {
+        if (dependentCount == dependents.size) {
+            if (removedDependentCount > 0) {
+                compactDependents()
+            }
+            if (dependentCount == dependents.size) {
+                dependents = dependents.copyOf(maxOf(4, dependentCount * 2))
+            }
+        }
+        dependents[dependentCount++] = edge
+    }
+
+    private fun removeDependent(edge: Edge) {
+        edge.removed = true
+        if (indexedEdge === edge) {
+            indexedEdge = null
+        }
+        removedDependentCount++
+        if (removedDependentCount > 8 && removedDependentCount * 2 > dependentCount) {
+            compactDependents()
+        }
+    }
+
+    /** Drops all removed and stale edges from [dependents], preserving the order of the remaining ones. */
+    private fun compactDependents() {
+        val dependents = dependents
+        var kept = 0
+        for (i in 0 until dependentCount) {
+            val edge = dependents[i]!!
+            if (!edge.removed && edge.dependent != null) {
+                dependents[kept++] = edge
+            }
+        }
+        dependents.fill(null, kept, dependentCount)
+        dependentCount = kept
+        removedDependentCount = 0
+    }
+
+    private inline fun forEachDependent(action: (Node<*>) -> Unit) {
+        // Note: Propagation never modifies the graph structure (only evaluation does), so we can iterate in place
+        for (i in 0 until dependentCount) {
+            val edge = dependents[i]!!
+            if (edge.removed || edge.suspended) continue
+            action(edge.dependent ?: continue)
+        }
+    }
+
+    override fun getUntracked(): T {
+        if (state != NodeState.Clean) {
+            update(Update.get())
+        }
+        @Suppress("UNCHECKED_CAST")
+        return value as T
+    }
+
+    fun set(newValue: T) {
+        assert(kind == NodeKind.Mutable)
+
+        if (value == newValue) {
+            return
+        }
+
+        value = newValue
+
+        val update = Update.get()
+        forEachDependent { dep ->
+            dep.markDirty(update)
+        }
+        update.flush()
+    }
+
+    private fun mark(update: Update, newState: NodeState) {
+        val oldState = state
+        if (oldState.ordinal >= newState.ordinal) {
+            return
+        }
+
+        if (newState == NodeState.Dirty) {
+            update.queueNode(this)
+        }
+
+        state = newState
+    }
+
+    private fun markDirty(update: Update) {
+        mark(update, NodeState.Dirty)
+
+        forEachDependent { dep ->
+            dep.markToBeChecked(update)
+        }
+    }
+
+    private fun markToBeChecked(update: Update) {
+        if (state != NodeState.Clean) return
+
+        mark(update, NodeState.ToBeChecked)
+
+        forEachDependent { dep ->
+            dep.markToBeChecked(update)
+        }
+    }
+
+    fun update(update: Update) {
+        if (state == NodeState.Clean) {
+            return
+        }
+
+        if (state == NodeState.ToBeChecked) {
+            for (i in 0 until dependencyCount) {
+                val edge = dependencies[i]!!
+                if (edge.suspended) continue
+                edge.dependency.update(update)
+                if (state == NodeState.Dirty) {
+                    break
+                }
+            }
+        }
+
+        val wasDirty = state == NodeState.Dirty
+        state = NodeState.Clean
+
+        if (wasDirty) {
+            for (i in 0 until dependencyCount) {
+                val edge = dependencies[i]!!
+                edge.suspended = true
+                edge.dependency.indexedEdge = edge
+            }
+
+            // Beware: This invocation may throw an exception if user code is faulty! We should handle that correctly.
+            val newValue = func(this)
+
+            if (state == NodeState.Dead) {
+                return
+            }
+
+            // Remove all edges which are still suspended, i.e. were not observed during this evaluation
+            val dependencies = dependencies
+            var kept = 0
+            for (i in 0 until dependencyCount) {
+                val edge = dependencies[i]!!
+                if (edge.suspended) {
+                    edge.dependency.removeDependent(edge)
+                } else {
+                    dependencies[kept++] = edge
+                }
+            }
+            dependencies.fill(null, kept, dependencyCount)
+            dependencyCount = kept
+
+            if (value != newValue) {
+                value = newValue
+
+                forEachDependent { dep ->
+                    dep.mark(update, NodeState.Dirty)
+                }
+            }
+        }
+    }
+
+    fun cleanup() {
+        assert(kind == NodeKind.Effect)
+        assert(dependentCount == 0)
+
+        for (i in 0 until dependencyCount) {
+            val edge = dependencies[i]!!
+            edge.dependency.removeDependent(edge)
+        }
+        dependencies = NO_EDGES
+        dependencyCount = 0
+
+        state = NodeState.Dead
+    }
+
+    private var referenceQueueField: ReferenceQueue<Node<*>>? = null
+    private val referenceQueue: ReferenceQueue<Node<*>>
+        get() = referenceQueueField ?: ReferenceQueue<Node<*>>().also { referenceQueueField = it }
+
+    private fun cleanupStaleReferences() {
+        val queue = referenceQueueField ?: return
+
+        if (queue.poll() == null) {
+            return
+        }
+
+        @Suppress("ControlFlowWithEmptyBody")
+        while (queue.poll() != null);
+
+        compactDependents()
+    }
+
+    /**
+     * This class represents an edge in the dependency graph between one node ([dependent]) which depends on the value
+     * of another node ([dependency]).
+     * Both nodes keep a reference to the same [Edge] instance in their [Node.dependencies] and [Node.dependents]
+     * arrays respectively.
+     *
+     * The [dependent] node of an edge is stored in a [WeakReference], such that it can be garbage collected if nothing
+     * else is keeping it alive any more. Once garbage collected, the edge becomes "stale" and will eventually be
+     * cleaned up from the array of the [dependency] node by [Node.cleanupStaleReferences].
+     *
+     * An [Edge] may also become temporarily [suspended], see
+     * [gg.essential.gui.elementa.state.v2.impl.basic.MarkThenPushAndPullImpl] for details.
+     *
+     * Once [removed], the edge is no longer in the [Node.dependencies] of its dependent and will be dropped from the
+     * [Node.dependents] of its [dependency] the next time those are compacted.
+     */
+    class Edge(
+        val dependency: Node<*>,
+        dependent: Node<*>,
+    ) : WeakReference<Node<*>>(dependent, dependency.referenceQueue) {
+        var suspended: Boolean = false
+        var removed: Boolean = false
+
+        val dependent: Node<*>?
+            get() = get()
+    }
+}
+
+private val NO_EDGES = arrayOfNulls<Node.Edge>(0)
+
+private class Update {
+    private var queue: MutableList<Node<*>> = mutableListOf()
+    private var processing: Boolean = false
+
+    fun queueNode(node: Node<*>) {
+        queue.add(node)
+    }
+
+    fun flush() {
+        if (processing || queue.isEmpty()) {
+            return
+        }
+
+        var exception: Throwable? = null
+
+        processing = true
+        try {
+            var i = 0
+            while (true) {
+                val node = queue.getOrNull(i) ?: break
+                try {
+                    node.update(this)
+                } catch (e: Throwable) {
+                    if (exception == null) {
+                        exception = e
+                    } else {
+                        exception.addSuppressed(e)
+                    }
+                }
+                i++
+            }
+            queue.clear()
+        } finally {
+            processing = false
+        }
+
+        if (exception != null) {
+            throw exception
+        }
+    }
+
+    companion object {
+        private val INSTANCE = ThreadLocal.withInitial { Update() }
+        fun get(): Update = INSTANCE.get()
+    }
+}
+
+private val UNREACHABLE: Observer.() -> Nothing = { error("unreachable") }
@@ -13,6 +13,7 @@ package gg.essential.gui.elementa.state.v2
 
 import gg.essential.gui.elementa.state.v2.collections.MutableTrackedList
 import gg.essential.gui.elementa.state.v2.collections.MutableTrackedSet
+import gg.essential.gui.elementa.state.v2.collections.PrefixSumList
 import gg.essential.gui.elementa.state.v2.collections.TrackedList
 import gg.essential.gui.elementa.state.v2.combinators.map
 import gg.essential.gui.elementa.state.v2.combinators.zip
@@ -46,75 +47,66 @@ fun <T> ListState<T>.toSet(): SetState<T> {
 }
 
 // mapList { it.filter(filter) }
-fun <T> ListState<T>.filter(filter: (T) -> Boolean): ListState<T> {
-    val indices = mutableListOf<Int>()
+fun <T> ListState<T>.filter(filter: (T) -> Boolean): ListState<T> =
+    filterMapChange { if (filter(it)) it else FilteredOut }
+
+/**
+ * Maps each element with [mapper], dropping all elements for which it returns [FilteredOut].
+ *
+ * Used to implement [filter], [mapEachNotNull], [filterNotNull] and [filterIsInstance].
+ * Which source elements are included is tracked in a [PrefixSumList], so updates take `O(log n)` to find the index in
+ * the result list (plus whatever the result list needs to insert/remove the element).
+ */
+@PublishedApi
+internal fun <T, U> ListState<T>.filterMapChange(mapper: (T) -> Any?): ListState<U> {
+    val included = PrefixSumList()
     return mapChange({ list ->
-        MutableTrackedList(mutableListOf<T>().also { filteredList ->
-            for (elem in list) {
-                if (filter(elem)) {
-                    indices.add(filteredList.size)
-                    filteredList.add(elem)
-                } else {
-                    indices.add(-1)
-                }
+        val weights = IntArray(list.size)
+        val result = mutableListOf<U>()
+        list.forEachIndexed { index, elem ->
+            val mapped = mapper(elem)
+            if (mapped !== FilteredOut) {
+                weights[index] = 1
+                @Suppress("UNCHECKED_CAST")
+                result.add(mapped as U)
             }
-        })
+        }
+        included.reset(weights)
+        MutableTrackedList(result)
     }) { list, change ->
         when (change) {
             is TrackedList.Add -> {
-                if (filter(change.element.value)) {
-                    val mappedIndex = if (change.element.index == indices.size) {
-                        // Fast path, add to end
-                        list.size
-                    } else {
-                        // Slow path, to find the index of the newly added element, we need to find the index
-                        // of the previous (non-filtered) element
-                        var mappedIndex = 0
-                        for (i in (0 until change.element.index).reversed()) {
-                            val index = indices[i]
-                            if (index != -1) {
-                                mappedIndex = index + 1
-                                break
-                            }
-                        }
-                        // And then also increment the index of all elements that are after it
-                        for (i in change.element.index .. indices.lastIndex) {
-                            val index = indices[i]
-                            if (index != -1) {
-                                indices[i] = index + 1
-                            }
-                        }
-                        mappedIndex
-                    }
-                    indices.add(change.element.index, mappedIndex)
-                    list.add(mappedIndex, change.element.value)
+                val index = change.element.index
+                val mapped = mapper(change.element.value)
+                if (mapped !== FilteredOut) {
+                    included.add(index, 1)
+                    @Suppress("UNCHECKED_CAST")
+                    list.add(included.prefixSum(index), mapped as U)
                 } else {
-                    indices.add(change.element.index, -1)
+                    included.add(index, 0)
                     list
                 }
             }
             is TrackedList.Remove -> {
-                val mappedIndex = indices.removeAt(change.element.index)
-                if (mappedIndex != -1) {
-                    for (i in change.element.index .. indices.lastIndex) {
-                        val index = indices[i]
-                        if (index != -1) {
-                            indices[i] = index - 1
-                        }
-                    }
-                    list.removeAt(mappedIndex)
+                val index = change.element.index
+                if (included.removeAt(index) != 0) {
+                    list.removeAt(included.prefixSum(index))
                 } else {
                     list
                 }
             }
             is TrackedList.Clear -> {
-                indices.clear()
+                included.clear()
                 list.clear()
             }
         }
     }
 }
 
+/** Marker returned by the mapper passed to [filterMapChange] for elements which should not be part of the result. */
+@PublishedApi
+internal object FilteredOut
+
 // mapList { it.map(mapper) }
 fun <T, U> ListState<T>.mapEach(mapper: (T) -> U): ListState<U> =
     mapChange({ MutableTrackedList(it.mapTo(mutableListOf(), mapper)) }) { list, change ->
@@ -126,24 +118,219 @@ fun <T, U> ListState<T>.mapEach(mapper: (T) -> U): ListState<U> =
     }
 
 
-// TODO: all of these are based on mapList and as such are quite inefficient, might make sense to implement some as efficient primitives instead
+/**
+ * Returns a list containing all elements of this list sorted according to the given [comparator].
+ *
+ * Initially, elements which compare equal are kept in the same order as in this list (same as [List.sortedWith]),
+ * elements which are added later are inserted after all elements which compare equal to them.
+ *
+ * Each update takes `O(log n)` comparisons (plus whatever the result list needs to insert/remove the element).
+ */
+fun <T> ListState<T>.sortedWith(comparator: Comparator<in T>): ListState<T> =
+    mapChange({ MutableTrackedList(it.sortedWith(comparator).toMutableList()) }) { list, change ->
+        when (change) {
+            is TrackedList.Add -> {
+                val value = change.element.value
+                // Find the first element which is strictly greater than the new one
+                var low = 0
+                var high = list.size
+                while (low < high) {
+                    val mid = (low + high) ushr 1
+                    if (comparator.compare(list[mid], value) <= 0) low = mid + 1 else high = mid
+                }
+                list.add(low, value)
+            }
+            is TrackedList.Remove -> {
+                val value = change.element.value
+                // Find the first element which is not less than the removed one
+                var low = 0
+                var high = list.size
+                while (low < high) {
+                    val mid = (low + high) ushr 1
+                    if (comparator.compare(list[mid], value) < 0) low = mid + 1 else high = mid
+                }
+                // and then the removed element among all the ones which compare equal to it
+                var index = low
+                while (list[index] != value) {
+                    index++
+                }
+                list.removeAt(index)
+            }
+            is TrackedList.Clear -> list.clear()
+        }
+    }
+
+/** Returns a list containing all elements of this list sorted by the value returned by [selector]. See [sortedWith]. */
+fun <T, R : Comparable<R>> ListState<T>.sortedBy(selector: (T) -> R?): ListState<T> =
+    sortedWith(compareBy(selector))
+
+/**
+ * Groups the elements of this list by the key returned by [keySelector].
+ *
+ * Within each group, elements are kept in the same order as in this list.
+ * Groups are kept in the order their keys were first encountered, groups for keys encountered later are added to the
+ * end. A group is removed once it becomes empty.
+ *
+ * Each group is a [TrackedList], so consumers can cheaply compute how it changed (and whether it changed at all, the
+ * list instances of unaffected groups stay the same).
+ * Every group tracks which elements of this list belong to it, so each update takes `O(k log n)` for `k` groups. This
+ * is meant for a small number of groups (e.g. categories), not for partitioning a list into many small groups.
+ */
+fun <T, K> ListState<T>.groupBy(keySelector: (T) -> K): State<Map<K, TrackedList<T>>> {
+    class Group(val members: PrefixSumList, var list: MutableTrackedList<T>)
+
+    // Key of each element in this list, so we know from which group to remove it without calling the selector again
+    val keys = mutableListOf<K>()
+    // The prefix sum of a group's members at an index of this list is the corresponding index in the group's list
+    val groups = LinkedHashMap<K, Group>()
+
+    fun snapshot(): Map<K, TrackedList<T>> = groups.entries.associateTo(LinkedHashMap()) { it.key to it.value.list }
+
+    return mapChanges({ list ->
+        groups.clear()
+        keys.clear()
+        val memberIndices = LinkedHashMap<K, MutableList<Int>>()
+        val members = LinkedHashMap<K, MutableList<T>>()
+        list.forEachIndexed { index, elem ->
+            val key = keySelector(elem)
+            keys.add(key)
+            memberIndices.getOrPut(key, ::mutableListOf).add(index)
+            members.getOrPut(key, ::mutableListOf).add(elem)
+        }
+        for ((key, indices) in memberIndices) {
+            val weights = IntArray(list.size)
+            indices.forEach { weights[it] = 1 }
+            groups[key] = Group(PrefixSumList().apply { reset(weights) }, MutableTrackedList(members.getValue(key)))
+        }
+        snapshot()
+    }) { _, changes ->
+        for (change in changes) {
+            when (change) {
+                is TrackedList.Add -> {
+                    val index = change.element.index
+                    val key = keySelector(change.element.value)
+                    keys.add(index, key)
+                    val group = groups.getOrPut(key) {
+                        Group(PrefixSumList().apply { reset(IntArray(keys.size - 1)) }, MutableTrackedList())
+                    }
+                    for ((groupKey, other) in groups) {
+                        other.members.add(index, if (groupKey == key) 1 else 0)
+                    }
+                    group.list = group.list.add(group.members.prefixSum(index), change.element.value)
+                }
+                is TrackedList.Remove -> {
+                    val index = change.element.index
+                    val key = keys.removeAt(index)
+                    val group = groups.getValue(key)
+                    for (other in groups.values) {
+                        other.members.removeAt(index)
+                    }
+                    if (group.members.sum == 0) {
+                        groups.remove(key)
+                    } else {
+                        group.list = group.list.removeAt(group.members.prefixSum(index))
+                    }
+                }
+                is TrackedList.Clear -> {
+                    keys.clear()
+                    groups.clear()
+                }
+            }
+        }
+        snapshot()
+    }
+}
+
+// TODO: these are based on mapList and as such are quite inefficient, might make sense to implement some as efficient primitives instead
+//       (though unlike the others, a single change in either input of `zipElements` may change every element)
 
 fun <T, U> ListState<T>.mapList(mapper: Observer.(List<T>) -> List<U>): ListState<U> =
     State { mapper(this@mapList()) }.toListState()
 
-fun <T, U, V> ListState<T>.zipWithEachElement(otherState: State<U>, transform: (T, U) -> V) =
-    mapList { list -> otherState().let { other -> list.map { transform(it, other) } } }
-
 fun <T, U, V> ListState<T>.zipElements(otherList: ListState<U>, transform: (T, U) -> V) =
     mapList { it.zip(otherList(), transform) }
 
-fun <T, U> ListState<T>.mapEachNotNull(mapper: (T) -> U?) = mapList { it.mapNotNull(mapper) }
+/**
+ * Combines each element of this list with the value of [otherState].
+ *
+ * If only this list changes, [transform] is only called for the newly added elements.
+ * If [otherState] changes, [transform] has to be called for all elements, but only elements for which the result
+ * differs are changed in the resulting list, so downstream combinators only need to process those.
+ */
+fun <T, U, V> ListState<T>.zipWithEachElement(otherState: State<U>, transform: (T, U) -> V): ListState<V> {
+    var trackedList: TrackedList<T>? = null
+    var trackedOther: Any? = null
+    var result = MutableTrackedList<V>()
+    return memo {
+        val newList = this@zipWithEachElement()
+        val newOther = otherState()
+        val oldList = trackedList
+        result = if (oldList == null || newOther !== trackedOther) {
+            val mapped = newList.map { transform(it, newOther) }
+            result.applyChanges(TrackedList.Change.estimate(result, mapped))
+        } else {
+            newList.getChangesSince(oldList).fold(result) { list, change ->
+                when (change) {
+                    is TrackedList.Add -> list.add(change.element.index, transform(change.element.value, newOther))
+                    is TrackedList.Remove -> list.removeAt(change.element.index)
+                    is TrackedList.Clear -> list.clear()
+                }
+            }
+        }
+        trackedList = newList
+        trackedOther = newOther
+        result
+    }
+}
+
+fun <T, U : Any> ListState<T>.mapEachNotNull(mapper: (T) -> U?): ListState<U> =
+    filterMapChange { mapper(it) ?: FilteredOut }
 
-fun <T> ListState<T?>.filterNotNull() = mapList { it.filterNotNull() }
+fun <T : Any> ListState<T?>.filterNotNull(): ListState<T> =
+    filterMapChange { it ?: FilteredOut }
 
-inline fun <reified U> ListState<*>.filterIsInstance(): ListState<U> = mapList { it.filterIsInstance<U>() }
+inline fun <reified U> ListState<*>.filterIsInstance(): ListState<U> =
+    filterMapChange { if (it is U) it else FilteredOut }
 
-fun <T, U> ListState<T>.flatMap(block: (T) -> Iterable<U>) = mapList { it.flatMap(block) }
+/**
+ * Maps each element to any number of elements and concatenates the results.
+ *
+ * The amount of elements each source element was mapped to is tracked in a [PrefixSumList], so updates take
+ * `O(log n)` to find the index in the result list (plus whatever the result list needs to insert/remove the elements).
+ */
+fun <T, U> ListState<T>.flatMap(block: (T) -> Iterable<U>): ListState<U> {
+    val counts = PrefixSumList()
+    return mapChange({ list ->
+        val weights = IntArray(list.size)
+        val result = mutableListOf<U>()
+        list.forEachIndexed { index, elem ->
+            val sizeBefore = result.size
+            result.addAll(block(elem))
+            weights[index] = result.size - sizeBefore
+        }
+        counts.reset(weights)
+        MutableTrackedList(result)
+    }) { list, change ->
+        when (change) {
+            is TrackedList.Add -> {
+                val index = change.element.index
+                val elements = block(change.element.value).toList()
+                counts.add(index, elements.size)
+                list.addAll(counts.prefixSum(index), elements)
+            }
+            is TrackedList.Remove -> {
+                val index = change.element.index
+                val count = counts.removeAt(index)
+                val offset = counts.prefixSum(index)
+                list.applyChanges(List(count) { i -> TrackedList.Remove(IndexedValue(offset, list[offset + i])) })
+            }
+            is TrackedList.Clear -> {
+                counts.clear()
+                list.clear()
+            }
+        }
+    }
+}
 
 @Deprecated("This method always applies `memo` even though it is often unnecessary. Use in-line `State` or `memo` instead.")
 fun <T> ListState<T>.isEmpty() = memo { this@isEmpty().isEmpty() }
@@ -14,8 +14,18 @@ package gg.essential.gui.elementa.state.v2
 import gg.essential.elementa.state.v2.ReferenceHolder
 import gg.essential.gui.elementa.state.v2.impl.Impl
 import gg.essential.gui.elementa.state.v2.impl.basic.MarkThenPushAndPullImpl
+import gg.essential.gui.elementa.state.v2.impl.indexed.IndexedMarkThenPushAndPullImpl
+import gg.essential.gui.elementa.state.v2.impl.legacy.LegacyImpl
+import gg.essential.gui.elementa.state.v2.impl.minimal.MarkThenPullImpl
 
-private val impl: Impl = MarkThenPushAndPullImpl
+/** The implementation used for all states, may be overwritten via system property to compare implementations. */
+private val impl: Impl = when (val name = System.getProperty("elementa.statev2.impl")) {
+    null, "basic" -> MarkThenPushAndPullImpl
+    "indexed" -> IndexedMarkThenPushAndPullImpl
+    "minimal" -> MarkThenPullImpl
+    "legacy" -> LegacyImpl
+    else -> throw IllegalArgumentException("Unknown statev2 implementation: $name")
+}
 
 /**
  * Note: This interface must not be implemented by user code. The State implementation may cast it to its internal
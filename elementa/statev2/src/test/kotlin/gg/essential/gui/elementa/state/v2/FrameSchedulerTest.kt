@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2
+
+import gg.essential.elementa.state.v2.ReferenceHolder
+import gg.essential.gui.elementa.state.v2.FrameScheduler.Priority
+import java.time.Duration
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class FrameSchedulerTest {
+    @Test
+    fun testBatchedSet() {
+        val scheduler = FrameScheduler()
+        val state = mutableStateOf(0)
+        var runs = 0
+        val unregister = effect(ReferenceHolder.Weak) { state(); runs++ }
+
+        scheduler.set(state, 1)
+        scheduler.set(state, 2)
+        scheduler.set(state, 3)
+        assertEquals(0, state.getUntracked())
+        assertEquals(1, runs)
+
+        scheduler.runFrame()
+        assertEquals(3, state.getUntracked())
+        assertEquals(2, runs)
+        assertEquals(1, scheduler.lastFrame.statesApplied)
+
+        unregister()
+    }
+
+    @Test
+    fun testImmediateEffect() {
+        val scheduler = FrameScheduler()
+        val state = mutableStateOf(0)
+        var seen = -1
+        val unregister = scheduler.effect(ReferenceHolder.Weak, Priority.Immediate) { seen = state() }
+        assertEquals(0, seen)
+        state.set(1)
+        assertEquals(1, seen)
+        unregister()
+    }
+
+    @Test
+    fun testDeferredEffect() {
+        val scheduler = FrameScheduler()
+        val state = mutableStateOf(0)
+        val seen = mutableListOf<Int>()
+        val unregister = scheduler.effect(ReferenceHolder.Weak, Priority.Deferred) { seen.add(state()) }
+
+        assertEquals(listOf(), seen)
+        assertEquals(1, scheduler.pendingEffects)
+
+        scheduler.runFrame()
+        assertEquals(listOf(0), seen)
+        assertEquals(1, scheduler.lastFrame.effectsRun)
+
+        // Multiple changes before the next frame are merged into a single run
+        state.set(1)
+        state.set(2)
+        assertEquals(listOf(0), seen)
+        scheduler.runFrame()
+        assertEquals(listOf(0, 2), seen)
+
+        // Nothing to do, nothing should run
+        scheduler.runFrame()
+        assertEquals(listOf(0, 2), seen)
+        assertEquals(0, scheduler.lastFrame.effectsRun)
+
+        unregister()
+        state.set(3)
+        scheduler.runFrame()
+        assertEquals(listOf(0, 2), seen)
+    }
+
+    @Test
+    fun testBudget() {
+        var now = 0L
+        val scheduler = FrameScheduler(Duration.ofNanos(10), nanoTime = { now })
+        val runs = IntArray(5)
+        val effects = runs.indices.map { i ->
+            scheduler.effect(ReferenceHolder.Weak, Priority.Deferred) {
+                runs[i]++
+                now += 4
+            }
+        }
+
+        // At least one effect per frame, and then as many as fit into the budget, in order of registration
+        scheduler.runFrame()
+        assertEquals(listOf(1, 1, 1, 0, 0), runs.toList())
+        assertEquals(FrameScheduler.FrameStats(3, 2, 0, 12), scheduler.lastFrame)
+
+        scheduler.runFrame()
+        assertEquals(listOf(1, 1, 1, 1, 1), runs.toList())
+        assertEquals(0, scheduler.pendingEffects)
+
+        effects.forEach { it() }
+    }
+
+    @Test
+    fun testRunLater() {
+        var now = 0L
+        val scheduler = FrameScheduler(Duration.ofNanos(10), nanoTime = { now })
+        val order = mutableListOf<String>()
+        val state = mutableStateOf(0)
+
+        scheduler.runLater { order.add("task 1"); now += 4 }
+        val unregister = scheduler.effect(ReferenceHolder.Weak, Priority.Deferred) { order.add("effect ${state()}"); now += 4 }
+        scheduler.runLater { order.add("task 2"); now += 4 }
+        scheduler.runLater { order.add("task 3"); now += 4 }
+        assertEquals(listOf(), order)
+        assertEquals(4, scheduler.pendingEffects)
+
+        // Tasks share the queue and the budget with deferred effects
+        scheduler.runFrame()
+        assertEquals(listOf("task 1", "effect 0", "task 2"), order)
+        assertEquals(FrameScheduler.FrameStats(3, 1, 0, 12), scheduler.lastFrame)
+
+        // Tasks only run once, effects run again when their dependencies change
+        state.set(1)
+        scheduler.runFrame()
+        assertEquals(listOf("task 1", "effect 0", "task 2", "task 3", "effect 1"), order)
+        scheduler.runFrame()
+        assertEquals(0, scheduler.lastFrame.effectsRun)
+
+        unregister()
+    }
+}
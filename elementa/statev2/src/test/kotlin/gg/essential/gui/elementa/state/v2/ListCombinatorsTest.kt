@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+
+class ListCombinatorsTest {
+    /** Applies a bunch of random changes to a list and checks that [combinator] always matches [expected]. */
+    private fun <T> checkRandomChanges(combinator: (ListState<Int>) -> State<T>, expected: (List<Int>) -> T) {
+        val random = Random(42)
+        val source = mutableListStateOf(*Array(50) { random.nextInt(20) })
+        val result = combinator(source)
+        assertEquals(expected(source.getUntracked()), result.getUntracked())
+        repeat(500) { step ->
+            val list = source.getUntracked()
+            when (random.nextInt(10)) {
+                0 -> source.clear()
+                1, 2, 3 -> if (list.isNotEmpty()) source.removeAt(random.nextInt(list.size))
+                4, 5 -> if (list.isNotEmpty()) source.set(random.nextInt(list.size), random.nextInt(20))
+                6 -> source.setAll(list.shuffled(random))
+                else -> source.add(random.nextInt(list.size + 1), random.nextInt(20))
+            }
+            assertEquals(expected(source.getUntracked()), result.getUntracked(), "After step $step")
+        }
+    }
+
+    @Test
+    fun testFilter() = checkRandomChanges({ it.filter { it % 3 == 0 } }, { it.filter { it % 3 == 0 } })
+
+    @Test
+    fun testMapEachNotNull() = checkRandomChanges(
+        { it.mapEachNotNull { if (it % 2 == 0) it * 10 else null } },
+        { it.mapNotNull { if (it % 2 == 0) it * 10 else null } },
+    )
+
+    @Test
+    fun testFilterNotNull() = checkRandomChanges(
+        { it.mapEach { if (it % 2 == 0) null else it }.filterNotNull() },
+        { it.filter { it % 2 != 0 } },
+    )
+
+    @Test
+    fun testFilterIsInstance() = checkRandomChanges(
+        { it.mapEach<Int, Any> { if (it % 2 == 0) "$it" else it }.filterIsInstance<String>() },
+        { list -> list.filter { it % 2 == 0 }.map { "$it" } },
+    )
+
+    @Test
+    fun testFlatMap() = checkRandomChanges(
+        { it.flatMap { List(it % 4) { i -> it * 10 + i } } },
+        { it.flatMap { List(it % 4) { i -> it * 10 + i } } },
+    )
+
+    @Test
+    fun testSortedBy() = checkRandomChanges(
+        // Ties may be in a different order than with a full sort, so we compare the order of keys and the elements
+        { it.sortedBy { it % 7 }.let { sorted -> State { sorted().map { it % 7 } to sorted().sorted() } } },
+        { it.map { it % 7 }.sorted() to it.sorted() },
+    )
+
+    @Test
+    fun testGroupBy() = checkRandomChanges({ it.groupBy { it % 5 } }, { it.groupBy { it % 5 } })
+
+    @Test
+    fun testGroupByKeepsUnaffectedGroups() {
+        val source = mutableListStateOf(1, 2, 3, 4)
+        val groups = source.groupBy { it % 2 }
+        val before = groups.getUntracked()
+        assertEquals(listOf(1, 0), before.keys.toList())
+
+        source.add(5)
+        val after = groups.getUntracked()
+        assertEquals(listOf(1, 3, 5), after[1]?.toList())
+        assertSame(before[0], after[0])
+
+        source.removeAll { it % 2 == 1 }
+        assertEquals(mapOf(0 to listOf(2, 4)), groups.getUntracked())
+    }
+
+    @Test
+    fun testZipWithEachElement() {
+        val source = mutableListStateOf(1, 2, 3)
+        val other = mutableStateOf(10)
+        var calls = 0
+        val zipped = source.zipWithEachElement(other) { a, b -> calls++; a + b }
+        assertEquals(listOf(11, 12, 13), zipped.getUntracked())
+        assertEquals(3, calls)
+
+        source.add(1, 5)
+        assertEquals(listOf(11, 15, 12, 13), zipped.getUntracked())
+        assertEquals(4, calls, "only the new element should have been transformed")
+
+        source.removeAt(0)
+        assertEquals(listOf(15, 12, 13), zipped.getUntracked())
+        assertEquals(4, calls, "removal should not require any transformations")
+
+        other.set(20)
+        assertEquals(listOf(25, 22, 23), zipped.getUntracked())
+        assertEquals(7, calls)
+    }
+
+    @Test
+    fun testZipWithEachElementOnlyChangesDifferentElements() {
+        val source = mutableListStateOf(1, 2, 3, 4)
+        val threshold = mutableStateOf(2)
+        val zipped = source.zipWithEachElement(threshold) { a, b -> a > b }
+        val before = zipped.getUntracked()
+
+        threshold.set(3)
+        val after = zipped.getUntracked()
+        assertEquals(listOf(false, false, false, true), after)
+        assertEquals(2, after.getChangesSince(before).count(), "expected a single replacement")
+    }
+
+    @Test
+    fun testZipWithEachElementRandom() {
+        val other = mutableStateOf(3)
+        checkRandomChanges({ it.zipWithEachElement(other) { a, b -> a * b } }, { list -> list.map { it * 3 } })
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2.collections
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class PrefixSumListTest {
+    private fun PrefixSumList.check(expected: List<Int>) {
+        assertEquals(expected.size, size)
+        assertEquals(expected.sum(), sum)
+        for (i in expected.indices) {
+            assertEquals(expected[i], this[i])
+        }
+        for (i in 0..expected.size) {
+            assertEquals(expected.subList(0, i).sum(), prefixSum(i), "prefixSum($i) of $expected")
+        }
+    }
+
+    @Test
+    fun testReset() {
+        val list = PrefixSumList()
+        list.check(listOf())
+        list.reset(intArrayOf(1, 0, 2, 0, 3))
+        list.check(listOf(1, 0, 2, 0, 3))
+        list.clear()
+        list.check(listOf())
+    }
+
+    @Test
+    fun testRandomChanges() {
+        val random = Random(42)
+        val expected = MutableList(100) { random.nextInt(3) }
+        val list = PrefixSumList()
+        list.reset(expected.toIntArray())
+        repeat(1000) {
+            when (random.nextInt(3)) {
+                0 -> if (expected.isNotEmpty()) {
+                    val index = random.nextInt(expected.size)
+                    assertEquals(expected.removeAt(index), list.removeAt(index))
+                }
+                1 -> if (expected.isNotEmpty()) {
+                    val index = random.nextInt(expected.size)
+                    val weight = random.nextInt(3)
+                    assertEquals(expected.set(index, weight), list.set(index, weight))
+                }
+                else -> {
+                    val index = random.nextInt(expected.size + 1)
+                    val weight = random.nextInt(3)
+                    expected.add(index, weight)
+                    list.add(index, weight)
+                }
+            }
+            list.check(expected)
+        }
+    }
+}
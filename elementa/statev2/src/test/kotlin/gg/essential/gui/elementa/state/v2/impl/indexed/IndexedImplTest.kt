@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.state.v2.impl.indexed
+
+import gg.essential.elementa.state.v2.ReferenceHolder
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class IndexedImplTest {
+    private val impl = IndexedMarkThenPushAndPullImpl
+
+    @Test
+    fun testManyDependents() {
+        val shared = impl.mutableState(0)
+
+        val seen = IntArray(500)
+        val unregisters = (seen.indices).map { i ->
+            impl.effect(ReferenceHolder.Weak) {
+                seen[i] = shared() + shared() // observed twice, must still only result in a single edge
+            }
+        }
+        assertEquals(List(seen.size) { 0 }, seen.toList())
+
+        shared.set(1)
+        assertEquals(List(seen.size) { 2 }, seen.toList())
+
+        // Unregister every other effect, remaining ones should continue to be updated in order
+        unregisters.filterIndexed { i, _ -> i % 2 == 0 }.forEach { it() }
+        shared.set(2)
+        assertEquals(List(seen.size) { if (it % 2 == 0) 2 else 4 }, seen.toList())
+
+        unregisters.filterIndexed { i, _ -> i % 2 == 1 }.forEach { it() }
+        shared.set(3)
+        assertEquals(List(seen.size) { if (it % 2 == 0) 2 else 4 }, seen.toList())
+    }
+
+    @Test
+    fun testEffectOrderIsPreserved() {
+        val shared = impl.mutableState(0)
+
+        val order = mutableListOf<Int>()
+        val unregisters = (0 until 20).map { i ->
+            impl.effect(ReferenceHolder.Weak) {
+                shared()
+                order.add(i)
+            }
+        }
+        (0 until 20 step 3).forEach { unregisters[it]() }
+
+        order.clear()
+        shared.set(1)
+        assertEquals((0 until 20).filter { it % 3 != 0 }, order)
+    }
+
+    @Test
+    fun testChangingDependencies() {
+        val a = impl.mutableState(1)
+        val b = impl.mutableState(10)
+        val useA = impl.mutableState(true)
+
+        var runs = 0
+        var result = 0
+        val memo = impl.memo { if (useA()) a() else b() }
+        impl.effect(ReferenceHolder.Weak) {
+            runs++
+            result = memo()
+        }
+        assertEquals(1, result)
+
+        useA.set(false)
+        assertEquals(10, result)
+        assertEquals(2, runs)
+
+        // `a` is no longer a dependency, so changing it must not re-run anything
+        a.set(2)
+        assertEquals(2, runs)
+
+        b.set(11)
+        assertEquals(11, result)
+        assertEquals(3, runs)
+
+        useA.set(true)
+        assertEquals(2, result)
+        b.set(12)
+        assertEquals(2, result)
+        assertEquals(4, runs)
+    }
+}
@@ -273,8 +273,9 @@ class EssentialMarkdown(
 
     /**
      * This class stores the values of the important constraints of this
-     * component. If these values change between frames, we need to do a
-     * complete re-layout of the entire markdown tree.
+     * component. If these values change between frames, we need to
+     * re-layout the entire markdown tree (though paragraphs whose line
+     * breaks do not change will merely be moved, see ParagraphDrawable).
      */
     data class ConstraintValues(
         val width: Float,
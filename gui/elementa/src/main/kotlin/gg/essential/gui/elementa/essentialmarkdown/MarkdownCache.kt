@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.elementa.essentialmarkdown
+
+import gg.essential.gui.elementa.essentialmarkdown.ext.colorattribute.ColorAttributeExtension
+import org.commonmark.ext.gfm.strikethrough.StrikethroughExtension
+import org.commonmark.ext.ins.InsExtension
+import org.commonmark.node.*
+import org.commonmark.parser.Parser
+
+/**
+ * Shared cache of parsed markdown documents.
+ *
+ * The same text is frequently parsed many times over (e.g. chat messages which are re-created when scrolling, or
+ * every [EssentialMarkdown] which shows the same changelog), so we keep the most recently used [maxSize] documents
+ * around, keyed on the text and the parts of the [MarkdownConfig] which affect parsing.
+ * Parsers are likewise shared between all components with the same set of enabled block types.
+ *
+ * The returned documents are shared and must not be modified.
+ */
+internal object MarkdownCache {
+    private const val maxSize = 256
+
+    private val OPENING_COLOR_TAG_REGEX = "<(color:#[0-9a-fA-F]{6,})>".toRegex()
+    private val CLOSING_COLOR_TAG_REGEX = "</(color)>".toRegex()
+
+    private val extensions = listOf(
+        StrikethroughExtension.create(),
+        InsExtension.create(),
+        ColorAttributeExtension.create(),
+    )
+
+    private val parsers = mutableMapOf<Set<Class<out Block>>, Parser>()
+
+    private val documents = object : LinkedHashMap<Key, Node>(maxSize, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Node>?): Boolean = size > maxSize
+    }
+
+    fun parse(text: String, config: MarkdownConfig): Node {
+        val key = Key(text, enabledBlockTypes(config))
+        synchronized(this) {
+            documents[key]?.let { return it }
+        }
+
+        // This is a bit of a workaround for the fact that a delimiter processor extension (see ColorAttributeDelimiterProcessor)
+        // cannot share the same opening/closing characters as another delimiter processor extension.
+        val replacedText = text
+            .replace(OPENING_COLOR_TAG_REGEX, "{$1}")
+            .replace(CLOSING_COLOR_TAG_REGEX, "{$1}")
+
+        val document = parser(key.enabledBlockTypes).parse(replacedText)
+        synchronized(this) {
+            documents[key] = document
+        }
+        return document
+    }
+
+    private fun parser(enabledBlockTypes: Set<Class<out Block>>): Parser = synchronized(this) {
+        parsers.getOrPut(enabledBlockTypes) {
+            Parser.builder()
+                .extensions(extensions)
+                .enabledBlockTypes(enabledBlockTypes)
+                .build()
+        }
+    }
+
+    private fun enabledBlockTypes(config: MarkdownConfig): Set<Class<out Block>> {
+        val enabledBlockTypes = mutableSetOf<Class<out Block>>()
+        with(enabledBlockTypes) {
+            if (config.headerConfig.enabled) add(Heading::class.java)
+            if (config.codeBlockConfig.enabled) {
+                add(FencedCodeBlock::class.java)
+                add(IndentedCodeBlock::class.java)
+            }
+            if (config.blockquoteConfig.enabled) add(BlockQuote::class.java)
+            if (config.listConfig.enabled) add(ListBlock::class.java)
+        }
+        return enabledBlockTypes
+    }
+
+    private data class Key(val text: String, val enabledBlockTypes: Set<Class<out Block>>)
+}
@@ -12,14 +12,10 @@
 package gg.essential.gui.elementa.essentialmarkdown
 
 import gg.essential.gui.elementa.essentialmarkdown.ext.colorattribute.ColorAttribute
-import gg.essential.gui.elementa.essentialmarkdown.ext.colorattribute.ColorAttributeExtension
 import gg.essential.gui.elementa.essentialmarkdown.drawables.*
 import org.commonmark.ext.gfm.strikethrough.Strikethrough
-import org.commonmark.ext.gfm.strikethrough.StrikethroughExtension
 import org.commonmark.ext.ins.Ins
-import org.commonmark.ext.ins.InsExtension
 import org.commonmark.node.*
-import org.commonmark.parser.Parser
 import java.awt.Color
 import java.net.MalformedURLException
 import java.net.URL
@@ -52,29 +48,7 @@ private class MarkdownRendererImpl(
     }
 
     fun render(): DrawableList {
-        val enabledBlockTypes = mutableSetOf<Class<out Block>>()
-        with(enabledBlockTypes) {
-            if (config.headerConfig.enabled) add(Heading::class.java)
-            if (config.codeBlockConfig.enabled) {
-                add(FencedCodeBlock::class.java)
-                add(IndentedCodeBlock::class.java)
-            }
-            if (config.blockquoteConfig.enabled) add(BlockQuote::class.java)
-            if (config.listConfig.enabled) add(ListBlock::class.java)
-        }
-
-        // This is a bit of a workaround for the fact that a delimiter processor extension (see ColorAttributeDelimiterProcessor)
-        // cannot share the same opening/closing characters as another delimiter processor extension.
-        val replacedText = text
-            .replace(OPENING_COLOR_TAG_REGEX, "{$1}")
-            .replace(CLOSING_COLOR_TAG_REGEX, "{$1}")
-
-        val document = Parser.builder()
-            .extensions(extensions)
-            .enabledBlockTypes(enabledBlockTypes)
-            .build()
-            .parse(replacedText)
-
+        val document = MarkdownCache.parse(text, config)
         document.accept(this)
         return DrawableList(md, drawables)
     }
@@ -274,15 +248,4 @@ private class MarkdownRendererImpl(
             linkLocation
         )
     }
-
-    companion object {
-        val OPENING_COLOR_TAG_REGEX = "<(color:#[0-9a-fA-F]{6,})>".toRegex()
-        val CLOSING_COLOR_TAG_REGEX = "</(color)>".toRegex()
-
-        private val extensions = listOf(
-            StrikethroughExtension.create(),
-            InsExtension.create(),
-            ColorAttributeExtension.create(),
-        )
-    }
 }
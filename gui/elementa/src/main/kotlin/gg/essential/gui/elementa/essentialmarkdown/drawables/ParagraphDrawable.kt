@@ -17,6 +17,7 @@ import gg.essential.elementa.utils.withAlpha
 import gg.essential.gui.elementa.essentialmarkdown.DrawState
 import gg.essential.gui.elementa.essentialmarkdown.HeaderLevelConfig
 import gg.essential.gui.elementa.essentialmarkdown.EssentialMarkdown
+import gg.essential.gui.elementa.essentialmarkdown.MarkdownConfig
 import gg.essential.gui.elementa.essentialmarkdown.selection.Cursor
 import gg.essential.gui.elementa.essentialmarkdown.selection.ImageCursor
 import gg.essential.gui.elementa.essentialmarkdown.selection.TextCursor
@@ -27,6 +28,9 @@ import java.net.URI
 import java.net.URISyntaxException
 import kotlin.math.abs
 import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.nextUp
 
 class ParagraphDrawable(
     md: EssentialMarkdown,
@@ -62,12 +66,57 @@ class ParagraphDrawable(
             }
         }
 
+    // The range of widths (start inclusive, end exclusive) for which the line breaks of the last layout remain the
+    // same, as well as all other inputs to that layout. See [reuseLayout].
+    private var reuseMinWidth = 0f
+    private var reuseMaxWidth = Float.NEGATIVE_INFINITY
+    private var reuseKey: ReuseKey? = null
+
     init {
         originalDrawables.parent = this
         drawables.parent = this
     }
 
+    /**
+     * If the line breaks for the given [width] are the same as for the previous layout, we can simply move the
+     * existing drawables instead of running the (fairly expensive) line breaking again. This is particularly useful
+     * when the markdown component is being resized, as most paragraphs will not change at all most of the time.
+     */
+    private fun reuseLayout(x: Float, y: Float, width: Float, key: ReuseKey): Layout? {
+        if (key != reuseKey || width < reuseMinWidth || width >= reuseMaxWidth) {
+            return null
+        }
+
+        val previous = layout
+        val dx = x - previous.x + if (config.paragraphConfig.centered) (width - previous.width) / 2f else 0f
+        val dy = y - previous.y
+        for (drawable in drawables) {
+            drawable.x += dx
+            drawable.y += dy
+        }
+
+        return Layout(x, y, width, previous.height, previous.margin.copy())
+    }
+
     override fun layoutImpl(x: Float, y: Float, width: Float): Layout {
+        val key = ReuseKey(insertSpaceBefore, insertSpaceAfter, scaleModifier, md.getTextScale(), config)
+        reuseLayout(x, y, width, key)?.let { return it }
+
+        // Invalidated until we've successfully computed the new layout
+        reuseKey = null
+        var reuseMinWidth = 0f
+        var reuseMaxWidth = Float.POSITIVE_INFINITY
+
+        // Records that the layout is only the same if the line has at least `usedWidth` available
+        fun requireFits(usedWidth: Float) {
+            reuseMinWidth = max(reuseMinWidth, usedWidth)
+        }
+
+        // Records that the layout is only the same if the line has less than `usedWidth` available
+        fun requireOverflows(usedWidth: Float) {
+            reuseMaxWidth = min(reuseMaxWidth, usedWidth)
+        }
+
         val marginTop = if (insertSpaceBefore) config.paragraphConfig.spaceBefore else 0f
         val marginBottom = if (insertSpaceAfter) config.paragraphConfig.spaceAfter else 0f
 
@@ -123,6 +172,23 @@ class ParagraphDrawable(
             newDrawables.add(drawable)
         }
 
+        fun isLineFull(): Boolean {
+            val usedWidth = width - widthRemaining
+            return if (widthRemaining <= 0) {
+                requireOverflows(usedWidth.nextUp())
+                true
+            } else {
+                requireFits(usedWidth.nextUp())
+                false
+            }
+        }
+
+        fun requireSameSplit(target: TextDrawable, maxWidth: Float, breakWords: Boolean = false) {
+            val (minWidth, maxWidthExclusive) = target.splitWidthRange(maxWidth, breakWords)
+            requireFits(width - maxWidth + minWidth)
+            requireOverflows(width - maxWidth + maxWidthExclusive)
+        }
+
         fun checkThenTrimTextDrawable(textDrawable: TextDrawable) {
             if (trimNextText) {
                 textDrawable.ensureTrimmed()
@@ -158,7 +224,7 @@ class ParagraphDrawable(
                         }
                     }
                     layout(newText, newText.width())
-                    if (widthRemaining <= 0)
+                    if (isLineFull())
                         gotoNextLine()
                     trimNextText = true
                 }
@@ -166,6 +232,8 @@ class ParagraphDrawable(
             }
 
             if (text is ImageDrawable) {
+                // Images always take up the full width, so we can never re-use the layout
+                requireOverflows(Float.NEGATIVE_INFINITY)
                 gotoNextLine()
                 layout(text, width)
                 gotoNextLine()
@@ -186,11 +254,14 @@ class ParagraphDrawable(
                 if (targetWidth <= widthRemaining) {
                     // We can just layout this text drawable inline, next to the last one
                     layout(target, targetWidth)
-                    if (widthRemaining <= 0)
+                    requireFits(width - widthRemaining)
+                    if (isLineFull())
                         gotoNextLine()
                     break
                 }
+                requireOverflows(width - widthRemaining + targetWidth)
 
+                requireSameSplit(target, widthRemaining)
                 val splitResult = target.split(widthRemaining)
                 if (splitResult != null) {
                     // We successfully split the text component up. Draw the
@@ -217,6 +288,8 @@ class ParagraphDrawable(
                 // continue this splitting loop
 
                 if (targetWidth > width) {
+                    requireOverflows(targetWidth)
+                    requireSameSplit(target, width)
                     val splitResult2 = target.split(width)
 
                     if (splitResult2 == null) {
@@ -225,6 +298,7 @@ class ParagraphDrawable(
                         // boundary. In this case we opt to split again, breaking
                         // words if we have to. We run split twice here, but as
                         // this is a rare edge case, it's not a problem.
+                        requireSameSplit(target, width, breakWords = true)
                         val splitResult3 = target.split(width, breakWords = true) ?: throw IllegalStateException(
                             "MarkdownComponent's width (${md.getWidth()}) is too small to render its content"
                         )
@@ -249,6 +323,7 @@ class ParagraphDrawable(
                 }
 
                 // We can draw the target on the next line
+                requireFits(targetWidth)
                 checkThenTrimTextDrawable(target)
                 layout(target, targetWidth)
                 break
@@ -287,6 +362,10 @@ class ParagraphDrawable(
         val height = (if (currentLine.isNotEmpty()) currY else prevY) - y + 9f * scaleModifier +
                 if (insertSpaceAfter) config.paragraphConfig.spaceAfter else 0f
 
+        this.reuseMinWidth = reuseMinWidth
+        this.reuseMaxWidth = reuseMaxWidth
+        this.reuseKey = key
+
         return Layout(
             x,
             y,
@@ -448,6 +527,14 @@ class ParagraphDrawable(
         }.joinToString(separator = " ") { it.selectedText(asMarkdown) }
     }
 
+    private data class ReuseKey(
+        val insertSpaceBefore: Boolean,
+        val insertSpaceAfter: Boolean,
+        val scaleModifier: Float,
+        val textScale: Float,
+        val config: MarkdownConfig,
+    )
+
     private val rc = randomColor().withAlpha(100)
 
     private fun randomColor(): Color {
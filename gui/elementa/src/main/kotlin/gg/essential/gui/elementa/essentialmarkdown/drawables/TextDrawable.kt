@@ -80,32 +80,15 @@ class TextDrawable(
     // break a word. This means that the drawable should just be drawn on
     // the next line
     fun split(maxWidth: Float, breakWords: Boolean = false): Pair<TextDrawable, TextDrawable>? {
-        val styleChars = style.numFormattingChars
         val plainText = plainText()
 
         if (plainText.length <= 1) {
             return null
         }
 
-        var splitPoint = formattedText.indices.drop(styleChars).firstOrNull {
-            formattedText.substring(0, it + 1).width(scaleModifier) > maxWidth
-        } ?: throw IllegalStateException("TextDrawable#split called when it should not have been called")
-
-        splitPoint -= styleChars
-
-        if (!breakWords) {
-            while (splitPoint > styleChars && formattedText[splitPoint] != ' ') {
-                splitPoint--
-            }
-
-            if (splitPoint == styleChars) {
-                return null
-            }
-        }
-
-        if (splitPoint <= 0) {
-            splitPoint = 1
-        }
+        val overflowIndex = overflowIndex(maxWidth)
+            ?: throw IllegalStateException("TextDrawable#split called when it should not have been called")
+        val splitPoint = splitPoint(overflowIndex, breakWords) ?: return null
 
         val first = TextDrawable(md, plainText.substring(0, splitPoint).trimEnd(), style)
         val second = TextDrawable(md, plainText.substring(splitPoint, plainText.length), style)
@@ -129,6 +112,76 @@ class TextDrawable(
         return first to second
     }
 
+    /**
+     * Returns the range of `maxWidth` values (start inclusive, end exclusive) for which [split] splits this drawable
+     * at the same point (or fails to split it) as it does for the given [maxWidth].
+     * Used by [ParagraphDrawable] to determine whether its line breaks change when its width changes.
+     */
+    internal fun splitWidthRange(maxWidth: Float, breakWords: Boolean = false): Pair<Float, Float> {
+        if (plainText().length <= 1) {
+            return Float.NEGATIVE_INFINITY to Float.POSITIVE_INFINITY
+        }
+        val overflowIndex = overflowIndex(maxWidth)
+            ?: return prefixWidth(formattedText.length) to Float.POSITIVE_INFINITY
+        val splitPoint = splitPoint(overflowIndex, breakWords)
+
+        val styleChars = style.numFormattingChars
+        var first = overflowIndex
+        while (first > styleChars && splitPoint(first - 1, breakWords) == splitPoint) {
+            first--
+        }
+        var last = overflowIndex
+        while (last < formattedText.lastIndex && splitPoint(last + 1, breakWords) == splitPoint) {
+            last++
+        }
+
+        val min = if (first == styleChars) Float.NEGATIVE_INFINITY else prefixWidth(first)
+        return min to prefixWidth(last + 1)
+    }
+
+    private fun prefixWidth(length: Int) = formattedText.substring(0, length).width(scaleModifier)
+
+    private var lastOverflowMaxWidth = Float.NaN
+    private var lastOverflowScale = Float.NaN
+    private var lastOverflowText: String? = null
+    private var lastOverflowIndex: Int? = null
+
+    // Index of the first character which no longer fits into the given width.
+    // The last result is cached because ParagraphDrawable calls both [splitWidthRange] and [split] with the same width.
+    private fun overflowIndex(maxWidth: Float): Int? {
+        if (maxWidth == lastOverflowMaxWidth && scaleModifier == lastOverflowScale && formattedText === lastOverflowText) {
+            return lastOverflowIndex
+        }
+        return formattedText.indices.drop(style.numFormattingChars).firstOrNull { prefixWidth(it + 1) > maxWidth }
+            .also {
+                lastOverflowMaxWidth = maxWidth
+                lastOverflowScale = scaleModifier
+                lastOverflowText = formattedText
+                lastOverflowIndex = it
+            }
+    }
+
+    private fun splitPoint(overflowIndex: Int, breakWords: Boolean): Int? {
+        val styleChars = style.numFormattingChars
+        var splitPoint = overflowIndex - styleChars
+
+        if (!breakWords) {
+            while (splitPoint > styleChars && formattedText[splitPoint] != ' ') {
+                splitPoint--
+            }
+
+            if (splitPoint == styleChars) {
+                return null
+            }
+        }
+
+        if (splitPoint <= 0) {
+            splitPoint = 1
+        }
+
+        return splitPoint
+    }
+
     override fun layoutImpl(x: Float, y: Float, width: Float): Layout {
         return Layout(
             x,
@@ -16,6 +16,7 @@ plugins {
     kotlin("jvm")
     id("org.jetbrains.kotlin.plugin.serialization")
     id("gg.essential.defaults")
+    id("me.champeau.jmh")
 }
 
 universalLibs()
@@ -48,3 +49,17 @@ kotlin.compilerOptions.moduleName.set("essential" + project.path.replace(':', '-
 tasks.test {
     useJUnitPlatform()
 }
+
+// Run with `./gradlew :gui:essential:jmh`, optionally with `-Pjmh.includes=<regex>` to only run some benchmarks.
+jmh {
+    jmhVersion.set("1.37")
+    (findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+}
+
+// Prints a summary of the P2P transport's performance under various network conditions, see TransportReport.kt
+tasks.register<JavaExec>("transportReport") {
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("gg.essential.network.connectionmanager.ice.TransportReportKt")
+    // See IceConnectBenchmark
+    jvmArgs("-Dkotlinx.coroutines.io.parallelism=1024")
+}
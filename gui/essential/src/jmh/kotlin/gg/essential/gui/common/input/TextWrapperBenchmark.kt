@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.common.input
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State as JmhState
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Simulates typing into the middle of a long chat message, comparing re-wrapping the whole message on every key press
+ * ([fullWrap]) with only re-wrapping the lines around the edit ([rewrap]).
+ */
+@JmhState(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TextWrapperBenchmark {
+    @Param("10000")
+    @JvmField
+    var length: Int = 0
+
+    // Roughly the width of the chat input in characters
+    @Param("320")
+    @JvmField
+    var width: Float = 0f
+
+    private val wrapper = TextWrapper { ch -> if (ch == 'i' || ch == 'l' || ch == ' ') 2f else 6f }
+
+    private lateinit var text: StringBuilder
+    private lateinit var lineStarts: IntArray
+    private var cursor = 0
+
+    @Setup(Level.Iteration)
+    fun setup() {
+        val random = Random(42)
+        text = StringBuilder(length * 2)
+        while (text.length < length) {
+            repeat(random.nextInt(1, 10)) { text.append('a' + random.nextInt(26)) }
+            text.append(' ')
+        }
+        lineStarts = wrapper.wrap(text.toString(), width)
+        cursor = length / 2
+    }
+
+    private fun type(): String {
+        // Resetting the text here (rather than only per iteration) keeps its length, and therefore the cost of each
+        // operation, bounded regardless of how many operations fit into an iteration.
+        if (text.length >= length * 2) {
+            setup()
+        }
+        text.insert(cursor, if (cursor % 6 == 5) ' ' else 'x')
+        cursor++
+        return text.toString()
+    }
+
+    @Benchmark
+    fun fullWrap(): IntArray {
+        val str = type()
+        lineStarts = wrapper.wrap(str, width)
+        return lineStarts
+    }
+
+    @Benchmark
+    fun rewrap(): IntArray {
+        val str = type()
+        val editStart = cursor - 1
+        lineStarts = wrapper.rewrap(lineStarts, str, editStart, editStart, editStart + 1, width)
+        return lineStarts
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.ice
+
+import gg.essential.quic.backend.QuicProfile
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State as JmhState
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the P2P transport of hosted worlds (ICE + pseudo-TCP) between two in-process agents over loopback, see
+ * [LoopbackTransport].
+ *
+ * - [transferMegabyte] is the steady-state throughput (time per MB); run with `-prof gc` for allocations per MB.
+ * - [oneWayLatency] sends a single small message, run in [Mode.SampleTime] to get p50/p99.
+ * - [worldJoinBurst] is a large burst of chunk-sized messages, like the one sent when joining a world.
+ *
+ * Each is run with ice4j's default [PseudoTcpChannel.LEGACY_WINDOW_SIZE] and the experimental
+ * [PseudoTcpChannel.LARGE_WINDOW_SIZE].
+ *
+ * For a quick human-readable summary of all numbers, see [main] in `TransportReport.kt` instead.
+ */
+@JmhState(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+open class IceLoopbackBenchmark {
+    @Param("none", "lan", "wifi")
+    @JvmField
+    var impairment: String = ""
+
+    @Param("61440", "524288")
+    @JvmField
+    var window: Int = 0
+
+    private lateinit var transport: LoopbackTransport
+
+    @Setup
+    fun setup() {
+        transport = runBlocking { LoopbackTransport.connect(Impairment.byName(impairment), window) }
+    }
+
+    @TearDown
+    fun tearDown() {
+        transport.close()
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    fun transferMegabyte() = runBlocking {
+        transport.transfer(1 shl 20, MESSAGE_SIZE)
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    fun oneWayLatency() = runBlocking {
+        transport.transfer(SMALL_MESSAGE_SIZE, SMALL_MESSAGE_SIZE)
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    fun worldJoinBurst() = runBlocking {
+        transport.transfer(BURST_SIZE, MESSAGE_SIZE)
+    }
+
+    companion object {
+        /** Roughly the size of a chunk packet. */
+        const val MESSAGE_SIZE = 1024
+        /** Roughly the size of a movement packet. */
+        const val SMALL_MESSAGE_SIZE = 32
+        /** Roughly the amount of chunk data sent when joining a world with a moderate render distance. */
+        const val BURST_SIZE = 8 shl 20
+    }
+}
+
+/**
+ * Measures how long it takes two agents to establish a connection (connectivity checks plus the pseudo-TCP handshake),
+ * and how long until they have nominated their final pair, including on machines with many network interfaces
+ * (see [LoopbackTransport] for how those are simulated).
+ */
+@JmhState(Scope.Benchmark)
+// Host sockets block one IO thread each and are kept for a while after the agent is done with them (to release TURN
+// allocations), so with many interfaces per iteration, the default limit of 64 IO threads is quickly exhausted.
+@Fork(1, jvmArgsAppend = ["-Dkotlinx.coroutines.io.parallelism=1024"])
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class IceConnectBenchmark {
+    @Param("none", "lan", "wifi")
+    @JvmField
+    var impairment: String = ""
+
+    @Param("1", "8")
+    @JvmField
+    var interfaces: Int = 0
+
+    @Param("0", "16")
+    @JvmField
+    var unreachableCandidates: Int = 0
+
+    @Benchmark
+    fun connect() = runBlocking {
+        LoopbackTransport.connect(Impairment.byName(impairment), interfaces = interfaces, unreachableCandidates = unreachableCandidates).close()
+    }
+
+    @Benchmark
+    fun connectAndNominate() = runBlocking {
+        LoopbackTransport.connect(Impairment.byName(impairment), interfaces = interfaces, unreachableCandidates = unreachableCandidates).use {
+            it.nominationTime.await()
+        }
+    }
+}
+
+/**
+ * Compares the [QuicProfile]s on top of the same loopback ICE connection as [IceLoopbackBenchmark], including under
+ * simulated loss.
+ */
+@JmhState(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+open class QuicLoopbackBenchmark {
+    @Param("lan", "wifi", "mobile")
+    @JvmField
+    var impairment: String = ""
+
+    @Param("default", "low-latency", "bulk-join", "constrained-uplink")
+    @JvmField
+    var profile: String = ""
+
+    private lateinit var transport: LoopbackTransport
+
+    @Setup
+    fun setup() {
+        transport = runBlocking {
+            LoopbackTransport.connect(Impairment.byName(impairment), quicProfile = QuicProfile.PROFILES.getValue(profile))
+        }
+    }
+
+    @TearDown
+    fun tearDown() {
+        transport.close()
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    fun oneWayLatency() = runBlocking {
+        transport.transfer(IceLoopbackBenchmark.SMALL_MESSAGE_SIZE, IceLoopbackBenchmark.SMALL_MESSAGE_SIZE)
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    fun worldJoinBurst() = runBlocking {
+        transport.transfer(IceLoopbackBenchmark.BURST_SIZE, IceLoopbackBenchmark.MESSAGE_SIZE)
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.ice
+
+import gg.essential.ice.CandidateManager
+import gg.essential.ice.CandidateType
+import gg.essential.ice.IceAgent
+import gg.essential.ice.LocalCandidate
+import gg.essential.ice.RemoteCandidateImpl
+import gg.essential.ice.TransportMetrics
+import gg.essential.ice.stun.StunAttribute
+import gg.essential.ice.stun.StunClass
+import gg.essential.ice.stun.StunMessage
+import gg.essential.ice.stun.StunManager
+import gg.essential.ice.stun.StunType
+import gg.essential.quic.backend.QuicProfile
+import gg.essential.quic.backend.QuicStats
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExecutorCoroutineDispatcher
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.plus
+import kotlinx.coroutines.withTimeout
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.lang.management.ManagementFactory
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.concurrent.Executors
+import kotlin.random.Random
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.ZERO
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.nanoseconds
+import kotlin.time.Duration.Companion.seconds
+import kotlin.time.TimeSource
+
+/**
+ * Conditions applied to every packet travelling between the two agents of a [LoopbackTransport], in both directions.
+ *
+ * Packets are dropped with probability [loss], otherwise delayed by [delay] plus/minus up to [jitter] (so jitter
+ * larger than the packet interval will reorder packets on its own). With probability [reorder], a packet is held back
+ * for an additional [delay] + [jitter], so packets sent after it will overtake it.
+ */
+data class Impairment(
+    val delay: Duration = ZERO,
+    val jitter: Duration = ZERO,
+    val loss: Double = 0.0,
+    val reorder: Double = 0.0,
+) {
+    companion object {
+        val profiles: Map<String, Impairment> = linkedMapOf(
+            "none" to Impairment(),
+            "lan" to Impairment(delay = 1.milliseconds, jitter = 0.5.milliseconds),
+            "wifi" to Impairment(delay = 8.milliseconds, jitter = 4.milliseconds, loss = 0.005, reorder = 0.01),
+            "mobile" to Impairment(delay = 40.milliseconds, jitter = 15.milliseconds, loss = 0.02, reorder = 0.02),
+        )
+
+        fun byName(name: String): Impairment = profiles[name] ?: throw IllegalArgumentException("Unknown profile $name")
+    }
+}
+
+/**
+ * Two [IceAgent]s connected to each other in-process, over loopback host candidates only, with a [PseudoTcpChannel]
+ * (using the given send and receive window size) or, if a [QuicProfile] is given, a [QuicChannel] on top, so the P2P
+ * transport can be measured without any network access.
+ *
+ * Each agent gets its own single-threaded dispatcher (standing in for the respective client thread), its own
+ * [StunManager] and [CandidateManager], and a local [StunResponder] as its only STUN server. Candidates and
+ * credentials are exchanged directly instead of via the connection manager.
+ *
+ * To simulate a machine with many network interfaces, each agent can be given multiple [interfaces] (host candidates
+ * on 127.0.0.1, 127.0.0.2, ...; Linux routes all of 127.0.0.0/8 to loopback), and additionally advertise
+ * [unreachableCandidates] which have a higher priority than the real ones but never answer (like the host candidates
+ * of VPN, Docker or Hyper-V interfaces usually do not for the remote side).
+ */
+class LoopbackTransport private constructor(
+    impairment: Impairment,
+    window: Int,
+    quicProfile: QuicProfile?,
+    interfaces: Int,
+    unreachableCandidates: Int,
+) : Closeable {
+    private val job = SupervisorJob()
+    private val scope = CoroutineScope(job)
+    private val stunResponder = StunResponder(scope)
+
+    private val hostCreds = CompletableDeferred<Pair<String, ByteArray>>()
+    private val clientCreds = CompletableDeferred<Pair<String, ByteArray>>()
+    private val host = Side("host", 0, controlling = false, remoteCreds = clientCreds, impairment, window, quicProfile, interfaces, unreachableCandidates)
+    private val client = Side("client", 1, controlling = true, remoteCreds = hostCreds, impairment, window, quicProfile, interfaces, unreachableCandidates)
+
+    private val start = TimeSource.Monotonic.markNow()
+
+    /** Time from creating the agents until both were ready to send data. */
+    var iceConnectTime: Duration = ZERO
+        private set
+    /** Completes with the time from creating the agents until both have selected their final pair. */
+    val nominationTime = scope.async {
+        host.agent.pairSelected.await()
+        client.agent.pairSelected.await()
+        start.elapsedNow()
+    }
+    /** Time from ICE being ready until the pseudo-TCP or QUIC handshake completed and the first byte arrived. */
+    var streamConnectTime: Duration = ZERO
+        private set
+
+    /** Stream from client to host. */
+    lateinit var clientSend: SendChannel<ByteBuf>
+        private set
+    lateinit var hostReceive: ReceiveChannel<ByteBuf>
+        private set
+
+    private suspend fun connect() {
+        hostCreds.complete(host.localCreds)
+        clientCreds.complete(client.localCreds)
+        exchangeCandidates(host, client)
+        exchangeCandidates(client, host)
+
+        host.agent.readyForData.await()
+        client.agent.readyForData.await()
+        iceConnectTime = start.elapsedNow()
+
+        val streamStart = TimeSource.Monotonic.markNow()
+        val accepted = host.scope.async { host.accept() }
+        val (_, send) = client.connect()
+        // Like MC, the client has to speak first; QUIC only announces a stream to the remote once data is sent on it
+        send.send(Unpooled.wrappedBuffer(byteArrayOf(0)))
+        val (receive, _) = accepted.await()
+        receive.receive().release()
+        streamConnectTime = streamStart.elapsedNow()
+
+        clientSend = send
+        hostReceive = receive
+    }
+
+    private fun exchangeCandidates(from: Side, to: Side) {
+        from.scope.launch {
+            for (candidate in from.unreachableCandidates) {
+                to.agent.remoteCandidateChannel.send(candidate)
+            }
+            for (candidate in from.agent.localCandidateChannel) {
+                to.agent.remoteCandidateChannel.send(RemoteCandidateImpl(candidate.type, candidate.address, candidate.priority))
+            }
+            to.agent.remoteCandidateChannel.close()
+        }
+    }
+
+    /**
+     * Sends [totalBytes] from client to host in messages of [messageSize] bytes (at least 8), each stamped with its
+     * send time, and waits for all of them to arrive.
+     */
+    suspend fun transfer(totalBytes: Int, messageSize: Int): TransferResult {
+        require(messageSize >= 8)
+        val messageCount = (totalBytes + messageSize - 1) / messageSize
+        val latencies = LongArray(messageCount)
+        val allocatedBefore = totalAllocatedBytes()
+        val start = System.nanoTime()
+
+        client.scope.launch {
+            repeat(messageCount) {
+                val message = Unpooled.buffer(messageSize)
+                message.writeLong(System.nanoTime())
+                message.writerIndex(messageSize)
+                clientSend.send(message)
+            }
+        }
+
+        var received = 0
+        var offset = 0
+        var sentAt = 0L
+        while (received < messageCount) {
+            val chunk = hostReceive.receive()
+            while (chunk.isReadable) {
+                val n = minOf(chunk.readableBytes(), messageSize - offset)
+                for (j in offset until minOf(offset + n, 8)) {
+                    sentAt = sentAt.shl(8).or(chunk.getByte(chunk.readerIndex() + j - offset).toLong() and 0xff)
+                }
+                offset += n
+                chunk.skipBytes(n)
+                if (offset == messageSize) {
+                    latencies[received++] = System.nanoTime() - sentAt
+                    offset = 0
+                    sentAt = 0
+                }
+            }
+            chunk.release()
+        }
+
+        val elapsed = System.nanoTime() - start
+        return TransferResult(messageCount.toLong() * messageSize, elapsed, latencies, totalAllocatedBytes() - allocatedBefore)
+    }
+
+    /** Statistics of the client's QUIC connection, or `null` if it is using pseudo-TCP. */
+    suspend fun quicStats(): QuicStats? = client.quic?.stats()
+
+    /** Transport metrics of the client, see [IceAgent.metrics]. */
+    suspend fun clientMetrics(): TransportMetrics.Snapshot {
+        quicStats()?.let { client.agent.metrics.setRetransmits(it.retransmittedPackets) }
+        return client.agent.metrics.sample()
+    }
+
+    override fun close() {
+        scope.cancel()
+        stunResponder.close()
+        host.close()
+        client.close()
+    }
+
+    private inner class Side(
+        name: String,
+        index: Int,
+        controlling: Boolean,
+        remoteCreds: CompletableDeferred<Pair<String, ByteArray>>,
+        private val impairment: Impairment,
+        window: Int,
+        quicProfile: QuicProfile?,
+        interfaces: Int,
+        unreachableCandidates: Int,
+    ) : Closeable {
+        private val logger: Logger = LoggerFactory.getLogger("LoopbackTransport/$name")
+        private val dispatcher: ExecutorCoroutineDispatcher = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "LoopbackTransport/$name").apply { isDaemon = true }
+        }.asCoroutineDispatcher()
+        val scope = this@LoopbackTransport.scope + Job(job) + dispatcher
+
+        private val stunManager = StunManager(scope)
+        private val candidateManager = CandidateManager(
+            logger,
+            scope,
+            stunManager,
+            listOf(stunResponder.address),
+            emptyList(),
+            hostAddresses = (1..interfaces).map { InetAddress.getByAddress(byteArrayOf(127, 0, 0, it.toByte())) },
+        )
+        val localCreds = Pair("bench-$name", Random.nextBytes(16))
+        val agent = IceAgent(logger, scope, stunManager, candidateManager, controlling, localCreds, remoteCreds)
+
+        private val transportSend = Channel<ByteArray>(1000)
+        private val transportReceive = Channel<ByteArray>(1000)
+        private val pseudoTcp = if (quicProfile == null) {
+            PseudoTcpChannel(scope, transportReceive, transportSend, sendWindow = window, receiveWindow = window, metrics = agent.metrics)
+        } else null
+        val quic = quicProfile?.let { QuicChannel(scope, logger, transportReceive, transportSend, it) }
+
+        init {
+            agent.metrics.transport = if (quic != null) "QUIC" else "PseudoTCP"
+        }
+
+        // Sockets which are bound (so we don't get ICMP errors) but never read from, on addresses other than those of
+        // the real interfaces, so they are not paired up with the real ones in any way
+        private val sinks = (1..unreachableCandidates).map { i ->
+            DatagramSocket(0, InetAddress.getByAddress(byteArrayOf(127, 1, index.toByte(), i.toByte())))
+        }
+        val unreachableCandidates = sinks.map { socket ->
+            val priority = LocalCandidate.computePriority(CandidateType.Host, MAX_LOCAL_PREFERENCE)
+            RemoteCandidateImpl(CandidateType.Host, InetSocketAddress(socket.localAddress, socket.localPort), priority)
+        }
+
+        suspend fun connect(): Pair<ReceiveChannel<ByteBuf>, SendChannel<ByteBuf>> =
+            quic?.connect()?.first ?: pseudoTcp!!.connect()
+
+        suspend fun accept(): Pair<ReceiveChannel<ByteBuf>, SendChannel<ByteBuf>> =
+            quic?.accept(0) ?: pseudoTcp!!.accept()
+
+        init {
+            scope.launch {
+                for ((_, data) in agent.inboundDataChannel) {
+                    transportReceive.send(data)
+                }
+            }
+            scope.launch {
+                for (packet in transportSend) {
+                    impair(packet)
+                }
+            }
+        }
+
+        private fun impair(packet: ByteArray) {
+            if (impairment == Impairment()) {
+                agent.outboundDataChannel.trySend(packet)
+                return
+            }
+            if (Random.nextDouble() < impairment.loss) {
+                return
+            }
+            var delay = impairment.delay + impairment.jitter * (Random.nextDouble() * 2 - 1)
+            if (Random.nextDouble() < impairment.reorder) {
+                delay += impairment.delay + impairment.jitter
+            }
+            scope.launch {
+                delay(delay)
+                agent.outboundDataChannel.send(packet)
+            }
+        }
+
+        override fun close() {
+            sinks.forEach { it.close() }
+            dispatcher.close()
+        }
+    }
+
+    /**
+     * Minimal stand-in for a STUN server: answers every Binding request with the address it came from.
+     */
+    private class StunResponder(scope: CoroutineScope) : Closeable {
+        private val socket = DatagramSocket(0, InetAddress.getLoopbackAddress())
+        val address = InetSocketAddress(socket.localAddress, socket.localPort)
+
+        init {
+            scope.launch(Dispatchers.IO) {
+                socket.use {
+                    val buf = DatagramPacket(ByteArray(1500), 1500)
+                    while (true) {
+                        try {
+                            socket.receive(buf)
+                        } catch (e: Exception) {
+                            break
+                        }
+                        val request = try {
+                            StunMessage.decode(buf.data.sliceArray(0 until buf.length), { null }, { null })
+                        } catch (e: Exception) {
+                            continue
+                        }
+                        if (request.type != StunType.Binding || request.cls != StunClass.Request) continue
+
+                        val source = InetSocketAddress(buf.address, buf.port)
+                        val response = StunMessage(StunType.Binding, StunClass.ResponseSuccess, request.transactionId, listOf(
+                            StunAttribute.XorMappedAddress(source),
+                        )).encode()
+                        socket.send(DatagramPacket(response, response.size, source))
+                    }
+                }
+            }
+        }
+
+        override fun close() {
+            socket.close()
+        }
+    }
+
+    class TransferResult(
+        val bytes: Long,
+        val elapsedNanos: Long,
+        /** One-way latency of each message in nanoseconds, in order of arrival. */
+        val latencies: LongArray,
+        /** Bytes allocated by all threads during the transfer, including the messages themselves. */
+        val allocatedBytes: Long,
+    ) {
+        val megabytesPerSecond: Double
+            get() = bytes / (1 shl 20).toDouble() / (elapsedNanos / 1e9)
+
+        val allocatedBytesPerMegabyte: Long
+            get() = allocatedBytes * (1 shl 20) / bytes
+
+        fun latencyPercentile(percentile: Double): Duration {
+            val sorted = latencies.sortedArray()
+            return sorted[((sorted.size - 1) * percentile).toInt()].nanoseconds
+        }
+    }
+
+    companion object {
+        private val TIMEOUT = 30.seconds
+        private const val MAX_LOCAL_PREFERENCE = 65535
+
+        suspend fun connect(
+            impairment: Impairment,
+            window: Int = PseudoTcpChannel.DEFAULT_WINDOW_SIZE,
+            quicProfile: QuicProfile? = null,
+            interfaces: Int = 1,
+            unreachableCandidates: Int = 0,
+        ): LoopbackTransport {
+            val transport = LoopbackTransport(impairment, window, quicProfile, interfaces, unreachableCandidates)
+            try {
+                withTimeout(TIMEOUT) { transport.connect() }
+            } catch (e: Throwable) {
+                transport.close()
+                throw e
+            }
+            return transport
+        }
+
+        private fun totalAllocatedBytes(): Long {
+            val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+            return threads.getThreadAllocatedBytes(threads.allThreadIds).filter { it > 0 }.sum()
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.ice
+
+import gg.essential.quic.backend.QuicProfile
+import kotlinx.coroutines.runBlocking
+import org.ice4j.pseudotcp.PseudoTCPBase
+
+/**
+ * Prints connect time, throughput, one-way latency and allocations of the P2P transport for each [Impairment] profile
+ * (or only those given as arguments): for pseudo-TCP once with ice4j's default window size and once with the
+ * experimental large one, and for QUIC once with each [QuicProfile], including the number of packets QUIC considered
+ * lost.
+ *
+ * Followed by how long ICE takes to connect and to nominate its final pair with increasing numbers of (unreachable)
+ * network interfaces, see [LoopbackTransport].
+ *
+ * Run with `./gradlew :gui:essential:transportReport`, optionally with `--args="lan wifi"`.
+ * The pseudo-TCP figures depend on which [PseudoTCPBase] is on the classpath (our fork in `subprojects/pseudotcp` vs
+ * plain ice4j), so that is printed first; only quote figures taken with the fork.
+ */
+fun main(args: Array<String>) = runBlocking {
+    val profiles = args.toList().ifEmpty { Impairment.profiles.keys.toList() }
+    val streams = WINDOWS.map { Stream("tcp-${it / 1024}K", window = it) } +
+            QuicProfile.PROFILES.values.map { Stream("quic-$it", quicProfile = it) }
+
+    println("pseudo-tcp: " + (PseudoTCPBase::class.java.protectionDomain.codeSource?.location ?: "unknown"))
+    println()
+
+    // Warm up the JIT so the first profile isn't penalized
+    LoopbackTransport.connect(Impairment()).use { it.transfer(WARMUP_BYTES, IceLoopbackBenchmark.MESSAGE_SIZE) }
+
+    println("%-8s %-24s %10s %10s %10s %10s %10s %12s %8s %8s".format(
+        "profile", "stream", "ice", "connect", "MB/s", "p50", "p99", "alloc/MB", "lost", "retrans"))
+    for (name in profiles) {
+        for (stream in streams) {
+            LoopbackTransport.connect(Impairment.byName(name), stream.window, stream.quicProfile).use { transport ->
+                val result = transport.transfer(TRANSFER_BYTES, IceLoopbackBenchmark.MESSAGE_SIZE)
+                println("%-8s %-24s %10s %10s %10.2f %10s %10s %12d %8s %8d".format(
+                    name,
+                    stream.name,
+                    transport.iceConnectTime,
+                    transport.streamConnectTime,
+                    result.megabytesPerSecond,
+                    result.latencyPercentile(0.5),
+                    result.latencyPercentile(0.99),
+                    result.allocatedBytesPerMegabyte,
+                    transport.quicStats()?.lostPackets ?: "-",
+                    transport.clientMetrics().retransmits,
+                ))
+            }
+        }
+    }
+
+    println()
+    println("%-12s %-12s %10s %12s".format("interfaces", "unreachable", "ice", "nominated"))
+    for ((interfaces, unreachable) in INTERFACES) {
+        repeat(3) {
+            LoopbackTransport.connect(Impairment(), interfaces = interfaces, unreachableCandidates = unreachable).use { transport ->
+                println("%-12d %-12d %10s %12s".format(
+                    interfaces,
+                    unreachable,
+                    transport.iceConnectTime,
+                    transport.nominationTime.await(),
+                ))
+            }
+        }
+    }
+}
+
+private const val WARMUP_BYTES = 4 shl 20
+private const val TRANSFER_BYTES = 16 shl 20
+private val WINDOWS = listOf(PseudoTcpChannel.LEGACY_WINDOW_SIZE, PseudoTcpChannel.LARGE_WINDOW_SIZE)
+/** Number of local interfaces and of additional unreachable candidates advertised by each side. */
+private val INTERFACES = listOf(1 to 0, 4 to 8, 8 to 16)
+
+private class Stream(
+    val name: String,
+    val window: Int = PseudoTcpChannel.DEFAULT_WINDOW_SIZE,
+    val quicProfile: QuicProfile? = null,
+)
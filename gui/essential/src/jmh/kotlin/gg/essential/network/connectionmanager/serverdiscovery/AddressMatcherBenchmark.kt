@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.serverdiscovery
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State as JmhState
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+import java.util.regex.Pattern
+import kotlin.random.Random
+
+/**
+ * Looks up server list addresses in a discovery list of [servers] entries, comparing [AddressMatcher] with trying each
+ * regex one after the other ([linearScan]).
+ *
+ * Every server has a plain address and a wildcard-subdomain regex, every tenth one an additional arbitrary regex.
+ * Addresses are a mix of subdomain hits, arbitrary regex hits and misses, and there are more distinct ones than fit
+ * into the matcher's cache, so this measures the uncached lookup.
+ */
+@JmhState(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class AddressMatcherBenchmark {
+    @Param("10", "100", "1000", "5000")
+    @JvmField
+    var servers: Int = 0
+
+    private lateinit var matcher: AddressMatcher<Int>
+    private lateinit var exact: Map<String, Int>
+    private lateinit var regexes: Map<Pattern, Int>
+    private lateinit var addresses: Array<String>
+    private var next = 0
+
+    @Setup
+    fun setup() {
+        val entries = mutableListOf<Pair<String, Int>>()
+        for (i in 0 until servers) {
+            entries.add("play.server$i.net" to i)
+            entries.add("^(?:.+\\.)?server$i\\.net$" to i)
+            if (i % 10 == 0) {
+                entries.add("^(mc|play)[0-9]*\\.network$i\\.com$" to i)
+            }
+        }
+        matcher = AddressMatcher(entries)
+        exact = entries.filter { !AddressMatcher.isRegex(it.first) }.toMap()
+        regexes = entries.filter { AddressMatcher.isRegex(it.first) }.associate { Pattern.compile(it.first) to it.second }
+
+        val random = Random(42)
+        addresses = Array(4096) {
+            val i = random.nextInt(servers)
+            when (random.nextInt(4)) {
+                0 -> "eu.server$i.net"
+                1 -> "mc${random.nextInt(10)}.network${i / 10 * 10}.com"
+                2 -> "play.unknown$i.org"
+                else -> "localhost:${25565 + i}"
+            }
+        }
+    }
+
+    private fun nextAddress(): String = addresses[next++ and (addresses.size - 1)]
+
+    @Benchmark
+    fun matcher(): Int? = matcher.find(nextAddress())
+
+    @Benchmark
+    fun linearScan(): Int? {
+        val address = nextAddress()
+        exact[address]?.let { return it }
+        for ((pattern, server) in regexes) {
+            if (pattern.matcher(address).matches()) {
+                return server
+            }
+        }
+        return null
+    }
+}
@@ -18,7 +18,7 @@ import gg.essential.elementa.constraints.*
 import gg.essential.elementa.constraints.animation.*
 import gg.essential.elementa.dsl.*
 import gg.essential.elementa.effects.ScissorEffect
-import gg.essential.elementa.utils.getStringSplitToWidth
+import gg.essential.elementa.font.FontProvider
 import gg.essential.gui.EssentialPalette
 import gg.essential.gui.common.ContextOptionMenu
 import gg.essential.gui.elementa.state.v2.effect
@@ -74,6 +74,15 @@ abstract class AbstractTextInput(
     protected val textualLines = mutableListOf(TextualLine("", 0..0))
     protected val visualLines = mutableListOf(VisualLine("", 0))
 
+    private val textWrapper = TextWrapper { it.toString().width(getTextScale(), getFontProvider()) }
+    private var wrappedWidth = Float.NaN
+    private var wrappedTextScale = Float.NaN
+    private var wrappedFontProvider: FontProvider? = null
+
+    /** The width at which textual lines are wrapped into visual lines. */
+    protected open val wrapWidth: Float
+        get() = getWidth()
+
     protected var verticalScrollingOffset = 0f
     protected var targetVerticalScrollingOffset = 0f
         set(value) {
@@ -563,6 +572,7 @@ abstract class AbstractTextInput(
         val textualLine = textualLines[textPos.line]
 
         val lines = textToLines(newText)
+        val oldLength = textualLine.length
         when {
             lines.isEmpty() -> {
                 return
@@ -586,27 +596,105 @@ abstract class AbstractTextInput(
             }
         }
 
-        recalculateAllVisualLines()
+        val editEnd = if (lines.size == 1) textPos.column else oldLength
+        recalculateVisualLines(textPos.line, 1, lines.size, textPos.column, editEnd, textPos.column + lines.first().length)
         setCursorPosition(textPos.offsetColumn(newText.length).toVisualPos())
 
-        updateAction(getText())
-        textState.set(getText())
+        val updatedText = getText()
+        updateAction(updatedText)
+        textState.set(updatedText)
     }
 
-    // TODO: This probably isn't necessary. Remove when feeling not lazy :)
     protected open fun recalculateAllVisualLines() {
+        updateWrapParameters()
         visualLines.clear()
 
         for ((index, textualLine) in textualLines.withIndex()) {
-            val splitLines = splitTextForWrapping(textualLine.text, getWidth())
-            textualLine.visualIndices = visualLines.size..visualLines.size + splitLines.size
-            visualLines.addAll(splitLines.map { VisualLine(it, index) })
+            textualLine.lineStarts = textWrapper.wrap(textualLine.text, wrappedWidth)
+            textualLine.visualIndices = visualLines.size..visualLines.size + textualLine.lineStarts.size
+            addVisualLines(visualLines, textualLine, index)
         }
     }
 
-    // TODO: Look into optimization of this algorithm
-    protected open fun splitTextForWrapping(text: String, maxLineWidth: Float): List<String> {
-        return getStringSplitToWidth(text, maxLineWidth, getTextScale(), processColorCodes = false)
+    /**
+     * Updates the visual lines after the textual lines `firstLine until firstLine + oldLineCount` were replaced by
+     * `firstLine until firstLine + newLineCount`, with the first of those having been edited at `editStart` (see
+     * [TextWrapper.rewrap]) and all others being new.
+     * Only the edited lines are re-wrapped, and of the first one only the part around the edit.
+     */
+    private fun recalculateVisualLines(
+        firstLine: Int,
+        oldLineCount: Int,
+        newLineCount: Int,
+        editStart: Int,
+        oldEditEnd: Int,
+        newEditEnd: Int,
+    ) {
+        if (updateWrapParameters()) {
+            recalculateAllVisualLines()
+            return
+        }
+
+        // Lines after the edited ones still have their old visual indices at this point
+        val visualStart = textualLines[firstLine].visualIndices.first
+        val visualEnd = textualLines.getOrNull(firstLine + newLineCount)?.visualIndices?.first ?: visualLines.size
+
+        val newVisualLines = mutableListOf<VisualLine>()
+        for (index in firstLine until firstLine + newLineCount) {
+            val textualLine = textualLines[index]
+            textualLine.lineStarts = if (index == firstLine) {
+                textWrapper.rewrap(textualLine.lineStarts, textualLine.text, editStart, oldEditEnd, newEditEnd, wrappedWidth)
+            } else {
+                textWrapper.wrap(textualLine.text, wrappedWidth)
+            }
+            val firstVisualIndex = visualStart + newVisualLines.size
+            textualLine.visualIndices = firstVisualIndex..firstVisualIndex + textualLine.lineStarts.size
+            addVisualLines(newVisualLines, textualLine, index)
+        }
+
+        val replacedVisualLines = visualLines.subList(visualStart, visualEnd)
+        replacedVisualLines.clear()
+        replacedVisualLines.addAll(newVisualLines)
+
+        val lineDelta = newLineCount - oldLineCount
+        val visualDelta = newVisualLines.size - (visualEnd - visualStart)
+        if (visualDelta != 0) {
+            for (index in firstLine + newLineCount until textualLines.size) {
+                val textualLine = textualLines[index]
+                textualLine.visualIndices = textualLine.visualIndices.first + visualDelta..textualLine.visualIndices.last + visualDelta
+            }
+        }
+        if (lineDelta != 0) {
+            for (index in visualStart + newVisualLines.size until visualLines.size) {
+                visualLines[index].textIndex += lineDelta
+            }
+        }
+    }
+
+    private fun addVisualLines(target: MutableList<VisualLine>, textualLine: TextualLine, textIndex: Int) {
+        val text = textualLine.text
+        val lineStarts = textualLine.lineStarts
+        for ((i, start) in lineStarts.withIndex()) {
+            val end = if (i + 1 < lineStarts.size) lineStarts[i + 1] else text.length
+            target.add(VisualLine(text.substring(start, end), textIndex, start))
+        }
+    }
+
+    /** Returns `true` if the wrapping parameters changed, meaning that all lines need to be re-wrapped. */
+    private fun updateWrapParameters(): Boolean {
+        val width = wrapWidth
+        val textScale = getTextScale()
+        val fontProvider = getFontProvider()
+        if (width == wrappedWidth && textScale == wrappedTextScale && fontProvider == wrappedFontProvider) {
+            return false
+        }
+        if (textScale != wrappedTextScale || fontProvider != wrappedFontProvider) {
+            textWrapper.invalidate()
+        }
+        wrappedWidth = width
+        wrappedTextScale = textScale
+        wrappedFontProvider = fontProvider
+        return true
     }
 
     protected fun commitTextRemoval(startPos: LinePosition, endPos: LinePosition, selectAfterUndo: Boolean) {
@@ -621,24 +709,28 @@ abstract class AbstractTextInput(
         val startTextualLine = textualLines[textualStartPos.line]
         val endTextualLine = textualLines[textualEndPos.line]
 
+        val oldLength = startTextualLine.length
+        val remainingText = endTextualLine.text.substring(textualEndPos.column)
         startTextualLine.text = startTextualLine.text.substring(
             0,
             textualStartPos.column
-        ) + endTextualLine.text.substring(textualEndPos.column)
+        ) + remainingText
 
         val firstItemToDelete = textualStartPos.line + 1
-        repeat(textualEndPos.line - firstItemToDelete + 1) {
-            textualLines.removeAt(firstItemToDelete)
-        }
+        val deletedLineCount = textualEndPos.line - firstItemToDelete + 1
+        textualLines.subList(firstItemToDelete, firstItemToDelete + deletedLineCount).clear()
 
-        recalculateAllVisualLines()
+        val oldEditEnd = if (deletedLineCount == 0) textualEndPos.column else oldLength
+        val newEditEnd = if (deletedLineCount == 0) textualStartPos.column else startTextualLine.length
+        recalculateVisualLines(textualStartPos.line, deletedLineCount + 1, 1, textualStartPos.column, oldEditEnd, newEditEnd)
 
         val heightDifference = getHeight() - visualLines.size * lineHeightWithPadding + linePadding
         if (verticalScrollingOffset < heightDifference)
             targetVerticalScrollingOffset = heightDifference.coerceAtMost(0f)
 
-        updateAction(getText())
-        textState.set(getText())
+        val updatedText = getText()
+        updateAction(updatedText)
+        textState.set(updatedText)
     }
 
     private fun setCursorPosition(newPosition: LinePosition) {
@@ -979,13 +1071,7 @@ abstract class AbstractTextInput(
                 return this
 
             val visualLine = visualLines[line]
-            val textualLine = textualLines[visualLine.textIndex]
-            var totalVisualLength = 0
-
-            for (i in textualLine.visualIndices.first until line)
-                totalVisualLength += visualLines[i].length
-
-            return LinePosition(visualLine.textIndex, totalVisualLength + column, isVisual = false)
+            return LinePosition(visualLine.textIndex, visualLine.startColumn + column, isVisual = false)
         }
 
         fun toVisualPos(): LinePosition {
@@ -993,18 +1079,14 @@ abstract class AbstractTextInput(
                 return this
 
             val textualLine = textualLines[line]
-            var lengthRemaining = column
+            val lineStarts = textualLine.lineStarts
 
-            for (visualLineIndex in textualLine.visualIndices) {
-                val visualLine = visualLines[visualLineIndex]
-                if (visualLine.length >= lengthRemaining)
-                    return LinePosition(visualLineIndex, lengthRemaining, isVisual = true)
+            // A position at the boundary between two visual lines is at the end of the first one
+            var index = TextWrapper.lineAt(lineStarts, column)
+            if (index > 0 && lineStarts[index] == column)
+                index--
 
-                lengthRemaining -= visualLine.length
-            }
-
-            println("toTextualPos: Unexpected end of function")
-            return LinePosition(0, 0, isVisual = true)
+            return LinePosition(textualLine.visualIndices.first + index, column - lineStarts[index], isVisual = true)
         }
 
         fun toScreenPos(): Pair<Float, Float> {
@@ -1046,6 +1128,9 @@ abstract class AbstractTextInput(
     }
 
     protected inner class TextualLine(text: String, var visualIndices: IntRange = 0..0) : Line(text) {
+        // Offsets at which each of the visual lines of this line starts, see [TextWrapper]
+        var lineStarts: IntArray = intArrayOf(0)
+
         fun addTextAt(newText: String, column: Int) {
             if (column >= text.length) {
                 text += newText
@@ -1057,7 +1142,7 @@ abstract class AbstractTextInput(
         override fun toString() = "TextualLine(text=$text, visualIndices=$visualIndices)"
     }
 
-    protected inner class VisualLine(text: String, val textIndex: Int) : Line(text) {
+    protected inner class VisualLine(text: String, var textIndex: Int, val startColumn: Int = 0) : Line(text) {
         override fun toString() = "VisualLine(text=$text, textIndex=$textIndex)"
     }
 
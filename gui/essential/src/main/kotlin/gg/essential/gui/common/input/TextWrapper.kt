@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.common.input
+
+/**
+ * Greedy word wrapping with cached glyph widths.
+ *
+ * Wrapped lines are represented by the offsets at which they start in the text (the first one always being `0`), so
+ * every character, including the spaces at which lines were broken, is part of exactly one line.
+ * Lines are broken after the spaces following a word, words which do not fit on a line of their own are broken between
+ * characters.
+ *
+ * Because where a line ends only depends on where it starts, [rewrap] can re-use the line starts from before an edit
+ * and only needs to measure the lines around the edit.
+ */
+class TextWrapper(private val measureChar: (Char) -> Float) {
+    private val charWidths = HashMap<Char, Float>()
+
+    /** Must be called when the result of [measureChar] changes, e.g. because the text scale or font changed. */
+    fun invalidate() {
+        charWidths.clear()
+    }
+
+    fun charWidth(ch: Char): Float = charWidths.getOrPut(ch) { measureChar(ch) }
+
+    fun wrap(text: String, maxWidth: Float): IntArray {
+        if (maxWidth == Float.POSITIVE_INFINITY) {
+            return SINGLE_LINE
+        }
+
+        val lineStarts = mutableListOf(0)
+        var start = 0
+        while (true) {
+            start = nextLineStart(text, start, maxWidth)
+            if (start >= text.length) break
+            lineStarts.add(start)
+        }
+        return lineStarts.toIntArray()
+    }
+
+    /**
+     * Wraps [text], which was created by replacing the characters `editStart until oldEditEnd` of a text wrapped into
+     * [oldLineStarts] (with the same [maxWidth]) by the characters `editStart until newEditEnd` of [text].
+     */
+    fun rewrap(oldLineStarts: IntArray, text: String, editStart: Int, oldEditEnd: Int, newEditEnd: Int, maxWidth: Float): IntArray {
+        if (maxWidth == Float.POSITIVE_INFINITY) {
+            return SINGLE_LINE
+        }
+
+        // The edit may change the word it starts in, which may in turn change whether that word still fits onto the
+        // end of the line before it. Lines before that one cannot be affected.
+        var wordStart = editStart
+        while (wordStart > 0 && text[wordStart - 1] != ' ') {
+            wordStart--
+        }
+        val firstAffected = maxOf(0, lineAt(oldLineStarts, wordStart) - 1)
+
+        val lineStarts = oldLineStarts.take(firstAffected + 1).toMutableList()
+        val delta = newEditEnd - oldEditEnd
+        var start = oldLineStarts[firstAffected]
+        while (true) {
+            start = nextLineStart(text, start, maxWidth)
+            if (start >= text.length) break
+
+            // Once a line starts after the edit at the same place as one of the old lines did, all following lines
+            // will be the same as well.
+            if (start >= newEditEnd && start - delta >= oldEditEnd) {
+                val oldIndex = oldLineStarts.binarySearch(start - delta)
+                if (oldIndex >= 0) {
+                    for (i in oldIndex until oldLineStarts.size) {
+                        lineStarts.add(oldLineStarts[i] + delta)
+                    }
+                    break
+                }
+            }
+
+            lineStarts.add(start)
+        }
+        return lineStarts.toIntArray()
+    }
+
+    private fun nextLineStart(text: String, start: Int, maxWidth: Float): Int {
+        var pos = start
+        var width = 0f
+        while (pos < text.length) {
+            var wordEnd = pos
+            var wordWidth = 0f
+            while (wordEnd < text.length && text[wordEnd] != ' ') {
+                wordWidth += charWidth(text[wordEnd])
+                wordEnd++
+            }
+
+            if (width + wordWidth > maxWidth) {
+                if (pos != start) {
+                    return pos
+                }
+
+                // The word does not even fit onto a line of its own, so we need to break it up
+                var end = start
+                var lineWidth = 0f
+                while (end < wordEnd) {
+                    val charWidth = charWidth(text[end])
+                    if (end > start && lineWidth + charWidth > maxWidth) break
+                    lineWidth += charWidth
+                    end++
+                }
+                return end
+            }
+
+            width += wordWidth
+            pos = wordEnd
+
+            // Spaces always stay at the end of the current line
+            while (pos < text.length && text[pos] == ' ') {
+                width += charWidth(' ')
+                pos++
+            }
+        }
+        return pos
+    }
+
+    companion object {
+        private val SINGLE_LINE = intArrayOf(0)
+
+        /** Returns the index of the line which contains the given offset. */
+        fun lineAt(lineStarts: IntArray, offset: Int): Int {
+            val index = lineStarts.binarySearch(offset)
+            return if (index >= 0) index else -index - 2
+        }
+    }
+}
@@ -121,9 +121,8 @@ open class UITextInput @JvmOverloads constructor(
         setWidth(newWidth.coerceIn(minWidth, maxWidth))
     }
 
-    override fun splitTextForWrapping(text: String, maxLineWidth: Float): List<String> {
-        return listOf(text)
-    }
+    override val wrapWidth: Float
+        get() = Float.POSITIVE_INFINITY
 
     override fun onEnterPressed() {
         activateAction(getText())
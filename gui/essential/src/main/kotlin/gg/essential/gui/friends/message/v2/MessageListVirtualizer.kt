@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.friends.message.v2
+
+import gg.essential.elementa.UIComponent
+import gg.essential.gui.elementa.state.v2.FrameScheduler
+
+/**
+ * Keeps only the lines (markdown, embeds, etc.) of messages in and near the viewport of a message list materialized.
+ *
+ * Messages come into existence as cheap [MessageWrapperImpl]s with a placeholder for their lines. Once a message comes
+ * within [materializeMargin] pixels of the [viewport], its lines are created, and once it is further than
+ * [releaseMargin] pixels away, they are released again.
+ * Only messages which are actually visible are materialized right away, those which are merely close to the viewport
+ * are materialized via [frameScheduler], so opening a channel doesn't have to create all of them in a single frame.
+ *
+ * The height of the lines of each message is remembered while they are materialized, so the placeholder can take up
+ * the same space when they are released (or the wrapper is re-created) and the scroll position stays stable.
+ * Messages which have never been materialized use the average height of all measured messages instead.
+ */
+class MessageListVirtualizer(
+    private val viewport: UIComponent,
+    private val materializeMargin: Float = 300f,
+    private val releaseMargin: Float = 1500f,
+    private val frameScheduler: FrameScheduler = FrameScheduler.forMainThread,
+) {
+    private val measuredHeights = mutableMapOf<Long, Float>()
+    private var measuredHeightSum = 0.0
+
+    /** Wrappers for which a materialization has been queued with the [frameScheduler] but not yet run. */
+    private val scheduled = mutableSetOf<MessageWrapperImpl>()
+
+    fun estimateLinesHeight(message: ClientMessage): Float {
+        return measuredHeights[message.id]
+            ?: if (measuredHeights.isEmpty()) DEFAULT_LINES_HEIGHT else (measuredHeightSum / measuredHeights.size).toFloat()
+    }
+
+    /** Materializes and releases the given [MessageWrapperImpl]s based on their distance to the viewport. */
+    fun update(components: List<UIComponent>) {
+        val viewportTop = viewport.getTop()
+        val viewportBottom = viewport.getBottom()
+
+        for (wrapper in components) {
+            if (wrapper !is MessageWrapperImpl) continue
+
+            val top = wrapper.getTop()
+            val bottom = wrapper.getBottom()
+            if (wrapper.isMaterialized) {
+                remember(wrapper.message, wrapper.linesHeight)
+                if ((bottom < viewportTop - releaseMargin || top > viewportBottom + releaseMargin) && wrapper.canRelease) {
+                    wrapper.release()
+                }
+            } else if (bottom > viewportTop && top < viewportBottom) {
+                wrapper.materialize()
+            } else if (bottom > viewportTop - materializeMargin && top < viewportBottom + materializeMargin) {
+                if (scheduled.add(wrapper)) {
+                    frameScheduler.runLater {
+                        scheduled.remove(wrapper)
+                        // It may have been scrolled away (or removed entirely) while waiting
+                        if (wrapper.hasParent && isNear(wrapper, materializeMargin)) {
+                            wrapper.materialize()
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private fun isNear(wrapper: UIComponent, margin: Float): Boolean =
+        wrapper.getBottom() > viewport.getTop() - margin && wrapper.getTop() < viewport.getBottom() + margin
+
+    private fun remember(message: ClientMessage, height: Float) {
+        val previous = measuredHeights.put(message.id, height)
+        measuredHeightSum += height - (previous ?: 0f)
+    }
+
+    private companion object {
+        /** Height of a single line of text, used until we have measured any actual messages. */
+        const val DEFAULT_LINES_HEIGHT = 25f
+    }
+}
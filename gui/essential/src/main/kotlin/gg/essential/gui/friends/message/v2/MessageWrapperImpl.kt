@@ -29,6 +29,7 @@ import gg.essential.gui.common.shadow.EssentialUIText
 import gg.essential.gui.common.shadow.ShadowEffect
 import gg.essential.gui.elementa.GuiScaleOffsetConstraint
 import gg.essential.gui.elementa.state.v2.add
+import gg.essential.gui.elementa.state.v2.clear
 import gg.essential.gui.elementa.state.v2.color.toConstraint
 import gg.essential.gui.elementa.state.v2.combinators.and
 import gg.essential.gui.elementa.state.v2.combinators.letState
@@ -60,10 +61,17 @@ import java.time.Instant
 
 import gg.essential.gui.elementa.state.v2.stateBy as stateByV2
 
+/**
+ * The lines of a message are only created once it comes near the viewport of the message list and may be released
+ * again once it is far away from it, see [MessageListVirtualizer].
+ * While not [materialized][isMaterialized], a placeholder with the last known height of the lines takes their place.
+ */
 class MessageWrapperImpl(
     message: ClientMessage,
     private val messageScreen: MessageScreen,
     private val messengerStates: IMessengerStates,
+    private val virtualizer: MessageListVirtualizer,
+    private val createLines: (MessageWrapper) -> List<MessageLine>,
 ) : MessageWrapper(message) {
 
     private val replyTo = message.replyTo
@@ -222,6 +230,27 @@ class MessageWrapperImpl(
 
     // Constraints/parent set in addComponent method
     private val actionButtonHitbox = UIContainer()
+    private var messageHitboxPadding: UIContainer? = null
+    private var actionButtonLine: MessageLine? = null
+
+    private val linesPlaceholder = UIContainer().constrain {
+        y = SiblingConstraint()
+        width = 100.percent
+        height = virtualizer.estimateLinesHeight(message).pixels
+    } childOf messageContainer
+
+    var isMaterialized = false
+        private set
+
+    private val isHighlighted = messageScreen.replyingTo.map { it == message } or isEditing
+
+    /** Whether the lines may currently be released without the user noticing. */
+    val canRelease: Boolean
+        get() = !isHighlighted.getUntracked() && !dropdownOpen.getUntracked()
+
+    /** The combined height of all lines (including their spacing), or of the placeholder if not materialized. */
+    val linesHeight: Float
+        get() = if (isMaterialized) messageLines.getUntracked().sumOf { it.getHeight() + 3.0 }.toFloat() else linesPlaceholder.getHeight()
 
     init {
         constrain {
@@ -254,6 +283,36 @@ class MessageWrapperImpl(
         hide(instantly = true)
     }
 
+    /** Creates the lines of this message and replaces the placeholder with them. */
+    fun materialize() {
+        if (isMaterialized) return
+        isMaterialized = true
+
+        messageContainer.removeChild(linesPlaceholder)
+        createLines(this).forEach { addComponent(it) }
+        if (isHighlighted.getUntracked()) {
+            messageLines.getUntracked().forEach { it.beginHighlight() }
+        }
+    }
+
+    /** Removes the lines of this message, replacing them with a placeholder of the same height. */
+    fun release() {
+        if (!isMaterialized) return
+
+        linesPlaceholder.setHeight(linesHeight.pixels)
+        for (line in messageLines.getUntracked()) {
+            messageContainer.removeChild(line)
+        }
+        messageLines.clear()
+        messageHitboxPadding?.let { removeChild(it) }
+        if (actionButtonHitbox.hasParent) {
+            removeChild(actionButtonHitbox)
+        }
+        linesPlaceholder childOf messageContainer
+
+        isMaterialized = false
+    }
+
     override fun addComponent(line: MessageLine) {
         messageLines.add(line)
         line.constrain {
@@ -267,6 +326,18 @@ class MessageWrapperImpl(
             && !(line is SkinEmbed)
         ) {
             val messageBox = (line as? ParagraphLineImpl)?.bubble ?: line
+            actionButtonLine = line
+
+            // The button itself is only created once, if the lines are released and re-created, we just need to
+            // attach it to the new line
+            val existingPadding = messageHitboxPadding
+            if (existingPadding != null) {
+                constrainActionButton(existingPadding, messageBox)
+                existingPadding childOf this
+                actionButtonHitbox childOf this
+                return
+            }
+
             val actionTooltipText = BasicState(if (sentByClient) "Edit" else "Reply")
             val actionButtonIcon = if (sentByClient) EssentialPalette.PENCIL_7x7 else EssentialPalette.REPLY_LEFT_7X5
 
@@ -278,19 +349,12 @@ class MessageWrapperImpl(
                 }
             }
 
-            val messageHitboxPadding by UIContainer().constrain {
-                x = 100.percent boundTo messageBox
-                y = 0.pixels boundTo messageBox
-                width = 5.pixels
-                height = 100.percent boundTo messageBox
-            }.onRightClick { openOptionMenu(it, line) } childOf this
-
-            actionButtonHitbox.constrain {
-                x = (-7).pixels(alignOpposite = !sentByClient) boundTo messageBox
-                y = (-7).pixels boundTo messageBox
-                width = 15.pixels
-                height = AspectConstraint()
-            }.onLeftClick {
+            val messageHitboxPadding = UIContainer().onRightClick { openOptionMenu(it, actionButtonLine ?: line) }
+            this.messageHitboxPadding = messageHitboxPadding
+            constrainActionButton(messageHitboxPadding, messageBox)
+            messageHitboxPadding childOf this
+
+            actionButtonHitbox.onLeftClick {
                 runAction()
                 USound.playButtonPress()
                 it.stopPropagation()
@@ -312,6 +376,22 @@ class MessageWrapperImpl(
         }
     }
 
+    private fun constrainActionButton(messageHitboxPadding: UIContainer, messageBox: UIComponent) {
+        messageHitboxPadding.constrain {
+            x = 100.percent boundTo messageBox
+            y = 0.pixels boundTo messageBox
+            width = 5.pixels
+            height = 100.percent boundTo messageBox
+        }
+
+        actionButtonHitbox.constrain {
+            x = (-7).pixels(alignOpposite = !sentByClient) boundTo messageBox
+            y = (-7).pixels boundTo messageBox
+            width = 15.pixels
+            height = AspectConstraint()
+        }
+    }
+
     override fun openOptionMenu(event: UIClickEvent, component: MessageLine) {
         val posX = event.absoluteX
         val posY = event.absoluteY
@@ -108,6 +108,8 @@ class ReplyableMessageScreen(
 
     private val scrollCleanup: () -> Unit
 
+    private val virtualizer = MessageListVirtualizer(scroller)
+
     private var lastRequest = 0L
     private val channel = preview.channel
     private var receivedAllMessages = false
@@ -218,8 +220,8 @@ class ReplyableMessageScreen(
                 DateDividerImpl(it.toInstant())()
             }
             forEach(messageListState) { message ->
-                MessageWrapperImpl(message, this@ReplyableMessageScreen, socialStates.messages).apply {
-                    parseComponents(message, this).forEach { addComponent(it) }
+                MessageWrapperImpl(message, this@ReplyableMessageScreen, socialStates.messages, virtualizer) {
+                    parseComponents(message, it)
                 }()
             }
         }
@@ -253,7 +255,7 @@ class ReplyableMessageScreen(
         } else if (channelMessages.size < 50) {
             socialStates.messages.retrieveMessageHistoryRaw(
                 channel.id,
-                channelMessages.values.minByOrNull { it.id }?.id,
+                channelMessages.firstEntry()?.key,
                 null,
                 50 - channelMessages.size,
                 null
@@ -289,6 +291,8 @@ class ReplyableMessageScreen(
     }
 
     override fun draw(matrixStack: UMatrixStack) {
+        virtualizer.update(content.children)
+
         if (platform.cmConnection.usingProtocol >= 9) {
             if (!markedManuallyUnread) {
                 findAndMarkLatestMessageAsRead()
@@ -417,7 +421,7 @@ class ReplyableMessageScreen(
 
         socialStates.messages.retrieveMessageHistoryRaw(
             channel.id,
-            messages.values.minOfOrNull { it.id } ?: return,
+            messages.firstEntry()?.key ?: return,
             null,
         ) retrieveMessageHistory@{
             if (!it.isPresent) {
@@ -553,6 +557,8 @@ class ReplyableMessageScreen(
             it is MessageWrapper && it.message.id == message.id
         } as? MessageWrapper ?: return
 
+        // Its lines need to exist to center on (and highlight) them
+        (component as? MessageWrapperImpl)?.materialize()
         scroller.scrollToCenterComponent(component, smooth = true)
 
         if (editingMessage.get() == null) {
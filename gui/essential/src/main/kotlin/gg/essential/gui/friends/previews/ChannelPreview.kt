@@ -18,6 +18,7 @@ import gg.essential.elementa.dsl.*
 import gg.essential.gui.EssentialPalette
 import gg.essential.gui.common.ContextOptionMenu
 import gg.essential.gui.common.shadow.ShadowEffect
+import gg.essential.gui.elementa.state.v2.FrameScheduler
 import gg.essential.gui.elementa.state.v2.Observer
 import gg.essential.gui.elementa.state.v2.State
 import gg.essential.gui.elementa.state.v2.combinators.and
@@ -95,6 +96,12 @@ class ChannelPreview(
 
     private val doShowTimestampState = hasUnreadState.not() and latestMessageState.map { it != null }
 
+    /**
+     * Building the description requires parsing the latest message, which adds up when the social menu is opened with
+     * many channels, so the initial one is only built once there's time left in a frame.
+     */
+    private val descriptionReady = mutableStateOf(false)
+
     init {
         val dropdownOpen = mutableStateOf(false)
         val unreadQuantity = Tag(
@@ -185,6 +192,10 @@ class ChannelPreview(
             }
         }
 
+        FrameScheduler.forMainThread.runLater {
+            descriptionReady.set(true)
+        }
+
         onLeftClick {
             USound.playButtonPress()
             openMessageScreen()
@@ -196,6 +207,7 @@ class ChannelPreview(
     override fun getSearchTag() = titleState.get()
 
     companion object {
+        private val markdownParser = Parser.builder().build()
         private val markdownRenderer = TextContentRenderer.builder()
             .stripNewlines(false)
             .nodeRendererFactory(::PlainBlockQuoteNodeRenderer)
@@ -234,30 +246,35 @@ class ChannelPreview(
 
     private fun LayoutScope.description(modifier: Modifier) {
         box(modifier) {
-            if_(joinable) {
-                FriendStatus(uuid, activityStates)()
-            } `else` {
+            if_(descriptionReady, cache = false /** once ready, we are never going back */) {
+                descriptionContent()
+            }
+        }
+    }
 
-                bind(latestMessageState) {
+    private fun LayoutScope.descriptionContent() {
+        if_(joinable) {
+            FriendStatus(uuid, activityStates)()
+        } `else` {
 
-                    val (icon, text) = getDescriptionContent()
-                    val descriptionModifier = Modifier.color(EssentialPalette.TEXT_DISABLED).alignHorizontal(Alignment.Start)
+            bind(latestMessageState) {
 
-                    row(Modifier.fillWidth().alignHorizontal(Alignment.Start), Arrangement.spacedBy(5f), Alignment.End) {
-                        if (icon != null) {
-                            icon.create()(descriptionModifier)
-                        }
+                val (icon, text) = getDescriptionContent()
+                val descriptionModifier = Modifier.color(EssentialPalette.TEXT_DISABLED).alignHorizontal(Alignment.Start)
 
-                        box(Modifier.fillRemainingWidth()) {
-                            text(
-                                text.toV1(this@ChannelPreview),
-                                descriptionModifier,
-                                shadow = false,
-                                truncateIfTooSmall = true,
-                                showTooltipForTruncatedText = false,
-                            )
-                        }
+                row(Modifier.fillWidth().alignHorizontal(Alignment.Start), Arrangement.spacedBy(5f), Alignment.End) {
+                    if (icon != null) {
+                        icon.create()(descriptionModifier)
+                    }
 
+                    box(Modifier.fillRemainingWidth()) {
+                        text(
+                            text.toV1(this@ChannelPreview),
+                            descriptionModifier,
+                            shadow = false,
+                            truncateIfTooSmall = true,
+                            showTooltipForTruncatedText = false,
+                        )
                     }
 
                 }
@@ -265,7 +282,6 @@ class ChannelPreview(
             }
 
         }
-
     }
 
     private fun getDescriptionContent(): Pair<ImageFactory?, State<String>> {
@@ -306,17 +322,12 @@ class ChannelPreview(
     }
 
     private fun textDescription(message: ClientMessage): State<String> {
-        return stateOf(markdownRenderer.render(
-            Parser.builder()
-                .build()
-                .parse(message.contents)
-        ).split("\n")[0]) // stop at new line
+        return stateOf(markdownRenderer.render(markdownParser.parse(message.contents)).substringBefore("\n")) // stop at new line
     }
 
     private fun Observer.pictureDescription(message: ClientMessage): String {
         var numberOfPictures = 0
-        for (loopMessage in messengerStates.getMessageListState(channel.id)()
-            .sortedByDescending { it.id }) {
+        for (loopMessage in messengerStates.getMessageListState(channel.id)().asReversed()) {
             if (message.sender != loopMessage.sender) {
                 break
             }
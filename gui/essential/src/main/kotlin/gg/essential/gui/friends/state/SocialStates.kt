@@ -163,7 +163,7 @@ interface IMessengerStates {
     fun getLatestMessage(channelId: Long): StateV2<ClientMessage?>
 
     /**
-     * A List State that has the initial value of all loaded message in this channel.
+     * A List State that has the initial value of all loaded message in this channel, ordered by id.
      * Messages sent by others or deleted will be reflected in this list.
      */
     fun getMessageListState(channelId: Long): ListState<ClientMessage>
@@ -240,7 +240,7 @@ interface IMessengerStates {
 
     // FIXME these could probably be cleaned up, though their behavior wrt announcement channels doesn't match existing
     //  methods, so not entirely sure
-    fun getMessagesRaw(channelId: Long): Map<Long, Message>?
+    fun getMessagesRaw(channelId: Long): NavigableMap<Long, Message>?
     fun retrieveMessageHistoryRaw(channelId: Long, before: Long? = null, after: Long? = null, messageLimit: Int = 50, callback: ((Optional<Packet>) -> Unit)? = null)
 }
 
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.wardrobe
+
+import gg.essential.gui.elementa.state.v2.ListState
+import gg.essential.gui.elementa.state.v2.State
+import gg.essential.gui.elementa.state.v2.collections.TrackedList
+import gg.essential.gui.elementa.state.v2.filterNotNull
+import gg.essential.gui.elementa.state.v2.memo
+import gg.essential.gui.elementa.state.v2.zipWithEachElement
+
+/**
+ * Case-insensitive substring search over the keywords (name, and e.g. tags or categories) of a list of wardrobe items.
+ *
+ * Keywords are indexed by their trigrams (all substrings of length three), so a query only needs to check the items
+ * which contain all trigrams of the query, instead of every item. Additionally, while the user is typing (i.e. each
+ * query extends the previous one), only the items which matched the previous query need to be checked.
+ *
+ * The index is updated incrementally as items are added to or removed from [items], and rebuilt if the [keywords]
+ * function changes (e.g. because category names were loaded).
+ *
+ * Must only be used from the main thread.
+ */
+class WardrobeSearchIndex<T : Item>(
+    private val items: ListState<T>,
+    private val keywords: State<(T) -> List<String>>,
+) {
+    private val documents = HashMap<ItemId, Document<T>>()
+    private val trigrams = HashMap<Long, MutableSet<ItemId>>()
+
+    private var indexedItems: TrackedList<T>? = null
+    private var indexedKeywords: ((T) -> List<String>)? = null
+
+    private var lastQuery: String? = null
+    private var lastResult: Set<ItemId> = emptySet()
+
+    /** Returns the ids of all items which have a keyword that contains [query]. */
+    fun search(query: State<String>): State<Set<ItemId>> = memo {
+        update(items(), keywords())
+        search(query())
+    }
+
+    /** Returns all items which have a keyword that contains [query], in the same order as in [items]. */
+    fun filter(query: State<String>): ListState<T> {
+        return items.zipWithEachElement(search(query)) { item, matches ->
+            item.takeIf { it.itemId in matches }
+        }.filterNotNull()
+    }
+
+    private fun update(newItems: TrackedList<T>, newKeywords: (T) -> List<String>) {
+        val oldItems = indexedItems
+        if (oldItems === newItems && newKeywords === indexedKeywords) {
+            return
+        }
+        if (oldItems == null || newKeywords !== indexedKeywords) {
+            documents.clear()
+            trigrams.clear()
+            newItems.forEach { add(it, newKeywords) }
+        } else {
+            for (change in newItems.getChangesSince(oldItems)) {
+                when (change) {
+                    is TrackedList.Add -> add(change.element.value, newKeywords)
+                    is TrackedList.Remove -> remove(change.element.value)
+                    is TrackedList.Clear -> {
+                        documents.clear()
+                        trigrams.clear()
+                    }
+                }
+            }
+        }
+        indexedItems = newItems
+        indexedKeywords = newKeywords
+        // The previous result may be missing new items or still contain removed ones
+        lastQuery = null
+    }
+
+    private fun add(item: T, keywords: (T) -> List<String>) {
+        val id = item.itemId
+        val document = documents.getOrPut(id) { Document() }
+        document.update(id) { it.add(Instance(item, keywords(item).map { keyword -> keyword.lowercase() })) }
+    }
+
+    private fun remove(item: T) {
+        val id = item.itemId
+        val document = documents[id] ?: return
+        document.update(id) { instances ->
+            // Prefer the exact instance, a replacement with equal content may have been added already
+            val index = instances.indexOfFirst { it.item === item }.takeIf { it != -1 }
+                ?: instances.indexOfFirst { it.item == item }.takeIf { it != -1 }
+                ?: return@update
+            instances.removeAt(index)
+        }
+        if (document.instances.isEmpty()) {
+            documents.remove(id)
+        }
+    }
+
+    /**
+     * Applies [block] to the instances of the given document and, if that changed its keywords (e.g. because an item
+     * was replaced by a renamed one, in whichever order the Add and Remove for that arrive), re-indexes it.
+     */
+    private inline fun Document<T>.update(id: ItemId, block: (MutableList<Instance<T>>) -> Unit) {
+        val oldKeywords = keywords
+        block(instances)
+        keywords = instances.flatMapTo(LinkedHashSet()) { it.keywords }.toList()
+        if (keywords == oldKeywords) return
+
+        forEachTrigram(oldKeywords) { trigram ->
+            val ids = trigrams[trigram] ?: return@forEachTrigram
+            ids.remove(id)
+            if (ids.isEmpty()) trigrams.remove(trigram)
+        }
+        forEachTrigram(keywords) { trigrams.getOrPut(it, ::HashSet).add(id) }
+    }
+
+    private fun search(query: String): Set<ItemId> {
+        val needle = query.lowercase()
+        if (needle.isEmpty()) {
+            return documents.keys.toSet()
+        }
+
+        val previousQuery = lastQuery
+        val candidates: Collection<ItemId> = when {
+            // Typing usually only extends the previous query, so only its results can possibly match
+            previousQuery != null && needle.contains(previousQuery) -> lastResult
+            // Otherwise only items which contain all trigrams of the query can match, and the smallest set of those is
+            // usually small enough that it's not worth intersecting it with the others
+            needle.length >= 3 -> (0..needle.length - 3).map { trigrams[trigram(needle, it)] ?: emptySet() }.minByOrNull { it.size }!!
+            else -> documents.keys
+        }
+
+        val result = candidates.filterTo(HashSet()) { id -> documents.getValue(id).keywords.any { it.contains(needle) } }
+        lastQuery = needle
+        lastResult = result
+        return result
+    }
+
+    /** All items with the same id, which are indexed once, under the union of their keywords. */
+    private class Document<T> {
+        val instances = mutableListOf<Instance<T>>()
+        var keywords: List<String> = emptyList()
+    }
+
+    private class Instance<T>(val item: T, val keywords: List<String>)
+
+    companion object {
+        /** Keywords for items which can only be searched for by their name. */
+        val nameOnly: (Item) -> List<String> = { listOf(it.name) }
+
+        private inline fun forEachTrigram(keywords: List<String>, block: (Long) -> Unit) {
+            for (keyword in keywords) {
+                for (i in 0..keyword.length - 3) {
+                    block(trigram(keyword, i))
+                }
+            }
+        }
+
+        private fun trigram(str: String, index: Int): Long =
+            (str[index].code.toLong() shl 32) or (str[index + 1].code.toLong() shl 16) or str[index + 2].code.toLong()
+    }
+}
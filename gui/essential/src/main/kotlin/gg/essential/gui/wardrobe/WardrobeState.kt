@@ -41,6 +41,7 @@ import gg.essential.gui.elementa.state.v2.onChange
 import gg.essential.gui.elementa.state.v2.set
 import gg.essential.gui.elementa.state.v2.setAll
 import gg.essential.gui.elementa.state.v2.stateBy
+import gg.essential.gui.elementa.state.v2.stateOf
 import gg.essential.gui.elementa.state.v2.stateUsingSystemTime
 import gg.essential.gui.elementa.state.v2.toListState
 import gg.essential.gui.elementa.state.v2.withSystemTime
@@ -225,16 +226,21 @@ class WardrobeState(
         Item.SkinItem(skin.id, skin.name, skin.skin, skin.createdAt, skin.lastUsedAt, skin.favoritedSince)
     }
 
-    private fun <T : Item> ListState<T>.filteredBySearch() =
-        zipWithEachElement(search) { item, search ->
-            if (item.name.contains(search, ignoreCase = true)) {
-                item
-            } else {
-                null
-            }
-        }.filterNotNull()
+    private val cosmeticSearchKeywords: State<(Item.CosmeticOrEmote) -> List<String>> = memo {
+        val categoryNames = rawCategories().associate { it.id to (it.displayNames["en_us"] ?: it.id) }
+        return@memo { item ->
+            val cosmetic = item.cosmetic
+            listOf(item.name) +
+                cosmetic.tags.map { it.replace('_', ' ') } +
+                cosmetic.categories.keys.mapNotNull { categoryNames[it] }
+        }
+    }
+
+    private fun <T : Item> ListState<T>.filteredBySearch(
+        keywords: State<(T) -> List<String>> = stateOf(WardrobeSearchIndex.nameOnly),
+    ) = WardrobeSearchIndex(this, keywords).filter(search)
 
-    val visibleCosmeticItems = cosmeticItems.filteredBySearch()
+    val visibleCosmeticItems = cosmeticItems.filteredBySearch(cosmeticSearchKeywords)
     val visibleBundleItems = bundleItems.filteredBySearch()
     val visibleOutfitItems = outfitItems.filteredBySearch()
     val visibleSkinItems = skinItems.filteredBySearch()
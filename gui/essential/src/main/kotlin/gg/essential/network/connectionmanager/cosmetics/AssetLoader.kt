@@ -41,21 +41,58 @@ import okhttp3.Request
 import org.apache.commons.codec.digest.DigestUtils
 import org.slf4j.LoggerFactory
 import java.io.IOException
+import java.lang.ref.Reference
+import java.lang.ref.SoftReference
 import java.net.URL
 import java.net.URLDecoder
 import java.nio.file.Files
 import java.nio.file.Path
 import java.util.Base64
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executor
+import java.util.concurrent.Executors
 import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicReference
 import kotlin.time.TimeSource
 
-class AssetLoader(private val cachePath: Path) {
+/**
+ * Loads and caches [EssentialAsset]s, first from the on-disk cache at [cachePath] (see [AssetPackCache]), then from
+ * their url.
+ *
+ * Raw bytes of assets which are known to be in the disk cache are kept in memory only up to [maxResidentBytes], after
+ * which the least recently used ones are dropped (and loaded from disk again should they be needed again).
+ * Parsed values are retained softly, unless their [AssetType.reparsable] is false.
+ */
+class AssetLoader @JvmOverloads constructor(
+    private val cachePath: Path,
+    private val maxResidentBytes: Long = DEFAULT_MAX_RESIDENT_BYTES,
+) {
     companion object {
         private val logger = LoggerFactory.getLogger(AssetLoader::class.java)
+
+        val DEFAULT_MAX_RESIDENT_BYTES = (System.getProperty("essential.cosmetics.max_asset_mem_mb")?.toLongOrNull() ?: 64) * 1_000_000
+
+        private val PARSE_THREADS = System.getProperty("essential.cosmetics.parse_threads")?.toInt()
+            ?: (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, 8)
+
+        /**
+         * Dedicated threads for parsing assets and building models from them.
+         * We intentionally do not use the common ForkJoin pool for this, as that's often saturated by MC and other mods.
+         * Shared between all loaders, as there's no point in having more parse threads than there are cores.
+         */
+        private val parsePool = Executors.newFixedThreadPool(PARSE_THREADS, object : ThreadFactory {
+            private val counter = AtomicInteger()
+            override fun newThread(r: Runnable) = Thread(r, "Essential Asset Parser #${counter.incrementAndGet()}").apply {
+                isDaemon = true
+                priority = Thread.NORM_PRIORITY - 1
+            }
+        })
+        private val parseExecutor = LimitedExecutor(parsePool, PARSE_THREADS, PriorityBlockingQueue())
     }
 
     private val pool = Dispatchers.IO.asExecutor()
@@ -64,10 +101,14 @@ class AssetLoader(private val cachePath: Path) {
 
     private val assets: MutableMap<String, AssetState> = ConcurrentHashMap()
 
+    /** Assets whose bytes are currently held in memory and may be evicted, in least-recently-used order. */
+    private val resident = LinkedHashMap<String, AssetState>(16, 0.75f, true)
+    private var residentBytes = 0L
+    private var evictions = 0L
+
     fun getAssetBytes(asset: EssentialAsset, priority: Priority): CompletableFuture<ByteArray> {
         val state = assets.computeIfAbsent(asset.checksum) { AssetState(asset) }
-        state.ensurePriorityAtLeast(priority)
-        return state.future
+        return state.ensurePriorityAtLeast(priority)
     }
 
     fun getProvider(priority: Priority) =
@@ -78,24 +119,130 @@ class AssetLoader(private val cachePath: Path) {
 
     fun <T> getAsset(asset: EssentialAsset, priority: Priority, type: AssetType<T>): Asset<T> {
         val state = assets.computeIfAbsent(asset.checksum) { AssetState(asset) }
-        state.ensurePriorityAtLeast(priority)
-        @Suppress("UNCHECKED_CAST")
-        return state.parsed.computeIfAbsent(type) {
-            val future: CompletableFuture<T> = state.future.thenApplyAsync { bytes ->
-                try {
-                    type.parse(asset, bytes)
-                } catch (e: Exception) {
-                    throw ParseException(asset, type, bytes, e)
+        if (state.type == AssetType.Raw) {
+            state.type = type
+        }
+        val parsed = state.parsed.compute(type) { _, existing ->
+            existing?.takeIf { it.get() != null } ?: run {
+                val task = scheduleParse(state.future, state.currentPriority) { bytes ->
+                    try {
+                        type.parse(asset, bytes)
+                    } catch (e: Exception) {
+                        throw ParseException(asset, type, bytes, e)
+                    }
                 }
+                state.parseTasks.add(task)
+                task.future.whenComplete { _, _ -> state.parseTasks.remove(task) }
+                val result = Asset(state.info, type, state::reloadIfEvicted, task.future)
+                if (type.reparsable) SoftReference(result) else StrongReference(result)
+            }
+        }!!
+        // Must grab a strong reference before we request the bytes, or it may get cleared before the caller gets it
+        @Suppress("UNCHECKED_CAST")
+        val result = parsed.get() as Asset<T>? ?: return getAsset(asset, priority, type)
+        state.ensurePriorityAtLeast(priority)
+        return result
+    }
+
+    /**
+     * Schedules [block] to be run on the shared parse executor once [input] completes successfully.
+     *
+     * Work on the parse executor is ordered by priority, so e.g. the items the user is currently looking at get parsed
+     * and built before ones further down in the list, regardless of when they were requested.
+     * Once the input is available, the task will run at no lower than [Priority.Background] priority, even if it was
+     * only requested passively, because someone else evidently wanted the input.
+     */
+    internal fun <I, T> scheduleParse(input: CompletableFuture<I>, priority: Priority, block: (I) -> T): ParseTask<T> {
+        val task = ParseTask<T>()
+        task.ensurePriorityAtLeast(priority)
+        input.whenComplete { value, throwable ->
+            if (throwable != null) {
+                task.future.completeExceptionally(throwable)
+            } else {
+                task.start { block(value) }
             }
-            Asset(state.info, type, state.future, future)
-        } as Asset<T>
+        }
+        return task
     }
 
     fun getKnownAsset(checksum: String, priority: Priority): CompletableFuture<ByteArray>? {
         val state = assets[checksum] ?: return null
-        state.ensurePriorityAtLeast(priority)
-        return state.future
+        return state.ensurePriorityAtLeast(priority)
+    }
+
+    /** Returns a snapshot of how many bytes are currently held in memory by this loader. */
+    fun getResidentStats(): ResidentStats = synchronized(resident) {
+        val bytesByType = mutableMapOf<AssetType<*>, Long>()
+        for (state in resident.values) {
+            bytesByType[state.type] = (bytesByType[state.type] ?: 0L) + state.residentSize
+        }
+        ResidentStats(residentBytes, maxResidentBytes, bytesByType, resident.size, evictions)
+    }
+
+    private fun touch(state: AssetState) {
+        synchronized(resident) {
+            resident[state.info.checksum]
+        }
+    }
+
+    /** Called once the bytes of the given state are loaded and known to be stored in the disk cache. */
+    private fun markResident(state: AssetState, size: Int) {
+        val evicted = mutableListOf<AssetState>()
+        synchronized(resident) {
+            if (resident.put(state.info.checksum, state) == null) {
+                state.residentSize = size
+                residentBytes += size
+            }
+
+            val iter = resident.values.iterator()
+            while (residentBytes > maxResidentBytes && iter.hasNext()) {
+                val candidate = iter.next()
+                if (candidate === state) {
+                    continue // never evict the asset which was just loaded, someone is probably about to use it
+                }
+                iter.remove()
+                residentBytes -= candidate.residentSize
+                candidate.residentSize = 0
+                evictions++
+                evicted.add(candidate)
+            }
+        }
+        evicted.forEach { it.evict() }
+    }
+
+    /**
+     * Pack file based disk cache, see [AssetPackCache].
+     * Opened lazily (from the [diskExecutor]), so we do not block whichever thread constructs this loader.
+     * If it cannot be opened, we fall back to storing one file per asset.
+     */
+    private val packCache: AssetPackCache? by lazy {
+        try {
+            AssetPackCache.open(cachePath.resolve("pack"))
+        } catch (e: IOException) {
+            logger.error("Failed to open asset pack at $cachePath, falling back to individual files: ", e)
+            null
+        }?.also { scheduleCompactionIfNeeded(it) }
+    }
+    private val compactionScheduled = AtomicBoolean()
+
+    private fun scheduleCompactionIfNeeded(packCache: AssetPackCache? = this.packCache) {
+        if (packCache == null || !packCache.needsCompaction) return
+        if (compactionScheduled.compareAndSet(false, true)) {
+            CompactPackCache(packCache).submit(Priority.BackgroundUnlikely)
+        }
+    }
+
+    private fun verifyChecksum(expected: String, bytes: ByteArray, source: String): Boolean {
+        val checksum = when (expected.length) {
+            64 -> DigestUtils.sha256Hex(bytes)
+            40 -> DigestUtils.sha1Hex(bytes)
+            32 -> DigestUtils.md5Hex(bytes)
+            else -> {
+                logger.warn("Unknown checksum format for $source: $expected")
+                return false
+            }
+        }
+        return checksum.equals(expected, ignoreCase = true)
     }
 
     private fun EssentialAsset.getAssetCachePath(): Path {
@@ -109,9 +256,13 @@ class AssetLoader(private val cachePath: Path) {
     class Asset<T> internal constructor(
         val info: EssentialAsset,
         val type: AssetType<T>,
-        val bytes: CompletableFuture<ByteArray>,
+        private val bytesSupplier: () -> CompletableFuture<ByteArray>,
         val parsed: CompletableFuture<T>,
     ) {
+        /** The raw bytes of this asset. May be re-loaded from the disk cache if they have been evicted from memory. */
+        val bytes: CompletableFuture<ByteArray>
+            get() = bytesSupplier()
+
         val diagnostics: CompletableFuture<List<Diagnostic>> by lazy {
             if (type is JsonAssetType<*>) {
                 bytes.thenApplyAsync { bytes ->
@@ -144,23 +295,88 @@ class AssetLoader(private val cachePath: Path) {
     }
 
     private inner class AssetState(val info: EssentialAsset) {
-        val future = CompletableFuture<ByteArray>()
+        @Volatile
+        var future = CompletableFuture<ByteArray>()
+            private set
 
-        val parsed: MutableMap<AssetType<*>, Asset<*>> = ConcurrentHashMap()
+        val parsed: MutableMap<AssetType<*>, Reference<Asset<*>>> = ConcurrentHashMap()
 
-        private val priority = AtomicReference(Priority.Passive)
+        /** Parse tasks waiting for (or processing) the bytes of this asset, so we can forward priority changes. */
+        val parseTasks: MutableSet<ParseTask<*>> = ConcurrentHashMap.newKeySet()
+
+        /** The type this asset was first requested as, used to attribute its bytes in [ResidentStats]. */
+        @Volatile
+        var type: AssetType<*> = AssetType.Raw
+
+        /** Size of the bytes accounted for in [residentBytes], guarded by [resident]. */
+        var residentSize = 0
+
+        // Priority and step are only ever modified together under `synchronized(this)`, so a priority bump can't
+        // slip in between [evict] swapping out the step and resetting the priority (and then get lost).
+        @Volatile
+        private var priority = Priority.Passive
         private var currentStep: Step? = TryLoadFromCache(this)
+        @Volatile
+        private var priorityBeforeEviction = Priority.Passive
 
-        fun ensurePriorityAtLeast(atLeast: Priority) {
-            if (priority.getAndUpdate { if (it < atLeast) atLeast else it } < atLeast) {
-                currentStep?.submit(atLeast)
+        val currentPriority: Priority
+            get() = priority
+
+        /**
+         * Raises the priority of loading the bytes and returns the future which that applies to.
+         * The future is read under the same lock, so it cannot be one which a concurrent [evict] has already replaced
+         * (and which would then never be submitted).
+         */
+        fun ensurePriorityAtLeast(atLeast: Priority): CompletableFuture<ByteArray> {
+            var raised = false
+            var step: Step? = null
+            val future = synchronized(this) {
+                if (priority < atLeast) {
+                    priority = atLeast
+                    raised = true
+                    step = currentStep
+                }
+                this.future
             }
+            if (raised) {
+                step?.submit(atLeast)
+                parseTasks.forEach { it.ensurePriorityAtLeast(atLeast) }
+            } else if (future.isDone) {
+                touch(this)
+            }
+            return future
         }
 
         fun nextStep(step: Step) {
-            currentStep = step
-            step.submit(priority.get())
+            val priority = synchronized(this) {
+                currentStep = step
+                priority
+            }
+            step.submit(priority)
+        }
+
+        /**
+         * Drops our reference to the loaded bytes. Anyone still holding on to the old future can continue to use it,
+         * and any future requests will start over by loading the bytes from the disk cache.
+         */
+        fun evict() {
+            synchronized(this) {
+                future = CompletableFuture()
+                currentStep = TryLoadFromCache(this)
+                priorityBeforeEviction = priority
+                priority = Priority.Passive
+            }
         }
+
+        /** Returns the bytes future, re-loading it at its previous priority if it has been evicted. */
+        fun reloadIfEvicted(): CompletableFuture<ByteArray> =
+            ensurePriorityAtLeast(priorityBeforeEviction)
+    }
+
+    /** A [Reference] which is never cleared, for parsed values which cannot simply be re-parsed. */
+    private class StrongReference<T>(referent: T) : SoftReference<T>(referent) {
+        @Suppress("unused")
+        private val strong = referent
     }
 
     private inner class TryLoadFromCache(private val assetState: AssetState) : Step(diskExecutor) {
@@ -168,29 +384,53 @@ class AssetLoader(private val cachePath: Path) {
             val bytes = tryLoadFromCache(assetState.info)
             if (bytes != null) {
                 assetState.future.complete(bytes)
+                markResident(assetState, bytes.size)
             } else {
                 assetState.nextStep(Download(assetState))
             }
         }
 
         fun tryLoadFromCache(asset: EssentialAsset): ByteArray? {
+            val packCache = packCache
+            if (packCache != null) {
+                try {
+                    val bytes = packCache.read(asset.checksum)
+                    if (bytes != null) {
+                        if (verifyChecksum(asset.checksum, bytes, asset.url)) {
+                            return bytes
+                        }
+                        logger.warn("Checksum mismatch for {} in asset pack", asset.checksum)
+                        packCache.remove(asset.checksum)
+                        scheduleCompactionIfNeeded()
+                    }
+                } catch (e: IOException) {
+                    logger.warn("Failed to read asset ${asset.checksum} from asset pack: ", e)
+                }
+            }
+
+            val bytes = tryLoadFromLegacyCache(asset) ?: return null
+            if (packCache != null) {
+                // Migrate it into the pack, so we can read it from there next time
+                val cachePath = asset.getAssetCachePath()
+                try {
+                    packCache.write(asset.checksum, bytes)
+                    Files.delete(cachePath)
+                } catch (e: IOException) {
+                    logger.warn("Failed to migrate asset from $cachePath into asset pack: ", e)
+                }
+            }
+            return bytes
+        }
+
+        private fun tryLoadFromLegacyCache(asset: EssentialAsset): ByteArray? {
             val cachePath = asset.getAssetCachePath()
             if (!Files.exists(cachePath)) {
                 return null
             }
             try {
                 val bytes = Files.readAllBytes(cachePath)
-                val checksum = when (asset.checksum.length) {
-                    64 -> DigestUtils.sha256Hex(bytes)
-                    40 -> DigestUtils.sha1Hex(bytes)
-                    32 -> DigestUtils.md5Hex(bytes)
-                    else -> {
-                        logger.warn("Unknown checksum format for ${asset.url}: ${asset.checksum}")
-                        return null
-                    }
-                }
-                if (!checksum.equals(asset.checksum, ignoreCase = true)) {
-                    logger.warn("Checksum mismatch for {}: {}", cachePath, checksum)
+                if (!verifyChecksum(asset.checksum, bytes, asset.url)) {
+                    logger.warn("Checksum mismatch for {}", cachePath)
                     return null
                 }
                 return bytes
@@ -250,16 +490,64 @@ class AssetLoader(private val cachePath: Path) {
 
     private inner class SaveToCache(private val assetState: AssetState, private val bytes: ByteArray) : Step(diskExecutor) {
         override fun run() {
-            val cachePath = assetState.info.getAssetCachePath()
+            val packCache = packCache
             try {
-                Files.createDirectories(cachePath.parent)
-                Files.write(cachePath, bytes)
+                if (packCache != null) {
+                    packCache.write(assetState.info.checksum, bytes)
+                } else {
+                    val cachePath = assetState.info.getAssetCachePath()
+                    Files.createDirectories(cachePath.parent)
+                    Files.write(cachePath, bytes)
+                }
+                // Only now that we can re-load it from disk may we consider evicting it from memory
+                markResident(assetState, bytes.size)
+            } catch (e: IOException) {
+                logger.error("Failed to cache \"${assetState.info.url}\": ", e)
+            }
+        }
+    }
+
+    private inner class CompactPackCache(private val packCache: AssetPackCache) : Step(diskExecutor) {
+        override fun run() {
+            try {
+                packCache.compact { checksum, bytes -> verifyChecksum(checksum, bytes, checksum) }
             } catch (e: IOException) {
-                logger.error("Failed to cache \"${assetState.info.url}\" at \"$cachePath\": ", e)
+                logger.error("Failed to compact asset pack: ", e)
+            } finally {
+                compactionScheduled.set(false)
             }
         }
     }
 
+    /** A unit of work on the shared parse executor, see [scheduleParse]. */
+    internal class ParseTask<T> {
+        val future = CompletableFuture<T>()
+
+        private val priority = AtomicReference(Priority.Passive)
+        @Volatile
+        private var step: Step? = null
+
+        fun ensurePriorityAtLeast(atLeast: Priority) {
+            priority.getAndUpdate { if (it < atLeast) atLeast else it }
+            step?.submit(priority.get())
+        }
+
+        fun start(work: () -> T) {
+            val step = object : Step(parseExecutor) {
+                override fun run() {
+                    try {
+                        future.complete(work())
+                    } catch (e: Throwable) {
+                        // Wrapped the same way CompletableFuture itself would for failures in `thenApply` and co.
+                        future.completeExceptionally(e as? CompletionException ?: CompletionException(e))
+                    }
+                }
+            }
+            this.step = step
+            step.submit(maxOf(priority.get(), Priority.Background))
+        }
+    }
+
     private abstract class Step(private val executor: Executor) : Runnable {
         private val state = AtomicReference(State.Pending)
         private val priority = AtomicReference(Priority.Passive)
@@ -314,6 +602,17 @@ class AssetLoader(private val cachePath: Path) {
         Blocking,
     }
 
+    data class ResidentStats(
+        /** Total size of all raw asset bytes currently held in memory (excluding ones not yet stored on disk). */
+        val residentBytes: Long,
+        val maxResidentBytes: Long,
+        /** [residentBytes] by the type each asset was first requested as ([AssetType.Raw] if only raw bytes were). */
+        val residentBytesByType: Map<AssetType<*>, Long>,
+        val residentAssets: Int,
+        /** How many times raw bytes have been evicted from memory since this loader was created. */
+        val evictions: Long,
+    )
+
     class ParseException(
         val asset: EssentialAsset,
         val type: AssetType<*>,
@@ -324,6 +623,13 @@ class AssetLoader(private val cachePath: Path) {
     abstract class AssetType<T>(
         val parse: (asset: EssentialAsset, bytes: ByteArray) -> T
     ) {
+        /**
+         * Whether parsed values of this type may be dropped when no longer used and simply be re-parsed should they be
+         * needed again. Should be `false` if parsing allocates resources which are not released when garbage collected.
+         */
+        open val reparsable: Boolean
+            get() = true
+
         data object Raw : AssetType<ByteArray>({ _, bytes -> bytes })
         data object Model : JsonAssetType<ModelFile>(ModelFile.serializer())
         data object Animation : JsonAssetType<AnimationFile>(AnimationFile.serializer())
@@ -331,7 +637,10 @@ class AssetLoader(private val cachePath: Path) {
         data object SoundDefinitions : JsonAssetType<SoundDefinitionsFile>(SoundDefinitionsFile.serializer())
         data object Texture : AssetType<RenderBackend.Texture>({ asset, bytes ->
             runBlocking { platform.renderBackend.readTexture(asset.checksum, bytes) }
-        })
+        }) {
+            override val reparsable: Boolean
+                get() = false
+        }
         data object Mask : AssetType<SkinMask>({ _, bytes ->
             SkinMask.read(Bitmap.fromOrThrow(bytes.inputStream()))
         })
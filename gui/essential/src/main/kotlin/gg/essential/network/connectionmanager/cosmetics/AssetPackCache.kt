@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.cosmetics
+
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * An on-disk asset cache which stores all assets in a few large append-only data segments plus a single index file,
+ * instead of one file per asset, so warming the cache only requires a few sequential reads rather than thousands of
+ * individual file opens.
+ *
+ * Data segments are memory-mapped for reading. Entries are only ever appended; overwritten or [remove]d entries stay
+ * in their segment as dead bytes until the next [compact], which rewrites all live entries into a new generation of
+ * segments. Segments of previous generations are deleted once no longer used (or on the next start, if they are still
+ * mapped, as is the case on Windows).
+ *
+ * Index format: a header (magic, version, generation) followed by a sequence of
+ * `(checksum length: u16, checksum: utf8, segment: i32, offset: i64, length: i32)` entries, where a negative length
+ * marks the removal of the entry. A truncated trailing entry (e.g. from a crash mid-write) is ignored.
+ *
+ * This class is thread-safe. Reads do not block on writes or compaction.
+ */
+class AssetPackCache private constructor(
+    private val directory: Path,
+    private val maxSegmentSize: Long,
+) {
+    private class Entry(val segment: Int, val offset: Long, val length: Int)
+
+    private class Segment(val path: Path) {
+        @Volatile
+        private var mapped: ByteBuffer? = null
+
+        fun read(offset: Long, length: Int): ByteArray {
+            var buf = mapped
+            if (buf == null || buf.capacity() < offset + length) {
+                buf = synchronized(this) {
+                    FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    }.also { mapped = it }
+                }
+                if (buf.capacity() < offset + length) {
+                    throw IOException("Entry at $offset+$length is out of bounds of $path (${buf.capacity()} bytes)")
+                }
+            }
+            val result = ByteArray(length)
+            val view = buf.duplicate()
+            view.position(offset.toInt())
+            view.get(result)
+            return result
+        }
+    }
+
+    /** Immutable (apart from [entries], which is only mutated under [lock]) snapshot used by readers. */
+    private class Generation(
+        val id: Int,
+        val entries: MutableMap<String, Entry>,
+        val segments: MutableMap<Int, Segment>,
+    )
+
+    private val lock = Any()
+
+    @Volatile
+    private lateinit var current: Generation
+
+    // Guarded by [lock]
+    private lateinit var indexChannel: FileChannel
+    private var writeSegmentId = 0
+    private var writeChannel: FileChannel? = null
+    private var liveBytes = 0L
+    private var totalBytes = 0L
+
+    /** Whether enough of the stored bytes are dead that a [compact] would be worth it. */
+    val needsCompaction: Boolean
+        get() = synchronized(lock) { totalBytes > MIN_COMPACTION_SIZE && liveBytes < totalBytes / 2 }
+
+    private fun indexPath() = directory.resolve("index")
+    private fun segmentPath(generation: Int, segment: Int) = directory.resolve("$generation-$segment.pack")
+
+    private fun open() {
+        Files.createDirectories(directory)
+
+        val generation = readIndex() ?: createIndex(0)
+        current = generation
+
+        // Clean up left-overs from previous generations which could not be deleted at the time
+        Files.newDirectoryStream(directory, "*.pack").use { stream ->
+            for (file in stream) {
+                if (!file.fileName.toString().startsWith("${generation.id}-")) {
+                    deleteSegment(file)
+                }
+            }
+        }
+
+        for ((id, segment) in generation.segments) {
+            if (Files.exists(segment.path)) {
+                totalBytes += Files.size(segment.path)
+            }
+            writeSegmentId = maxOf(writeSegmentId, id)
+        }
+        liveBytes = generation.entries.values.sumOf { it.length.toLong() }
+    }
+
+    /** Reads the existing index. Returns `null` if there is none or if it cannot be used. */
+    private fun readIndex(): Generation? {
+        val path = indexPath()
+        if (!Files.exists(path)) return null
+
+        val buf = ByteBuffer.wrap(Files.readAllBytes(path))
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            LOGGER.warn("Discarding asset pack index at {} due to unknown format", path)
+            return null
+        }
+        val generationId = buf.getInt()
+
+        val entries = ConcurrentHashMap<String, Entry>()
+        val segments = ConcurrentHashMap<Int, Segment>()
+        var validLength = buf.position()
+        while (buf.remaining() >= 2) {
+            val checksumLength = buf.getShort().toInt() and 0xffff
+            if (buf.remaining() < checksumLength + 16) break
+            val checksum = ByteArray(checksumLength).also { buf.get(it) }.decodeToString()
+            val segment = buf.getInt()
+            val offset = buf.getLong()
+            val length = buf.getInt()
+            if (length < 0) {
+                entries.remove(checksum)
+            } else {
+                entries[checksum] = Entry(segment, offset, length)
+                segments.getOrPut(segment) { Segment(segmentPath(generationId, segment)) }
+            }
+            validLength = buf.position()
+        }
+
+        indexChannel = FileChannel.open(path, StandardOpenOption.WRITE)
+        // Drop any partially written entry at the end, so we can safely append new entries after it
+        indexChannel.truncate(validLength.toLong())
+        indexChannel.position(validLength.toLong())
+
+        return Generation(generationId, entries, segments)
+    }
+
+    private fun createIndex(generationId: Int): Generation {
+        val tmpPath = directory.resolve("index.tmp")
+        FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE).use {
+            it.writeFully(header(generationId))
+        }
+        Files.move(tmpPath, indexPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        indexChannel = FileChannel.open(indexPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+        return Generation(generationId, ConcurrentHashMap(), ConcurrentHashMap())
+    }
+
+    /** Returns the stored bytes for the given checksum or `null` if there is no such entry. */
+    fun read(checksum: String): ByteArray? {
+        val generation = current
+        val entry = generation.entries[checksum] ?: return null
+        val segment = generation.segments[entry.segment] ?: return null
+        return segment.read(entry.offset, entry.length)
+    }
+
+    fun contains(checksum: String): Boolean = current.entries.containsKey(checksum)
+
+    fun write(checksum: String, bytes: ByteArray) {
+        synchronized(lock) {
+            val generation = current
+            val channel = writeChannelFor(generation, bytes.size)
+            val offset = channel.position()
+            channel.writeFully(ByteBuffer.wrap(bytes))
+
+            // Index entry is only written once the data is, so we'll never have an entry pointing at garbage
+            indexChannel.writeFully(encodeEntry(checksum, writeSegmentId, offset, bytes.size))
+
+            val previous = generation.entries.put(checksum, Entry(writeSegmentId, offset, bytes.size))
+            liveBytes += bytes.size - (previous?.length ?: 0)
+            totalBytes += bytes.size
+        }
+    }
+
+    fun remove(checksum: String) {
+        synchronized(lock) {
+            val previous = current.entries.remove(checksum) ?: return
+            indexChannel.writeFully(encodeEntry(checksum, 0, 0, -1))
+            liveBytes -= previous.length
+        }
+    }
+
+    private fun writeChannelFor(generation: Generation, size: Int): FileChannel {
+        var channel = writeChannel
+        if (channel != null && channel.position() > 0 && channel.position() + size > maxSegmentSize) {
+            channel.close()
+            channel = null
+            writeSegmentId++
+        }
+        if (channel == null) {
+            val path = segmentPath(generation.id, writeSegmentId)
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+            channel.position(channel.size())
+            generation.segments.getOrPut(writeSegmentId) { Segment(path) }
+            writeChannel = channel
+        }
+        return channel!!
+    }
+
+    /**
+     * Rewrites all live entries into a fresh generation of segments, dropping all dead bytes.
+     * Entries for which [verify] returns `false` are dropped as well.
+     */
+    fun compact(verify: (checksum: String, bytes: ByteArray) -> Boolean) {
+        synchronized(lock) {
+            val old = current
+            val newId = old.id + 1
+
+            writeChannel?.close()
+            writeChannel = null
+            writeSegmentId = 0
+
+            val newEntries = ConcurrentHashMap<String, Entry>()
+            val newSegments = ConcurrentHashMap<Int, Segment>()
+            val newGeneration = Generation(newId, newEntries, newSegments)
+            val index = ByteArrayBuilder()
+            index.append(header(newId))
+
+            // Copy in on-disk order so we read the old segments sequentially
+            val liveEntries = old.entries.entries.sortedWith(compareBy({ it.value.segment }, { it.value.offset }))
+            var newLiveBytes = 0L
+            for ((checksum, entry) in liveEntries) {
+                val bytes = try {
+                    old.segments[entry.segment]?.read(entry.offset, entry.length) ?: continue
+                } catch (e: IOException) {
+                    LOGGER.warn("Failed to read $checksum from asset pack during compaction: ", e)
+                    continue
+                }
+                if (!verify(checksum, bytes)) {
+                    LOGGER.warn("Dropping {} from asset pack due to checksum mismatch", checksum)
+                    continue
+                }
+                val channel = writeChannelFor(newGeneration, bytes.size)
+                val offset = channel.position()
+                channel.writeFully(ByteBuffer.wrap(bytes))
+                newEntries[checksum] = Entry(writeSegmentId, offset, bytes.size)
+                index.append(encodeEntry(checksum, writeSegmentId, offset, bytes.size))
+                newLiveBytes += bytes.size
+            }
+
+            val tmpPath = directory.resolve("index.tmp")
+            FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE).use {
+                it.writeFully(index.toByteBuffer())
+            }
+            indexChannel.close()
+            Files.move(tmpPath, indexPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            indexChannel = FileChannel.open(indexPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+
+            current = newGeneration
+            liveBytes = newLiveBytes
+            totalBytes = newLiveBytes
+
+            for (segment in old.segments.values) {
+                deleteSegment(segment.path)
+            }
+        }
+    }
+
+    private fun deleteSegment(path: Path) {
+        try {
+            Files.deleteIfExists(path)
+        } catch (e: IOException) {
+            // Most likely still mapped (Windows does not allow deleting those), we'll try again on next start
+            LOGGER.debug("Failed to delete old asset pack segment {}: {}", path, e.toString())
+        }
+    }
+
+    private class ByteArrayBuilder {
+        private var buf = ByteBuffer.allocate(4096)
+
+        fun append(other: ByteBuffer) {
+            if (buf.remaining() < other.remaining()) {
+                val grown = ByteBuffer.allocate(maxOf(buf.capacity() * 2, buf.position() + other.remaining()))
+                buf.flip()
+                grown.put(buf)
+                buf = grown
+            }
+            buf.put(other)
+        }
+
+        fun toByteBuffer(): ByteBuffer = (buf.duplicate().flip() as ByteBuffer)
+    }
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(AssetPackCache::class.java)
+
+        private const val MAGIC = 0x45415043 // "EAPC"
+        private const val VERSION = 1
+        private const val HEADER_SIZE = 12
+
+        const val DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024
+        private const val MIN_COMPACTION_SIZE = 16L * 1024 * 1024
+
+        /** Opens (or creates) the pack cache in the given directory. */
+        @Throws(IOException::class)
+        fun open(directory: Path, maxSegmentSize: Long = DEFAULT_MAX_SEGMENT_SIZE): AssetPackCache =
+            AssetPackCache(directory, maxSegmentSize).apply { open() }
+
+        private fun header(generation: Int): ByteBuffer =
+            ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putInt(generation).flip() as ByteBuffer
+
+        private fun encodeEntry(checksum: String, segment: Int, offset: Long, length: Int): ByteBuffer {
+            val checksumBytes = checksum.encodeToByteArray()
+            return ByteBuffer.allocate(2 + checksumBytes.size + 16)
+                .putShort(checksumBytes.size.toShort())
+                .put(checksumBytes)
+                .putInt(segment)
+                .putLong(offset)
+                .putInt(length)
+                .flip() as ByteBuffer
+        }
+
+        private fun FileChannel.writeFully(buf: ByteBuffer) {
+            while (buf.hasRemaining()) {
+                write(buf)
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.cosmetics
+
+import gg.essential.connectionmanager.common.packet.cosmetic.ClientCosmeticRequestPacket
+import gg.essential.connectionmanager.common.packet.cosmetic.ServerCosmeticsPopulatePacket
+import gg.essential.connectionmanager.common.packet.cosmetic.categories.ClientCosmeticCategoriesRequestPacket
+import gg.essential.connectionmanager.common.packet.cosmetic.categories.ServerCosmeticCategoriesPopulatePacket
+import gg.essential.connectionmanager.common.packet.wardrobe.ClientWardrobeStoreBundleRequestPacket
+import gg.essential.connectionmanager.common.packet.wardrobe.ServerWardrobeStoreBundlePacket
+import gg.essential.cosmetics.CosmeticBundleId
+import gg.essential.cosmetics.CosmeticCategoryId
+import gg.essential.cosmetics.CosmeticId
+import gg.essential.network.CMConnection
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+
+/**
+ * Coalesces requests for missing categories, cosmetics and bundles into as few packets as possible.
+ *
+ * Ids requested within [batchWindow] of each other are sent as a single packet per kind, with at most [maxBatchSize]
+ * ids per packet. Ids which have already been requested (or are known) are never requested again until [reset].
+ * Requests with [Priority.High] (e.g. cosmetics of players which are within render distance) skip the window and are
+ * put at the front of the next batch.
+ *
+ * Must only be used from the main thread.
+ */
+class CosmeticRequestScheduler(
+    private val cmConnection: CMConnection,
+    private val batchWindow: Duration = 100.milliseconds,
+    private val maxBatchSize: Int = 250,
+) {
+    val categories = Queue<CosmeticCategoryId> { ids ->
+        cmConnection.call(ClientCosmeticCategoriesRequestPacket(ids, null, null))
+            .exponentialBackoff()
+            .await<ServerCosmeticCategoriesPopulatePacket>()
+    }
+
+    val cosmetics = Queue<CosmeticId> { ids ->
+        cmConnection.call(ClientCosmeticRequestPacket(ids, null))
+            .exponentialBackoff()
+            .await<ServerCosmeticsPopulatePacket>()
+    }
+
+    val bundles = Queue<CosmeticBundleId> { ids ->
+        cmConnection.call(ClientWardrobeStoreBundleRequestPacket(ids))
+            .exponentialBackoff()
+            .await<ServerWardrobeStoreBundlePacket>()
+    }
+
+    private val queues = listOf(categories, cosmetics, bundles)
+
+    private val inFlight = ActivityTracker()
+
+    private var scheduledFlush: Job? = null
+    private var scheduledFlushIsImmediate = false
+
+    /** Returns whether there are ids waiting to be sent or batches sent less than [timeout] ago without a response. */
+    fun hasActiveRequests(timeout: Duration): Boolean {
+        return queues.any { it.pendingSize > 0 } || inFlight.isActive(timeout)
+    }
+
+    /** Forgets about all known, pending and in-flight ids. */
+    fun reset() {
+        scheduledFlush?.cancel()
+        scheduledFlush = null
+        queues.forEach { it.clear() }
+        inFlight.clear()
+    }
+
+    private fun scheduleFlush(immediate: Boolean) {
+        val existing = scheduledFlush
+        if (existing != null && existing.isActive && (scheduledFlushIsImmediate || !immediate)) {
+            return // an earlier (or equally early) flush is already scheduled, it'll pick up our ids too
+        }
+        existing?.cancel()
+
+        scheduledFlushIsImmediate = immediate
+        scheduledFlush = cmConnection.connectionScope.launch {
+            if (!immediate) {
+                delay(batchWindow)
+            }
+            scheduledFlush = null
+            queues.forEach { it.flush() }
+        }
+    }
+
+    inner class Queue<Id> internal constructor(private val send: suspend (Set<Id>) -> Unit) {
+        private val knownOrRequested = mutableSetOf<Id>()
+        private val pendingHigh = LinkedHashSet<Id>()
+        private val pendingNormal = LinkedHashSet<Id>()
+
+        internal val pendingSize: Int
+            get() = pendingHigh.size + pendingNormal.size
+
+        /** Marks the given id as known, e.g. because the server sent it to us on its own. */
+        fun markKnown(id: Id) {
+            knownOrRequested.add(id)
+            pendingHigh.remove(id)
+            pendingNormal.remove(id)
+        }
+
+        /** Queues all ids which are not yet known or requested to be sent with the next batch. */
+        fun request(ids: Collection<Id>, priority: Priority = Priority.Normal) {
+            var added = false
+            for (id in ids) {
+                if (knownOrRequested.add(id)) {
+                    (if (priority == Priority.High) pendingHigh else pendingNormal).add(id)
+                    added = true
+                } else if (priority == Priority.High && pendingNormal.remove(id)) {
+                    pendingHigh.add(id)
+                    added = true
+                }
+            }
+            if (added) {
+                scheduleFlush(immediate = priority == Priority.High || pendingSize >= maxBatchSize)
+            }
+        }
+
+        internal fun flush() {
+            while (pendingSize > 0) {
+                val batch = LinkedHashSet<Id>(minOf(pendingSize, maxBatchSize))
+                drainInto(pendingHigh, batch)
+                drainInto(pendingNormal, batch)
+
+                val token = inFlight.start()
+                cmConnection.connectionScope.launch {
+                    try {
+                        send(batch)
+                    } finally {
+                        inFlight.finish(token)
+                    }
+                }
+            }
+        }
+
+        private fun drainInto(source: MutableSet<Id>, batch: MutableSet<Id>) {
+            val iter = source.iterator()
+            while (batch.size < maxBatchSize && iter.hasNext()) {
+                batch.add(iter.next())
+                iter.remove()
+            }
+        }
+
+        internal fun clear() {
+            knownOrRequested.clear()
+            pendingHigh.clear()
+            pendingNormal.clear()
+        }
+    }
+
+    enum class Priority {
+        Normal,
+        High,
+    }
+}
+
+/**
+ * Tracks the start time of in-flight operations so we can cheaply check whether any recent ones are still outstanding.
+ *
+ * Operations are stored in start order, so only the most recently started unfinished one needs to be checked, and
+ * finished ones are trimmed from both ends, making all operations amortized O(1).
+ */
+internal class ActivityTracker {
+    private val active = java.util.ArrayDeque<Token>()
+
+    fun start(): Token = Token(System.nanoTime()).also { active.addLast(it) }
+
+    fun finish(token: Token) {
+        token.done = true
+        while (active.peekFirst()?.done == true) active.removeFirst()
+        while (active.peekLast()?.done == true) active.removeLast()
+    }
+
+    fun isActive(timeout: Duration): Boolean {
+        val newest = active.peekLast() ?: return false
+        return System.nanoTime() - newest.startNanos < timeout.inWholeNanoseconds
+    }
+
+    fun clear() {
+        active.clear()
+    }
+
+    class Token(val startNanos: Long) {
+        var done = false
+    }
+}
@@ -11,12 +11,6 @@
  */
 package gg.essential.network.connectionmanager.cosmetics
 
-import gg.essential.connectionmanager.common.packet.cosmetic.ClientCosmeticRequestPacket
-import gg.essential.connectionmanager.common.packet.cosmetic.ServerCosmeticsPopulatePacket
-import gg.essential.connectionmanager.common.packet.cosmetic.categories.ClientCosmeticCategoriesRequestPacket
-import gg.essential.connectionmanager.common.packet.cosmetic.categories.ServerCosmeticCategoriesPopulatePacket
-import gg.essential.connectionmanager.common.packet.wardrobe.ClientWardrobeStoreBundleRequestPacket
-import gg.essential.connectionmanager.common.packet.wardrobe.ServerWardrobeStoreBundlePacket
 import gg.essential.cosmetics.CosmeticBundleId
 import gg.essential.cosmetics.CosmeticCategoryId
 import gg.essential.cosmetics.CosmeticId
@@ -40,11 +34,11 @@ import gg.essential.util.Client
 import gg.essential.util.logExceptions
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.asExecutor
-import kotlinx.coroutines.launch
 import kotlinx.serialization.json.Json
 import java.time.Duration
 import java.time.Instant
 import java.util.concurrent.CompletableFuture
+import kotlin.time.Duration.Companion.milliseconds
 import gg.essential.cosmetics.model.Cosmetic as InfraCosmetic
 import gg.essential.cosmetics.model.CosmeticCategory as InfraCategory
 import gg.essential.cosmetics.model.CosmeticType as InfraType
@@ -56,15 +50,9 @@ class InfraCosmeticsData private constructor(
 ) : CosmeticsData by state {
     constructor(cmConnection: CMConnection, assetLoader: AssetLoader) : this(cmConnection, assetLoader, MutableCosmeticsData())
 
-    private val categoriesKnownOrRequested = mutableSetOf<CosmeticCategoryId>()
-    private val activeCategoryRequests = mutableMapOf<CosmeticCategoryId, Instant>()
+    private val requestScheduler = CosmeticRequestScheduler(cmConnection)
 
-    private val cosmeticsKnownOrRequested = mutableSetOf<CosmeticId>()
-    private val activeCosmeticRequests = mutableMapOf<CosmeticId, Instant>()
-    private val cosmeticsLoading = mutableMapOf<CosmeticId, Instant>()
-
-    private val bundlesKnownOrRequested = mutableSetOf<CosmeticBundleId>()
-    private val activeBundleRequests = mutableMapOf<CosmeticBundleId, Instant>()
+    private val cosmeticsLoading = ActivityTracker()
 
     private var featuredPageCollectionLoading: Instant? = null
 
@@ -75,20 +63,15 @@ class InfraCosmeticsData private constructor(
     fun resetState() {
         state.clear()
 
-        categoriesKnownOrRequested.clear()
-        activeCategoryRequests.clear()
-        cosmeticsKnownOrRequested.clear()
-        activeCosmeticRequests.clear()
-        bundlesKnownOrRequested.clear()
-        activeBundleRequests.clear()
+        requestScheduler.reset()
+        cosmeticsLoading.clear()
 
         // Popular is a special category that we should ignore when determining if we have received all cosmetics
-        categoriesKnownOrRequested.add("popular")
+        requestScheduler.categories.markKnown("popular")
     }
 
     fun addCategory(infraCategory: InfraCategory) {
-        categoriesKnownOrRequested.add(infraCategory.id)
-        activeCategoryRequests.remove(infraCategory.id)
+        requestScheduler.categories.markKnown(infraCategory.id)
 
         val category = infraCategory.toMod()
         val existingIndex = state.categories.get().indexOfFirst { it.id == category.id }
@@ -116,16 +99,15 @@ class InfraCosmeticsData private constructor(
     }
 
     fun addCosmetic(infraCosmetic: InfraCosmetic) {
-        cosmeticsKnownOrRequested.add(infraCosmetic.id)
-        activeCosmeticRequests.remove(infraCosmetic.id)
+        requestScheduler.cosmetics.markKnown(infraCosmetic.id)
 
         val assets = CosmeticAssets(infraCosmetic.assetsMap.mapValues { it.value.toMod() })
         val settingsAsset = assets.settings
         val settingsFuture = if (settingsAsset != null) {
-            cosmeticsLoading[infraCosmetic.id] = Instant.now()
+            val loading = cosmeticsLoading.start()
             assetLoader.getAssetBytes(settingsAsset, AssetLoader.Priority.Blocking)
                 .thenApplyAsync { CosmeticProperty.fromJsonArray(String(it)) }
-                .whenCompleteAsync({ _, _ -> cosmeticsLoading.remove(infraCosmetic.id) }, Dispatchers.Client.asExecutor())
+                .whenCompleteAsync({ _, _ -> cosmeticsLoading.finish(loading) }, Dispatchers.Client.asExecutor())
                 .logExceptions()
         } else {
             CompletableFuture.completedFuture(emptyList())
@@ -148,8 +130,7 @@ class InfraCosmeticsData private constructor(
     }
 
     fun addBundle(infraBundle: CosmeticStoreBundle) {
-        bundlesKnownOrRequested.add(infraBundle.id)
-        activeBundleRequests.remove(infraBundle.id)
+        requestScheduler.bundles.markKnown(infraBundle.id)
 
         val bundle = infraBundle.toMod()
         val existingIndex = state.bundles.get().indexOfFirst { it.id == bundle.id }
@@ -188,75 +169,32 @@ class InfraCosmeticsData private constructor(
 
     /** Requests unknown categories from the connection manager if they are not already populated or loading */
     fun requestCategoriesIfMissing(categoryIds: Collection<CosmeticCategoryId>) {
-        val unknownIds = categoryIds.filter { categoriesKnownOrRequested.add(it) }
-        if (unknownIds.isEmpty()) return
-
-        for (id in unknownIds) {
-            activeCategoryRequests[id] = Instant.now()
-        }
-
-        cmConnection.connectionScope.launch {
-            cmConnection.call(ClientCosmeticCategoriesRequestPacket(unknownIds.toSet(), null, null))
-                .exponentialBackoff()
-                .await<ServerCosmeticCategoriesPopulatePacket>()
-
-            for (id in unknownIds) {
-                activeCategoryRequests.remove(id)
-            }
-        }
+        requestScheduler.categories.request(categoryIds)
     }
 
-    /** Requests unknown cosmetics from the connection manager if they are not already populated or loading */
-    fun requestCosmeticsIfMissing(cosmeticIds: Collection<CosmeticId>) {
-        val unknownIds = cosmeticIds.filter { cosmeticsKnownOrRequested.add(it) }
-        if (unknownIds.isEmpty()) return
-
-        for (id in unknownIds) {
-            activeCosmeticRequests[id] = Instant.now()
-        }
-
-        cmConnection.connectionScope.launch {
-            cmConnection.call(ClientCosmeticRequestPacket(unknownIds.toSet(), null))
-                .exponentialBackoff()
-                .await<ServerCosmeticsPopulatePacket>()
-
-            for (id in unknownIds) {
-                activeCosmeticRequests.remove(id)
-            }
-        }
+    /**
+     * Requests unknown cosmetics from the connection manager if they are not already populated or loading.
+     * Requests are batched with other requests made shortly before/after, unless [priority] is
+     * [CosmeticRequestScheduler.Priority.High].
+     */
+    @JvmOverloads
+    fun requestCosmeticsIfMissing(
+        cosmeticIds: Collection<CosmeticId>,
+        priority: CosmeticRequestScheduler.Priority = CosmeticRequestScheduler.Priority.Normal,
+    ) {
+        requestScheduler.cosmetics.request(cosmeticIds, priority)
     }
 
     /** Requests unknown bundles from the connection manager if they are not already populated or loading */
     fun requestBundlesIfMissing(bundleIds: Collection<CosmeticBundleId>) {
-        val unknownIds = bundleIds.filter { bundlesKnownOrRequested.add(it) }
-        if (unknownIds.isEmpty()) return
-
-        for (id in unknownIds) {
-            activeBundleRequests[id] = Instant.now()
-        }
-
-        cmConnection.connectionScope.launch {
-            cmConnection.call(ClientWardrobeStoreBundleRequestPacket(unknownIds.toSet()))
-                .exponentialBackoff()
-                .await<ServerWardrobeStoreBundlePacket>()
-
-            for (id in unknownIds) {
-                activeBundleRequests.remove(id)
-            }
-        }
+        requestScheduler.bundles.request(bundleIds)
     }
 
     fun hasActiveRequests(timeoutMs: Long): Boolean {
-        val now = Instant.now()
-
-        fun Map<String, Instant>.anyActive(): Boolean =
-            values.any { Duration.between(it, now).toMillis() < timeoutMs }
-
-        return activeCategoryRequests.anyActive()
-                || activeCosmeticRequests.anyActive()
-                || (activeBundleRequests.anyActive())
-                || ((featuredPageCollectionLoading?.let { Duration.between(it, now).toMillis() < timeoutMs } ?: false))
-                || cosmeticsLoading.anyActive()
+        val timeout = timeoutMs.milliseconds
+        return requestScheduler.hasActiveRequests(timeout)
+                || ((featuredPageCollectionLoading?.let { Duration.between(it, Instant.now()).toMillis() < timeoutMs } ?: false))
+                || cosmeticsLoading.isActive(timeout)
     }
 
     override fun cosmetic(id: CosmeticId): State<Cosmetic?> {
@@ -49,6 +49,7 @@ class InfraEquippedOutfitsManager(
     cosmeticsData: CosmeticsData,
     private val infraCosmeticsData: InfraCosmeticsData,
     private val applyCapeModelPartEnabled: (Boolean) -> Unit,
+    private val isPlayerInRenderDistance: (UUID) -> Boolean,
 ) : EquippedOutfitsManager, NetworkedManager, SubscriptionManager.Listener {
 
     private val refHolder: ReferenceHolder = ReferenceHolderImpl()
@@ -131,7 +132,13 @@ class InfraEquippedOutfitsManager(
 
     fun update(playerId: UUID, outfit: InfraOutfit) {
         if (subscriptionManager.isSubscribedOrSelf(playerId)) {
-            infraCosmeticsData.requestCosmeticsIfMissing(outfit.cosmetics.values)
+            // Cosmetics of players we can actually see are needed right away, everything else can wait for the next batch
+            val priority = if (playerId == ownUuid || isPlayerInRenderDistance(playerId)) {
+                CosmeticRequestScheduler.Priority.High
+            } else {
+                CosmeticRequestScheduler.Priority.Normal
+            }
+            infraCosmeticsData.requestCosmeticsIfMissing(outfit.cosmetics.values, priority)
 
             infraOutfits[playerId] = outfit
             infraOutfitStates[playerId]?.set(outfit)
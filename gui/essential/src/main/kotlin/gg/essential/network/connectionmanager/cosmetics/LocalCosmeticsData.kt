@@ -24,6 +24,7 @@ import gg.essential.gui.elementa.state.v2.set
 import gg.essential.handlers.io.DirectoryWatcher
 import gg.essential.handlers.io.FileEventType
 import gg.essential.handlers.io.FileSystemEvent
+import gg.essential.mod.EssentialAsset
 import gg.essential.mod.cosmetics.CosmeticBundle
 import gg.essential.mod.cosmetics.CosmeticCategory
 import gg.essential.mod.cosmetics.CosmeticType
@@ -33,24 +34,32 @@ import gg.essential.network.cosmetics.Cosmetic
 import gg.essential.util.Client
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.async
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.future.await
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
+import org.apache.commons.codec.digest.DigestUtils
 import org.apache.logging.log4j.LogManager
+import java.io.IOException
 import java.nio.file.Files
 import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.BasicFileAttributes
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.TimeUnit
 import kotlin.io.path.createDirectories
 import kotlin.io.path.deleteIfExists
+import kotlin.io.path.exists
 import kotlin.io.path.isRegularFile
 import kotlin.io.path.readBytes
 import kotlin.io.path.relativeTo
 import kotlin.io.path.writeBytes
 import kotlin.streams.toList
+import kotlin.time.Duration.Companion.seconds
 
 class LocalCosmeticsData private constructor(
     val rootPath: Path,
@@ -59,9 +68,23 @@ class LocalCosmeticsData private constructor(
 ) : CosmeticsData by state {
     constructor(rootPath: Path, assetLoader: AssetLoader) : this(rootPath, assetLoader, MutableCosmeticsData())
 
-    private val database = GitRepoCosmeticsDatabase(lazy = false, fetchAsset = {
-        assetLoader.getAssetBytes(it, AssetLoader.Priority.High).await()
-    })
+    private val database = GitRepoCosmeticsDatabase(
+        lazy = false,
+        // Referencing the files directly (rather than embedding them as data urls) keeps the database small enough to
+        // be snapshotted, and avoids keeping all assets in memory twice.
+        assetFromPath = { path, read ->
+            EssentialAsset(rootPath.resolve(path).toUri().toString(), DigestUtils.md5Hex(read()))
+        },
+        fetchAsset = {
+            assetLoader.getAssetBytes(it, AssetLoader.Priority.High).await()
+        },
+    )
+
+    /** Snapshot of the [database], allowing us to skip re-loading all files which did not change since the last start. */
+    private val snapshotPath = rootPath.resolveSibling("${rootPath.fileName}.snapshot")
+    /** Fingerprint (see [fingerprint]) of every file as it was when last loaded into the [database]. */
+    private val fileFingerprints = mutableMapOf<String, String?>()
+    private var snapshotWriteJob: Job? = null
 
     private val watcher = DirectoryWatcher(rootPath, true, 200, TimeUnit.MILLISECONDS)
     private val updateChannel = Channel<Msg>(Int.MAX_VALUE)
@@ -69,7 +92,7 @@ class LocalCosmeticsData private constructor(
 
     init {
         val files = Files.walk(rootPath).use { it.toList() }.filter { it.isRegularFile() }
-        updateChannel.trySend(Msg.FilesChanged(files.map { FileSystemEvent(it, FileEventType.CREATE) }))
+        updateChannel.trySend(Msg.Initialize(files))
 
         watcher.onBatchUpdate { events ->
             updateChannel.trySend(Msg.FilesChanged(events))
@@ -85,14 +108,58 @@ class LocalCosmeticsData private constructor(
     private suspend fun processMsg(msg: Msg) {
         try {
             when (msg) {
+                is Msg.Initialize -> processInitializeMsg(msg)
                 is Msg.FilesChanged -> processFileChangedEvents(msg)
                 is Msg.WriteData -> processWriteDataMsg(msg)
+                is Msg.WriteSnapshot -> processWriteSnapshotMsg()
             }
         } catch (e: Exception) {
             LOGGER.error("Error handling $msg:", e)
         }
     }
 
+    private suspend fun processInitializeMsg(msg: Msg.Initialize) {
+        val changes = tryRestoreSnapshot(msg.files)
+        if (changes == null) {
+            processFileChangedEvents(Msg.FilesChanged(msg.files.map { FileSystemEvent(it, FileEventType.CREATE) }))
+            return
+        }
+
+        withContext(Dispatchers.Client) {
+            update(changes)
+        }
+
+        scheduleSnapshotWrite()
+    }
+
+    private suspend fun tryRestoreSnapshot(files: List<Path>): GitRepoCosmeticsDatabase.Changes? {
+        val (snapshot, fingerprints) = withContext(Dispatchers.IO) {
+            val snapshot = try {
+                if (snapshotPath.exists()) snapshotPath.readBytes() else null
+            } catch (e: IOException) {
+                LOGGER.warn("Failed to read cosmetics snapshot at $snapshotPath:", e)
+                null
+            }
+            // Fingerprints must be taken before any file is read, so we never associate an outdated file content with
+            // a newer fingerprint.
+            Pair(snapshot, files.associate { relativePathString(it) to fingerprint(it) })
+        }
+        if (snapshot == null) {
+            return null
+        }
+
+        val readers = files.associate { path ->
+            relativePathString(path) to suspend { withContext(Dispatchers.IO) { path.readBytes() } }
+        }
+        val changes = database.restoreSnapshot(snapshot, readers) { fingerprints[it] }
+        if (changes == null) {
+            LOGGER.warn("Cosmetics snapshot at $snapshotPath is unusable, loading all files instead.")
+            return null
+        }
+        fileFingerprints.putAll(fingerprints)
+        return changes
+    }
+
     private suspend fun processFileChangedEvents(initialMsg: Msg.FilesChanged) {
         val addedFiles = mutableSetOf<Path>()
         val removedFiles = mutableSetOf<Path>()
@@ -127,15 +194,22 @@ class LocalCosmeticsData private constructor(
         var changes = GitRepoCosmeticsDatabase.Changes.Empty
         if (removedFiles.isNotEmpty()) {
             changes += database.removeFiles(removedFiles.map { it.relativeTo(rootPath).toString() }.toSet())
+            removedFiles.forEach { fileFingerprints.remove(relativePathString(it)) }
         }
         if (addedFiles.isNotEmpty()) {
             val files = coroutineScope {
                 addedFiles.associateWith {
-                    async(Dispatchers.IO) { it.readBytes() }
+                    async(Dispatchers.IO) {
+                        val fingerprint = fingerprint(it)
+                        val bytes = it.readBytes()
+                        fingerprint to bytes
+                    }
+                }.onEach { (path, result) ->
+                    fileFingerprints[relativePathString(path)] = result.await().first
                 }.mapKeys { (path, _) ->
                     path.relativeTo(rootPath).toString()
-                }.mapValues { (_, bytes) ->
-                    suspend { bytes.await() }
+                }.mapValues { (_, result) ->
+                    suspend { result.await().second }
                 }
             }
             changes += database.addFiles(files)
@@ -145,6 +219,8 @@ class LocalCosmeticsData private constructor(
             update(changes)
         }
 
+        scheduleSnapshotWrite()
+
         if (nextMsg != null) {
             processMsg(nextMsg)
         }
@@ -285,6 +361,40 @@ class LocalCosmeticsData private constructor(
         msg.future.complete(Unit)
     }
 
+    /** Writes a new snapshot once no files have changed for a while, so we don't re-write it on every single edit. */
+    private fun scheduleSnapshotWrite() {
+        snapshotWriteJob?.cancel()
+        snapshotWriteJob = updateScope.launch {
+            delay(SNAPSHOT_WRITE_DELAY)
+            updateChannel.trySend(Msg.WriteSnapshot)
+        }
+    }
+
+    private suspend fun processWriteSnapshotMsg() {
+        val snapshot = database.writeSnapshot { fileFingerprints[it] }
+        withContext(Dispatchers.IO) {
+            try {
+                val tmpPath = snapshotPath.resolveSibling("${snapshotPath.fileName}.tmp")
+                tmpPath.writeBytes(snapshot)
+                Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            } catch (e: IOException) {
+                LOGGER.warn("Failed to write cosmetics snapshot to $snapshotPath:", e)
+            }
+        }
+    }
+
+    private fun relativePathString(path: Path): String = path.relativeTo(rootPath).joinToString("/")
+
+    /** Returns a value which changes whenever the content of the given file changes, or `null` if it can't be read. */
+    private fun fingerprint(path: Path): String? {
+        return try {
+            val attributes = Files.readAttributes(path, BasicFileAttributes::class.java)
+            "${attributes.size()}:${attributes.lastModifiedTime().toMillis()}"
+        } catch (e: IOException) {
+            null
+        }
+    }
+
     fun writeChanges(
         categories: Map<CosmeticCategoryId, CosmeticCategory?>,
         types: Map<CosmeticTypeId, CosmeticType?>,
@@ -309,6 +419,7 @@ class LocalCosmeticsData private constructor(
     }
 
     private sealed interface Msg {
+        class Initialize(val files: List<Path>) : Msg
         class FilesChanged(val updates: List<FileSystemEvent>) : Msg
         class WriteData(
             val categories: Map<CosmeticCategoryId, CosmeticCategory?>,
@@ -319,9 +430,11 @@ class LocalCosmeticsData private constructor(
             val cosmetics: Map<CosmeticId, Cosmetic?>,
             val future: CompletableFuture<Unit>,
         ) : Msg
+        object WriteSnapshot : Msg
     }
 
     companion object {
         private val LOGGER = LogManager.getLogger()
+        private val SNAPSHOT_WRITE_DELAY = 5.seconds
     }
 }
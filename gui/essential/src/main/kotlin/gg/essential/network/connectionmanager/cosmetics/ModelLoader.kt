@@ -17,6 +17,7 @@ import gg.essential.model.BedrockModel
 import gg.essential.network.cosmetics.Cosmetic
 import gg.essential.util.UIdentifier
 import org.slf4j.LoggerFactory
+import java.lang.ref.SoftReference
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.CompletionException
 import java.util.concurrent.ConcurrentHashMap
@@ -25,16 +26,23 @@ import java.util.concurrent.atomic.AtomicReference
 class ModelLoader(
     private val assetLoader: AssetLoader,
 ) {
-    private val models: MutableMap<String, ModelState> = ConcurrentHashMap()
+    /**
+     * Loaded models, retained softly so models of cosmetics which are no longer in use (e.g. ones merely looked at in
+     * the wardrobe) can be dropped under memory pressure. Should that happen to a model which is still in use, the
+     * existing [BedrockModel] instance remains valid and a new one is simply built the next time it is requested.
+     */
+    private val models: MutableMap<String, SoftReference<ModelState>> = ConcurrentHashMap()
+    // Capes register their frames as textures with MC, so these are retained strongly to not leak/re-create those
     private val capes: MutableMap<String, CapeState> = ConcurrentHashMap()
 
     private fun getModelState(cosmetic: Cosmetic, variant: String, skinType: Model, priority: AssetLoader.Priority): ModelState {
         val key = "${cosmetic.id}-$variant-$skinType"
-        val state = models.compute(key) { _, state ->
-            state?.takeUnless { it.cosmetic != cosmetic } ?: ModelState(cosmetic, variant, skinType)
-        }!!
-        state.ensurePriorityAtLeast(priority)
-        return state
+        var state: ModelState? = null
+        models.compute(key) { _, ref ->
+            state = ref?.get()?.takeUnless { it.cosmetic != cosmetic }
+            if (state != null) ref else SoftReference(ModelState(cosmetic, variant, skinType).also { state = it })
+        }
+        return state!!.also { it.ensurePriorityAtLeast(priority) }
     }
 
     fun getModel(cosmetic: Cosmetic, variant: String, skinType: Model, priority: AssetLoader.Priority): CompletableFuture<BedrockModel> =
@@ -75,20 +83,30 @@ class ModelLoader(
         private val skinMasks = skinMaskAssets.mapValues { assetLoader.getAsset(it.value, AssetLoader.Priority.Passive, AssetLoader.AssetType.Mask) }
         val dependencies = listOfNotNull(model, animation, soundDefinitions, texture, emissiveTexture) + skinMasks.values + particles.values
 
+        /**
+         * Building the model happens on the same executor, and at the same priority, as the parsing of the individual
+         * assets, so the models of items which are visible right now are built first.
+         * Failures of individual dependencies are re-thrown by [CompletableFuture.join] when building.
+         */
+        private val buildTask = assetLoader.scheduleParse(
+            CompletableFuture.allOf(*dependencies.map { it.parsed }.toTypedArray()).handle { _, _ -> },
+            AssetLoader.Priority.Passive,
+        ) {
+            BedrockModel(
+                cosmetic,
+                variant,
+                model.parsed.join(),
+                animation?.parsed?.join(),
+                particles.mapValues { it.value.parsed.join() },
+                soundDefinitions?.parsed?.join(),
+                texture?.parsed?.join(),
+                emissiveTexture?.parsed?.join(),
+                skinMasks.mapValues { it.value.parsed.join() },
+            )
+        }
+
         val future: CompletableFuture<BedrockModel> =
-            CompletableFuture.allOf(*dependencies.map { it.parsed }.toTypedArray()).handleAsync { _, _ ->
-                BedrockModel(
-                    cosmetic,
-                    variant,
-                    model.parsed.join(),
-                    animation?.parsed?.join(),
-                    particles.mapValues { it.value.parsed.join() },
-                    soundDefinitions?.parsed?.join(),
-                    texture?.parsed?.join(),
-                    emissiveTexture?.parsed?.join(),
-                    skinMasks.mapValues { it.value.parsed.join() },
-                )
-            }.whenComplete { _, throwable ->
+            buildTask.future.whenComplete { _, throwable ->
                 if (throwable != null) {
                     LOGGER.error("Failed to load cosmetic ${cosmetic.id}: ", (throwable as? CompletionException)?.cause ?: throwable)
                 }
@@ -101,6 +119,7 @@ class ModelLoader(
                 dependencies.forEach { dependency ->
                     assetLoader.getAssetBytes(dependency.info, atLeast)
                 }
+                buildTask.ensurePriorityAtLeast(atLeast)
             }
         }
     }
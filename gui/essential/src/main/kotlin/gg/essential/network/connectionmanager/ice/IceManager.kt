@@ -11,6 +11,8 @@
  */
 package gg.essential.network.connectionmanager.ice
 
+import gg.essential.ice.TransportMetrics
+import gg.essential.quic.backend.QuicProfile
 import gg.essential.universal.UMinecraft
 import org.slf4j.LoggerFactory
 import java.io.IOException
@@ -25,6 +27,9 @@ interface IceManager {
     @Throws(IOException::class)
     fun createClientAgent(user: UUID): SocketAddress
 
+    /** Returns the transport metrics of the most recent connection to or from the given user, if any. */
+    fun getTransportMetrics(user: UUID): TransportMetrics?
+
     @Suppress("MayBeConstant") // https://youtrack.jetbrains.com/issue/KT-64878/Lift-JvmField-restriction-usage-on-Companion-object-of-interfaces
     companion object {
         @JvmField
@@ -63,6 +68,9 @@ interface IceManager {
             "au.turn.essential.gg",
         )
 
+        @JvmField
+        val QUIC_PROFILE: QuicProfile = QuicProfile.byName(System.getProperty("essential.sps.quic_profile"))
+
         @JvmField
         val SUPPORTS_QUIC: Boolean = run {
             val logger = LoggerFactory.getLogger(IceManager::class.java)
@@ -20,6 +20,8 @@ import gg.essential.ice.IceAgent
 import gg.essential.ice.LocalCandidate
 import gg.essential.ice.RemoteCandidate
 import gg.essential.ice.RemoteCandidateImpl
+import gg.essential.ice.TransportMetrics
+import gg.essential.ice.meteredChannel
 import gg.essential.ice.stun.StunManager
 import gg.essential.network.CMConnection
 import gg.essential.network.connectionmanager.ice.IceManager.Companion.ICE_TIMEOUT
@@ -38,7 +40,7 @@ import gg.essential.util.FirewallUtil
 import gg.essential.util.GuiEssentialPlatform.Companion.platform
 import gg.essential.util.USession
 import gg.essential.util.UuidNameLookup
-import gg.essential.util.forwardChannelsInto
+import io.netty.buffer.ByteBuf
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineName
@@ -54,6 +56,7 @@ import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.ReceiveChannel
 import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.job
@@ -86,6 +89,7 @@ import java.time.LocalTime
 import java.time.ZoneId
 import java.time.format.DateTimeFormatter
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicReference
 import kotlin.coroutines.resume
@@ -112,6 +116,8 @@ abstract class IceManagerImpl(
     private var candidateManager: SharedCandidateManager? = null
 
     private val connections = mutableMapOf<UUID, IceConnection>()
+    /** Metrics of the most recent connection with each user, kept around after it is closed for later inspection. */
+    private val transportMetrics = ConcurrentHashMap<UUID, TransportMetrics>()
 
     protected abstract var integratedServerVoicePort: Int
 
@@ -141,6 +147,13 @@ abstract class IceManagerImpl(
         }
     }
 
+    /**
+     * Returns the metrics of the most recent connection to or from the given user (even if it has already been closed),
+     * or `null` if there has been none. See [TransportMetrics.latest] and [TransportMetrics.history].
+     * May be called from any thread.
+     */
+    fun getTransportMetrics(user: UUID): TransportMetrics? = transportMetrics[user]
+
     private fun handlePacket(packet: IceSessionPacket) {
         val user = packet.user
         val outgoingConnection = connections[user]?.takeIf { it.job.isActive && !it.remoteCreds.isCompleted }
@@ -216,8 +229,10 @@ abstract class IceManagerImpl(
 
     protected data class McConnectionArgs(
         val coroutineScope: CoroutineScope,
-        val inboundChannel: ReceiveChannel<ByteArray>,
-        val outboundChannel: SendChannel<ByteArray>,
+        /** Inbound stream data; buffers are owned by the receiver. */
+        val inboundChannel: ReceiveChannel<ByteBuf>,
+        /** Outbound stream data; ownership of buffers is transferred to the channel. */
+        val outboundChannel: SendChannel<ByteBuf>,
         val onClose: () -> Unit,
     )
 
@@ -364,8 +379,10 @@ abstract class IceManagerImpl(
             user,
             client,
             telemetry,
+            if (TRANSPORT_TRACE) logFolder.resolve("connection-${logging.id}-transport.log") else null,
         )
         sharedCandidateManager.children.trySend(connection.job)
+        transportMetrics[user] = connection.metrics
 
         scope.launch(Dispatchers.IO) {
             try {
@@ -397,11 +414,18 @@ abstract class IceManagerImpl(
         val user: UUID,
         val client: Boolean,
         val telemetry: Telemetry,
+        traceFile: Path?,
     ) {
         /** Primary job of this connection. Completes once the connection is fully closed on the MC side. */
         val job = Job(parentScope.coroutineContext.job)
         val coroutineScope = parentScope + job
 
+        val metrics = TransportMetrics()
+        @Volatile
+        private var quicChannel: QuicChannel? = null
+        @Volatile
+        private var pseudoTcpChannel: PseudoTcpChannel? = null
+
         val localCreds = run {
             // the "-q" in the ufrag is used to communicate to the other side that QUIC is supported (and preferred)
             // see [Flags.isQuic]
@@ -428,6 +452,7 @@ abstract class IceManagerImpl(
             client,
             localCreds,
             remoteCreds,
+            metrics,
         )
 
         val forwardLocalCandidatesJob = coroutineScope.launch(Dispatchers.Client) {
@@ -439,23 +464,24 @@ abstract class IceManagerImpl(
             }
         }
 
-        private val inboundDataChannel = Channel<ByteArray>(1000, BufferOverflow.DROP_OLDEST) { packet ->
+        private val inboundDataChannel = meteredChannel<ByteArray>(metrics.queue("dataIn"), 1000, BufferOverflow.DROP_OLDEST) { packet ->
             logger.warn("IceConnection.inboundDataChannel overflow, dropping packet of {} bytes", packet.size)
         }
-        private val outboundDataChannel = Channel<ByteArray>(1000, BufferOverflow.DROP_OLDEST) { packet ->
+        private val outboundDataChannel = meteredChannel<ByteArray>(metrics.queue("dataOut"), 1000, BufferOverflow.DROP_OLDEST) { packet ->
             logger.warn("IceConnection.outboundDataChannel overflow, dropping packet of {} bytes", packet.size)
         }
 
-        private val inboundVoiceChannel = Channel<ByteArray>(1000, BufferOverflow.DROP_OLDEST) { packet ->
+        private val inboundVoiceChannel = meteredChannel<ByteArray>(metrics.queue("voiceIn"), 1000, BufferOverflow.DROP_OLDEST) { packet ->
             logger.warn("IceConnection.inboundVoiceChannel overflow, dropping packet of {} bytes", packet.size)
         }
-        private val outboundVoiceChannel = Channel<ByteArray>(1000, BufferOverflow.DROP_OLDEST) { packet ->
+        private val outboundVoiceChannel = meteredChannel<ByteArray>(metrics.queue("voiceOut"), 1000, BufferOverflow.DROP_OLDEST) { packet ->
             logger.warn("IceConnection.outboundVoiceChannel overflow, dropping packet of {} bytes", packet.size)
         }
 
         val inboundPacketSortingJob = coroutineScope.launch(Dispatchers.Unconfined) {
             for ((candidate, data) in agent.inboundDataChannel) {
                 telemetry.packetReceived(data.size, candidate.isIPv6, candidate.isRelay)
+                metrics.packetReceived(data.size)
                 if (data.isNotEmpty() && data[0] == VOICE_HEADER_BYTE) {
                     inboundVoiceChannel.send(data)
                 } else {
@@ -467,10 +493,18 @@ abstract class IceManagerImpl(
         }
         val outboundPacketMergingJob = coroutineScope.launch(Dispatchers.Unconfined) {
             val mergedChannel = Channel<ByteArray>()
-            launch { forwardChannelsInto(mergedChannel, outboundVoiceChannel, outboundDataChannel) }
+            launch {
+                // Not using `forwardChannelsInto` because metered channels can't count elements received via `select`
+                coroutineScope {
+                    launch { for (packet in outboundVoiceChannel) mergedChannel.send(packet) }
+                    launch { for (packet in outboundDataChannel) mergedChannel.send(packet) }
+                }
+                mergedChannel.close()
+            }
             launch {
                 for (packet in mergedChannel) {
                     telemetry.packetSent(packet.size)
+                    metrics.packetSent(packet.size)
                     agent.outboundDataChannel.send(packet)
                 }
                 agent.outboundDataChannel.close()
@@ -489,6 +523,8 @@ abstract class IceManagerImpl(
             val connectionScope = coroutineScope + connectionJob
             val (recvChannel, sendChannel) = if (flags.await().isQuic) {
                 val quicChannel = QuicChannel(connectionScope, logger, inboundDataChannel, outboundDataChannel)
+                this@IceConnection.quicChannel = quicChannel
+                metrics.transport = "QUIC"
                 if (client) {
                     val (streams, httpPort) = quicChannel.connect()
                     proxyHttpPort = httpPort
@@ -498,7 +534,9 @@ abstract class IceManagerImpl(
                 }
             } else {
                 proxyHttpPort = null
-                val pseudoTcpChannel = PseudoTcpChannel(connectionScope, inboundDataChannel, outboundDataChannel)
+                val pseudoTcpChannel = PseudoTcpChannel(connectionScope, inboundDataChannel, outboundDataChannel, metrics = metrics)
+                this@IceConnection.pseudoTcpChannel = pseudoTcpChannel
+                metrics.transport = "PseudoTCP"
                 withTimeoutOrNull(TCP_TIMEOUT.toLong()) {
                     if (client) {
                         pseudoTcpChannel.connect()
@@ -526,6 +564,33 @@ abstract class IceManagerImpl(
             }
         }
 
+        val metricsJob = coroutineScope.launch(Dispatchers.IO) {
+            val trace = traceFile?.let { RotatingTraceWriter(it, TRANSPORT_TRACE_MAX_SIZE) }
+            try {
+                while (true) {
+                    delay(METRICS_INTERVAL)
+                    val snapshot = sampleMetrics()
+                    trace?.write(snapshot.toString())
+                }
+            } finally {
+                trace?.close()
+                logger.info("Transport metrics: {}", sampleMetrics(withQuicStats = false))
+            }
+        }
+
+        private suspend fun sampleMetrics(withQuicStats: Boolean = true): TransportMetrics.Snapshot {
+            if (withQuicStats) {
+                try {
+                    quicChannel?.stats()?.let { metrics.setRetransmits(it.retransmittedPackets) }
+                } catch (e: Exception) {
+                    // Most likely just closed, don't want to fail the whole connection over some metrics
+                    LOGGER.debug("Failed to collect QUIC stats:", e)
+                }
+            }
+            pseudoTcpChannel?.let { metrics.transportRtt = it.roundTripTimeEstimate }
+            return metrics.sample()
+        }
+
         val voiceProxyJob = coroutineScope.launch(Dispatchers.IO) {
             val voicePort = flags.await().voicePort ?: return@launch
 
@@ -709,6 +774,10 @@ abstract class IceManagerImpl(
         @OptIn(ExperimentalCoroutinesApi::class) // will become stable in 1.9 (currently still in RC phase)
         private val mainThread = Dispatchers.Default.limitedParallelism(1)
         private var nextIceConnectionId = AtomicInteger(0)
+        private val METRICS_INTERVAL = 1.seconds
+        /** If enabled, the transport metrics of each connection are written to a file next to its log once per second. */
+        private val TRANSPORT_TRACE = System.getProperty("essential.sps.transport_trace").toBoolean()
+        private const val TRANSPORT_TRACE_MAX_SIZE = 1024L * 1024L
         private val secureRandom = SecureRandom()
 
         private fun candidateToString(candidate: LocalCandidate): String = buildList {
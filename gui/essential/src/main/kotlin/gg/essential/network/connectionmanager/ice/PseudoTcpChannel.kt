@@ -11,6 +11,11 @@
  */
 package gg.essential.network.connectionmanager.ice
 
+import gg.essential.ice.TransportMetrics
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufAllocator
+import io.netty.buffer.ByteBufUtil
+import io.netty.buffer.Unpooled
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
@@ -20,26 +25,51 @@ import kotlinx.coroutines.cancel
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.ReceiveChannel
 import kotlinx.coroutines.channels.SendChannel
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.plus
 import kotlinx.coroutines.withContext
+import org.ice4j.pseudotcp.Option
 import org.ice4j.pseudotcp.PseudoTCPBase
 import org.ice4j.pseudotcp.PseudoTcpNotify
 import org.ice4j.pseudotcp.PseudoTcpSocketFactory.DEFAULT_CONVERSATION_ID
 import org.ice4j.pseudotcp.WriteResult
+import org.slf4j.LoggerFactory
 import java.io.IOException
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import java.util.*
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.coroutines.EmptyCoroutineContext
 
+/**
+ * A reliable stream on top of an unreliable packet transport, using ice4j's pseudo-TCP implementation.
+ *
+ * Data is exchanged as [ByteBuf]s which are read from / written to the pseudo-TCP buffers directly (for heap buffers;
+ * direct buffers are copied through a reusable scratch array). Buffers received from the returned channel are owned by
+ * the receiver and must be released; buffers sent to it are released once they have been handed to pseudo-TCP.
+ *
+ * [sendWindow] and [receiveWindow] configure the size of the send and receive buffers respectively. By default, both
+ * are [LEGACY_WINDOW_SIZE], leaving pseudo-TCP exactly as configured by ice4j. Receive windows larger than 64KB are
+ * announced using the TCP window scale option; should the remote not support it, pseudo-TCP falls back to its default
+ * window. Since configuring either requires reflection, legacy windows are used if that fails.
+ *
+ * If [metrics] are given, retransmissions are reported to them.
+ */
 class PseudoTcpChannel(
     coroutineScope: CoroutineScope,
     private val transportRecv: ReceiveChannel<ByteArray>,
     private val transportSend: SendChannel<ByteArray>,
+    sendWindow: Int = DEFAULT_WINDOW_SIZE,
+    receiveWindow: Int = DEFAULT_WINDOW_SIZE,
+    clock: PseudoTcpClock = PseudoTcpClock.shared,
+    private val allocator: ByteBufAllocator = ByteBufAllocator.DEFAULT,
+    private val metrics: TransportMetrics? = null,
 ) : PseudoTcpNotify {
-    private val internalScope = coroutineScope + Job(coroutineScope.coroutineContext.job) + Dispatchers.Default.limitedParallelism(1)
+    private val dispatcher = Dispatchers.Default.limitedParallelism(1)
+    private val internalScope = coroutineScope + Job(coroutineScope.coroutineContext.job) + dispatcher
     private val impl = PseudoTCPBase(this, DEFAULT_CONVERSATION_ID).apply {
         // Maximum segment size adjustment logic in PseudoTCPBase is broken; if we were to start with the default value
         // it'll hit a max-retransmissions limit and abort the connection before it ever reaches the correct MTU.
@@ -47,55 +77,85 @@ class PseudoTcpChannel(
         // timeout before it retransmits, so we're effectively limited to like 6KB/s for the first few seconds too.
         // PseudoTcpSocketImpl also sets this in its constructor.
         notifyMTU(1450);
+        if (sendWindow != LEGACY_WINDOW_SIZE || receiveWindow != LEGACY_WINDOW_SIZE) {
+            configureWindows(this, sendWindow, receiveWindow)
+        }
     }
 
+    /** End of the highest sequence range sent so far, any segment entirely below it is a retransmission. */
+    private var sentSeqEnd: Int? = null
+
     private val tcpOpen = CompletableDeferred<Unit>()
     private val tcpReadable = Channel<Unit>(Channel.CONFLATED)
     private val tcpWritable = Channel<Unit>(Channel.CONFLATED)
-    private val tcpInboundChannel = Channel<ByteArray>()
-    private val tcpOutboundChannel = Channel<ByteArray>()
+    private val tcpInboundChannel = Channel<ByteBuf>(onUndeliveredElement = { it.release() })
+    private val tcpOutboundChannel = Channel<ByteBuf>(onUndeliveredElement = { it.release() })
 
-    private var clockJob: Job? = null
+    private val clockRegistration = clock.register({ dispatcher.dispatch(EmptyCoroutineContext, it) }) {
+        if (internalScope.isActive) {
+            impl.notifyClock(PseudoTCPBase.now())
+            scheduleClock()
+        }
+    }
 
     init {
+        internalScope.coroutineContext.job.invokeOnCompletion { clockRegistration.cancel() }
+
         internalScope.launch(CoroutineName("PseudoTCP Read")) {
             tcpOpen.await()
-            val buf = ByteArray(1024)
-            while (true) {
-                val len = try {
-                    impl.recv(buf, buf.size)
-                } catch (e: IOException) {
-                    break // recv only throws when closed
-                }
-                scheduleClock()
-                if (len == 0) {
-                    tcpReadable.receive()
-                    continue
-                }
-                val data = buf.sliceArray(0 until len)
-                if (!data.contentEquals(CLOSE_PACKET)) {
-                    tcpInboundChannel.send(data)
-                } else {
-                    tcpInboundChannel.close()
-                    break
+            var buf: ByteBuf? = null
+            try {
+                while (true) {
+                    val target = buf ?: allocator.heapBuffer(READ_CHUNK_SIZE).also { buf = it }
+                    val len = try {
+                        impl.recv(target.array(), target.arrayOffset() + target.writerIndex(), target.writableBytes())
+                    } catch (e: IOException) {
+                        break // recv only throws when closed
+                    }
+                    scheduleClock()
+                    if (len == 0) {
+                        tcpReadable.receive()
+                        continue
+                    }
+                    target.writerIndex(target.writerIndex() + len)
+                    buf = null
+                    if (!ByteBufUtil.equals(target, CLOSE_PACKET_BUF)) {
+                        tcpInboundChannel.send(target)
+                    } else {
+                        target.release()
+                        tcpInboundChannel.close()
+                        break
+                    }
                 }
+            } finally {
+                buf?.release()
             }
         }
         internalScope.launch(CoroutineName("PseudoTCP Write")) {
+            val scratch = ByteArray(SCRATCH_SIZE)
             for (buf in tcpOutboundChannel) {
-                var offset = 0
-                while (offset < buf.size) {
-                    val sent = try {
-                        impl.send(buf, offset, buf.size - offset)
-                    } catch (e: IOException) {
-                        break // send only throws when closed
-                    }
-                    if (sent == 0) {
-                        scheduleClock()
-                        tcpWritable.receive()
-                        continue
+                try {
+                    while (buf.isReadable) {
+                        val sent = try {
+                            if (buf.hasArray()) {
+                                impl.send(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes())
+                            } else {
+                                val len = minOf(buf.readableBytes(), scratch.size)
+                                buf.getBytes(buf.readerIndex(), scratch, 0, len)
+                                impl.send(scratch, 0, len)
+                            }
+                        } catch (e: IOException) {
+                            break // send only throws when closed
+                        }
+                        if (sent == 0) {
+                            scheduleClock()
+                            tcpWritable.receive()
+                            continue
+                        }
+                        buf.skipBytes(sent)
                     }
-                    offset += sent
+                } finally {
+                    buf.release()
                 }
                 scheduleClock()
             }
@@ -115,31 +175,25 @@ class PseudoTcpChannel(
     }
 
     private fun scheduleClock() {
-        clockJob?.cancel()
-        clockJob = null
-
         val delayMs = impl.getNextClock(PseudoTCPBase.now())
         if (delayMs == -1L) {
             return
         }
-
-        clockJob = internalScope.launch(CoroutineName("PseudoTcp Clock")) {
-            delay(delayMs)
-
-            impl.notifyClock(PseudoTCPBase.now())
-
-            scheduleClock()
-        }
+        clockRegistration.schedule(delayMs)
     }
 
-    suspend fun connect(): Pair<ReceiveChannel<ByteArray>, SendChannel<ByteArray>> {
+    /** Pseudo-TCP's current smoothed RTT estimate, `null` until it has one. */
+    val roundTripTimeEstimate: Duration?
+        get() = (getRoundTripTimeEstimate?.invoke(impl) as Long?)?.takeIf { it > 0 }?.milliseconds
+
+    suspend fun connect(): Pair<ReceiveChannel<ByteBuf>, SendChannel<ByteBuf>> {
         impl.connect()
         scheduleClock()
         tcpOpen.await()
         return Pair(tcpInboundChannel, tcpOutboundChannel)
     }
 
-    suspend fun accept(): Pair<ReceiveChannel<ByteArray>, SendChannel<ByteArray>> {
+    suspend fun accept(): Pair<ReceiveChannel<ByteBuf>, SendChannel<ByteBuf>> {
         scheduleClock()
         tcpOpen.await()
         return Pair(tcpInboundChannel, tcpOutboundChannel)
@@ -168,10 +222,26 @@ class PseudoTcpChannel(
 
     override fun tcpWritePacket(tcp: PseudoTCPBase, buffer: ByteArray, len: Int): WriteResult {
         assert(buffer.size == len)
+        if (metrics != null) {
+            recordSegment(metrics, buffer, len)
+        }
         transportSend.trySend(buffer)
         return WriteResult.WR_SUCCESS
     }
 
+    private fun recordSegment(metrics: TransportMetrics, buffer: ByteArray, len: Int) {
+        val payload = len - HEADER_SIZE
+        if (payload <= 0) return // pure ack
+        val seq = ByteBuffer.wrap(buffer, 4, 4).int
+        val end = seq + payload
+        val sentEnd = sentSeqEnd
+        if (sentEnd != null && end - sentEnd <= 0) { // overflow-safe `end <= sentEnd`
+            metrics.retransmitted()
+        } else {
+            sentSeqEnd = end
+        }
+    }
+
     private suspend fun flush() = withContext(Dispatchers.IO) {
         val ackNotify = impl.ackNotify
         synchronized(ackNotify) {
@@ -196,5 +266,66 @@ class PseudoTcpChannel(
             buf.putLong(uuid.mostSignificantBits);
             buf.array()
         }
+        private val CLOSE_PACKET_BUF: ByteBuf = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(CLOSE_PACKET))
+
+        private val LOGGER = LoggerFactory.getLogger(PseudoTcpChannel::class.java)
+
+        /** Size of ice4j's default send and receive buffers (small enough to not require window scaling). */
+        const val LEGACY_WINDOW_SIZE = 60 * 1024
+        /** Experimental larger window, not yet verified against our pseudo-TCP fork or with older clients. */
+        const val LARGE_WINDOW_SIZE = 512 * 1024
+
+        /** Legacy unless overwritten via `essential.sps.pseudotcp_window` (in bytes). */
+        @JvmField
+        val DEFAULT_WINDOW_SIZE: Int =
+            System.getProperty("essential.sps.pseudotcp_window")?.toIntOrNull()?.takeIf { it > 0 } ?: LEGACY_WINDOW_SIZE
+
+        /**
+         * Enables window scaling (if needed for [receiveWindow]) and sets the buffer sizes, which is only possible
+         * before the connection is established. Neither is public API, see also `flush`.
+         * Everything is looked up before anything is changed, so if that fails, [impl] remains at its defaults.
+         */
+        private fun configureWindows(impl: PseudoTCPBase, sendWindow: Int, receiveWindow: Int) {
+            try {
+                val supportWindowScale = PseudoTCPBase::class.java.getDeclaredField("m_support_wnd_scale")
+                supportWindowScale.isAccessible = true
+                val setOption = PseudoTCPBase::class.java
+                    .getDeclaredMethod("setOption", Option::class.java, Long::class.java)
+                setOption.isAccessible = true
+
+                // Window scaling is disabled by default, without it the receive window is limited to 64KB. If the
+                // remote does not support it, PseudoTCPBase will fall back to the default receive buffer size.
+                if (receiveWindow > 0xffff) {
+                    supportWindowScale.setBoolean(impl, true)
+                }
+                setOption.invoke(impl, Option.OPT_SNDBUF, sendWindow.toLong())
+                setOption.invoke(impl, Option.OPT_RCVBUF, receiveWindow.toLong())
+            } catch (e: Exception) {
+                LOGGER.warn("Failed to configure pseudo-TCP windows, falling back to legacy windows: ", e)
+                resetWindows(impl)
+            }
+        }
+
+        private fun resetWindows(impl: PseudoTCPBase) {
+            try {
+                val supportWindowScale = PseudoTCPBase::class.java.getDeclaredField("m_support_wnd_scale")
+                supportWindowScale.isAccessible = true
+                supportWindowScale.setBoolean(impl, false)
+            } catch (ignored: Exception) {
+                // Then we couldn't have enabled it in the first place
+            }
+        }
+
+        /** Size of the header of pseudo-TCP segments, the sequence number is at offset 4. */
+        private const val HEADER_SIZE = 24
+        private val getRoundTripTimeEstimate = try {
+            PseudoTCPBase::class.java.getDeclaredMethod("getRoundTripTimeEstimateMs").apply { isAccessible = true }
+        } catch (e: Exception) {
+            LOGGER.warn("Pseudo-TCP RTT estimate unavailable: ", e)
+            null
+        }
+
+        private const val READ_CHUNK_SIZE = 16 * 1024
+        private const val SCRATCH_SIZE = 16 * 1024
     }
 }
\ No newline at end of file
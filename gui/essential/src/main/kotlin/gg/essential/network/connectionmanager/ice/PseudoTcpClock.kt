@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.ice
+
+import io.netty.util.HashedWheelTimer
+import io.netty.util.Timeout
+import io.netty.util.concurrent.DefaultThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * Drives the clocks of any number of [PseudoTcpChannel]s from a single timer wheel.
+ *
+ * Deadlines are rounded up to the next [tickMillis] boundary, so timers of different channels (and repeated timers of
+ * the same channel) which fall into the same tick are fired together by one wakeup of the wheel thread.
+ * Re-scheduling a [Registration] to a later deadline than the one it is already waiting for is free; it'll simply
+ * fire early and the channel will schedule itself again.
+ */
+class PseudoTcpClock(private val tickMillis: Long = 5) {
+    private val timer = HashedWheelTimer(DefaultThreadFactory("PseudoTCP Clock", true), tickMillis, TimeUnit.MILLISECONDS)
+
+    /**
+     * Creates a new registration which, whenever one of its deadlines passes, runs [onClock] via [dispatch].
+     */
+    fun register(dispatch: (Runnable) -> Unit, onClock: () -> Unit): Registration =
+        Registration(dispatch, onClock)
+
+    inner class Registration internal constructor(
+        private val dispatch: (Runnable) -> Unit,
+        private val onClock: () -> Unit,
+    ) {
+        private var timeout: Timeout? = null
+        private var deadline = Long.MAX_VALUE
+        private var cancelled = false
+
+        private val fire = Runnable {
+            synchronized(this@Registration) {
+                if (cancelled) return@Runnable
+                timeout = null
+                deadline = Long.MAX_VALUE
+            }
+            onClock()
+        }
+
+        /** Makes sure [onClock] runs no later than [delayMillis] (rounded up to the next tick) from now. */
+        @Synchronized
+        fun schedule(delayMillis: Long) {
+            if (cancelled) return
+            val newDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis + tickMillis)
+            if (timeout != null && deadline <= newDeadline) {
+                return // already going to fire early enough
+            }
+            timeout?.cancel()
+            deadline = newDeadline
+            timeout = timer.newTimeout({ dispatch(fire) }, delayMillis, TimeUnit.MILLISECONDS)
+        }
+
+        /** Cancels any pending deadline and ignores all future [schedule] calls. */
+        @Synchronized
+        fun cancel() {
+            cancelled = true
+            timeout?.cancel()
+            timeout = null
+        }
+    }
+
+    companion object {
+        /** The clock used by all [PseudoTcpChannel]s unless given a different one. */
+        @JvmStatic
+        val shared by lazy { PseudoTcpClock() }
+    }
+}
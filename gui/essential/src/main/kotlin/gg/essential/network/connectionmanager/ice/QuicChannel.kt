@@ -11,8 +11,14 @@
  */
 package gg.essential.network.connectionmanager.ice
 
+import gg.essential.network.connectionmanager.ice.IceManager.Companion.QUIC_PROFILE
 import gg.essential.quic.backend.QuicBackendLoader
 import gg.essential.quic.backend.QuicListener
+import gg.essential.quic.backend.QuicProfile
+import gg.essential.quic.backend.QuicStats
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufUtil
+import io.netty.buffer.Unpooled
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
@@ -23,6 +29,7 @@ import kotlinx.coroutines.cancel
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.ReceiveChannel
 import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.future.await
 import kotlinx.coroutines.job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.plus
@@ -33,20 +40,22 @@ class QuicChannel(
     private val logger: Logger,
     private val transportRecv: ReceiveChannel<ByteArray>,
     private val transportSend: SendChannel<ByteArray>,
+    profile: QuicProfile = QUIC_PROFILE,
 ) : QuicListener {
     private val internalScope = coroutineScope + Job(coroutineScope.coroutineContext.job) + Dispatchers.Default
-    private val impl = QuicBackendLoader.INSTANCE.createImpl(logger, this)
+    private val impl = QuicBackendLoader.INSTANCE.createImpl(logger, this).apply { setProfile(profile) }
 
     private val quicOpen = CompletableDeferred<Unit>()
-    private val quicStreamInboundChannel = Channel<ByteArray>(Channel.UNLIMITED)
-    private val quicStreamOutboundChannel = Channel<ByteArray>(Channel.UNLIMITED)
+    private val quicStreamInboundChannel = Channel<ByteBuf>(Channel.UNLIMITED, onUndeliveredElement = { it.release() })
+    private val quicStreamOutboundChannel = Channel<ByteBuf>(Channel.UNLIMITED, onUndeliveredElement = { it.release() })
 
     init {
         internalScope.launch(CoroutineName("QUIC Write"), start = CoroutineStart.UNDISPATCHED) {
             try {
                 quicOpen.await()
                 for (buf in quicStreamOutboundChannel) {
-                    impl.quicSend(buf)
+                    val bytes = try { ByteBufUtil.getBytes(buf) } finally { buf.release() }
+                    impl.quicSend(bytes)
                 }
 
                 logger.debug("QUIC outbound closed")
@@ -62,7 +71,7 @@ class QuicChannel(
         }
     }
 
-    suspend fun connect(): Pair<Pair<ReceiveChannel<ByteArray>, SendChannel<ByteArray>>, Int> {
+    suspend fun connect(): Pair<Pair<ReceiveChannel<ByteBuf>, SendChannel<ByteBuf>>, Int> {
         logger.debug("QuicChannel.connect")
         val httpPort = impl.connect()
         feeder.start()
@@ -70,7 +79,7 @@ class QuicChannel(
         return Pair(quicStreamInboundChannel, quicStreamOutboundChannel) to httpPort
     }
 
-    suspend fun accept(httpPort: Int): Pair<ReceiveChannel<ByteArray>, SendChannel<ByteArray>> {
+    suspend fun accept(httpPort: Int): Pair<ReceiveChannel<ByteBuf>, SendChannel<ByteBuf>> {
         logger.debug("QuicChannel.accept")
         impl.accept(httpPort)
         feeder.start()
@@ -78,6 +87,9 @@ class QuicChannel(
         return Pair(quicStreamInboundChannel, quicStreamOutboundChannel)
     }
 
+    /** Returns the current statistics of the connection, or `null` if it is not yet established. */
+    suspend fun stats(): QuicStats? = impl.collectStats().await()
+
     override fun onOpen() {
         logger.debug("QuicChannel.onOpen")
         quicOpen.complete(Unit)
@@ -98,6 +110,6 @@ class QuicChannel(
     }
 
     override fun quicRecv(packet: ByteArray) {
-        quicStreamInboundChannel.trySend(packet)
+        quicStreamInboundChannel.trySend(Unpooled.wrappedBuffer(packet))
     }
 }
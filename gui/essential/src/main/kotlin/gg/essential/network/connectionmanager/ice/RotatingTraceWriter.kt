@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.ice
+
+import java.io.Closeable
+import java.io.Writer
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.time.LocalTime
+import java.time.format.DateTimeFormatter
+import kotlin.io.path.bufferedWriter
+import kotlin.io.path.createParentDirectories
+import kotlin.io.path.moveTo
+
+/**
+ * Appends timestamped lines to [file]. Once it exceeds [maxSize] bytes, it is moved to `<file>.1` (replacing any
+ * previous one) and a new file is started, so at most twice [maxSize] bytes are used on disk.
+ *
+ * Not thread-safe.
+ */
+internal class RotatingTraceWriter(private val file: Path, private val maxSize: Long) : Closeable {
+    private var writer: Writer? = null
+    private var size = 0L
+
+    fun write(line: String) {
+        val writer = writer ?: open()
+        val str = "[${LocalTime.now().format(TIME_FORMAT)}] $line\n"
+        writer.write(str)
+        writer.flush()
+        size += str.length
+
+        if (size > maxSize) {
+            close()
+            file.moveTo(file.resolveSibling("${file.fileName}.1"), StandardCopyOption.REPLACE_EXISTING)
+        }
+    }
+
+    private fun open(): Writer {
+        file.createParentDirectories()
+        size = 0
+        return file.bufferedWriter().also { writer = it }
+    }
+
+    override fun close() {
+        writer?.close()
+        writer = null
+    }
+
+    private companion object {
+        val TIME_FORMAT: DateTimeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
+    }
+}
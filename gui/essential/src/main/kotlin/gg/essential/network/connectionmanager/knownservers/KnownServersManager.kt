@@ -19,20 +19,14 @@ import gg.essential.gui.elementa.state.v2.combinators.map
 import gg.essential.gui.elementa.state.v2.mutableStateOf
 import gg.essential.network.CMConnection
 import gg.essential.network.connectionmanager.NetworkedManager
+import gg.essential.network.connectionmanager.serverdiscovery.AddressMatcher
 import kotlinx.coroutines.launch
-import java.util.regex.Pattern
 
 class KnownServersManager(val connectionManager: CMConnection) : NetworkedManager {
     private val mutableKnownServers = mutableStateOf(listOf<KnownServer>())
     val knownServers: State<List<KnownServer>> = mutableKnownServers
 
-    private val serversByAddress = knownServers.map { servers ->
-        servers.flatMap { server -> server.addresses.filter { !isRegex(it) }.map { it to server } }.toMap()
-    }
-
-    private val serversByRegex = knownServers.map { servers ->
-        servers.flatMap { server -> server.addresses.filter{ isRegex(it) }.map { Pattern.compile(it) to server } }.toMap()
-    }
+    private val addressMatcher = knownServers.map { servers -> AddressMatcher.of(servers) { it.addresses } }
 
     override fun onConnected() {
         connectionManager.connectionScope.launch { refreshKnownServers() }
@@ -47,23 +41,11 @@ class KnownServersManager(val connectionManager: CMConnection) : NetworkedManage
     }
 
     fun findServerByAddress(address: String): KnownServer? {
-        serversByAddress.getUntracked()[address]?.let { return it }
-
-        for ((pattern, server) in serversByRegex.getUntracked()) {
-            if (pattern.matcher(address).matches()) {
-                return server
-            }
-        }
-
-        return null
+        return addressMatcher.getUntracked().find(address)
     }
 
     fun normalizeAddress(address: String): String {
         findServerByAddress(address)?.let { return it.addresses[0] }
         return address
     }
-
-    companion object {
-        private fun isRegex(address: String) = address.startsWith("^") && address.endsWith("$")
-    }
 }
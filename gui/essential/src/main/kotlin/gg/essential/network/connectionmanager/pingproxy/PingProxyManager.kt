@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.pingproxy
+
+import gg.essential.connectionmanager.common.packet.pingproxy.ClientPingProxyPacket
+import gg.essential.connectionmanager.common.packet.pingproxy.ServerPingProxyResponsePacket
+import gg.essential.network.CMConnection
+import gg.essential.network.connectionmanager.NetworkedManager
+import gg.essential.util.Client
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import org.slf4j.LoggerFactory
+import java.util.Locale
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.Duration.Companion.nanoseconds
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Deduplicates and caches server list pings which are proxied via the connection manager.
+ *
+ * Responses are cached per [Target] for [ttl]. After that, they are still served for up to [staleTtl] while a single
+ * refresh happens in the background. Concurrent pings of the same target share one request, and at most
+ * [maxConcurrent] requests are in flight at once, so refreshing a server list only sends packets for entries which are
+ * actually out of date.
+ * Failed pings are remembered for [failureTtl], so unreachable servers are not re-requested on every refresh either.
+ *
+ * May be called from any thread, all state is only accessed on the main thread (via [clientDispatcher]).
+ */
+class PingProxyManager @JvmOverloads constructor(
+    private val cmConnection: CMConnection,
+    private val ttl: Duration = 30.seconds,
+    private val staleTtl: Duration = 5.minutes,
+    private val failureTtl: Duration = 5.seconds,
+    private val timeout: Duration = 7.seconds,
+    maxConcurrent: Int = 8,
+    private val maxEntries: Int = 256,
+    private val clientDispatcher: CoroutineDispatcher = Dispatchers.Client,
+) : NetworkedManager {
+    private val permits = Semaphore(maxConcurrent)
+    private val cache = object : LinkedHashMap<Target, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Target, Entry>): Boolean = size > maxEntries
+    }
+    private val inFlight = mutableMapOf<Target, Deferred<ServerPingProxyResponsePacket?>>()
+
+    /**
+     * Returns the status of the given server as seen by the ping proxy, or `null` if it could not be reached.
+     * May return a cached response which is at most [staleTtl] old.
+     */
+    suspend fun ping(hostname: String, port: Int, protocolVersion: Int): ServerPingProxyResponsePacket? {
+        val target = Target.of(hostname, port, protocolVersion)
+        val request = withContext(clientDispatcher) {
+            val cached = cache[target]
+            val age = cached?.let { (System.nanoTime() - it.timeNanos).nanoseconds }
+            when {
+                cached == null || age == null -> refresh(target)
+                cached.response == null -> if (age < failureTtl) NO_RESPONSE else refresh(target)
+                age < ttl -> CompletableDeferred(cached.response)
+                age < staleTtl -> CompletableDeferred(cached.response).also { refresh(target) }
+                else -> refresh(target)
+            }
+        }
+
+        return try {
+            request.await()
+        } catch (e: CancellationException) {
+            // The shared request was cancelled because we disconnected, that doesn't mean we should be cancelled too
+            currentCoroutineContext().ensureActive()
+            null
+        }
+    }
+
+    private fun refresh(target: Target): Deferred<ServerPingProxyResponsePacket?> {
+        inFlight[target]?.let { return it }
+
+        // Lazy, so we're guaranteed to be in the map before we remove ourselves again
+        lateinit var request: Deferred<ServerPingProxyResponsePacket?>
+        request = cmConnection.connectionScope.async(start = CoroutineStart.LAZY) {
+            try {
+                val response = try {
+                    permits.withPermit {
+                        cmConnection.call(target.toPacket()).timeout(timeout).await<ServerPingProxyResponsePacket>()
+                    }
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    LOGGER.warn("Failed to ping $target via ping proxy", e)
+                    null
+                }
+
+                val existing = cache[target]
+                val keepStale = response == null && existing?.response != null
+                    && (System.nanoTime() - existing.timeNanos).nanoseconds < staleTtl
+                if (!keepStale) {
+                    cache[target] = Entry(response, System.nanoTime())
+                }
+                response
+            } finally {
+                // Only if it's still us; after a disconnect, a newer request may already have taken our place
+                inFlight.remove(target, request)
+            }
+        }
+        inFlight[target] = request
+        request.start()
+        return request
+    }
+
+    override fun onDisconnect() {
+        // Requests are cancelled together with the connection scope, cached responses remain valid
+        inFlight.clear()
+    }
+
+    /** Server addresses as typed by the user, normalized so different spellings of the same server share one entry. */
+    data class Target(val hostname: String, val port: Int, val protocolVersion: Int) {
+        fun toPacket() = ClientPingProxyPacket(hostname, port, protocolVersion)
+
+        override fun toString(): String = "$hostname:$port ($protocolVersion)"
+
+        companion object {
+            fun of(hostname: String, port: Int, protocolVersion: Int) =
+                Target(hostname.trim().trimEnd('.').lowercase(Locale.ROOT), port, protocolVersion)
+        }
+    }
+
+    private class Entry(val response: ServerPingProxyResponsePacket?, val timeNanos: Long)
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(PingProxyManager::class.java)
+
+        private val NO_RESPONSE = CompletableDeferred<ServerPingProxyResponsePacket?>().apply { complete(null) }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.serverdiscovery
+
+import java.util.regex.Pattern
+
+/**
+ * Finds the server for a given address among a list of server addresses, which are either plain addresses or, if
+ * wrapped in `^` and `$`, regular expressions.
+ *
+ * Plain addresses are looked up in a hash map. Regexes of the common wildcard-subdomain forms (e.g.
+ * `^(?:.+\.)?example\.com$` or `^.*\.example\.com$`) are stored in a trie of reversed domain labels instead, so looking
+ * them up only costs one step per label of the given address, regardless of how many there are. Any other regex is
+ * filed in the same trie under the literal domain suffix it requires (if it has one), so only the few regexes which
+ * could possibly match are actually run.
+ * If there are multiple matching regexes, the one listed first wins; plain addresses always win over regexes.
+ *
+ * The most recent lookups (including misses) are cached. Instances are immutable and should be re-built when the list
+ * of servers changes.
+ */
+class AddressMatcher<T : Any>(entries: Iterable<Pair<String, T>>, private val cacheSize: Int = 512) {
+    private val exact = HashMap<String, T>()
+    private val root = Node<T>()
+    /** Regexes which do not end in a literal domain, these need to be checked for every address. */
+    private val unindexed = mutableListOf<Candidate<T>>()
+
+    private val cache = object : LinkedHashMap<String, Any>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Any>): Boolean = size > cacheSize
+    }
+
+    init {
+        var index = 0
+        for ((address, value) in entries) {
+            if (!isRegex(address)) {
+                exact[address] = value
+                continue
+            }
+            val wildcard = parseWildcard(address)
+            if (wildcard != null) {
+                val node = root.getOrCreate(wildcard.domain)
+                // Indices only increase, so keeping the first one set means keeping the one listed first
+                if (wildcard.matchesApex) node.apex = node.apex ?: Indexed(index, value)
+                if (wildcard.allowEmptySubdomain) {
+                    node.anySubdomainOrEmpty = node.anySubdomainOrEmpty ?: Indexed(index, value)
+                } else {
+                    node.anySubdomain = node.anySubdomain ?: Indexed(index, value)
+                }
+            } else {
+                val candidate = Candidate(index, Pattern.compile(address), value)
+                val suffix = requiredDomainSuffix(address)
+                if (suffix != null) {
+                    root.getOrCreate(suffix).candidates.add(candidate)
+                } else {
+                    unindexed.add(candidate)
+                }
+            }
+            index++
+        }
+    }
+
+    fun find(address: String): T? {
+        synchronized(cache) {
+            cache[address]?.let { @Suppress("UNCHECKED_CAST") return if (it === MISS) null else it as T }
+        }
+        val result = exact[address] ?: findRegexMatch(address)
+        synchronized(cache) {
+            cache[address] = result ?: MISS
+        }
+        return result
+    }
+
+    private fun findRegexMatch(address: String): T? {
+        // `.` in a regex does not match line terminators, our shortcuts would, so leave those to the real regexes
+        val shortcutsApply = address.none { it == '\n' || it == '\r' || it == '\u0085' || it == '\u2028' || it == '\u2029' }
+
+        var best: Indexed<T>? = null
+        var candidates: MutableList<Candidate<T>>? = null
+        fun consider(match: Indexed<T>?) {
+            if (match != null && (best == null || match.index < best!!.index)) best = match
+        }
+
+        var node = root
+        var end = address.length
+        while (end >= 0) {
+            val dot = address.lastIndexOf('.', end - 1)
+            node = node.children?.get(address.substring(dot + 1, end)) ?: break
+            if (node.candidates.isNotEmpty()) {
+                (candidates ?: mutableListOf<Candidate<T>>().also { candidates = it }).addAll(node.candidates)
+            }
+            if (shortcutsApply) {
+                if (dot == -1) {
+                    consider(node.apex)
+                } else {
+                    consider(node.anySubdomainOrEmpty)
+                    if (dot > 0) consider(node.anySubdomain)
+                }
+            }
+            if (dot == -1) break
+            end = dot
+        }
+
+        val regexes = candidates?.let { (it + unindexed).sortedBy { c -> c.index } } ?: unindexed
+        for (candidate in regexes) {
+            if (best != null && candidate.index > best.index) break
+            if (candidate.pattern.matcher(address).matches()) {
+                return candidate.value
+            }
+        }
+        return best?.value
+    }
+
+    private class Node<T> {
+        var children: HashMap<String, Node<T>>? = null
+        /** Set if the domain of this node itself matches. */
+        var apex: Indexed<T>? = null
+        /** Set if any address ending in `.<domain>`, with at least one character before the dot, matches. */
+        var anySubdomain: Indexed<T>? = null
+        /** Set if any address ending in `.<domain>` matches, even if there's nothing before the dot. */
+        var anySubdomainOrEmpty: Indexed<T>? = null
+        /** Regexes which can only match addresses ending in this domain, but which we cannot evaluate ourselves. */
+        val candidates = mutableListOf<Candidate<T>>()
+
+        fun getOrCreate(domain: String): Node<T> {
+            var node = this
+            for (label in domain.split('.').asReversed()) {
+                val children = node.children ?: HashMap<String, Node<T>>().also { node.children = it }
+                node = children.getOrPut(label) { Node() }
+            }
+            return node
+        }
+    }
+
+    private open class Indexed<T>(val index: Int, val value: T)
+
+    private class Candidate<T>(index: Int, val pattern: Pattern, value: T) : Indexed<T>(index, value)
+
+    private class Wildcard(val domain: String, val matchesApex: Boolean, val allowEmptySubdomain: Boolean)
+
+    companion object {
+        private val MISS = Any()
+
+        private val WILDCARD_PREFIXES = mapOf(
+            "(?:.+\\.)?" to Pair(true, false),
+            "(.+\\.)?" to Pair(true, false),
+            "(?:.*\\.)?" to Pair(true, true),
+            "(.*\\.)?" to Pair(true, true),
+            ".+\\." to Pair(false, false),
+            ".*\\." to Pair(false, true),
+        )
+
+        @JvmStatic
+        fun isRegex(address: String) = address.startsWith("^") && address.endsWith("$")
+
+        @JvmStatic
+        fun <T : Any> of(servers: Iterable<T>, addresses: (T) -> List<String>): AddressMatcher<T> =
+            AddressMatcher(servers.flatMap { server -> addresses(server).map { it to server } })
+
+        /** Parses `^<prefix><domain>$` where prefix is one of [WILDCARD_PREFIXES] and domain is a plain, escaped domain. */
+        private fun parseWildcard(regex: String): Wildcard? {
+            val body = regex.substring(1, regex.length - 1)
+            for ((prefix, flags) in WILDCARD_PREFIXES) {
+                if (!body.startsWith(prefix)) continue
+                val domain = unescapeDomain(body.substring(prefix.length)) ?: return null
+                return Wildcard(domain, matchesApex = flags.first, allowEmptySubdomain = flags.second)
+            }
+            return null
+        }
+
+        /** Turns `example\.com` into `example.com`, or returns `null` if the given regex is not a plain domain. */
+        private fun unescapeDomain(regex: String): String? {
+            val result = StringBuilder(regex.length)
+            var i = 0
+            while (i < regex.length) {
+                val c = regex[i]
+                when {
+                    c == '\\' && regex.getOrNull(i + 1) == '.' -> {
+                        result.append('.')
+                        i++
+                    }
+                    c.isLetterOrDigit() || c == '-' || c == '_' -> result.append(c)
+                    else -> return null
+                }
+                i++
+            }
+            if (result.isEmpty() || result.startsWith('.') || result.endsWith('.') || ".." in result) return null
+            return result.toString()
+        }
+
+        /**
+         * Returns the domain which all addresses matched by the given regex must end in (e.g. `example.com` for
+         * `^(play|mc)\.example\.com$`), or `null` if there is no such domain or we cannot tell.
+         */
+        private fun requiredDomainSuffix(regex: String): String? {
+            val body = regex.substring(1, regex.length - 1)
+            // Whether each char of the body's top-level tail is a required literal, or `null` for anything else
+            val tail = mutableListOf<Char?>()
+            var depth = 0
+            var i = 0
+            while (i < body.length) {
+                val c = body[i]
+                when (c) {
+                    '\\' -> {
+                        val next = body.getOrNull(i + 1) ?: return null
+                        if (next == 'Q' || next == 'E') return null
+                        tail.add(if (depth == 0 && !next.isLetterOrDigit()) next else null)
+                        i++
+                    }
+                    '[' -> {
+                        // Skip the whole character class
+                        i++
+                        if (body.getOrNull(i) == '^') i++
+                        if (body.getOrNull(i) == ']') i++
+                        while (i < body.length && body[i] != ']') {
+                            if (body[i] == '[') return null // nested classes, don't bother
+                            if (body[i] == '\\') i++
+                            i++
+                        }
+                        if (i >= body.length) return null
+                        tail.add(null)
+                    }
+                    '(' -> {
+                        // Flags and lookarounds could change the meaning of everything else, so we don't handle those
+                        if (body.getOrNull(i + 1) == '?' && body.getOrNull(i + 2) != ':') return null
+                        depth++
+                        tail.add(null)
+                    }
+                    ')' -> {
+                        depth--
+                        tail.add(null)
+                    }
+                    '|' -> {
+                        if (depth == 0) return null
+                        tail.add(null)
+                    }
+                    '?', '*', '+', '{' -> {
+                        // Quantifiers make whatever they apply to optional (or repeatable)
+                        if (tail.isNotEmpty()) tail[tail.lastIndex] = null
+                        if (c == '{') {
+                            i = body.indexOf('}', i)
+                            if (i == -1) return null
+                        }
+                    }
+                    '.', '^', '$' -> tail.add(null)
+                    else -> tail.add(if (depth == 0) c else null)
+                }
+                i++
+            }
+
+            val literal = tail.asReversed().takeWhile { it != null }.asReversed().joinToString("")
+            // We can only index by whole labels, so drop the potentially partial first label
+            val dot = literal.indexOf('.')
+            if (dot == -1) return null
+            val domain = literal.substring(dot + 1)
+            if (domain.isEmpty() || domain.endsWith('.') || ".." in domain) return null
+            return domain
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.sps
+
+/**
+ * Parses an HTTP `Range` header with a single byte range for a resource of the given [size].
+ *
+ * Returns `null` if there is no such header or we don't support it (in which case the whole resource should be sent),
+ * or an empty range if it cannot be satisfied (in which case a 416 should be sent).
+ */
+fun parseByteRange(header: String?, size: Long): LongRange? {
+    if (header == null || !header.startsWith("bytes=") || ',' in header) return null
+    val (startStr, endStr) = header.removePrefix("bytes=").trim().split('-', limit = 2).takeIf { it.size == 2 }
+        ?: return null
+    val start: Long
+    val end: Long
+    if (startStr.isEmpty()) {
+        // Suffix range, i.e. the last n bytes
+        val suffixLength = endStr.toLongOrNull() ?: return null
+        if (suffixLength <= 0) return LongRange.EMPTY
+        start = maxOf(0, size - suffixLength)
+        end = size - 1
+    } else {
+        start = startStr.toLongOrNull() ?: return null
+        end = if (endStr.isEmpty()) size - 1 else minOf(endStr.toLongOrNull() ?: return null, size - 1)
+    }
+    if (start > end || start >= size) return LongRange.EMPTY
+    return start..end
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.sps
+
+import org.apache.commons.codec.binary.Hex
+import org.apache.commons.codec.digest.DigestUtils
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.FilterOutputStream
+import java.io.OutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.security.DigestOutputStream
+import java.security.MessageDigest
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.exists
+import kotlin.io.path.fileSize
+import kotlin.io.path.getLastModifiedTime
+import kotlin.io.path.inputStream
+import kotlin.io.path.isRegularFile
+import kotlin.io.path.listDirectoryEntries
+import kotlin.io.path.name
+import kotlin.io.path.notExists
+import kotlin.io.path.outputStream
+import kotlin.io.path.readBytes
+import kotlin.io.path.readText
+import kotlin.io.path.writeText
+
+/**
+ * Zips resource pack folders for sharing and computes checksums of resource packs, caching both so an unchanged pack
+ * is never zipped or hashed twice.
+ *
+ * Zips are cached on disk in [cacheDir], keyed by the path, size and modification time of every file in the folder.
+ * Entries are deflated in parallel and always written in the same order with the same timestamp, so the same content
+ * always results in the same zip (and checksum), which in turn lets clients re-use their cached download.
+ * The checksum is computed while writing, so the zip never needs to be read back.
+ *
+ * Entries are deflated on the given [executor].
+ */
+class ResourcePackZipCache(
+    private val cacheDir: Path,
+    private val executor: ExecutorService,
+    private val maxCachedZips: Int = 2,
+) {
+    /** Checksums of pack files by their absolute path, along with the size and mtime they were computed for. */
+    private val checksums = ConcurrentHashMap<String, Pair<Manifest.Entry, String>>()
+
+    /** Returns the zip of the given folder and its SHA-1, zipping it only if it changed since the last call. */
+    fun zip(folder: Path): Pair<Path, String> {
+        val manifest = Manifest.of(folder)
+        val key = manifest.key()
+        val zipFile = cacheDir.resolve("$key.zip")
+        val checksumFile = cacheDir.resolve("$key.sha1")
+
+        if (zipFile.exists() && checksumFile.exists()) {
+            Files.setLastModifiedTime(zipFile, FileTime.fromMillis(System.currentTimeMillis())) // for eviction
+            return Pair(zipFile, checksumFile.readText())
+        }
+
+        Files.createDirectories(cacheDir)
+        val tmpFile = cacheDir.resolve("$key.zip.tmp")
+        val digest = MessageDigest.getInstance("SHA-1")
+        try {
+            DigestOutputStream(tmpFile.outputStream(), digest).use { out ->
+                if (manifest.fitsWithoutZip64()) {
+                    ParallelZipWriter(BufferedOutputStream(out, BUFFER_SIZE), executor).use { it.write(manifest) }
+                } else {
+                    writeSequentially(manifest, BufferedOutputStream(out, BUFFER_SIZE))
+                }
+            }
+            Files.move(tmpFile, zipFile, StandardCopyOption.REPLACE_EXISTING)
+        } finally {
+            tmpFile.deleteIfExists()
+        }
+        val checksum = Hex.encodeHexString(digest.digest())
+        checksumFile.writeText(checksum)
+
+        evictOldZips()
+        return Pair(zipFile, checksum)
+    }
+
+    /** Returns the SHA-1 of the given file, re-using the previous result if neither its size nor mtime changed. */
+    fun checksum(file: Path): String {
+        val path = file.toAbsolutePath().toString()
+        val entry = Manifest.Entry.of(path, file)
+        val cached = checksums[path]
+        if (cached != null && cached.first == entry) {
+            return cached.second
+        }
+
+        val checksum = file.inputStream().use { DigestUtils.sha1Hex(it) }
+        checksums[path] = Pair(entry, checksum)
+        // Changed packs were replaced above, but also forget the ones which have since been deleted
+        checksums.keys.removeIf { Paths.get(it).notExists() }
+        return checksum
+    }
+
+    private fun evictOldZips() {
+        val zips = cacheDir.listDirectoryEntries("*.zip").sortedByDescending { it.getLastModifiedTime() }
+        for (zip in zips.drop(maxCachedZips)) {
+            try {
+                zip.deleteIfExists()
+                cacheDir.resolve(zip.name.removeSuffix(".zip") + ".sha1").deleteIfExists()
+            } catch (e: Exception) {
+                // Possibly still being served on Windows, we'll get it next time
+            }
+        }
+    }
+
+    private fun writeSequentially(manifest: Manifest, out: OutputStream) {
+        ZipOutputStream(out).use { zip ->
+            val buf = ByteArray(BUFFER_SIZE)
+            for (entry in manifest.entries) {
+                zip.putNextEntry(ZipEntry(entry.name).apply { time = ZIP_TIME_MILLIS })
+                entry.file.inputStream().use { input ->
+                    while (true) {
+                        val read = input.read(buf)
+                        if (read < 0) break
+                        zip.write(buf, 0, read)
+                    }
+                }
+                zip.closeEntry()
+            }
+        }
+    }
+
+    /** All files of a resource pack folder, sorted by their path within the zip. */
+    private class Manifest(val entries: List<Entry>) {
+        fun key(): String {
+            val digest = MessageDigest.getInstance("SHA-1")
+            digest.update("v$FORMAT_VERSION\n".toByteArray())
+            for (entry in entries) {
+                digest.update("${entry.name}\u0000${entry.size}\u0000${entry.lastModified}\n".toByteArray())
+            }
+            return Hex.encodeHexString(digest.digest())
+        }
+
+        fun fitsWithoutZip64(): Boolean {
+            // Deflate may slightly expand incompressible data, so leave plenty of headroom
+            return entries.size < 0xFFFF && entries.sumOf { it.size + it.name.length + 256 } < 0xF000_0000L
+        }
+
+        class Entry(val name: String, val file: Path, val size: Long, val lastModified: Long) {
+            override fun equals(other: Any?): Boolean =
+                other is Entry && name == other.name && size == other.size && lastModified == other.lastModified
+
+            override fun hashCode(): Int = (name.hashCode() * 31 + size.hashCode()) * 31 + lastModified.hashCode()
+
+            companion object {
+                fun of(name: String, file: Path) =
+                    Entry(name, file, file.fileSize(), file.getLastModifiedTime().toMillis())
+            }
+        }
+
+        companion object {
+            fun of(folder: Path): Manifest {
+                val entries = Files.walk(folder).use { paths ->
+                    paths.filter { it.isRegularFile() }
+                        .map { Entry.of(folder.relativize(it).joinToString("/"), it) }
+                        .toList()
+                }
+                return Manifest(entries.sortedBy { it.name })
+            }
+        }
+    }
+
+    /**
+     * Writes a zip file, deflating small entries in parallel on the given executor while writing earlier ones.
+     * Large entries are deflated on the calling thread instead, so we never hold more than a few MB in memory.
+     *
+     * [java.util.zip.ZipOutputStream] can only write entries it deflated itself, so this writes the zip format
+     * directly. It does not support Zip64, callers must check [Manifest.fitsWithoutZip64].
+     */
+    private class ParallelZipWriter(out: OutputStream, private val executor: ExecutorService) : AutoCloseable {
+        private val output = object : FilterOutputStream(out) {
+            override fun write(b: Int) {
+                this.out.write(b)
+                offset++
+            }
+
+            override fun write(b: ByteArray, off: Int, len: Int) {
+                this.out.write(b, off, len)
+                offset += len
+            }
+        }
+        private var offset = 0L
+        private val centralDirectory = ByteArrayOutputStream()
+        private var entryCount = 0
+
+        fun write(manifest: Manifest) {
+            val pending = ArrayDeque<Pair<Manifest.Entry, Future<Deflated>?>>()
+            var pendingBytes = 0L
+            fun writeOldest() {
+                val (entry, future) = pending.removeFirst()
+                if (future != null) {
+                    val deflated = future.get()
+                    pendingBytes -= entry.size
+                    writeDeflated(entry, deflated)
+                } else {
+                    writeStreaming(entry)
+                }
+            }
+
+            for (entry in manifest.entries) {
+                if (entry.size > MAX_PARALLEL_ENTRY_SIZE) {
+                    pending.addLast(Pair(entry, null))
+                } else {
+                    while (pendingBytes + entry.size > MAX_PENDING_BYTES || pending.size >= MAX_PENDING_ENTRIES) {
+                        writeOldest()
+                    }
+                    pending.addLast(Pair(entry, executor.submit<Deflated> { deflate(entry) }))
+                    pendingBytes += entry.size
+                }
+            }
+            while (pending.isNotEmpty()) {
+                writeOldest()
+            }
+        }
+
+        private fun writeDeflated(entry: Manifest.Entry, deflated: Deflated) {
+            val headerOffset = offset
+            writeLocalHeader(entry, deflated.crc, deflated.data.size().toLong(), entry.size, descriptor = false)
+            deflated.data.writeTo(output)
+            writeCentralHeader(entry, deflated.crc, deflated.data.size().toLong(), entry.size, headerOffset, descriptor = false)
+        }
+
+        private fun writeStreaming(entry: Manifest.Entry) {
+            val headerOffset = offset
+            writeLocalHeader(entry, 0, 0, 0, descriptor = true)
+            val crc = CRC32()
+            var size = 0L
+            val dataOffset = offset
+            val deflater = Deflater(Deflater.DEFAULT_COMPRESSION, true)
+            try {
+                val deflaterOut = DeflaterOutputStream(NonClosing(output), deflater, BUFFER_SIZE)
+                entry.file.inputStream().use { input ->
+                    val buf = ByteArray(BUFFER_SIZE)
+                    while (true) {
+                        val read = input.read(buf)
+                        if (read < 0) break
+                        crc.update(buf, 0, read)
+                        deflaterOut.write(buf, 0, read)
+                        size += read
+                    }
+                }
+                deflaterOut.finish()
+            } finally {
+                deflater.end()
+            }
+            val compressedSize = offset - dataOffset
+            writeInt(DATA_DESCRIPTOR_SIGNATURE)
+            writeInt(crc.value)
+            writeInt(compressedSize)
+            writeInt(size)
+            writeCentralHeader(entry, crc.value, compressedSize, size, headerOffset, descriptor = true)
+        }
+
+        private fun writeLocalHeader(entry: Manifest.Entry, crc: Long, compressedSize: Long, size: Long, descriptor: Boolean) {
+            val name = entry.name.toByteArray(Charsets.UTF_8)
+            writeInt(LOCAL_HEADER_SIGNATURE)
+            writeShort(VERSION)
+            writeShort(flags(descriptor))
+            writeShort(METHOD_DEFLATED)
+            writeShort(ZIP_TIME)
+            writeShort(ZIP_DATE)
+            writeInt(crc)
+            writeInt(compressedSize)
+            writeInt(size)
+            writeShort(name.size)
+            writeShort(0) // extra field length
+            output.write(name)
+        }
+
+        private fun writeCentralHeader(
+            entry: Manifest.Entry,
+            crc: Long,
+            compressedSize: Long,
+            size: Long,
+            headerOffset: Long,
+            descriptor: Boolean,
+        ) {
+            val name = entry.name.toByteArray(Charsets.UTF_8)
+            with(centralDirectory) {
+                writeInt(CENTRAL_HEADER_SIGNATURE)
+                writeShort(VERSION) // version made by
+                writeShort(VERSION) // version needed to extract
+                writeShort(flags(descriptor))
+                writeShort(METHOD_DEFLATED)
+                writeShort(ZIP_TIME)
+                writeShort(ZIP_DATE)
+                writeInt(crc)
+                writeInt(compressedSize)
+                writeInt(size)
+                writeShort(name.size)
+                writeShort(0) // extra field length
+                writeShort(0) // comment length
+                writeShort(0) // disk number
+                writeShort(0) // internal attributes
+                writeInt(0) // external attributes
+                writeInt(headerOffset)
+                write(name)
+            }
+            entryCount++
+        }
+
+        override fun close() {
+            val centralDirectoryOffset = offset
+            centralDirectory.writeTo(output)
+            writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+            writeShort(0) // number of this disk
+            writeShort(0) // disk with the central directory
+            writeShort(entryCount)
+            writeShort(entryCount)
+            writeInt(centralDirectory.size().toLong())
+            writeInt(centralDirectoryOffset)
+            writeShort(0) // comment length
+            output.close()
+        }
+
+        private fun writeShort(value: Int) = output.writeShort(value)
+        private fun writeInt(value: Long) = output.writeInt(value)
+
+        private fun flags(descriptor: Boolean) = FLAG_UTF8 or (if (descriptor) FLAG_DATA_DESCRIPTOR else 0)
+
+        private class Deflated(val crc: Long, val data: ByteArrayOutputStream)
+
+        private class NonClosing(out: OutputStream) : FilterOutputStream(out) {
+            override fun write(b: ByteArray, off: Int, len: Int) = out.write(b, off, len)
+            override fun close() = flush()
+        }
+
+        companion object {
+            private const val LOCAL_HEADER_SIGNATURE = 0x04034b50L
+            private const val DATA_DESCRIPTOR_SIGNATURE = 0x08074b50L
+            private const val CENTRAL_HEADER_SIGNATURE = 0x02014b50L
+            private const val END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50L
+            private const val VERSION = 20
+            private const val METHOD_DEFLATED = 8
+            private const val FLAG_DATA_DESCRIPTOR = 0x0008
+            private const val FLAG_UTF8 = 0x0800
+
+            private const val MAX_PARALLEL_ENTRY_SIZE = 4L shl 20
+            private const val MAX_PENDING_BYTES = 32L shl 20
+            private const val MAX_PENDING_ENTRIES = 64
+
+            private fun deflate(entry: Manifest.Entry): Deflated {
+                val bytes = entry.file.readBytes()
+                val crc = CRC32().apply { update(bytes) }
+                val data = ByteArrayOutputStream(bytes.size / 2 + 64)
+                val deflater = Deflater(Deflater.DEFAULT_COMPRESSION, true)
+                try {
+                    DeflaterOutputStream(data, deflater).use { it.write(bytes) }
+                } finally {
+                    deflater.end()
+                }
+                return Deflated(crc.value, data)
+            }
+
+            private fun OutputStream.writeShort(value: Int) {
+                write(value and 0xff)
+                write((value ushr 8) and 0xff)
+            }
+
+            private fun OutputStream.writeInt(value: Long) {
+                writeShort((value and 0xffff).toInt())
+                writeShort(((value ushr 16) and 0xffff).toInt())
+            }
+        }
+    }
+
+    companion object {
+        /** Bump whenever the zip output changes, so previously cached zips are no longer used. */
+        private const val FORMAT_VERSION = 1
+        private const val BUFFER_SIZE = 64 * 1024
+
+        // 1980-01-01 00:00, the earliest time representable in a zip, so output does not depend on when it was written
+        private const val ZIP_TIME = 0
+        private const val ZIP_DATE = (1 shl 5) or 1
+        private val ZIP_TIME_MILLIS = LocalDateTime.of(1980, 1, 1, 0, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+    }
+}
@@ -14,8 +14,6 @@ package gg.essential.util
 import com.google.gson.JsonElement
 import com.google.gson.JsonObject
 import com.google.gson.JsonParser
-import gg.essential.connectionmanager.common.packet.pingproxy.ClientPingProxyPacket
-import gg.essential.connectionmanager.common.packet.pingproxy.ServerPingProxyResponsePacket
 import gg.essential.util.GuiEssentialPlatform.Companion.platform
 import org.slf4j.LoggerFactory
 import java.awt.image.BufferedImage
@@ -63,8 +61,7 @@ class ServerPingInfo(
 
         suspend fun fetchViaPingProxy(host: String, port: Int): ServerPingInfo? {
             try {
-                val request = ClientPingProxyPacket(host, port, platform.mcProtocolVersion)
-                val response = platform.cmConnection.call(request).await<ServerPingProxyResponsePacket>()
+                val response = platform.pingProxyManager.ping(host, port, platform.mcProtocolVersion)
                     ?: return null
 
                 val json = JsonParser().parse(response.rawJson).asJsonObject
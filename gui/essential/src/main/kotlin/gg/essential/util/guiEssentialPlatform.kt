@@ -41,6 +41,7 @@ import gg.essential.network.connectionmanager.cosmetics.WardrobeSettings
 import gg.essential.network.connectionmanager.features.DisabledFeaturesManager
 import gg.essential.network.connectionmanager.media.IScreenshotManager
 import gg.essential.network.connectionmanager.notices.INoticesManager
+import gg.essential.network.connectionmanager.pingproxy.PingProxyManager
 import gg.essential.network.connectionmanager.skins.SkinsManager
 import gg.essential.network.connectionmanager.suspension.SuspensionManager
 import gg.essential.universal.UImage
@@ -139,6 +140,8 @@ interface GuiEssentialPlatform {
 
     val disabledFeaturesManager: DisabledFeaturesManager
 
+    val pingProxyManager: PingProxyManager
+
     val screenshotFolder: Path
 
     val isOptiFineInstalled: Boolean
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.common.input
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+
+class TextWrapperTest {
+    private val wrapper = TextWrapper { ch -> if (ch == 'i' || ch == 'l' || ch == ' ') 2f else 6f }
+
+    private fun Random.nextText(length: Int): String = buildString {
+        repeat(length) {
+            append(when (nextInt(10)) {
+                0, 1 -> ' '
+                2 -> 'i'
+                else -> 'a' + nextInt(26)
+            })
+        }
+    }
+
+    private fun check(seed: Int, maxWidth: Float, edits: Int) {
+        val random = Random(seed)
+        var text = random.nextText(random.nextInt(0, 200))
+        // Occasionally add words which are too long for a single line
+        if (random.nextBoolean()) {
+            text += "x".repeat(random.nextInt(20, 60))
+        }
+        var lineStarts = wrapper.wrap(text, maxWidth)
+
+        repeat(edits) {
+            val editStart = random.nextInt(text.length + 1)
+            val oldEditEnd = random.nextInt(editStart, minOf(text.length, editStart + 10) + 1)
+            val inserted = when (random.nextInt(4)) {
+                0 -> ""
+                1 -> " "
+                2 -> "x".repeat(random.nextInt(1, 60))
+                else -> random.nextText(random.nextInt(1, 10))
+            }
+            val oldText = text
+            text = text.substring(0, editStart) + inserted + text.substring(oldEditEnd)
+
+            val expected = wrapper.wrap(text, maxWidth)
+            val actual = wrapper.rewrap(lineStarts, text, editStart, oldEditEnd, editStart + inserted.length, maxWidth)
+            assertContentEquals(expected, actual, "seed $seed: replacing $editStart until $oldEditEnd of \"$oldText\" with \"$inserted\"")
+            lineStarts = actual
+        }
+    }
+
+    @Test
+    fun testRandomEdits() {
+        for (seed in 0 until 200) {
+            check(seed, maxWidth = 60f, edits = 100)
+        }
+    }
+
+    @Test
+    fun testRandomEditsNarrow() {
+        // Narrower than most words, so most lines are broken between characters
+        for (seed in 0 until 200) {
+            check(seed, maxWidth = 20f, edits = 100)
+        }
+    }
+
+    @Test
+    fun testTypingAtEnd() {
+        val text = StringBuilder()
+        var lineStarts = wrapper.wrap("", 60f)
+        for (ch in "the quick brown fox jumps over the lazy dog and keeps on running for a while".repeat(3)) {
+            val editStart = text.length
+            text.append(ch)
+            val str = text.toString()
+            lineStarts = wrapper.rewrap(lineStarts, str, editStart, editStart, editStart + 1, 60f)
+            assertContentEquals(wrapper.wrap(str, 60f), lineStarts, "\"$str\"")
+        }
+    }
+
+    @Test
+    fun testDeletingEverything() {
+        val random = Random(42)
+        var text = random.nextText(300)
+        var lineStarts = wrapper.wrap(text, 60f)
+        while (text.isNotEmpty()) {
+            val editStart = random.nextInt(text.length)
+            text = text.removeRange(editStart, editStart + 1)
+            lineStarts = wrapper.rewrap(lineStarts, text, editStart, editStart + 1, editStart, 60f)
+            assertContentEquals(wrapper.wrap(text, 60f), lineStarts, "\"$text\"")
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.gui.wardrobe
+
+import gg.essential.gui.elementa.state.v2.MutableListState
+import gg.essential.gui.elementa.state.v2.add
+import gg.essential.gui.elementa.state.v2.mutableListStateOf
+import gg.essential.gui.elementa.state.v2.mutableStateOf
+import gg.essential.gui.elementa.state.v2.remove
+import gg.essential.gui.elementa.state.v2.set
+import gg.essential.gui.elementa.state.v2.setAll
+import gg.essential.gui.elementa.state.v2.stateOf
+import gg.essential.mod.Model
+import gg.essential.mod.Skin
+import java.time.Instant
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class WardrobeSearchIndexTest {
+    private val items: MutableListState<Item> = mutableListStateOf(
+        item("1", "Red Cape"),
+        item("2", "Blue Cape"),
+        item("3", "Red Hat"),
+    )
+    private val query = mutableStateOf("")
+    private val results = WardrobeSearchIndex(items, stateOf(WardrobeSearchIndex.nameOnly)).search(query)
+
+    private fun search(query: String): Set<String> {
+        this.query.set(query)
+        return results.getUntracked().map { it.id }.toSet()
+    }
+
+    @Test
+    fun testSearch() {
+        assertEquals(setOf("1", "2", "3"), search(""))
+        assertEquals(setOf("1", "2"), search("cape"))
+        assertEquals(setOf("1", "3"), search("RED"))
+        assertEquals(setOf("3"), search("d ha"))
+        assertEquals(emptySet(), search("green"))
+    }
+
+    @Test
+    fun testShortQueries() {
+        assertEquals(setOf("1", "3"), search("r"))
+        assertEquals(setOf("1", "2"), search("ca"))
+        assertEquals(setOf("1", "2", "3"), search("e"))
+        assertEquals(setOf("3"), search("at"))
+        assertEquals(emptySet(), search("x"))
+    }
+
+    @Test
+    fun testExtendingQueryReusesPreviousResult() {
+        assertEquals(setOf("1", "2", "3"), search("e"))
+        assertEquals(setOf("1", "3"), search("re"))
+        assertEquals(setOf("1", "3"), search("red"))
+        assertEquals(setOf("1"), search("red c"))
+        assertEquals(setOf("1"), search("red cape"))
+        assertEquals(emptySet(), search("red capes"))
+        // Going back to a shorter query must not be limited to the previous result
+        assertEquals(setOf("1", "2"), search("cape"))
+        assertEquals(setOf("1", "2", "3"), search("e"))
+    }
+
+    @Test
+    fun testIncrementalAdd() {
+        assertEquals(setOf("1", "2"), search("cape"))
+        items.add(item("4", "Green Cape"))
+        assertEquals(setOf("1", "2", "4"), search("cape"))
+        // Also when extending the previous query, which would otherwise only look at the previous result
+        items.add(item("5", "Green Capes"))
+        assertEquals(setOf("5"), search("capes"))
+    }
+
+    @Test
+    fun testIncrementalRemove() {
+        assertEquals(setOf("1", "3"), search("red"))
+        items.remove(items.getUntracked()[0])
+        assertEquals(setOf("3"), search("red"))
+        assertEquals(setOf("3"), search("red "))
+        items.remove(items.getUntracked()[1])
+        assertEquals(emptySet(), search("red"))
+        assertEquals(setOf("2"), search(""))
+    }
+
+    @Test
+    fun testReplace() {
+        assertEquals(setOf("1", "3"), search("red"))
+        items.set(0, item("1", "Purple Cape"))
+        assertEquals(setOf("3"), search("red"))
+        assertEquals(setOf("1"), search("purple"))
+    }
+
+    @Test
+    fun testReplaceWithAddBeforeRemove() {
+        assertEquals(setOf("1", "3"), search("red"))
+        // The list also grew, so the estimated changes add the renamed item before removing the old one
+        items.setAll(listOf(
+            item("1", "Purple Cape"),
+            item("4", "Red Scarf"),
+            item("2", "Blue Cape"),
+            item("3", "Red Hat"),
+        ))
+        assertEquals(setOf("3", "4"), search("red"))
+        assertEquals(setOf("1"), search("purple"))
+        assertEquals(setOf("1", "2"), search("cape"))
+    }
+
+    @Test
+    fun testDuplicateIds() {
+        // The same item may be listed more than once, it only disappears once the last one is removed
+        items.add(item("1", "Red Cape"))
+        assertEquals(setOf("1", "3"), search("red"))
+        items.remove(items.getUntracked()[0])
+        assertEquals(setOf("1", "3"), search("red"))
+        items.remove(items.getUntracked().last())
+        assertEquals(setOf("3"), search("red"))
+    }
+
+    @Test
+    fun testKeywordsChange() {
+        val keywords = mutableStateOf(WardrobeSearchIndex.nameOnly)
+        val query = mutableStateOf("hat")
+        val results = WardrobeSearchIndex(items, keywords).search(query)
+        assertEquals(setOf("3"), results.getUntracked().map { it.id }.toSet())
+        val withTags: (Item) -> List<String> = { item -> listOf(item.name, if (item.id == "1") "Hats" else "Capes") }
+        keywords.set(withTags)
+        assertEquals(setOf("1", "3"), results.getUntracked().map { it.id }.toSet())
+    }
+
+    private fun item(id: String, name: String): Item =
+        Item.SkinItem(id, name, Skin("hash$id", Model.STEVE), Instant.EPOCH, null, null)
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.cosmetics
+
+import org.apache.commons.codec.digest.DigestUtils
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+import kotlin.io.path.listDirectoryEntries
+import kotlin.io.path.name
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class AssetPackCacheTest {
+    private val directory = Files.createTempDirectory("asset-pack-cache-test")
+    private val random = Random(42)
+
+    @AfterTest
+    fun cleanup() {
+        directory.toFile().deleteRecursively()
+    }
+
+    @Test
+    fun testWriteReopenRead() {
+        val assets = List(10) { asset(random.nextInt(100, 400)) }
+
+        val cache = open()
+        for ((checksum, bytes) in assets) {
+            cache.write(checksum, bytes)
+        }
+        assertAssets(assets, cache)
+        // Small segments, so this must have spanned multiple of them
+        assertTrue(segmentFiles().size > 1)
+
+        assertAssets(assets, open())
+    }
+
+    @Test
+    fun testReopenKeepsOverwritesAndRemovals() {
+        val (a, aBytes) = asset(100)
+        val (b, bBytes) = asset(100)
+        val newBytes = random.nextBytes(200)
+
+        val cache = open()
+        cache.write(a, aBytes)
+        cache.write(b, bBytes)
+        cache.write(a, newBytes)
+        cache.remove(b)
+
+        val reopened = open()
+        assertContentEquals(newBytes, reopened.read(a))
+        assertNull(reopened.read(b))
+        assertFalse(reopened.contains(b))
+    }
+
+    @Test
+    fun testRecoveryFromTruncatedIndex() {
+        val assets = List(3) { asset(100) }
+        val cache = open()
+        for ((checksum, bytes) in assets) {
+            cache.write(checksum, bytes)
+        }
+
+        // Cut the last entry in half, as if we crashed while writing it
+        val index = directory.resolve("index")
+        FileChannel.open(index, StandardOpenOption.WRITE).use { it.truncate(it.size() - 10) }
+
+        val recovered = open()
+        assertAssets(assets.take(2), recovered)
+        assertNull(recovered.read(assets[2].first))
+
+        // New entries must be appended after the last complete entry, not after the partial one
+        val added = asset(100)
+        recovered.write(added.first, added.second)
+        assertAssets(assets.take(2) + added, open())
+    }
+
+    @Test
+    fun testCompactDropsEntriesFailingVerification() {
+        val good = List(5) { asset(300) }
+        val (corrupted, _) = asset(300)
+        val (removed, removedBytes) = asset(300)
+
+        val cache = open()
+        for ((checksum, bytes) in good) {
+            cache.write(checksum, bytes)
+        }
+        cache.write(corrupted, random.nextBytes(300))
+        cache.write(removed, removedBytes)
+        cache.remove(removed)
+        val oldSegments = segmentFiles()
+
+        cache.compact { checksum, bytes -> DigestUtils.sha1Hex(bytes) == checksum }
+
+        assertAssets(good, cache)
+        assertNull(cache.read(corrupted))
+        assertFalse(cache.contains(corrupted))
+        assertNull(cache.read(removed))
+        // All entries were rewritten into new segments, so the old ones are gone
+        assertTrue(segmentFiles().none { it in oldSegments })
+
+        val reopened = open()
+        assertAssets(good, reopened)
+        assertNull(reopened.read(corrupted))
+
+        // And we can keep writing to the new generation
+        val added = asset(300)
+        reopened.write(added.first, added.second)
+        assertAssets(good + added, open())
+    }
+
+    private fun open() = AssetPackCache.open(directory, maxSegmentSize = 1000)
+
+    private fun segmentFiles() = directory.listDirectoryEntries("*.pack").map { it.name }.toSet()
+
+    private fun asset(size: Int): Pair<String, ByteArray> {
+        val bytes = random.nextBytes(size)
+        return Pair(DigestUtils.sha1Hex(bytes), bytes)
+    }
+
+    private fun assertAssets(expected: List<Pair<String, ByteArray>>, cache: AssetPackCache) {
+        for ((checksum, bytes) in expected) {
+            assertTrue(cache.contains(checksum))
+            assertContentEquals(bytes, cache.read(checksum), checksum)
+        }
+        assertEquals(expected.size, expected.count { cache.contains(it.first) })
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.ice
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class PseudoTcpChannelTest {
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    @AfterTest
+    fun shutdown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun testDefaultWindowIsLegacy() {
+        // Larger windows need reflection and window scaling, which have not been verified against older clients yet
+        assertEquals(PseudoTcpChannel.LEGACY_WINDOW_SIZE, PseudoTcpChannel.DEFAULT_WINDOW_SIZE)
+    }
+
+    @Test
+    fun testTransferInBothDirections() = runBlocking {
+        val aToB = Channel<ByteArray>(1000)
+        val bToA = Channel<ByteArray>(1000)
+        val a = PseudoTcpChannel(scope, bToA, aToB)
+        val b = PseudoTcpChannel(scope, aToB, bToA)
+
+        withTimeout(30_000) {
+            val accepted = async { b.accept() }
+            val (aRecv, aSend) = a.connect()
+            val (bRecv, bSend) = accepted.await()
+            launch { transfer(aSend, bRecv) }
+            launch { transfer(bSend, aRecv) }
+        }
+        Unit
+    }
+
+    private suspend fun transfer(send: SendChannel<ByteBuf>, recv: ReceiveChannel<ByteBuf>) = coroutineScope {
+        launch {
+            var sent = 0
+            while (sent < TRANSFER_BYTES) {
+                val chunk = ByteArray(minOf(CHUNK_SIZE, TRANSFER_BYTES - sent)) { (sent + it).toByte() }
+                send.send(Unpooled.wrappedBuffer(chunk))
+                sent += chunk.size
+            }
+        }
+        var received = 0
+        while (received < TRANSFER_BYTES) {
+            val buf = recv.receive()
+            try {
+                while (buf.isReadable) {
+                    assertEquals(received.toByte(), buf.readByte(), "byte $received")
+                    received++
+                }
+            } finally {
+                buf.release()
+            }
+        }
+    }
+
+    companion object {
+        private const val TRANSFER_BYTES = 1 shl 20
+        private const val CHUNK_SIZE = 8192
+    }
+}
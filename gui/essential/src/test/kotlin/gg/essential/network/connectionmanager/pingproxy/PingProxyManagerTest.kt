@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.pingproxy
+
+import gg.essential.connectionmanager.common.packet.Packet
+import gg.essential.connectionmanager.common.packet.pingproxy.ClientPingProxyPacket
+import gg.essential.connectionmanager.common.packet.pingproxy.ServerPingProxyResponsePacket
+import gg.essential.network.CMConnection
+import gg.essential.network.GatewayService
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeout
+import java.util.Optional
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.minutes
+
+class PingProxyManagerTest {
+    private val clientExecutor = Executors.newSingleThreadExecutor { Thread(it, "Test Client Thread") }
+    private val clientDispatcher = clientExecutor.asCoroutineDispatcher()
+    private val connection = FakeConnection(CoroutineScope(SupervisorJob() + clientDispatcher))
+
+    @AfterTest
+    fun shutdown() {
+        connection.connectionScope.cancel()
+        clientExecutor.shutdownNow()
+    }
+
+    private fun manager(
+        ttl: Duration = 10.minutes,
+        staleTtl: Duration = 10.minutes,
+        failureTtl: Duration = 10.minutes,
+        maxConcurrent: Int = 8,
+    ) = PingProxyManager(connection, ttl, staleTtl, failureTtl, 10.minutes, maxConcurrent, 256, clientDispatcher)
+
+    private fun CoroutineScope.pingAsync(manager: PingProxyManager, hostname: String, port: Int = 25565) =
+        async { manager.ping(hostname, port, 47) }
+
+    @Test
+    fun testConcurrentPingsAreCoalesced() = runBlocking {
+        val manager = manager()
+        val pings = listOf("mc.example.com", "MC.Example.com", "mc.example.com.", " mc.example.com ")
+            .map { pingAsync(manager, it) }
+        connection.awaitRequests(1)
+        assertEquals("mc.example.com", connection.requests.single().packet.hostname)
+
+        val response = response()
+        connection.requests.single().reply(response)
+        pings.awaitAll().forEach { assertSame(response, it) }
+        assertEquals(1, connection.requests.size)
+
+        // Different port or protocol version is a different target
+        val other = pingAsync(manager, "mc.example.com", 25566)
+        connection.awaitRequests(2)
+        connection.requests[1].reply(null)
+        assertNull(other.await())
+    }
+
+    @Test
+    fun testResponsesAreCached() = runBlocking {
+        val manager = manager()
+        val first = pingAsync(manager, "mc.example.com")
+        connection.awaitRequests(1)
+        val response = response()
+        connection.requests.single().reply(response)
+        assertSame(response, first.await())
+
+        assertSame(response, manager.ping("mc.example.com", 25565, 47))
+        assertSame(response, manager.ping("MC.EXAMPLE.COM", 25565, 47))
+        assertEquals(1, connection.requests.size)
+    }
+
+    @Test
+    fun testStaleResponsesAreServedWhileRefreshing() = runBlocking {
+        val manager = manager(ttl = Duration.ZERO)
+        val first = pingAsync(manager, "mc.example.com")
+        connection.awaitRequests(1)
+        val oldResponse = response()
+        connection.requests[0].reply(oldResponse)
+        assertSame(oldResponse, first.await())
+
+        // Served from cache immediately, while a single refresh is sent in the background
+        assertSame(oldResponse, manager.ping("mc.example.com", 25565, 47))
+        assertSame(oldResponse, manager.ping("mc.example.com", 25565, 47))
+        connection.awaitRequests(2)
+        val newResponse = response()
+        delay(100)
+        assertEquals(2, connection.requests.size)
+        connection.requests[1].reply(newResponse)
+        awaitCached(manager, newResponse)
+    }
+
+    @Test
+    fun testFailuresAreCached() = runBlocking {
+        val manager = manager()
+        val first = pingAsync(manager, "unreachable.example.com")
+        connection.awaitRequests(1)
+        connection.requests.single().reply(null)
+        assertNull(first.await())
+
+        assertNull(manager.ping("unreachable.example.com", 25565, 47))
+        assertEquals(1, connection.requests.size)
+    }
+
+    @Test
+    fun testConcurrencyLimit() = runBlocking {
+        val manager = manager(maxConcurrent = 2)
+        val pings = (0 until 5).map { pingAsync(manager, "server$it.example.com") }
+        connection.awaitRequests(2)
+        delay(100)
+        assertEquals(2, connection.requests.size)
+
+        for (i in 0 until 5) {
+            connection.awaitRequests(i + 1)
+            connection.requests[i].reply(response())
+        }
+        pings.awaitAll()
+        assertEquals(5, connection.requests.size)
+    }
+
+    @Test
+    fun testDisconnect() = runBlocking {
+        val manager = manager()
+        val beforeDisconnect = pingAsync(manager, "mc.example.com")
+        connection.awaitRequests(1)
+
+        // Like the real connection: managers are notified and the connection scope's children are cancelled, all on
+        // the client thread. A new ping may then happen before the cancelled request has finished cleaning up.
+        val afterDisconnect = withContext(clientDispatcher) {
+            manager.onDisconnect()
+            connection.connectionScope.coroutineContext.cancelChildren()
+            // Undispatched, so the new request is sent right away, before the cancelled one gets to run again
+            this@runBlocking.async(clientDispatcher, CoroutineStart.UNDISPATCHED) {
+                manager.ping("mc.example.com", 25565, 47)
+            }
+        }
+        // Cancelled requests simply yield no response to their callers
+        assertNull(beforeDisconnect.await())
+        connection.awaitRequests(2)
+
+        // The cancelled request must not have removed the new one, so this should still share it
+        val afterDisconnect2 = pingAsync(manager, "mc.example.com")
+        delay(100)
+        assertEquals(2, connection.requests.size)
+
+        val response = response()
+        connection.requests[1].reply(response)
+        assertSame(response, afterDisconnect.await())
+        assertSame(response, afterDisconnect2.await())
+    }
+
+    private suspend fun awaitCached(manager: PingProxyManager, expected: ServerPingProxyResponsePacket) {
+        withTimeout(10_000) {
+            while (manager.ping("mc.example.com", 25565, 47) !== expected) {
+                delay(10)
+            }
+        }
+    }
+
+    private fun response() = ServerPingProxyResponsePacket("{}", 42, "test")
+
+    private class Request(val packet: ClientPingProxyPacket, private val callback: Consumer<Optional<Packet>>) {
+        fun reply(response: Packet?) = callback.accept(Optional.ofNullable(response))
+    }
+
+    private class FakeConnection(override val connectionScope: CoroutineScope) : CMConnection {
+        private val sent = mutableListOf<Request>()
+
+        val requests: List<Request>
+            get() = synchronized(sent) { sent.toList() }
+
+        suspend fun awaitRequests(count: Int) {
+            withTimeout(10_000) {
+                while (requests.size < count) {
+                    delay(10)
+                }
+            }
+        }
+
+        override val isOpen: Boolean
+            get() = true
+
+        override val usingProtocol: Int
+            get() = 0
+
+        override fun registerOnConnected(onConnected: () -> Unit) {}
+
+        override fun <T : Packet> registerPacketHandler(cls: Class<T>, handler: (T) -> Unit) {}
+
+        @Deprecated("Use `call` instead.", ReplaceWith("call(packet).await()"))
+        override fun send(
+            packet: Packet,
+            callback: Consumer<Optional<Packet>>?,
+            timeoutUnit: TimeUnit?,
+            timeoutValue: Long?,
+        ) {
+            synchronized(sent) { sent.add(Request(packet as ClientPingProxyPacket, callback!!)) }
+        }
+
+        override fun getGatewayService(id: String): GatewayService = throw UnsupportedOperationException()
+    }
+}
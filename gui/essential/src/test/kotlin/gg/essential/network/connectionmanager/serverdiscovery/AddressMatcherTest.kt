@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.serverdiscovery
+
+import java.util.regex.Pattern
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class AddressMatcherTest {
+    @Test
+    fun testMatchesLinearScan() {
+        for (seed in listOf(1, 2, 3)) {
+            val random = Random(seed)
+            val matcher = AddressMatcher(SERVERS, cacheSize = 64)
+            val reference = LinearScan(SERVERS)
+            repeat(100_000) {
+                val address = randomAddress(random)
+                assertEquals(reference.find(address), matcher.find(address), "seed $seed, address \"$address\"")
+            }
+        }
+    }
+
+    @Test
+    fun testShuffledServerList() {
+        // Same entries in a different order, so precedence between overlapping regexes is exercised both ways
+        for (seed in listOf(4, 5, 6)) {
+            val random = Random(seed)
+            val servers = SERVERS.shuffled(random)
+            val matcher = AddressMatcher(servers)
+            val reference = LinearScan(servers)
+            repeat(20_000) {
+                val address = randomAddress(random)
+                assertEquals(reference.find(address), matcher.find(address), "seed $seed, address \"$address\"")
+            }
+        }
+    }
+
+    @Test
+    fun testWildcardForms() {
+        val matcher = AddressMatcher(SERVERS)
+        assertEquals("hypixel", matcher.find("hypixel.io"))
+        assertEquals("hypixel", matcher.find("eu.hypixel.net"))
+        assertEquals("hypixel", matcher.find("a.b.hypixel.net"))
+        assertNull(matcher.find(".hypixel.net"))
+        assertNull(matcher.find("nothypixel.net"))
+
+        assertEquals("minehut", matcher.find("foo.minehut.gg"))
+        assertNull(matcher.find("minehut.gg"))
+        assertEquals("aternos", matcher.find(".aternos.me"))
+        assertEquals("aternos", matcher.find("aternos.me"))
+        assertEquals("cubecraft", matcher.find(".cubecraft.net"))
+        assertNull(matcher.find("cubecraft.net"))
+    }
+
+    @Test
+    fun testPlainAddressesWinOverRegexes() {
+        val matcher = AddressMatcher(listOf("^.*\\.example\\.com$" to "regex", "play.example.com" to "plain"))
+        assertEquals("plain", matcher.find("play.example.com"))
+        assertEquals("regex", matcher.find("mc.example.com"))
+    }
+
+    @Test
+    fun testFirstListedRegexWins() {
+        val matcher = AddressMatcher(listOf(
+            "^(mc|play)\\.example\\.com$" to "first",
+            "^(?:.+\\.)?example\\.com$" to "second",
+            "^.*$" to "third",
+        ))
+        assertEquals("first", matcher.find("mc.example.com"))
+        assertEquals("second", matcher.find("eu.example.com"))
+        assertEquals("third", matcher.find("example.org"))
+    }
+
+    @Test
+    fun testCachedResultsStayCorrect() {
+        val matcher = AddressMatcher(SERVERS, cacheSize = 4)
+        val reference = LinearScan(SERVERS)
+        val random = Random(7)
+        val addresses = List(16) { randomAddress(random) }
+        repeat(1000) {
+            val address = addresses.random(random)
+            assertEquals(reference.find(address), matcher.find(address), "address \"$address\"")
+        }
+    }
+
+    /**
+     * The implementation [AddressMatcher] replaced: a map of plain addresses, then every regex until one matches.
+     * Regexes are tried in list order, where the original implementation used (unspecified) hash map order.
+     */
+    private class LinearScan(entries: List<Pair<String, String>>) {
+        private val exact = entries.filter { !AddressMatcher.isRegex(it.first) }.toMap()
+        private val regexes = entries.filter { AddressMatcher.isRegex(it.first) }
+            .map { Pattern.compile(it.first) to it.second }
+
+        fun find(address: String): String? {
+            exact[address]?.let { return it }
+            for ((pattern, server) in regexes) {
+                if (pattern.matcher(address).matches()) {
+                    return server
+                }
+            }
+            return null
+        }
+    }
+
+    companion object {
+        /**
+         * A snapshot in the shape of the server list: plain addresses, regexes in each of the wildcard-subdomain forms
+         * the list uses, and arbitrary regexes with and without a literal domain suffix.
+         */
+        private val SERVERS = listOf(
+            "hypixel.net" to "hypixel-plain",
+            "^(?:.+\\.)?hypixel\\.net$" to "hypixel",
+            "^(?:.+\\.)?hypixel\\.io$" to "hypixel",
+            "mc.hypixel.net" to "hypixel-plain",
+            "^(.+\\.)?mineplex\\.com$" to "mineplex",
+            "^(?:.*\\.)?aternos\\.me$" to "aternos",
+            "^(.*\\.)?aternos\\.org$" to "aternos",
+            "^.+\\.minehut\\.gg$" to "minehut",
+            "^.+\\.minehut\\.com$" to "minehut",
+            "^.*\\.cubecraft\\.net$" to "cubecraft",
+            "play.cubecraft.net" to "cubecraft-plain",
+            "^(?:.+\\.)?wynncraft\\.com$" to "wynncraft",
+            "^(?:.+\\.)?play\\.wynncraft\\.com$" to "wynncraft-play",
+            "^(?:.+\\.)?mccentral\\.org$" to "mccentral",
+            "^(mc|play|eu|na)\\.gommehd\\.net$" to "gommehd",
+            "^(?:.+\\.)?gommehd\\.net$" to "gommehd-any",
+            "^(play|mc)[0-9]*\\.manacube\\.com$" to "manacube",
+            "^[a-z]+\\.purpleprison\\.org$" to "purpleprison",
+            "^(?:[a-z0-9-]+\\.)*2b2t\\.org$" to "2b2t",
+            "^2b2t\\.(org|com)$" to "2b2t-tld",
+            "^(?:.+\\.)?hoplite\\.gg$" to "hoplite",
+            "^(?:.+\\.)?my-server_1\\.net$" to "underscore",
+            "^mc\\.example\\.(com|net)(:[0-9]+)?$" to "example-port",
+            "^(?i)(?:.+\\.)?caseless\\.net$" to "caseless",
+            "^.*\\.example\\.com:25565$" to "example-default-port",
+            "^(?:.+\\.)?ex-ample\\.com\\.?$" to "trailing-dot",
+            "^\\d+\\.\\d+\\.\\d+\\.\\d+$" to "ip",
+            "^localhost(:\\d+)?$" to "localhost",
+            "^.*\\Q.quoted.net\\E$" to "quoted",
+            "^.*\\.(?=x)x\\.net$" to "lookahead",
+            "^(?:.+\\.)?a\\.b\\.c\\.example\\.com$" to "deep",
+            "^(?:.+\\.)?b\\.c\\.example\\.com$" to "less-deep",
+            "localhost" to "localhost-plain",
+        )
+
+        private val LABELS = listOf(
+            "hypixel", "mineplex", "aternos", "minehut", "cubecraft", "wynncraft", "mccentral", "gommehd", "manacube",
+            "purpleprison", "2b2t", "hoplite", "my-server_1", "example", "ex-ample", "caseless", "quoted", "x", "a",
+            "b", "c", "mc", "play", "eu", "na", "mc1", "play42", "net", "com", "org", "me", "gg", "io", "localhost",
+            "127", "0", "1", "HYPIXEL", "Mc", "", "-", "_",
+        )
+        private val TLDS = listOf("net", "com", "org", "me", "gg", "io", "NET", "")
+        private val SUFFIXES = listOf("", "", "", "", ":25565", ":1234", ".", "\n", "\r\n", " ", " ")
+        private val PREFIXES = listOf("", "", "", ".", "\n", " ", "..")
+
+        private fun randomAddress(random: Random): String {
+            val labels = List(random.nextInt(1, 5)) { LABELS.random(random) } + TLDS.random(random)
+            return PREFIXES.random(random) + labels.joinToString(".") + SUFFIXES.random(random)
+        }
+    }
+}
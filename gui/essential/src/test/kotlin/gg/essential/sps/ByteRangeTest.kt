@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.sps
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class ByteRangeTest {
+    @Test
+    fun testUnsupportedHeadersSendWholeFile() {
+        assertNull(parseByteRange(null, SIZE))
+        assertNull(parseByteRange("items=0-99", SIZE))
+        assertNull(parseByteRange("bytes=0-9,20-29", SIZE))
+        assertNull(parseByteRange("bytes=abc-", SIZE))
+        assertNull(parseByteRange("bytes=0-abc", SIZE))
+        assertNull(parseByteRange("bytes=100", SIZE))
+    }
+
+    @Test
+    fun testClosedRange() {
+        assertEquals(0L..99L, parseByteRange("bytes=0-99", SIZE))
+        assertEquals(500L..500L, parseByteRange("bytes=500-500", SIZE))
+        // The end is clamped to the last byte
+        assertEquals(900L..999L, parseByteRange("bytes=900-5000", SIZE))
+    }
+
+    @Test
+    fun testOpenEndedRange() {
+        assertEquals(500L..999L, parseByteRange("bytes=500-", SIZE))
+        assertEquals(0L..999L, parseByteRange("bytes=0-", SIZE))
+        assertEquals(999L..999L, parseByteRange("bytes=999-", SIZE))
+    }
+
+    @Test
+    fun testSuffixRange() {
+        assertEquals(900L..999L, parseByteRange("bytes=-100", SIZE))
+        assertEquals(999L..999L, parseByteRange("bytes=-1", SIZE))
+        // A suffix longer than the file is the whole file
+        assertEquals(0L..999L, parseByteRange("bytes=-5000", SIZE))
+    }
+
+    @Test
+    fun testUnsatisfiableRangeIsEmpty() {
+        // All of these must be answered with 416
+        assertEquals(LongRange.EMPTY, parseByteRange("bytes=1000-", SIZE))
+        assertEquals(LongRange.EMPTY, parseByteRange("bytes=1000-1099", SIZE))
+        assertEquals(LongRange.EMPTY, parseByteRange("bytes=100-99", SIZE))
+        assertEquals(LongRange.EMPTY, parseByteRange("bytes=-0", SIZE))
+        assertEquals(LongRange.EMPTY, parseByteRange("bytes=0-", 0))
+        assertEquals(LongRange.EMPTY, parseByteRange("bytes=-100", 0))
+    }
+
+    companion object {
+        private const val SIZE = 1000L
+    }
+}
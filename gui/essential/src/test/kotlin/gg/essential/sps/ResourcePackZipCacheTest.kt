@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.sps
+
+import org.apache.commons.codec.digest.DigestUtils
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.Executors
+import java.util.zip.ZipFile
+import java.util.zip.ZipInputStream
+import kotlin.io.path.createDirectories
+import kotlin.io.path.inputStream
+import kotlin.io.path.readBytes
+import kotlin.io.path.writeBytes
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNull
+
+class ResourcePackZipCacheTest {
+    private val tmpDir = Files.createTempDirectory("resource-pack-zip-cache-test")
+    private val executor = Executors.newFixedThreadPool(4)
+    private val cache = ResourcePackZipCache(tmpDir.resolve("cache"), executor)
+
+    @AfterTest
+    fun cleanup() {
+        executor.shutdownNow()
+        tmpDir.toFile().deleteRecursively()
+    }
+
+    @Test
+    fun testZipContents() {
+        val files = samplePack()
+        val pack = writePack("pack", files)
+
+        val (zipFile, checksum) = cache.zip(pack)
+
+        assertEquals(DigestUtils.sha1Hex(zipFile.readBytes()), checksum)
+        assertZipContents(files, zipFile)
+    }
+
+    @Test
+    fun testUnchangedPackIsNotZippedAgain() {
+        val pack = writePack("pack", samplePack())
+
+        val (zipFile, checksum) = cache.zip(pack)
+        assertEquals(Pair(zipFile, checksum), cache.zip(pack))
+
+        pack.resolve("pack.mcmeta").writeBytes("{}".toByteArray())
+        Files.setLastModifiedTime(pack.resolve("pack.mcmeta"), FileTime.fromMillis(0))
+        val (newZipFile, newChecksum) = cache.zip(pack)
+        assertNotEquals(zipFile, newZipFile)
+        assertNotEquals(checksum, newChecksum)
+    }
+
+    @Test
+    fun testSameContentGivesIdenticalZip() {
+        val files = samplePack()
+        val first = writePack("first", files)
+        val second = writePack("second", files)
+        // Different modification times, so the second one isn't a cache hit
+        Files.walk(second).use { paths -> paths.forEach { Files.setLastModifiedTime(it, FileTime.fromMillis(0)) } }
+
+        val (firstZip, firstChecksum) = cache.zip(first)
+        val (secondZip, secondChecksum) = ResourcePackZipCache(tmpDir.resolve("other-cache"), executor).zip(second)
+
+        assertNotEquals(firstZip, secondZip)
+        assertEquals(firstChecksum, secondChecksum)
+        assertContentEquals(firstZip.readBytes(), secondZip.readBytes())
+    }
+
+    @Test
+    fun testZip64Fallback() {
+        // Too many entries for a regular zip, so this must go through ZipOutputStream instead
+        val files = (0 until 0xFFFF + 10).associate { i ->
+            "assets/${i / 1000}/$i.txt" to "file $i".toByteArray()
+        }
+        val pack = writePack("pack", files)
+
+        val (zipFile, checksum) = cache.zip(pack)
+
+        assertEquals(DigestUtils.sha1Hex(zipFile.readBytes()), checksum)
+        assertZipContents(files, zipFile)
+    }
+
+    @Test
+    fun testChecksum() {
+        val file = tmpDir.resolve("pack.zip")
+        file.writeBytes(Random(1).nextBytes(100_000))
+        val checksum = DigestUtils.sha1Hex(file.readBytes())
+        assertEquals(checksum, cache.checksum(file))
+        assertEquals(checksum, cache.checksum(file))
+
+        file.writeBytes(Random(2).nextBytes(50_000))
+        assertEquals(DigestUtils.sha1Hex(file.readBytes()), cache.checksum(file))
+    }
+
+    private fun writePack(name: String, files: Map<String, ByteArray>): Path {
+        val folder = tmpDir.resolve(name)
+        for ((path, content) in files) {
+            val file = folder.resolve(path)
+            file.parent.createDirectories()
+            file.writeBytes(content)
+        }
+        return folder
+    }
+
+    private fun samplePack(): Map<String, ByteArray> {
+        val random = Random(42)
+        return mapOf(
+            "pack.mcmeta" to """{"pack":{"pack_format":3,"description":"Test"}}""".toByteArray(),
+            "pack.png" to random.nextBytes(10_000),
+            "assets/minecraft/lang/en_us.lang" to "key=value\n".repeat(10_000).toByteArray(),
+            "assets/minecraft/textures/blocks/stone.png" to random.nextBytes(100_000),
+            "assets/minecraft/textures/blocks/empty.png" to ByteArray(0),
+            "assets/minecraft/sounds/with space.ogg" to random.nextBytes(1_000),
+            // Larger than what is deflated in parallel, so this gets streamed with a data descriptor
+            "assets/minecraft/sounds/music.ogg" to random.nextBytes(3_000_000) + ByteArray(3_000_000),
+            "assets/minecraft/sounds/random.ogg" to random.nextBytes(5_000_000),
+        )
+    }
+
+    private fun assertZipContents(expected: Map<String, ByteArray>, zipFile: Path) {
+        val sortedNames = expected.keys.sorted()
+
+        // Reads the central directory (located via the end of central directory record)
+        ZipFile(zipFile.toFile()).use { zip ->
+            assertEquals(sortedNames, zip.entries().toList().map { it.name })
+            assertNull(zip.comment)
+            for (entry in zip.entries()) {
+                assertContentEquals(expected.getValue(entry.name), zip.getInputStream(entry).use { it.readBytes() })
+            }
+        }
+
+        // Reads the local headers and data descriptors (checking the CRC and sizes in them)
+        ZipInputStream(zipFile.inputStream()).use { zip ->
+            for (name in sortedNames) {
+                val entry = zip.nextEntry!!
+                assertEquals(name, entry.name)
+                assertContentEquals(expected.getValue(name), zip.readBytes())
+                assertEquals(expected.getValue(name).size.toLong(), entry.size)
+            }
+            assertNull(zip.nextEntry)
+        }
+    }
+}
@@ -40,6 +40,7 @@ import gg.essential.gui.EssentialPalette;
 import gg.essential.gui.account.factory.*;
 import gg.essential.gui.api.ComponentFactory;
 import gg.essential.gui.common.UI3DPlayer;
+import gg.essential.gui.elementa.state.v2.FrameScheduler;
 import gg.essential.gui.elementa.state.v2.MutableState;
 import gg.essential.gui.elementa.state.v2.StateScheduler;
 import gg.essential.gui.image.ResourceImageFactory;
@@ -464,6 +465,7 @@ public class Essential implements EssentialAPI {
         if (!event.isPre()) return;
 
         StateScheduler.updateSystemTime(Instant.now());
+        FrameScheduler.getForMainThread().runFrame();
     }
 
     @Subscribe(priority = 2000) // before any other event which might try to query the api
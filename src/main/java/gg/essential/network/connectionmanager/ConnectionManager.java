@@ -51,6 +51,7 @@ import gg.essential.network.connectionmanager.notices.NoticesManager;
 import gg.essential.network.connectionmanager.notices.PersistentToastNoticeListener;
 import gg.essential.network.connectionmanager.notices.SaleNoticeManager;
 import gg.essential.network.connectionmanager.notices.SocialMenuNewFriendRequestNoticeManager;
+import gg.essential.network.connectionmanager.pingproxy.PingProxyManager;
 import gg.essential.network.connectionmanager.profile.ProfileManager;
 import gg.essential.network.connectionmanager.profile.SuspensionDisconnectHandler;
 import gg.essential.network.connectionmanager.relationship.RelationshipManager;
@@ -119,6 +120,8 @@ public class ConnectionManager extends ConnectionManagerKt {
     @NotNull
     private final SocialManager socialManager;
     @NotNull
+    private final PingProxyManager pingProxyManager;
+    @NotNull
     private final IceManager iceManager;
     @NotNull
     private final ScreenshotManager screenshotManager;
@@ -213,6 +216,9 @@ public class ConnectionManager extends ConnectionManagerKt {
         this.serverDiscoveryManager = new ServerDiscoveryManager(this);
         this.managers.add(this.serverDiscoveryManager);
 
+        // Ping Proxy
+        this.managers.add(this.pingProxyManager = new PingProxyManager(this));
+
         // Social Manager
         this.managers.add(this.socialManager = new SocialManager(this));
         noticesManager.register(new FriendRequestToastNoticeListener(this, noticesManager));
@@ -338,6 +344,11 @@ public class ConnectionManager extends ConnectionManagerKt {
         return this.spsManager;
     }
 
+    @NotNull
+    public PingProxyManager getPingProxyManager() {
+        return this.pingProxyManager;
+    }
+
     @NotNull
     public SocialManager getSocialManager() {
         return this.socialManager;
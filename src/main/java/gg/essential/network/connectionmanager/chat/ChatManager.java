@@ -63,9 +63,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
 
 import static gg.essential.util.ChannelExtensionsKt.isAnnouncement;
 
@@ -75,7 +73,7 @@ public class ChatManager extends StateCallbackManager<IMessengerManager> impleme
     private final Map<Long, Channel> channels = Maps.newConcurrentMap();
 
     @NotNull
-    private final Map<Long, ConcurrentMap<Long, Message>> channelMessages = Maps.newConcurrentMap();
+    private final Map<Long, ChannelMessageStore> channelMessages = Maps.newConcurrentMap();
 
     @NotNull
     private final MutableState<MutableTrackedList<Long>> channelsWithMessagesListState = ListKt.mutableListStateOf();
@@ -270,7 +268,7 @@ public class ChatManager extends StateCallbackManager<IMessengerManager> impleme
     @Nullable
     public Channel removeChannel(final long id) {
         Channel channel = this.channels.remove(id);
-        ConcurrentMap<Long, Message> removed = this.channelMessages.remove(id);
+        this.channelMessages.remove(id);
         updateChannelListState();
         if (channel != null) {
             for (IMessengerManager iMessengerManager : getCallbacks()) {
@@ -307,10 +305,17 @@ public class ChatManager extends StateCallbackManager<IMessengerManager> impleme
         this.clearChannels();
     }
 
+    /**
+     * Returns the loaded messages of the given channel, ordered by id, or null if none have been requested yet.
+     */
     @Nullable
-    public Map<Long, Message> getMessages(final long channelId) {
-        ConcurrentMap<Long, Message> messageMap = this.channelMessages.get(channelId);
-        return messageMap != null ? Collections.unmodifiableMap(messageMap) : null;
+    public NavigableMap<Long, Message> getMessages(final long channelId) {
+        ChannelMessageStore store = this.channelMessages.get(channelId);
+        return store != null ? store.getMessages() : null;
+    }
+
+    private @NotNull ChannelMessageStore createMessageStore(@NotNull Channel channel) {
+        return new ChannelMessageStore(channel.getLastReadMessageId(), () -> USession.Companion.activeNow().getUuid());
     }
 
     /**
@@ -325,13 +330,13 @@ public class ChatManager extends StateCallbackManager<IMessengerManager> impleme
             return false;
         }
 
-        ConcurrentMap<Long, Message> map = channelMessages.get(channelId);
-        if (map == null) {
-            map = Maps.newConcurrentMap();
-            channelMessages.put(channelId, map);
+        ChannelMessageStore store = channelMessages.get(channelId);
+        if (store == null) {
+            store = createMessageStore(channel);
+            channelMessages.put(channelId, store);
             this.updateChannelListState();
         }
-        boolean previousMessageExisted = map.put(message.getId(), message) != null; // Message was edited if it already existed
+        boolean previousMessageExisted = store.upsert(message) != null; // Message was edited if it already existed
 
         for (IMessengerManager iMessengerManager : getCallbacks()) {
             iMessengerManager.messageReceived(channel, message);
@@ -404,9 +409,9 @@ public class ChatManager extends StateCallbackManager<IMessengerManager> impleme
     }
 
     public void removeMessage(final long channelId, final long messageId) {
-        ConcurrentMap<Long, Message> channelMessages = this.channelMessages.get(channelId);
-        if (channelMessages != null) {
-            Message message = channelMessages.remove(messageId);
+        ChannelMessageStore store = this.channelMessages.get(channelId);
+        if (store != null) {
+            Message message = store.remove(messageId);
             if (message != null) {
                 Channel channel = this.channels.get(channelId);
                 if ((channel.getLastReadMessageId() == null || channel.getLastReadMessageId() < message.getId())
@@ -606,7 +611,10 @@ public class ChatManager extends StateCallbackManager<IMessengerManager> impleme
                 boolean isEmpty = ((ServerChatChannelMessagePacket) packet).getMessages().length == 0;
                 if (before == null && after == null && isEmpty) {
                     // This channel has not seen any messages yet, we can still cache that very fact though.
-                    this.channelMessages.putIfAbsent(channelId, Maps.newConcurrentMap());
+                    Channel channel = this.channels.get(channelId);
+                    if (channel != null) {
+                        this.channelMessages.computeIfAbsent(channelId, id -> createMessageStore(channel));
+                    }
                     this.updateChannelListState();
                 }
             }
@@ -685,14 +693,9 @@ public class ChatManager extends StateCallbackManager<IMessengerManager> impleme
         }
         channel.setLastReadMessageId(lastReadMessageId);
         // Update unread message count in channel
-        Map<Long, Message> messages = getMessages(channel.getId());
-        if (messages != null) {
-            Stream<Message> otherUserMessages = messages.values().stream().filter(m -> !m.getSender().equals(USession.Companion.activeNow().getUuid()));
-            if (lastReadMessageId == null) {
-                channel.setUnreadMessages((int) otherUserMessages.count());
-            } else {
-                channel.setUnreadMessages((int) otherUserMessages.filter(m -> lastReadMessageId < m.getId()).count());
-            }
+        ChannelMessageStore store = this.channelMessages.get(channel.getId());
+        if (store != null) {
+            channel.setUnreadMessages(store.updateLastReadMessageId(lastReadMessageId));
         }
         for (IMessengerManager manager : getCallbacks()) {
             manager.channelUpdated(channel);
@@ -768,22 +771,22 @@ public class ChatManager extends StateCallbackManager<IMessengerManager> impleme
     }
 
     public @Nullable Message getMessageById(long channelId, long messageId) {
-        ConcurrentMap<Long, Message> messages = channelMessages.get(channelId);
-        if (messages == null) {
+        ChannelMessageStore store = channelMessages.get(channelId);
+        if (store == null) {
             return null;
         }
-        return messages.get(messageId);
+        return store.get(messageId);
     }
 
     /**
      * Returns the ID of the oldest loaded message in a channel or null if no messages are available
      */
     private @Nullable Long getOldestLoadedMessageId(long channel) {
-        Map<Long, Message> messages = getMessages(channel);
-        if (messages == null) {
+        ChannelMessageStore store = channelMessages.get(channel);
+        if (store == null) {
             return null;
         }
-        return messages.values().stream().min(Comparator.comparingLong(Message::getId)).map(Message::getId).orElse(null);
+        return store.getOldestId();
     }
 
     /**
@@ -54,6 +54,7 @@ import kotlin.Unit;
 import kotlin.collections.MapsKt;
 import me.kbrewster.eventbus.Subscribe;
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.client.network.NetHandlerPlayClient;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -157,6 +158,10 @@ public class CosmeticsManager implements NetworkedManager, ICosmeticsManager {
             (enabled) -> {
                 EquippedCosmeticsManagerMcKt.setCapeModelPartEnabled(enabled);
                 return Unit.INSTANCE;
+            },
+            (uuid) -> {
+                WorldClient world = UMinecraft.getWorld();
+                return world != null && world.getPlayerEntityByUUID(uuid) != null;
             }
         );
 
@@ -23,14 +23,13 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.regex.Pattern;
 
 public class ServerDiscoveryManager implements NetworkedManager, Iterable<ServerDiscovery> {
 
     @NotNull
     private final Map<String, ServerDiscovery> servers = Maps.newConcurrentMap();
-    private Map<String, ServerDiscovery> serversByAddress;
-    private Map<Pattern, ServerDiscovery> serversByRegexAddress;
+    @Nullable
+    private volatile AddressMatcher<ServerDiscovery> addressMatcher;
     private final ConnectionManager connectionManager;
 
     public ServerDiscoveryManager(@NotNull final ConnectionManager connectionManager) {
@@ -56,8 +55,7 @@ public class ServerDiscoveryManager implements NetworkedManager, Iterable<Server
 
     public void addServer(@NotNull final ServerDiscovery serverDiscovery) {
         this.servers.put(serverDiscovery.getId(), serverDiscovery);
-        this.serversByAddress = null;
-        this.serversByRegexAddress = null;
+        this.addressMatcher = null;
     }
 
     @NotNull
@@ -68,32 +66,12 @@ public class ServerDiscoveryManager implements NetworkedManager, Iterable<Server
 
     @Nullable
     public ServerDiscovery findServerByAddress(final String address) {
-        if (this.serversByAddress == null || this.serversByRegexAddress == null) {
-            this.serversByAddress = Maps.newHashMap();
-            this.serversByRegexAddress = Maps.newHashMap();
-            for (ServerDiscovery server : this.servers.values()) {
-                for (String serverAddress : server.getAddresses()) {
-                    if (serverAddress.startsWith("^") && serverAddress.endsWith("$")) {
-                        this.serversByRegexAddress.put(Pattern.compile(serverAddress), server);
-                    } else {
-                        this.serversByAddress.put(serverAddress, server);
-                    }
-                }
-            }
-        }
-
-        ServerDiscovery exactMatch = this.serversByAddress.get(address);
-        if (exactMatch != null) {
-            return exactMatch;
+        AddressMatcher<ServerDiscovery> matcher = this.addressMatcher;
+        if (matcher == null) {
+            matcher = AddressMatcher.of(this.servers.values(), ServerDiscovery::getAddresses);
+            this.addressMatcher = matcher;
         }
-
-        for (Map.Entry<Pattern, ServerDiscovery> entry : this.serversByRegexAddress.entrySet()) {
-            if (entry.getKey().matcher(address).matches()) {
-                return entry.getValue();
-            }
-        }
-
-        return null;
+        return matcher.find(address);
     }
 
     @NotNull
@@ -111,8 +89,7 @@ public class ServerDiscoveryManager implements NetworkedManager, Iterable<Server
     @Override
     public void resetState() {
         this.servers.clear();
-        this.serversByAddress = null;
-        this.serversByRegexAddress = null;
+        this.addressMatcher = null;
     }
 
 }
@@ -28,7 +28,7 @@ import gg.essential.gui.elementa.state.v2.combinators.map
 import gg.essential.gui.elementa.state.v2.memo
 import gg.essential.gui.elementa.state.v2.mutableListStateOf
 import gg.essential.gui.elementa.state.v2.mutableStateOf
-import gg.essential.gui.elementa.state.v2.removeAll
+import gg.essential.gui.elementa.state.v2.removeAt
 import gg.essential.gui.elementa.state.v2.set
 import gg.essential.gui.elementa.state.v2.toListState
 import gg.essential.gui.friends.message.v2.ClientMessage
@@ -166,7 +166,7 @@ class MessengerStateManagerImpl(private val chatManager: ChatManager) : IMesseng
             },
             mutableStateOf(channel.isMuted),
             mutableStateOf("Loading..."),
-            getMessageListState(channelId).map { list -> list.maxByOrNull { it.id } },
+            getMessageListState(channelId).map { list -> list.lastOrNull() },
             ObservableList(channel.members.toMutableList()),
             mutableStateOf(channel.lastReadMessageId)
         ).apply {
@@ -199,17 +199,18 @@ class MessengerStateManagerImpl(private val chatManager: ChatManager) : IMesseng
         }
     }
 
+    // Returns the messages ordered by id
     private fun getMessages(channelId: Long): Collection<Message>? {
         return if (channelId in chatManager.announcementChannelIds) {
             chatManager.announcementChannelIds.mapNotNull {
                 chatManager.getMessages(it)?.values
-            }.takeIf { it.isNotEmpty() }?.flatten()
+            }.takeIf { it.isNotEmpty() }?.flatten()?.sortedBy { it.id }
         } else {
             chatManager.getMessages(channelId)?.values
         }
     }
 
-    override fun getMessagesRaw(channelId: Long): Map<Long, Message>? {
+    override fun getMessagesRaw(channelId: Long): NavigableMap<Long, Message>? {
         return chatManager.getMessages(channelId)
     }
 
@@ -296,7 +297,12 @@ class MessengerStateManagerImpl(private val chatManager: ChatManager) : IMesseng
 
     override fun messageDeleted(message: Message) {
         val channelId = chatManager.mergeAnnouncementChannel(message.channelId)
-        observableMessageList[channelId]?.first?.removeAll { it.id == message.id }
+        observableMessageList[channelId]?.first?.let { messageList ->
+            val index = messageList.getUntracked().binarySearchBy(message.id) { it.id }
+            if (index >= 0) {
+                messageList.removeAt(index)
+            }
+        }
         messageUnreadMap.remove(Pair(message.channelId, message.id))
         val channelState = channelStates[channelId] ?: return
         updateChannelStates(getChannel(channelId), channelState)
@@ -308,13 +314,14 @@ class MessengerStateManagerImpl(private val chatManager: ChatManager) : IMesseng
         val channel = getChannel(chatManager.mergeAnnouncementChannel(channel.id))
         messageRequests.remove(channel.id)
         observableMessageList[channel.id]?.first?.let { messageList ->
-            // Prevent duplicates from being added
-            val index = messageList.getUntracked().indexOfFirst { it.id == message.id }
+            // The list is kept ordered by id, so we can look up where the message is (or belongs) directly.
+            // This also prevents duplicates from being added.
+            val index = messageList.getUntracked().binarySearchBy(message.id) { it.id }
             val newMessage = infraInstanceToClient(message)
-            if (index != -1) {
+            if (index >= 0) {
                 messageList.set(index, newMessage)
             } else {
-                messageList.add(newMessage)
+                messageList.add(-index - 1, newMessage)
             }
         }
         val states = channelStates[channel.id] ?: return
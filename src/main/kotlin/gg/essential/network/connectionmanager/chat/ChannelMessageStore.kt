@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.network.connectionmanager.chat
+
+import com.sparkuniverse.toolbox.chat.model.Message
+import java.util.Collections
+import java.util.NavigableMap
+import java.util.UUID
+import java.util.concurrent.ConcurrentSkipListMap
+
+/**
+ * The loaded messages of a single channel, ordered by id.
+ *
+ * Additionally keeps track of how many of these messages were sent by other users after the last read message, so
+ * the unread count only needs to look at the messages between the old and the new last read message when it changes.
+ *
+ * Reads are safe from any thread, modifications are synchronized.
+ */
+class ChannelMessageStore(
+    lastReadMessageId: Long?,
+    private val ownUuid: () -> UUID,
+) {
+    private val map = ConcurrentSkipListMap<Long, Message>()
+
+    /** Read-only view of all loaded messages, ordered by id. Use its sub-map views for range queries. */
+    val messages: NavigableMap<Long, Message> = Collections.unmodifiableNavigableMap(map)
+
+    @Volatile
+    var lastReadMessageId: Long? = lastReadMessageId
+        private set
+
+    /** The number of loaded messages sent by other users with an id greater than [lastReadMessageId]. */
+    @Volatile
+    var unreadCount: Int = 0
+        private set
+
+    val oldestId: Long?
+        get() = map.firstEntry()?.key
+
+    operator fun get(id: Long): Message? = map[id]
+
+    /**
+     * Inserts the given message or replaces the existing message with the same id.
+     *
+     * @return the replaced message, or `null` if the message is new
+     */
+    @Synchronized
+    fun upsert(message: Message): Message? {
+        val ownUuid = ownUuid()
+        val previous = map.put(message.id, message)
+        if (previous != null && isUnread(previous, ownUuid)) unreadCount--
+        if (isUnread(message, ownUuid)) unreadCount++
+        return previous
+    }
+
+    @Synchronized
+    fun remove(id: Long): Message? {
+        val removed = map.remove(id) ?: return null
+        if (isUnread(removed, ownUuid())) unreadCount--
+        return removed
+    }
+
+    /**
+     * Updates the last read message id.
+     *
+     * @return the new [unreadCount]
+     */
+    @Synchronized
+    fun updateLastReadMessageId(id: Long?): Int {
+        val oldBound = lastReadMessageId ?: Long.MIN_VALUE
+        val newBound = id ?: Long.MIN_VALUE
+        lastReadMessageId = id
+        if (oldBound == newBound) {
+            return unreadCount
+        }
+
+        // Only the messages between the old and the new last read message change their state
+        val ownUuid = ownUuid()
+        val changed = map.subMap(minOf(oldBound, newBound), false, maxOf(oldBound, newBound), true)
+            .values.count { it.sender != ownUuid }
+        unreadCount += if (newBound > oldBound) -changed else changed
+        return unreadCount
+    }
+
+    private fun isUnread(message: Message, ownUuid: UUID): Boolean =
+        message.id > (lastReadMessageId ?: Long.MIN_VALUE) && message.sender != ownUuid
+}
@@ -29,15 +29,15 @@ import java.util.*
 
 class CoroutinesChannelInitializer(
     private val coroutineScope: CoroutineScope,
-    private val inboundChannel: ReceiveChannel<ByteArray>,
-    private val outboundChannel: SendChannel<ByteArray>,
+    private val inboundChannel: ReceiveChannel<ByteBuf>,
+    private val outboundChannel: SendChannel<ByteBuf>,
     private val onClose: () -> Unit,
 ) : ChannelInitializer<LocalChannel>() {
     override fun initChannel(channel: LocalChannel) {
         val reader = coroutineScope.launch(start = CoroutineStart.LAZY) {
             try {
-                for (bytes in inboundChannel) {
-                    channel.writeAndFlush(Unpooled.wrappedBuffer(bytes))
+                for (buf in inboundChannel) {
+                    channel.writeAndFlush(buf)
                 }
             } finally {
                 channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE)
@@ -46,11 +46,11 @@ class CoroutinesChannelInitializer(
 
         // The transport channels implement backpressure, however MC doesn't really, so we need an infinite
         // buffer inbetween so we don't end up blocking the netty thread.
-        val bufferedOutboundChannel = Channel<ByteArray>(Channel.UNLIMITED)
+        val bufferedOutboundChannel = Channel<ByteBuf>(Channel.UNLIMITED, onUndeliveredElement = { it.release() })
         coroutineScope.launch(Dispatchers.Unconfined) {
             try {
-                for (bytes in bufferedOutboundChannel) {
-                    outboundChannel.send(bytes)
+                for (buf in bufferedOutboundChannel) {
+                    outboundChannel.send(buf)
                 }
             } catch (e: Exception) {
                 outboundChannel.close(e)
@@ -70,10 +70,10 @@ class CoroutinesChannelInitializer(
 
             override fun channelRead(ctx: ChannelHandlerContext, msg: Any) {
                 if (msg is ByteBuf) {
-                    val byteArray = ByteArray(msg.readableBytes())
-                    msg.readBytes(byteArray)
-                    msg.release()
-                    bufferedOutboundChannel.trySend(byteArray)
+                    // Ownership is passed on to the transport, which releases the buffer once it has been sent
+                    if (bufferedOutboundChannel.trySend(msg).isFailure) {
+                        msg.release()
+                    }
                     return
                 }
                 super.channelRead(ctx, msg)
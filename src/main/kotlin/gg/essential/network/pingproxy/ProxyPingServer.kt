@@ -14,11 +14,9 @@ package gg.essential.network.pingproxy
 import com.google.common.util.concurrent.ThreadFactoryBuilder
 import gg.essential.Essential
 import gg.essential.connectionmanager.common.packet.pingproxy.ClientPingProxyPacket
-import gg.essential.connectionmanager.common.packet.pingproxy.ServerPingProxyResponsePacket
 import gg.essential.mixins.ext.client.multiplayer.ext
 import gg.essential.mixins.ext.client.multiplayer.pingOverride
 import gg.essential.mixins.ext.client.multiplayer.pingRegion
-import gg.essential.network.connectionmanager.AsyncResponseHandler
 import gg.essential.network.connectionmanager.ice.netty.CloseAfterFirstMessage
 import io.netty.bootstrap.ServerBootstrap
 import io.netty.buffer.ByteBuf
@@ -30,11 +28,11 @@ import io.netty.channel.EventLoopGroup
 import io.netty.channel.SimpleChannelInboundHandler
 import io.netty.channel.local.LocalAddress
 import io.netty.channel.local.LocalServerChannel
+import kotlinx.coroutines.launch
 import net.minecraft.client.multiplayer.ServerData
 import net.minecraft.network.NettyVarint21FrameDecoder
 import net.minecraft.network.PacketBuffer
 import java.net.SocketAddress
-import java.util.concurrent.TimeUnit
 
 class ProxyPingServer(val serverData: ServerData) {
 
@@ -109,8 +107,10 @@ class ProxyPingPacketHandler(val serverData: ServerData): SimpleChannelInboundHa
         } else {
             if (id == 0x00) { // Status Request
                 val pingData = pingData!!
-                Essential.getInstance().connectionManager.send(pingData, AsyncResponseHandler { maybeResponse ->
-                    val response = maybeResponse.orElse(null) as? ServerPingProxyResponsePacket
+                val connectionManager = Essential.getInstance().connectionManager
+                connectionManager.connectionScope.launch {
+                    val response = connectionManager.pingProxyManager
+                        .ping(pingData.hostname, pingData.port, pingData.protocolVersion)
                     if (response != null) {
                         sendPacket(0x00) { // Query Response
                             writeString(response.rawJson)
@@ -124,7 +124,7 @@ class ProxyPingPacketHandler(val serverData: ServerData): SimpleChannelInboundHa
                         channel.close()
                         Essential.logger.info("Received no response from ping proxy for ${pingData.hostname}:${pingData.port} (${pingData.protocolVersion})")
                     }
-                }, TimeUnit.SECONDS, 7)
+                }.invokeOnCompletion { if (it != null) channel.close() }
             } else if (id == 0x01) { // Ping
                 val payload = buf.readLong()
                 sendPacket(0x01) { // Pong
@@ -11,6 +11,7 @@
  */
 package gg.essential.sps
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.sun.net.httpserver.HttpExchange
 import com.sun.net.httpserver.HttpServer
 import gg.essential.Essential
@@ -23,26 +24,25 @@ import gg.essential.util.ResourceManagerUtil
 import gg.essential.util.executor
 import net.minecraft.client.Minecraft
 import net.minecraft.client.resources.IResourcePack
-import org.apache.commons.codec.digest.DigestUtils
 import java.net.InetSocketAddress
-import java.nio.file.Files
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
 import java.nio.file.Path
-import java.util.zip.ZipEntry
-import java.util.zip.ZipOutputStream
-import kotlin.io.path.deleteIfExists
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 import kotlin.io.path.exists
-import kotlin.io.path.fileSize
-import kotlin.io.path.inputStream
 import kotlin.io.path.isDirectory
-import kotlin.io.path.listDirectoryEntries
-import kotlin.io.path.outputStream
-import kotlin.io.path.readBytes
-import kotlin.io.path.relativeTo
 
 object ResourcePackSharingHttpServer {
     private val spsManager = Essential.getInstance().connectionManager.spsManager
 
     private var server: HttpServer? = null
+    private var executor: ExecutorService? = null
+
+    private val zipCache = ResourcePackZipCache(
+        Essential.getInstance().baseDir.toPath().resolve("resource-pack-cache"),
+        Multithreading.pool,
+    )
 
     private var packInfo: PackInfo? = null
 
@@ -85,20 +85,53 @@ object ResourcePackSharingHttpServer {
             }
 
         }
-        server.executor = Multithreading.pool
+        val executor = Executors.newFixedThreadPool(
+            MAX_CONCURRENT_DOWNLOADS,
+            ThreadFactoryBuilder().setNameFormat("Essential Resource Pack Server #%d").setDaemon(true).build(),
+        )
+        server.executor = executor
         server.start()
         this.server = server
+        this.executor = executor
     }
 
     fun stopServer() {
         server?.stop(0)
         server = null
+        executor?.shutdown()
+        executor = null
     }
 
     private fun sendFile(file: Path, exchange: HttpExchange) {
-        exchange.sendResponseHeaders(HttpStatus.OK, file.fileSize())
-        file.inputStream().use {
-            it.copyTo(exchange.responseBody)
+        FileChannel.open(file).use { channel ->
+            val size = channel.size()
+            val requestedRange = parseByteRange(exchange.requestHeaders.getFirst("Range"), size)
+            exchange.responseHeaders.set("Accept-Ranges", "bytes")
+            if (requestedRange != null && requestedRange.isEmpty()) {
+                exchange.responseHeaders.set("Content-Range", "bytes */$size")
+                exchange.sendResponseHeaders(HttpStatus.RANGE_NOT_SATISFIABLE, -1)
+                exchange.responseBody.close()
+                return
+            }
+
+            val range = requestedRange ?: 0 until size
+            val length = range.last - range.first + 1
+            exchange.responseHeaders.set("Content-Type", "application/zip")
+            if (requestedRange != null) {
+                exchange.responseHeaders.set("Content-Range", "bytes ${range.first}-${range.last}/$size")
+            }
+            val status = if (requestedRange != null) HttpStatus.PARTIAL_CONTENT else HttpStatus.OK
+            if (exchange.requestMethod == "HEAD" || length == 0L) {
+                exchange.sendResponseHeaders(status, -1)
+            } else {
+                exchange.sendResponseHeaders(status, length)
+                // Let the file channel do the copying, so we don't need to allocate a buffer for every download
+                val out = Channels.newChannel(exchange.responseBody)
+                var position = range.first
+                while (position <= range.last) {
+                    position += channel.transferTo(position, range.last + 1 - position, out)
+                }
+            }
         }
         exchange.responseBody.close()
     }
@@ -128,7 +161,6 @@ object ResourcePackSharingHttpServer {
         // If the user is not actively sharing their resource pack, reset the packInfo
         // and cancel computing it to avoid needlessly zipping
         if (spsManager.localSession == null || !spsManager.isShareResourcePack) {
-            packInfo?.takeIf { it.isTemp }?.file?.deleteIfExists()
             packInfo = null
             spsManager.updateResourcePack(null)
             return
@@ -138,12 +170,6 @@ object ResourcePackSharingHttpServer {
     }
 
     private fun recomputePrimaryPack() {
-        // Cleanup previous temp zip file if needed
-        val packInfo = packInfo
-        if (packInfo?.isTemp == true) {
-            packInfo.file.deleteIfExists()
-        }
-
         val resourcePack = getPrimaryResourcePack()
         if (resourcePack == null) {
             this.packInfo = null
@@ -157,14 +183,12 @@ object ResourcePackSharingHttpServer {
                 return
             }
             if (file.isDirectory()) {
-                // Zip the resource pack to send
-                val tempFile = Files.createTempFile("resource-pack", ".zip")
-                Essential.logger.info("Zipping host resource pack to $tempFile")
-
-                zipFolder(file, tempFile)
-                this.packInfo = PackInfo(tempFile, getChecksum(tempFile), true)
+                // Zip the resource pack to send (or re-use the zip from last time if nothing changed)
+                val (zipFile, checksum) = zipCache.zip(file)
+                Essential.logger.info("Sharing host resource pack from $zipFile")
+                this.packInfo = PackInfo(zipFile, checksum)
             } else if (file.exists()) {
-                this.packInfo = PackInfo(file, getChecksum(file), false)
+                this.packInfo = PackInfo(file, zipCache.checksum(file))
             } else {
                 this.packInfo = null
                 Essential.logger.error("Unable to determine primary resource pack: ${resourcePack.packName} ${resourcePack.javaClass.name} $file")
@@ -176,47 +200,7 @@ object ResourcePackSharingHttpServer {
         }
     }
 
-    private fun getChecksum(file: Path): String {
-        return DigestUtils.sha1Hex(file.readBytes())
-    }
-
-    data class PackInfo(val file: Path, val checksum: String, val isTemp: Boolean)
-
-    /** Adapted from https://stackoverflow.com/questions/51833423/how-to-zip-the-content-of-a-directory-in-java */
-    @Throws(java.lang.Exception::class)
-    private fun zipFolder(srcFolder: Path, destZipFile: Path) {
-        destZipFile.outputStream().use { fileWriter ->
-            ZipOutputStream(fileWriter).use { zip ->
-                addFolderToZip(
-                    srcFolder,
-                    srcFolder,
-                    zip
-                )
-            }
-        }
-    }
-
-    @Throws(java.lang.Exception::class)
-    private fun addFileToZip(rootPath: Path, srcFile: Path, zip: ZipOutputStream) {
-        if (srcFile.isDirectory()) {
-            addFolderToZip(rootPath, srcFile, zip)
-        } else {
-            val buf = ByteArray(1024)
-            var len: Int
-            srcFile.inputStream().use { `in` ->
-                val name = srcFile.relativeTo(rootPath).toString()
-                zip.putNextEntry(ZipEntry(name))
-                while (`in`.read(buf).also { len = it } > 0) {
-                    zip.write(buf, 0, len)
-                }
-            }
-        }
-    }
+    data class PackInfo(val file: Path, val checksum: String)
 
-    @Throws(java.lang.Exception::class)
-    private fun addFolderToZip(rootPath: Path, srcFolder: Path, zip: ZipOutputStream) {
-        for (fileName in srcFolder.listDirectoryEntries()) {
-            addFileToZip(rootPath, fileName, zip)
-        }
-    }
+    private const val MAX_CONCURRENT_DOWNLOADS = 4
 }
\ No newline at end of file
@@ -78,6 +78,7 @@ import gg.essential.network.connectionmanager.cosmetics.WardrobeSettings
 import gg.essential.network.connectionmanager.features.DisabledFeaturesManager
 import gg.essential.network.connectionmanager.media.IScreenshotManager
 import gg.essential.network.connectionmanager.notices.INoticesManager
+import gg.essential.network.connectionmanager.pingproxy.PingProxyManager
 import gg.essential.network.connectionmanager.skins.SkinsManager
 import gg.essential.network.connectionmanager.social.ProfileSuspension
 import gg.essential.network.connectionmanager.suspension.SuspensionManager
@@ -354,6 +355,9 @@ class GuiEssentialPlatformImpl : GuiEssentialPlatform {
     override val disabledFeaturesManager: DisabledFeaturesManager
         get() = Essential.getInstance().connectionManager.disabledFeaturesManager
 
+    override val pingProxyManager: PingProxyManager
+        get() = Essential.getInstance().connectionManager.pingProxyManager
+
     override val screenshotFolder: Path
         get() = gg.essential.util.screenshotFolder.toPath()
 
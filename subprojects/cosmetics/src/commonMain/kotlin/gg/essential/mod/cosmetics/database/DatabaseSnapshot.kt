@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.mod.cosmetics.database
+
+/**
+ * Writer for the binary snapshot format used by [GitRepoCosmeticsDatabase.writeSnapshot].
+ *
+ * All strings are stored once in a string table at the start of the snapshot and referenced by index everywhere else,
+ * so the many repeated paths, ids and asset checksums only take up a few bytes each. Integers are stored as varints.
+ */
+internal class SnapshotWriter {
+    private val strings = mutableMapOf<String, Int>()
+    private val body = ByteBuilder()
+
+    fun int(value: Int) = body.varInt(value)
+
+    fun boolean(value: Boolean) = body.byte(if (value) 1 else 0)
+
+    fun string(value: String) = body.varInt(strings.getOrPut(value) { strings.size })
+
+    fun nullableString(value: String?) {
+        if (value == null) {
+            body.varInt(0)
+        } else {
+            body.varInt(strings.getOrPut(value) { strings.size } + 1)
+        }
+    }
+
+    inline fun <T> collection(values: Collection<T>, writeOne: SnapshotWriter.(T) -> Unit) {
+        int(values.size)
+        for (value in values) {
+            writeOne(value)
+        }
+    }
+
+    fun toByteArray(): ByteArray {
+        val out = ByteBuilder()
+        out.int32(MAGIC)
+        out.varInt(VERSION)
+        out.varInt(strings.size)
+        // LinkedHashMap, so iteration order matches assigned indices
+        for (str in strings.keys) {
+            val bytes = str.encodeToByteArray()
+            out.varInt(bytes.size)
+            out.bytes(bytes, bytes.size)
+        }
+        out.bytes(body.buf, body.size)
+        return out.buf.copyOf(out.size)
+    }
+
+    companion object {
+        const val MAGIC = 0x45474344 // "EGCD"
+        const val VERSION = 1
+    }
+}
+
+/** Reader for snapshots written by [SnapshotWriter]. Throws [SnapshotFormatException] on any malformed input. */
+internal class SnapshotReader(private val buf: ByteArray) {
+    private var pos = 0
+    private val strings: Array<String>
+
+    init {
+        if (buf.size < 4 || int32() != SnapshotWriter.MAGIC) throw SnapshotFormatException("Invalid magic")
+        val version = int()
+        if (version != SnapshotWriter.VERSION) throw SnapshotFormatException("Unsupported version $version")
+        strings = Array(int()) {
+            val length = int()
+            if (length < 0 || pos + length > buf.size) throw SnapshotFormatException("String out of bounds")
+            buf.decodeToString(pos, pos + length).also { pos += length }
+        }
+    }
+
+    private fun byte(): Int {
+        if (pos >= buf.size) throw SnapshotFormatException("Unexpected end of snapshot")
+        return buf[pos++].toInt() and 0xff
+    }
+
+    private fun int32(): Int = (byte() shl 24) or (byte() shl 16) or (byte() shl 8) or byte()
+
+    fun int(): Int {
+        var result = 0
+        var shift = 0
+        while (true) {
+            val b = byte()
+            result = result or ((b and 0x7f) shl shift)
+            if (b and 0x80 == 0) return result
+            shift += 7
+            if (shift > 28) throw SnapshotFormatException("Varint too long")
+        }
+    }
+
+    fun boolean(): Boolean = byte() != 0
+
+    fun string(): String = strings.getOrNull(int()) ?: throw SnapshotFormatException("Invalid string index")
+
+    fun nullableString(): String? {
+        val index = int()
+        if (index == 0) return null
+        return strings.getOrNull(index - 1) ?: throw SnapshotFormatException("Invalid string index")
+    }
+
+    inline fun <T> list(readOne: SnapshotReader.() -> T): List<T> {
+        val size = int()
+        return (0 until size).map { readOne() }
+    }
+
+    fun expectEnd() {
+        if (pos != buf.size) throw SnapshotFormatException("Trailing data in snapshot")
+    }
+}
+
+internal class SnapshotFormatException(message: String) : Exception(message)
+
+private class ByteBuilder {
+    var buf = ByteArray(1024)
+    var size = 0
+
+    private fun ensureCapacity(extra: Int) {
+        if (size + extra > buf.size) {
+            buf = buf.copyOf(maxOf(buf.size * 2, size + extra))
+        }
+    }
+
+    fun byte(value: Int) {
+        ensureCapacity(1)
+        buf[size++] = value.toByte()
+    }
+
+    fun int32(value: Int) {
+        byte(value ushr 24)
+        byte(value ushr 16)
+        byte(value ushr 8)
+        byte(value)
+    }
+
+    fun varInt(value: Int) {
+        var remaining = value
+        while (remaining and 0x7f.inv() != 0) {
+            byte((remaining and 0x7f) or 0x80)
+            remaining = remaining ushr 7
+        }
+        byte(remaining)
+    }
+
+    fun bytes(bytes: ByteArray, length: Int) {
+        ensureCapacity(length)
+        bytes.copyInto(buf, size, 0, length)
+        size += length
+    }
+}
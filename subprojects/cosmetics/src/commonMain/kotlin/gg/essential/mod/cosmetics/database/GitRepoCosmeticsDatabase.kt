@@ -28,6 +28,7 @@ import gg.essential.mod.cosmetics.CosmeticCategory
 import gg.essential.mod.cosmetics.CosmeticSlot
 import gg.essential.mod.cosmetics.CosmeticTier
 import gg.essential.mod.cosmetics.CosmeticType
+import gg.essential.mod.cosmetics.SkinLayer
 import gg.essential.mod.cosmetics.featured.FeaturedPage
 import gg.essential.mod.cosmetics.featured.FeaturedPageCollection
 import gg.essential.mod.cosmetics.settings.CosmeticProperty
@@ -92,6 +93,8 @@ class GitRepoCosmeticsDatabase(
     },
 ) : CosmeticsDatabase {
 
+    private val snapshotJson = Json(json) { prettyPrint = false }
+
     private val files = mutableMapOf<Path, suspend () -> ByteArray>()
     private val filesByFolders = mutableMapOf<Path, MutableSet<Path>>()
     private val fileObservers = mutableMapOf<Path, Observers>()
@@ -131,16 +134,7 @@ class GitRepoCosmeticsDatabase(
         val newPaths = files.mapKeys { Path.of(it.key) }
 
         this.files.putAll(newPaths)
-        for (path in newPaths.keys) {
-            var parent = path.parent
-            while (true) {
-                filesByFolders.getOrPut(parent) { mutableSetOf() }.add(path)
-                if (parent.isEmpty()) {
-                    break
-                }
-                parent = parent.parent
-            }
-        }
+        newPaths.keys.forEach(::addToFolders)
 
         for ((file, read) in newPaths) {
             if (file.str.endsWith(".category-metadata.json")) {
@@ -172,6 +166,17 @@ class GitRepoCosmeticsDatabase(
         return updateFiles(newPaths.keys)
     }
 
+    private fun addToFolders(path: Path) {
+        var parent = path.parent
+        while (true) {
+            filesByFolders.getOrPut(parent) { mutableSetOf() }.add(path)
+            if (parent.isEmpty()) {
+                break
+            }
+            parent = parent.parent
+        }
+    }
+
     suspend fun removeFiles(filesOrFolders: Set<String>): Changes {
         val removedFilesOrFolders = filesOrFolders.map { Path.of(it) }
         val removedFiles = this.files.keys.filter { knownFile ->
@@ -832,6 +837,207 @@ class GitRepoCosmeticsDatabase(
         return cosmetics.values.toList()
     }
 
+    /**
+     * Serializes the current state of this database (all loaded entities as well as which files they were loaded from
+     * and depend on) into a compact binary snapshot, which may be passed to [restoreSnapshot] on the next start to skip
+     * reading and parsing all metadata files again.
+     *
+     * [fingerprint] is called for every known file (with `/` as separator) and should return a value which changes
+     * whenever the content of the file changes (e.g. its size and modification time), or `null` if no such value is
+     * available, in which case the file will always be re-loaded on restore.
+     *
+     * Assets are stored as they are, so this should only be used with an [assetFromPath] which references the files
+     * rather than embedding their content.
+     */
+    fun writeSnapshot(fingerprint: (path: String) -> String?): ByteArray {
+        val out = SnapshotWriter()
+        out.boolean(lazy)
+
+        out.collection(files.keys) { path ->
+            string(path.str)
+            nullableString(fingerprint(path.str))
+        }
+
+        fun paths(paths: Collection<Path>) = out.collection(paths) { string(it.str) }
+        for (observersByPath in listOf(fileObservers, folderObservers)) {
+            out.collection(observersByPath.entries) { (path, observers) ->
+                string(path.str)
+                observers.all().forEach(::paths)
+            }
+        }
+        for (observed in listOf(observedFiles, observedFolders)) {
+            out.collection(observed.entries) { (observer, observedPaths) ->
+                string(observer.str)
+                paths(observedPaths)
+            }
+        }
+        for (idByPath in listOf(categoryByPath, typeByPath, bundleByPath, featuredPageCollectionByPath, implicitOwnershipsByPath, cosmeticByPath)) {
+            out.collection(idByPath.entries) { (path, id) ->
+                string(path.str)
+                string(id)
+            }
+        }
+        out.collection(lazyCosmetics.entries) { (id, path) ->
+            string(id)
+            string(path.str)
+        }
+
+        out.collection(categories.values) { string(snapshotJson.encodeToString(it)) }
+        out.collection(types.values) { string(snapshotJson.encodeToString(it)) }
+        out.collection(bundles.values) { string(snapshotJson.encodeToString(it)) }
+        out.collection(featuredPageCollections.values) { string(snapshotJson.encodeToString(it)) }
+        out.collection(implicitOwnerships.values) { string(snapshotJson.encodeToString(it)) }
+        out.collection(cosmetics.values) { cosmetic ->
+            string(snapshotJson.encodeToString(CosmeticSnapshot(cosmetic)))
+            collection(cosmetic.files.entries) { (name, asset) ->
+                string(name)
+                string(asset.url)
+                string(asset.checksum)
+            }
+        }
+
+        return out.toByteArray()
+    }
+
+    /**
+     * Restores the state of this database from a snapshot previously created by [writeSnapshot], and then brings it
+     * up to date with the given [files] (the full set of files which currently exist), re-loading only those which were
+     * added, removed, or whose [fingerprint] changed since the snapshot was written.
+     *
+     * Must only be called on an empty database.
+     * Returns the changes compared to the empty database (i.e. everything which was loaded), or `null` if the snapshot
+     * could not be used, in which case the database remains empty and the caller should fall back to [addFiles].
+     */
+    suspend fun restoreSnapshot(
+        snapshot: ByteArray,
+        files: Map<String, suspend () -> ByteArray>,
+        fingerprint: (path: String) -> String?,
+    ): Changes? {
+        check(this.files.isEmpty()) { "Snapshot can only be restored into an empty database" }
+
+        val snapshotFingerprints = mutableMapOf<Path, String?>()
+        try {
+            if (!readSnapshot(SnapshotReader(snapshot), snapshotFingerprints)) {
+                clear()
+                return null
+            }
+        } catch (e: Exception) {
+            Exception("Failed to restore snapshot", e).printStackTrace()
+            clear()
+            return null
+        }
+
+        val currentFiles = files.mapKeys { Path.of(it.key) }
+        for (path in snapshotFingerprints.keys) {
+            // Files which no longer exist are removed again right below, they just need to be known for that to work
+            val missing: suspend () -> ByteArray = { throw NoSuchElementException(path.str) }
+            this.files[path] = currentFiles[path] ?: missing
+            addToFolders(path)
+        }
+
+        var changes = Changes(
+            categories.keys.toSet(),
+            types.keys.toSet(),
+            cosmetics.keys.toSet(),
+            bundles.keys.toSet(),
+            featuredPageCollections.keys.toSet(),
+            implicitOwnerships.keys.toSet(),
+        )
+
+        val removedFiles = snapshotFingerprints.keys.filter { it !in currentFiles }
+        if (removedFiles.isNotEmpty()) {
+            changes += removeFiles(removedFiles.mapTo(mutableSetOf()) { it.str })
+        }
+
+        val changedFiles = currentFiles.filter { (path, _) ->
+            val expected = snapshotFingerprints[path]
+            expected == null || expected != fingerprint(path.str)
+        }
+        if (changedFiles.isNotEmpty()) {
+            changes += addFiles(changedFiles.mapKeys { it.key.str })
+        }
+
+        return changes
+    }
+
+    private fun readSnapshot(input: SnapshotReader, fingerprints: MutableMap<Path, String?>): Boolean {
+        if (input.boolean() != lazy) {
+            return false // lazy databases do not load all cosmetics, so the snapshot would be incomplete
+        }
+
+        repeat(input.int()) {
+            val path = Path.of(input.string())
+            fingerprints[path] = input.nullableString()
+        }
+
+        fun paths() = input.list { Path.of(string()) }
+        for (observersByPath in listOf(fileObservers, folderObservers)) {
+            repeat(input.int()) {
+                val path = Path.of(input.string())
+                val observers = Observers()
+                observers.all().forEach { it.addAll(paths()) }
+                observersByPath[path] = observers
+            }
+        }
+        for (observed in listOf(observedFiles, observedFolders)) {
+            repeat(input.int()) {
+                val observer = Path.of(input.string())
+                observed[observer] = paths().toMutableSet()
+            }
+        }
+        for (idByPath in listOf(categoryByPath, typeByPath, bundleByPath, featuredPageCollectionByPath, implicitOwnershipsByPath, cosmeticByPath)) {
+            repeat(input.int()) {
+                val path = Path.of(input.string())
+                idByPath[path] = input.string()
+            }
+        }
+        repeat(input.int()) {
+            val id = input.string()
+            lazyCosmetics[id] = Path.of(input.string())
+        }
+
+        repeat(input.int()) {
+            val category = snapshotJson.decodeFromString<CosmeticCategory>(input.string())
+            categories[category.id] = category
+        }
+        repeat(input.int()) {
+            val type = snapshotJson.decodeFromString<CosmeticType>(input.string())
+            types[type.id] = type
+        }
+        repeat(input.int()) {
+            val bundle = snapshotJson.decodeFromString<CosmeticBundle>(input.string())
+            bundles[bundle.id] = bundle
+        }
+        repeat(input.int()) {
+            val featuredPageCollection = snapshotJson.decodeFromString<FeaturedPageCollection>(input.string())
+            featuredPageCollections[featuredPageCollection.id] = featuredPageCollection
+        }
+        repeat(input.int()) {
+            val implicitOwnership = snapshotJson.decodeFromString<CosmeticImplicitOwnership>(input.string())
+            implicitOwnerships[implicitOwnership.id] = implicitOwnership
+        }
+        repeat(input.int()) {
+            val cosmeticSnapshot = snapshotJson.decodeFromString<CosmeticSnapshot>(input.string())
+            val assets = mutableMapOf<String, EssentialAsset>()
+            repeat(input.int()) {
+                val name = input.string()
+                val url = input.string()
+                assets[name] = EssentialAsset(url, input.string())
+            }
+            val cosmetic = cosmeticSnapshot.toCosmetic(assets)
+            cosmetics[cosmetic.id] = cosmetic
+        }
+
+        input.expectEnd()
+        return true
+    }
+
+    private fun clear() {
+        listOf(files, filesByFolders, fileObservers, observedFiles, folderObservers, observedFolders).forEach { it.clear() }
+        listOf(categories, types, bundles, featuredPageCollections, implicitOwnerships, cosmetics, lazyCosmetics).forEach { it.clear() }
+        listOf(categoryByPath, typeByPath, bundleByPath, featuredPageCollectionByPath, implicitOwnershipsByPath, cosmeticByPath).forEach { it.clear() }
+    }
+
     data class Changes(
         val categories: Set<CosmeticCategoryId>,
         val types: Set<CosmeticTypeId>,
@@ -871,6 +1077,65 @@ class GitRepoCosmeticsDatabase(
         val implicitOwnerships = mutableSetOf<Path>()
 
         fun isEmpty() = categories.isEmpty() && types.isEmpty() && cosmetics.isEmpty() && bundles.isEmpty() && featuredPageCollections.isEmpty() && implicitOwnerships.isEmpty()
+
+        fun all() = listOf(categories, types, cosmetics, bundles, featuredPageCollections, implicitOwnerships)
+    }
+
+    /** Flat, serializable representation of a [Cosmetic], excluding its files, for use in snapshots. */
+    @Serializable
+    private data class CosmeticSnapshot(
+        val id: CosmeticId,
+        val type: CosmeticType,
+        val tier: CosmeticTier,
+        val displayNames: Map<String, String>,
+        val allProperties: List<CosmeticProperty>,
+        val storePackageId: Int,
+        val prices: Map<String, Double>,
+        val tags: Set<String>,
+        val createdAt: Instant,
+        val availableAfter: Instant?,
+        val availableUntil: Instant?,
+        val showTimerAfter: Instant?,
+        val skinLayers: Map<SkinLayer, Boolean>,
+        val categories: Map<String, Int>,
+        val defaultSortWeight: Int,
+        val diagnostics: List<Cosmetic.Diagnostic>?,
+    ) {
+        constructor(cosmetic: Cosmetic) : this(
+            cosmetic.id,
+            cosmetic.type,
+            cosmetic.tier,
+            cosmetic.displayNames,
+            cosmetic.allProperties,
+            cosmetic.storePackageId,
+            cosmetic.prices,
+            cosmetic.tags,
+            cosmetic.createdAt,
+            cosmetic.availableAfter,
+            cosmetic.availableUntil,
+            cosmetic.showTimerAfter,
+            cosmetic.skinLayers,
+            cosmetic.categories,
+            cosmetic.defaultSortWeight,
+            cosmetic.diagnostics,
+        )
+
+        fun toCosmetic(files: Map<String, EssentialAsset>) = Cosmetic(
+            CosmeticBase(id, type, tier, displayNames, files, allProperties),
+            CosmeticStoreInfo(
+                storePackageId,
+                prices,
+                tags,
+                createdAt,
+                availableAfter,
+                availableUntil,
+                showTimerAfter,
+                skinLayers,
+                categories,
+                defaultSortWeight,
+            ),
+            diagnostics,
+        )
     }
 
     private inner class FileAccessImpl(
@@ -27,4 +27,10 @@ dependencies {
     implementation(kotlin("stdlib-jdk8", KotlinVersion.minimal.stdlib))
     implementation("org.jetbrains.kotlinx:kotlinx-coroutines-core:${KotlinVersion.minimal.coroutines}")
     implementation(project(":utils"))
+
+    testImplementation(kotlin("test"))
+}
+
+tasks.test {
+    useJUnitPlatform()
 }
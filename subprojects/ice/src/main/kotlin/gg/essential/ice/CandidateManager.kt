@@ -13,6 +13,7 @@ package gg.essential.ice
 
 import gg.essential.ice.stun.StunManager
 import gg.essential.ice.stun.StunSocket
+import gg.essential.ice.stun.UdpSelector
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
@@ -42,6 +43,9 @@ import kotlin.time.Duration.Companion.INFINITE
 /**
  * This class implements ICE candidate gathering (host, server-reflexive, and relay candidates) in a way that it may be
  * shared between multiple [IceAgent]s.
+ *
+ * If [hostAddresses] is given, host candidates are bound to exactly those addresses (in order of preference) instead
+ * of the (non-loopback) addresses of all network interfaces. This allows e.g. benchmarks to run entirely on loopback.
  */
 class CandidateManager(
     private val logger: Logger,
@@ -49,6 +53,7 @@ class CandidateManager(
     private val stunManager: StunManager,
     private val stunServers: List<InetSocketAddress>,
     private val turnServers: List<InetSocketAddress>,
+    private val hostAddresses: List<InetAddress>? = null,
 ) {
     /**
      * Set to `true` once any of its candidates have been shut down, at which point this CandidateManager should no
@@ -65,6 +70,9 @@ class CandidateManager(
     private val bindingRefCounts = mutableMapOf<StunSocket.StunBinding, Int>()
     private val relayRefCounts = mutableMapOf<StunSocket.RelayAllocation, Int>()
 
+    /** Receives on all our host sockets from a single thread, if enabled. */
+    private val udpSelector = if (USE_UDP_SELECTOR) UdpSelector(logger, scope) else null
+
     private var nextServerReflexivePreference = MAX_LOCAL_PREFERENCE
     private var nextRelayedPreference = MAX_LOCAL_PREFERENCE
 
@@ -129,6 +137,15 @@ class CandidateManager(
     }
 
     private fun gatherHostCandidates(): Flow<ReusableCandidate> = flow {
+        if (hostAddresses != null) {
+            var nextPreference = MAX_LOCAL_PREFERENCE
+            for (address in hostAddresses) {
+                emit(bindHostCandidate(address, nextPreference) ?: continue)
+                nextPreference--
+            }
+            return@flow
+        }
+
         var nextNormalPreference = MAX_LOCAL_PREFERENCE
         var nextVPNPreference = MAX_LOCAL_PREFERENCE / 2
         for (iface in NetworkInterface.getNetworkInterfaces()) {
@@ -182,20 +199,25 @@ class CandidateManager(
             }
 
             for (address in sortedAddresses) {
-                val socket = try {
-                    DatagramSocket(0, address)
-                } catch (e: Exception) {
-                    logger.warn("Failed to bind to $address, skipping:", e)
-                    continue
-                }
-                val socketAddress = InetSocketAddress(address, socket.localPort)
-                val stunSocket = StunSocket(logger, scope, stunManager, socket, socketAddress)
-                val preference = if (isVPN) nextVPNPreference-- else nextNormalPreference--
-                emit(ReusableCandidate(CandidateType.Host, stunSocket, null, null, socketAddress, preference))
+                val preference = if (isVPN) nextVPNPreference else nextNormalPreference
+                emit(bindHostCandidate(address, preference) ?: continue)
+                if (isVPN) nextVPNPreference-- else nextNormalPreference--
             }
         }
     }.flowOn(Dispatchers.IO)
 
+    private fun bindHostCandidate(address: InetAddress, preference: Int): ReusableCandidate? {
+        val socket = try {
+            if (udpSelector != null) UdpSelector.openSocket(address) else DatagramSocket(0, address)
+        } catch (e: Exception) {
+            logger.warn("Failed to bind to $address, skipping:", e)
+            return null
+        }
+        val socketAddress = InetSocketAddress(address, socket.localPort)
+        val stunSocket = StunSocket(logger, scope, stunManager, socket, socketAddress, udpSelector)
+        return ReusableCandidate(CandidateType.Host, stunSocket, null, null, socketAddress, preference)
+    }
+
     private fun gatherServerCandidates(socket: StunSocket): Flow<ReusableCandidate> = channelFlow {
         val logger = socket.logger
 
@@ -287,6 +309,7 @@ class CandidateManager(
 
     companion object {
         private const val MAX_LOCAL_PREFERENCE = 65535
+        private val USE_UDP_SELECTOR = System.getProperty("essential.sps.udp_selector").toBoolean()
 
         // https://www.rfc-editor.org/rfc/rfc4291#section-2.5.5.2
         private val Inet6Address.isIPv4MappedAddress: Boolean
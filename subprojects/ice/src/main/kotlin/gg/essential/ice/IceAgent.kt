@@ -38,12 +38,15 @@ import kotlinx.coroutines.plus
 import org.slf4j.Logger
 import org.slf4j.spi.LoggingEventBuilder
 import java.io.IOException
+import java.net.InetAddress
 import java.net.InetSocketAddress
 import java.security.MessageDigest
 import kotlin.math.max
 import kotlin.math.min
+import kotlin.time.ComparableTimeMark
 import kotlin.time.Duration
 import kotlin.time.Duration.Companion.INFINITE
+import kotlin.time.Duration.Companion.milliseconds
 import kotlin.time.Duration.Companion.minutes
 import kotlin.time.Duration.Companion.seconds
 import kotlin.time.TimeSource
@@ -76,6 +79,7 @@ class IceAgent(
     private val controlling: Boolean,
     private val localCreds: Pair<String, ByteArray>,
     private val remoteCreds: Deferred<Pair<String, ByteArray>>,
+    val metrics: TransportMetrics = TransportMetrics(),
 ) {
     private val job = Job(parentScope.coroutineContext.job)
     private val coroutineScope = parentScope + job
@@ -86,10 +90,12 @@ class IceAgent(
     val remoteCandidateChannel = Channel<RemoteCandidate>(Channel.UNLIMITED)
     /** Completes once we are ready to send data. Should be used `withTimeout` as it may never complete if ICE fails. */
     val readyForData = CompletableDeferred<Unit>(parent = job)
-    val inboundDataChannel = Channel<Pair<LocalCandidate, ByteArray>>(1000, BufferOverflow.DROP_OLDEST) { pair ->
+    /** Completes once a pair has been nominated and selected, at which point all other candidates have been released. */
+    val pairSelected = CompletableDeferred<Unit>(parent = job)
+    val inboundDataChannel = meteredChannel<Pair<LocalCandidate, ByteArray>>(metrics.queue("iceIn"), 1000, BufferOverflow.DROP_OLDEST) { pair ->
         logger.warn("IceAgent.inboundDataChannel overflow, dropping packet of {} bytes", pair.second.size)
     }
-    val outboundDataChannel = Channel<ByteArray>(1000, BufferOverflow.DROP_OLDEST) { packet ->
+    val outboundDataChannel = meteredChannel<ByteArray>(metrics.queue("iceOut"), 1000, BufferOverflow.DROP_OLDEST) { packet ->
         logger.warn("IceAgent.outboundDataChannel overflow, dropping packet of {} bytes", packet.size)
     }
 
@@ -114,6 +120,8 @@ class IceAgent(
     private val checklist = mutableListOf<CandidatePair>()
     private val validList = mutableListOf<CandidatePair>()
     private var selectedPair: CandidatePair? = null
+    /** Set once we have found a direct pair good enough that we no longer need to check any relay pairs. */
+    private var relayPairsPruned = false
 
     /**
      * Contains the pair on which the controlled client has last received data while [selectedPair] is not yet set.
@@ -225,7 +233,7 @@ class IceAgent(
         }
     }
 
-    private fun tryPair(local: LocalCandidate, remote: RemoteCandidate): CandidatePair? {
+    private fun tryPair(local: LocalCandidate, remote: RemoteCandidate, triggered: Boolean = false): CandidatePair? {
         if (local.isIPv6 != remote.isIPv6) {
             return null
         }
@@ -237,12 +245,17 @@ class IceAgent(
         if (local.isRelay && remote.isSiteLocal || remote.isRelay && local.isSiteLocal) {
             return null
         }
+        // Once we have a good direct pair, a relay pair can never win (see [pruneRelayPairs]), so there's no point in
+        // checking it, unless the remote is already checking it, in which case we need the pair to respond properly.
+        if (relayPairsPruned && (local.isRelay || remote.isRelay) && !triggered) {
+            return null
+        }
 
         val newPair = CandidatePair(local, remote, controlling)
 
         for (oldPair in checklist) {
             if (newPair.local.base == oldPair.local.base && newPair.remote.address == oldPair.remote.address) {
-                if (newPair.priority > oldPair.priority && oldPair.state == CandidatePair.State.Waiting) {
+                if (newPair.priority > oldPair.priority && oldPair.state <= CandidatePair.State.Waiting) {
                     logger.trace("Replacing lower priority candidate pair {} with new pair", oldPair)
                     checklist.remove(oldPair)
                     break
@@ -253,6 +266,18 @@ class IceAgent(
         }
         logger.trace("New candidate pair: {}", newPair)
 
+        // Only one pair per foundation is Waiting at a time, the rest starts out Frozen (RFC 8445 6.1.2.6), unless one
+        // of them already succeeded, in which case the others are likely to work as well (RFC 8445 7.2.5.3.3).
+        val sameFoundation = checklist.filter { it.foundation == newPair.foundation }
+        if (sameFoundation.none { it.state == CandidatePair.State.Succeeded }) {
+            val waiting = sameFoundation.find { it.state == CandidatePair.State.Waiting }
+            if (waiting != null && waiting.priority < newPair.priority) {
+                waiting.state = CandidatePair.State.Frozen
+            } else if (waiting != null || sameFoundation.any { it.state == CandidatePair.State.InProgress }) {
+                newPair.state = CandidatePair.State.Frozen
+            }
+        }
+
         val index = checklist.binarySearch(newPair, compareBy { -it.priority })
         checklist.add(if (index >= 0) index else -index - 1, newPair)
 
@@ -264,9 +289,14 @@ class IceAgent(
                     break
                 }
             }
-            // If that didn't do it, discard the lowest priority one
+            // If that didn't do it, discard the lowest priority pending pair of whichever remote candidate has the most
+            // pairs. With many local interfaces (VPN, Docker, etc.) on both sides, simply discarding the lowest priority
+            // pairs would otherwise drop all pairs to the (lower priority) candidates which actually work, while the
+            // pairs of a single remote candidate with all our local candidates are largely redundant.
             if (checklist.size > MAX_CHECKLIST_SIZE) {
-                checklist.removeLast()
+                val pending = checklist.filter { it.state <= CandidatePair.State.Waiting }
+                val crowded = pending.groupingBy { it.remote }.eachCount().maxByOrNull { it.value }?.key
+                checklist.remove(pending.lastOrNull { it.remote == crowded } ?: checklist.last())
             }
         }
 
@@ -281,7 +311,7 @@ class IceAgent(
 
         while (true) {
             // Wait until it's our turn to transmit something
-            stunManager.bindingPacer.await(false)
+            stunManager.bindingPacer.await(false, checkInterval())
 
             fun pollTriggeredCheck(): CandidatePair? {
                 while (triggeredCheckQueue.isNotEmpty()) {
@@ -296,6 +326,7 @@ class IceAgent(
             // Prefer triggered checks because they have a huge chance of success
             val pair = pollTriggeredCheck()
                 ?: checklist.find { it.state == CandidatePair.State.Waiting }
+                ?: pollFrozenPair()
 
             if (pair == null) {
                 performRTTChecks()
@@ -310,6 +341,69 @@ class IceAgent(
         }
     }
 
+    /**
+     * Picks the Frozen pair to check next when there are no Waiting pairs left.
+     *
+     * Like RFC 8445 6.1.4.2, we prefer foundations which do not currently have a check in progress, but unlike the RFC
+     * we do not leave the slot unused if there are none, because a check which never gets a response takes ~40 seconds
+     * to fail, and the machines of our users frequently have plenty of such candidates (VPN, Docker, etc.).
+     */
+    private fun pollFrozenPair(): CandidatePair? {
+        val frozen = checklist.filter { it.state == CandidatePair.State.Frozen }
+        val pair = frozen.find { pair ->
+            checklist.none { it.foundation == pair.foundation && it.state == CandidatePair.State.InProgress }
+        } ?: frozen.firstOrNull() ?: return null
+        logger.trace("Unfreezing candidate pair {}", pair)
+        return pair
+    }
+
+    private fun unfreeze(foundation: CandidatePair.Foundation) {
+        for (pair in checklist) {
+            if (pair.foundation == foundation && pair.state == CandidatePair.State.Frozen) {
+                pair.state = CandidatePair.State.Waiting
+            }
+        }
+    }
+
+    /**
+     * Once we have a direct pair with an RTT lower than [RELAY_PENALTY], no relay pair can ever beat it in
+     * [getBestValidPair], so we can drop all the ones we have not yet started checking to free up the pacer for pairs
+     * which still matter.
+     */
+    private fun pruneRelayPairs() {
+        if (relayPairsPruned) return
+        relayPairsPruned = true
+
+        val pruned = checklist.filter { pair ->
+            (pair.local.isRelay || pair.remote.isRelay) && pair.state <= CandidatePair.State.Waiting
+        }
+        logger.debug("Found good direct pair, pruning {} pending relay pairs", pruned.size)
+        checklist.removeAll(pruned)
+    }
+
+    /**
+     * The interval to wait after our next connectivity check.
+     *
+     * Ice4J needs us to stick to the default 50ms interval (see [BindingPacer]), but once we know we're talking to our
+     * own implementation and how far away it is, we can send the remaining checks about once per round trip time:
+     * on a short path, any check which is going to succeed will have done so by then, as will the remote's triggered
+     * check for it.
+     */
+    private suspend fun checkInterval(): Duration {
+        val defaultInterval = stunManager.bindingPacer.interval
+        val rtt = validList.minOfOrNull { it.rtt ?: INFINITE } ?: return defaultInterval
+        // If we have a valid pair, we must have already received a successful response and should therefore be aware
+        // of which software the remote uses.
+        if (remoteIsIce4J.await()) {
+            return defaultInterval
+        }
+        // Only RTT checks remain, those don't need to be sent any more frequently than before
+        if (triggeredCheckQueue.isEmpty() && checklist.none { it.state <= CandidatePair.State.Waiting }) {
+            return defaultInterval
+        }
+        return rtt.coerceAtMost(defaultInterval)
+    }
+
     private suspend fun performRTTChecks() {
         val pair = validList.minByOrNull { it.extraRttChecks } ?: return
 
@@ -411,6 +505,13 @@ class IceAgent(
         pair.state = CandidatePair.State.Succeeded
         validPair.state = CandidatePair.State.Succeeded
 
+        unfreeze(pair.foundation)
+        unfreeze(validPair.foundation)
+
+        if (!validPair.local.isRelay && !validPair.remote.isRelay && rtt.inWholeMilliseconds < RELAY_PENALTY) {
+            pruneRelayPairs()
+        }
+
         // Once we have a valid pair, we can send data via it (provided the remote supports this)
         if (!remoteIsIce4J.await()) {
             readyForData.complete(Unit)
@@ -477,8 +578,26 @@ class IceAgent(
             // We just don't want to pick too quickly, because more peer reflexive candidates can be discovered
             // in the process. Similar to what's discussed in https://www.rfc-editor.org/rfc/rfc8863 but instead
             // of failure, we're concerned with prematurely picking a sub-optimal route.
+            // The exception is if we already have a direct pair which is so good that there's little left to gain: we
+            // then nominate it once all higher priority pairs are done (or have had some time to finish), so we can
+            // free up the pacer (which may be shared with other agents) and our relays much sooner.
             val minWaitTimeout = TimeSource.Monotonic.markNow() + 30.seconds
+            var goodPairSince: ComparableTimeMark? = null
             while (checklist.isEmpty() || checklist.any { it.state <= CandidatePair.State.InProgress } || !minWaitTimeout.hasPassedNow()) {
+                val goodPair = getBestValidPair()?.takeIf { pair ->
+                    !pair.local.isRelay && !pair.remote.isRelay && (pair.rtt ?: INFINITE).inWholeMilliseconds <= EARLY_NOMINATION_RTT
+                }
+                if (goodPair == null) {
+                    goodPairSince = null
+                } else {
+                    val since = goodPairSince ?: TimeSource.Monotonic.markNow().also { goodPairSince = it }
+                    val higherPriorityPending =
+                        checklist.any { it.state <= CandidatePair.State.InProgress && it.priority > goodPair.priority }
+                    if (!higherPriorityPending || since.elapsedNow() >= EARLY_NOMINATION_GRACE) {
+                        logger.debug("Found good enough pair, nominating early: {}", goodPair)
+                        break
+                    }
+                }
                 delay(0.1.seconds)
             }
         }
@@ -528,6 +647,35 @@ class IceAgent(
                 other.close()
             }
         }
+
+        metrics.pairSelected(pair.local.type, pair.remote.type)
+        metrics.attachQueue("socketOut", pair.local.socket.sendQueue)
+        pair.local.relay?.let { metrics.attachQueue("relayOut", it.sendQueue) }
+        pair.rtt?.let { metrics.recordRtt(it) }
+
+        pairSelected.complete(Unit)
+
+        if (RTT_PROBE_INTERVAL > 0 && !remoteIsIce4J.await()) { // Ice4J might react badly to repeated Binding requests
+            coroutineScope.launch { probeRtt(pair, RTT_PROBE_INTERVAL.milliseconds) }
+        }
+    }
+
+    /**
+     * Periodically sends a Binding request on the selected pair to keep [metrics] supplied with RTT samples.
+     * These are measured below the reliable transport, so unaffected by its retransmissions and send buffers.
+     */
+    private suspend fun probeRtt(pair: CandidatePair, interval: Duration) {
+        while (true) {
+            delay(interval)
+
+            val tId = TransactionId.create()
+            val (request, response) = sendIceBindingRequest(tId, pair)
+            if (response == null || response.message.cls != StunClass.ResponseSuccess) {
+                logger.withKeyValue("tId", tId).debug("RTT probe failed: {}", response?.message)
+                continue
+            }
+            metrics.recordRtt(request.getRoundTripTime(response))
+        }
     }
 
     private fun getBestValidPair(): CandidatePair? {
@@ -627,14 +775,14 @@ class IceAgent(
                 // We received a request, this is very promising, schedule a triggered check for this pair asap
                 val pair = validList.find { it.local.base == packet.candidate.base && it.remote.address == packet.source }
                     ?: checklist.find { it.local == packet.candidate && it.remote == remoteCandidate }
-                    ?: tryPair(packet.candidate, remoteCandidate)
+                    ?: tryPair(packet.candidate, remoteCandidate, triggered = true)
                     ?: return
                 if (!pair.hadTriggeredCheck && pair !in triggeredCheckQueue) {
                     pair.hadTriggeredCheck = true
                     when (pair.state) {
                         CandidatePair.State.Succeeded -> {}
                         CandidatePair.State.Waiting, CandidatePair.State.InProgress -> triggeredCheckQueue.add(pair)
-                        CandidatePair.State.Failed -> {
+                        CandidatePair.State.Frozen, CandidatePair.State.Failed -> {
                             pair.state = CandidatePair.State.Waiting
                             triggeredCheckQueue.add(pair)
                         }
@@ -690,11 +838,30 @@ class IceAgent(
             min(g, d).toLong().shl(32) + max(g, d).toLong().shl(1) + if (g > d) 1 else 0
         }
 
+        /**
+         * Pairs with the same foundation are likely to behave the same, so we only check one of them at a time until
+         * one succeeds (see [State.Frozen]).
+         *
+         * Our signaling does not exchange candidate foundations, so we derive our own for both sides, roughly as
+         * RFC 8445 5.1.1.3 would: same type and same base IP for the local candidate, same type and same IP for the
+         * remote one.
+         */
+        val foundation = Foundation(local.type, local.base.address, remote.type, remote.address.address)
+
         override fun toString(): String {
             return "$local -> $remote"
         }
 
+        data class Foundation(
+            val localType: CandidateType,
+            val localBase: InetAddress,
+            val remoteType: CandidateType,
+            val remoteAddress: InetAddress,
+        )
+
         enum class State {
+            /** Not yet checked because another pair with the same [foundation] is Waiting or InProgress. */
+            Frozen,
             Waiting,
             InProgress,
             Succeeded,
@@ -706,6 +873,11 @@ class IceAgent(
         private const val MAX_CHECKLIST_SIZE = 100
         private val LOG_DATA_PACKET_CONTENT = System.getProperty("essential.sps.log_data_packet_content").toBoolean()
         private val RELAY_PENALTY = Integer.getInteger("essential.sps.relay_latency_threshold", 100)
+        /** Direct pairs with at most this RTT (in milliseconds) may be nominated early, negative values disable this. */
+        private val EARLY_NOMINATION_RTT = Integer.getInteger("essential.sps.early_nomination_rtt", 50)
+        private val EARLY_NOMINATION_GRACE = 2.seconds
+        /** Interval (in milliseconds) of RTT probes on the selected pair, see [probeRtt]. Zero or less disables them. */
+        private val RTT_PROBE_INTERVAL = Integer.getInteger("essential.sps.rtt_probe_interval", 5000)
         private val sha256 = MessageDigest.getInstance("SHA-256")
 
         private fun LoggingEventBuilder.addKeyValues(candidate: LocalCandidate): LoggingEventBuilder {
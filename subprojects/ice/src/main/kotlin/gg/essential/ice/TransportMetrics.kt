@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.ice
+
+import kotlinx.coroutines.DelicateCoroutinesApi
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ChannelIterator
+import kotlinx.coroutines.channels.ChannelResult
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
+import kotlin.time.TimeSource
+
+/**
+ * Lock-free counters describing the state of a single P2P connection, from the ICE pair it ended up using all the way
+ * up to the reliable stream (QUIC or pseudo-TCP) running on top of it.
+ *
+ * All recording methods may be called from any thread and are cheap enough to be called for every packet. Values are
+ * only consistent with each other on a best-effort basis, which is fine for their purpose (figuring out why a
+ * connection is slow).
+ *
+ * [sample] should be called periodically (by one thread at a time) to compute rates and maintain the rolling [history].
+ */
+class TransportMetrics {
+    private val start = TimeSource.Monotonic.markNow()
+
+    @Volatile
+    var transport: String? = null
+    /** The smoothed RTT estimate of the reliable transport, if it exposes one. Includes its ack delay. */
+    @Volatile
+    var transportRtt: Duration? = null
+    @Volatile
+    var localCandidateType: CandidateType? = null
+        private set
+    @Volatile
+    var remoteCandidateType: CandidateType? = null
+        private set
+
+    private val packetsSent = AtomicLong()
+    private val bytesSent = AtomicLong()
+    private val packetsReceived = AtomicLong()
+    private val bytesReceived = AtomicLong()
+    private val retransmits = AtomicLong()
+
+    private val rttSamples = AtomicLongArray(RTT_SAMPLES)
+    private val rttCount = AtomicLong()
+
+    private val queues = ConcurrentHashMap<String, QueueMetrics>()
+
+    private var lastSample: Snapshot? = null
+    @Volatile
+    var history: List<Snapshot> = emptyList()
+        private set
+    val latest: Snapshot?
+        get() = history.lastOrNull()
+
+    fun pairSelected(local: CandidateType, remote: CandidateType) {
+        localCandidateType = local
+        remoteCandidateType = remote
+    }
+
+    fun packetSent(bytes: Int) {
+        packetsSent.incrementAndGet()
+        bytesSent.addAndGet(bytes.toLong())
+    }
+
+    fun packetReceived(bytes: Int) {
+        packetsReceived.incrementAndGet()
+        bytesReceived.addAndGet(bytes.toLong())
+    }
+
+    fun retransmitted(count: Long = 1) {
+        retransmits.addAndGet(count)
+    }
+
+    /** For transports which keep their own cumulative count, see [retransmitted] for ones which don't. */
+    fun setRetransmits(total: Long) {
+        retransmits.set(total)
+    }
+
+    fun recordRtt(rtt: Duration) {
+        val index = rttCount.getAndIncrement()
+        rttSamples.set((index % RTT_SAMPLES).toInt(), rtt.inWholeNanoseconds)
+    }
+
+    /** Returns the metrics of the queue with the given name, creating them if they do not yet exist. */
+    fun queue(name: String): QueueMetrics = queues.getOrPut(name) { QueueMetrics() }
+
+    /** Includes the given (potentially shared) queue in the snapshots of this connection. */
+    fun attachQueue(name: String, queue: QueueMetrics) {
+        queues[name] = queue
+    }
+
+    /** Computes a new [Snapshot], with rates relative to the previous call, and appends it to [history]. */
+    fun sample(): Snapshot {
+        val time = start.elapsedNow()
+        val bytesSent = bytesSent.get()
+        val bytesReceived = bytesReceived.get()
+
+        val prev = lastSample
+        val interval = (time - (prev?.time ?: Duration.ZERO)).inWholeMilliseconds.coerceAtLeast(1)
+        fun rate(now: Long, before: Long) = (now - before) * 1000 / interval
+
+        val rttCount = rttCount.get()
+        val rtts = (0 until minOf(rttCount, RTT_SAMPLES.toLong()).toInt()).map { rttSamples.get(it).nanoseconds }
+
+        val snapshot = Snapshot(
+            time = time,
+            transport = transport,
+            localCandidateType = localCandidateType,
+            remoteCandidateType = remoteCandidateType,
+            rtt = if (rttCount > 0) rttSamples.get(((rttCount - 1) % RTT_SAMPLES).toInt()).nanoseconds else null,
+            rttMin = rtts.minOrNull(),
+            rttMax = rtts.maxOrNull(),
+            transportRtt = transportRtt,
+            packetsSent = packetsSent.get(),
+            bytesSent = bytesSent,
+            packetsReceived = packetsReceived.get(),
+            bytesReceived = bytesReceived,
+            sendBytesPerSecond = rate(bytesSent, prev?.bytesSent ?: 0),
+            receiveBytesPerSecond = rate(bytesReceived, prev?.bytesReceived ?: 0),
+            retransmits = retransmits.get(),
+            queues = queues.entries.sortedBy { it.key }.associate { (name, queue) -> name to queue.sample() },
+        )
+        lastSample = snapshot
+        history = (history.takeLast(HISTORY_SIZE - 1) + snapshot)
+        return snapshot
+    }
+
+    data class Snapshot(
+        /** Time since the connection was created. */
+        val time: Duration,
+        /** The reliable transport in use (QUIC or pseudo-TCP), `null` if not yet established. */
+        val transport: String?,
+        val localCandidateType: CandidateType?,
+        val remoteCandidateType: CandidateType?,
+        /** Most recent RTT sample. */
+        val rtt: Duration?,
+        /** Smallest and largest of the recent RTT samples. */
+        val rttMin: Duration?,
+        val rttMax: Duration?,
+        val transportRtt: Duration?,
+        val packetsSent: Long,
+        val bytesSent: Long,
+        val packetsReceived: Long,
+        val bytesReceived: Long,
+        /** Average rates since the previous snapshot. */
+        val sendBytesPerSecond: Long,
+        val receiveBytesPerSecond: Long,
+        val retransmits: Long,
+        val queues: Map<String, QueueMetrics.Snapshot>,
+    ) {
+        val isRelayed: Boolean
+            get() = localCandidateType == CandidateType.Relayed || remoteCandidateType == CandidateType.Relayed
+
+        override fun toString(): String = buildString {
+            append("t=%.1fs".format(time.inWholeMilliseconds / 1000.0))
+            append(" transport=").append(transport ?: "-")
+            append(" pair=").append(localCandidateType?.shortName ?: "-").append('/').append(remoteCandidateType?.shortName ?: "-")
+            append(" rtt=").append(rtt?.inWholeMilliseconds ?: "-")
+            append(" (").append(rttMin?.inWholeMilliseconds ?: "-").append('-').append(rttMax?.inWholeMilliseconds ?: "-").append(")ms")
+            transportRtt?.let { append(" srtt=").append(it.inWholeMilliseconds).append("ms") }
+            append(" tx=").append(packetsSent).append("p/").append(bytesSent).append("B @").append(sendBytesPerSecond).append("B/s")
+            append(" rx=").append(packetsReceived).append("p/").append(bytesReceived).append("B @").append(receiveBytesPerSecond).append("B/s")
+            append(" retransmits=").append(retransmits)
+            for ((name, queue) in queues) {
+                append(' ').append(name).append("=").append(queue)
+            }
+        }
+    }
+
+    companion object {
+        private const val RTT_SAMPLES = 32
+        /** Number of snapshots kept in [history]; with the usual one sample per second that's five minutes. */
+        const val HISTORY_SIZE = 300
+    }
+}
+
+/**
+ * Lock-free depth and drop counters for a queue (usually a coroutine [Channel], see [meteredChannel]).
+ *
+ * Elements which were dropped because the queue was full are counted separately from ones which were [discarded] for
+ * other reasons, so only the former indicate that the consumer can't keep up.
+ */
+class QueueMetrics {
+    private val depth = AtomicInteger()
+    private val maxDepth = AtomicInteger()
+    private val drops = AtomicLong()
+    private val discards = AtomicLong()
+
+    fun enqueued() {
+        val depth = depth.incrementAndGet()
+        while (true) {
+            val max = maxDepth.get()
+            if (depth <= max || maxDepth.compareAndSet(max, depth)) break
+        }
+    }
+
+    fun dequeued() {
+        depth.decrementAndGet()
+    }
+
+    /** An element was removed from the queue without being delivered because the queue overflowed. */
+    fun dropped() {
+        depth.decrementAndGet()
+        drops.incrementAndGet()
+    }
+
+    /**
+     * An element was not delivered for a reason other than overflow, e.g. because its sender was cancelled while
+     * waiting for space in the queue, or because the queue was closed or cancelled.
+     */
+    fun discarded() {
+        depth.decrementAndGet()
+        discards.incrementAndGet()
+    }
+
+    /** Reads the current values and resets the max depth, so it covers only the time since the previous call. */
+    fun sample(): Snapshot {
+        val depth = depth.get()
+        return Snapshot(depth, maxOf(depth, maxDepth.getAndSet(depth)), drops.get(), discards.get())
+    }
+
+    data class Snapshot(val depth: Int, val maxDepth: Int, val drops: Long, val discards: Long) {
+        override fun toString(): String = "$depth/$maxDepth/$drops/$discards"
+    }
+}
+
+/**
+ * Creates a [Channel] which keeps track of its depth and undelivered elements in the given [metrics].
+ *
+ * Elements removed due to [onBufferOverflow] are counted as [dropped][QueueMetrics.dropped]. All other undelivered
+ * elements, i.e. ones whose [send][Channel.send] was cancelled while suspended (only possible with
+ * [BufferOverflow.SUSPEND]) and ones lost because the channel was closed or cancelled, are counted as
+ * [discarded][QueueMetrics.discarded].
+ *
+ * Only [send][Channel.send], [trySend][Channel.trySend], `receive*`, [tryReceive][Channel.tryReceive] and iteration are
+ * counted; elements received via `select` are not, so such channels must not be used with `select`.
+ */
+@OptIn(DelicateCoroutinesApi::class) // isClosedForSend is only used to classify elements which were not delivered
+fun <E> meteredChannel(
+    metrics: QueueMetrics,
+    capacity: Int,
+    onBufferOverflow: BufferOverflow = BufferOverflow.SUSPEND,
+    onUndeliveredElement: ((E) -> Unit)? = null,
+): Channel<E> {
+    lateinit var delegate: Channel<E>
+    delegate = Channel(capacity, onBufferOverflow) { element ->
+        // Overflow only happens while the channel is open, and never when senders suspend instead
+        if (onBufferOverflow == BufferOverflow.SUSPEND || delegate.isClosedForSend) {
+            metrics.discarded()
+        } else {
+            metrics.dropped()
+        }
+        onUndeliveredElement?.invoke(element)
+    }
+    return MeteredChannel(delegate, metrics)
+}
+
+private class MeteredChannel<E>(
+    private val delegate: Channel<E>,
+    private val metrics: QueueMetrics,
+) : Channel<E> by delegate {
+    override suspend fun send(element: E) {
+        // Counted before the fact so the receiver can't observe a negative depth. Should the send fail, the element
+        // will be passed to onUndeliveredElement and counted as discarded.
+        metrics.enqueued()
+        delegate.send(element)
+    }
+
+    override fun trySend(element: E): ChannelResult<Unit> {
+        metrics.enqueued()
+        val result = delegate.trySend(element)
+        if (result.isFailure) {
+            metrics.dequeued() // never made it in
+        }
+        return result
+    }
+
+    override suspend fun receive(): E =
+        delegate.receive().also { metrics.dequeued() }
+
+    override suspend fun receiveCatching(): ChannelResult<E> =
+        delegate.receiveCatching().also { if (it.isSuccess) metrics.dequeued() }
+
+    override fun tryReceive(): ChannelResult<E> =
+        delegate.tryReceive().also { if (it.isSuccess) metrics.dequeued() }
+
+    override fun iterator(): ChannelIterator<E> {
+        val iterator = delegate.iterator()
+        return object : ChannelIterator<E> {
+            override suspend fun hasNext(): Boolean = iterator.hasNext()
+            override fun next(): E = iterator.next().also { metrics.dequeued() }
+        }
+    }
+}
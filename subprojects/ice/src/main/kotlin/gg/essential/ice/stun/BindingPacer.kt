@@ -39,20 +39,23 @@ import kotlin.time.Duration.Companion.milliseconds
  *   all those out asap. Since these do not affect the other client, we should be free to choose a different value here.
  *   Bandwidth should also not be a concern because these packets are only on the order of 100 bytes and we have a
  *   fairly limited number of servers we need to contact.
+ * - Callers may request a shorter interval for their regular slot (see [await]), e.g. once an agent has measured the
+ *   round trip time to its peer and knows that it is not talking to Ice4J. The interval only applies to the gap
+ *   following that one slot, so other agents sharing this pacer keep the default spacing for their own requests.
  */
 class BindingPacer(
     private val coroutineScope: CoroutineScope,
-    private val interval: Duration = 50.milliseconds,
+    val interval: Duration = 50.milliseconds,
 ) {
     private val highPrioRequests = Channel<CompletableDeferred<Unit>>(Channel.UNLIMITED)
-    private val regularRequests = Channel<CompletableDeferred<Unit>>(Channel.UNLIMITED)
+    private val regularRequests = Channel<Pair<CompletableDeferred<Unit>, Duration>>(Channel.UNLIMITED)
 
     init {
         coroutineScope.launch(Dispatchers.Unconfined) {
             while (true) {
                 val (request, delay) = select {
                     highPrioRequests.onReceive { it to MIN_INTERVAL }
-                    regularRequests.onReceive { it to interval }
+                    regularRequests.onReceive { (request, interval) -> request to interval }
                 }
 
                 if (!request.isCompleted) {
@@ -63,12 +66,19 @@ class BindingPacer(
         }
     }
 
-    suspend fun await(highPrio: Boolean) {
-        val queue = if (highPrio) highPrioRequests else regularRequests
-
+    /**
+     * Suspends until it is our turn to transmit.
+     * For regular requests, [interval] is how long to wait after this slot before handing out the next one; it is
+     * clamped to be at least [MIN_INTERVAL] and at most the interval this pacer was configured with.
+     */
+    suspend fun await(highPrio: Boolean, interval: Duration = this.interval) {
         val request = CompletableDeferred<Unit>(parent = coroutineScope.coroutineContext.job)
         try {
-            queue.send(request)
+            if (highPrio) {
+                highPrioRequests.send(request)
+            } else {
+                regularRequests.send(request to interval.coerceIn(MIN_INTERVAL, this.interval))
+            }
             request.await()
         } finally {
             // If we are cancelled while waiting, complete our request ourselves, so we don't waste a slot for nothing
@@ -37,4 +37,6 @@ sealed interface StunAttribute {
     data class TransactionTransmitCounter(val request: Int, val response: Int) : StunAttribute
     data class IceControlling(val tiebreaker: ULong) : StunAttribute
     data class IceControlled(val tiebreaker: ULong) : StunAttribute
+    /** Must be the last attribute. The CRC is computed during encoding and verified during decoding. */
+    data object Fingerprint : StunAttribute
 }
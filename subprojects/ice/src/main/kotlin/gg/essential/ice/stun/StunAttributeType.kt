@@ -39,7 +39,7 @@ enum class StunAttributeType(val id: Int) {
     Software(0x8022),
     // AlternateServer(0x8023),
     TransactionTransmitCounter(0x8025),
-    // Fingerprint(0x8028),
+    Fingerprint(0x8028),
     // ICE-specific
     IceControlled(0x8029),
     IceControlling(0x802a),
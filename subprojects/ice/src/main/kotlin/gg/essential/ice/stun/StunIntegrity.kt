@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.ice.stun
+
+import java.security.MessageDigest
+import java.util.zip.CRC32
+
+/**
+ * Computes the MESSAGE-INTEGRITY HMAC and FINGERPRINT CRC of STUN messages in place, without copying the message or
+ * allocating anything.
+ *
+ * Both values are computed over the message as if the attribute in question was the last one, i.e. with a different
+ * value in the length field of the header than what's actually there, so instead of patching a copy of the message,
+ * we feed the replacement [lengthField] to the digest directly.
+ *
+ * We implement HMAC (RFC 2104) on top of a plain SHA-1 [MessageDigest] rather than using a `Mac` because the latter
+ * always allocates a new array for its result, and re-initializing it for a different key allocates a whole bunch more.
+ * Instances are thread-local, see [get].
+ */
+internal class StunIntegrity private constructor() {
+    private val sha1 = MessageDigest.getInstance("SHA-1")
+    private val crc = CRC32()
+
+    private var key: ByteArray? = null
+    private val innerPad = ByteArray(BLOCK_SIZE)
+    private val outerPad = ByteArray(BLOCK_SIZE)
+    private val innerHash = ByteArray(HMAC_SIZE)
+
+    private fun setKey(key: ByteArray) {
+        if (key === this.key) return
+        this.key = key
+
+        val k = if (key.size > BLOCK_SIZE) sha1.digest(key) else key
+        for (i in 0 until BLOCK_SIZE) {
+            val b = if (i < k.size) k[i].toInt() else 0
+            innerPad[i] = (b xor 0x36).toByte()
+            outerPad[i] = (b xor 0x5c).toByte()
+        }
+    }
+
+    private fun MessageDigest.updateMessage(bytes: ByteArray, start: Int, end: Int, lengthField: Int) {
+        update(bytes, start, 2)
+        update(lengthField.shr(8).toByte())
+        update(lengthField.toByte())
+        update(bytes, start + 4, end - start - 4)
+    }
+
+    /**
+     * Writes the HMAC-SHA1 of the message in `bytes[start until end]`, with its length field replaced by [lengthField],
+     * to `out[outOffset until outOffset + 20]`.
+     */
+    fun hmac(key: ByteArray, bytes: ByteArray, start: Int, end: Int, lengthField: Int, out: ByteArray, outOffset: Int) {
+        setKey(key)
+        sha1.update(innerPad)
+        sha1.updateMessage(bytes, start, end, lengthField)
+        sha1.digest(innerHash, 0, HMAC_SIZE)
+        sha1.update(outerPad)
+        sha1.update(innerHash)
+        sha1.digest(out, outOffset, HMAC_SIZE)
+    }
+
+    /**
+     * Returns whether the HMAC-SHA1 of the message in `bytes[start until end]`, with its length field replaced by
+     * [lengthField], matches the 20 bytes at `bytes[expectedOffset]`.
+     */
+    fun verifyHmac(key: ByteArray, bytes: ByteArray, start: Int, end: Int, lengthField: Int, expectedOffset: Int): Boolean {
+        val actual = innerHash // safe to re-use, hmac is done with it by the time it writes the result
+        hmac(key, bytes, start, end, lengthField, actual, 0)
+        var diff = 0
+        for (i in 0 until HMAC_SIZE) {
+            diff = diff or (actual[i].toInt() xor bytes[expectedOffset + i].toInt())
+        }
+        return diff == 0
+    }
+
+    /** Computes the FINGERPRINT value of the message in `bytes[start until end]` with the given [lengthField]. */
+    fun fingerprint(bytes: ByteArray, start: Int, end: Int, lengthField: Int): Int {
+        crc.reset()
+        crc.update(bytes, start, 2)
+        crc.update(lengthField.shr(8))
+        crc.update(lengthField)
+        crc.update(bytes, start + 4, end - start - 4)
+        return crc.value.toInt() xor FINGERPRINT_XOR
+    }
+
+    companion object {
+        const val HMAC_SIZE = 20
+        private const val BLOCK_SIZE = 64
+        private const val FINGERPRINT_XOR = 0x5354554e
+
+        private val instances = ThreadLocal.withInitial { StunIntegrity() }
+
+        fun get(): StunIntegrity = instances.get()
+    }
+}
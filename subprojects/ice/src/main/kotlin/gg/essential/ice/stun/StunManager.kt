@@ -33,6 +33,9 @@ class StunManager(private val scope: CoroutineScope) {
 
     private val activeRequests = mutableMapOf<TransactionId, StunRequest>()
 
+    // Re-used for every received packet, only ever accessed from the [scope]'s thread like everything else in here
+    private val receiveView = StunMessageView()
+
     private val servers = mutableMapOf<String, StunServer>()
     private val remoteToServer = mutableMapOf<InetSocketAddress, StunServer>()
 
@@ -78,8 +81,26 @@ class StunManager(private val scope: CoroutineScope) {
      */
     fun messageReceived(parentLogger: Logger, packet: ReceivedPacket): StunMessage? {
         val message = try {
+            val view = receiveView
+            view.wrapOrThrow(packet.data)
+
+            // Drop the packets we know we'll ignore before going through the effort of fully decoding them
+            if (view.cls == StunClass.Indication && view.type == StunType.Binding) {
+                parentLogger.atTrace()
+                    .addKeyValue("remoteAddress", packet.source)
+                    .log("Got STUN Binding indication.")
+                return null
+            }
+            if (view.cls.isResponse && activeRequests.keys.none { view.transactionIdEquals(it) }) {
+                parentLogger.atTrace()
+                    .addKeyValue("remoteAddress", packet.source)
+                    .addKeyValue("tId", view.transactionId())
+                    .log("Ignoring STUN response because we have no active request for that id.")
+                return null
+            }
+
             StunMessage.decode(
-                packet.data,
+                view,
                 { servers[it.substringBefore(":")]?.password },
                 { activeRequests[it]?.request?.integrityProtectionKey },
             )
@@ -17,9 +17,6 @@ import java.net.Inet4Address
 import java.net.Inet6Address
 import java.net.InetAddress
 import java.net.InetSocketAddress
-import javax.crypto.Mac
-import javax.crypto.spec.SecretKeySpec
-import kotlin.experimental.xor
 
 data class StunMessage(
     val type: StunType,
@@ -42,75 +39,60 @@ data class StunMessage(
     val integrityProtectionKey: ByteArray?
         get() = attribute<StunAttribute.MessageIntegrity>()?.key
 
+    /** Returns the number of bytes [encodeInto] will write for this message. */
+    fun encodedSize(): Int {
+        var size = HEADER_SIZE
+        if (includeSoftware) {
+            size += 4 + SOFTWARE_BYTES.size.padToMultipleOf(4)
+        }
+        for (attr in attributes) {
+            size += 4 + attr.encodedLength().padToMultipleOf(4)
+        }
+        return size
+    }
+
     fun encode(): ByteArray {
-        fun encodeXorAddress(address: InetSocketAddress): ByteArray {
+        val bytes = ByteArray(encodedSize())
+        encodeInto(bytes, 0)
+        return bytes
+    }
+
+    /**
+     * Encodes this message into `dst` starting at [dstOffset] and returns the number of bytes written.
+     * `dst` must have room for at least [encodedSize] bytes.
+     */
+    fun encodeInto(dst: ByteArray, dstOffset: Int): Int {
+        val size = encodedSize()
+        if (dst.size - dstOffset < size) {
+            throw IllegalArgumentException("Buffer too small, need $size bytes but only ${dst.size - dstOffset} remain.")
+        }
+
+        fun writeShort(offset: Int, value: Int) {
+            dst[offset] = value.shr(8).toByte()
+            dst[offset + 1] = value.toByte()
+        }
+        fun writeInt(offset: Int, value: Int) {
+            writeShort(offset, value.shr(16))
+            writeShort(offset + 2, value)
+        }
+        fun writeLong(offset: Int, value: Long) {
+            writeInt(offset, value.shr(32).toInt())
+            writeInt(offset + 4, value.toInt())
+        }
+        fun writeXorAddress(offset: Int, address: InetSocketAddress) {
             val family = when (address.address) {
                 is Inet4Address -> 1
                 is Inet6Address -> 2
                 else -> throw IOException("Unknown address family ${address.address}")
             }
-            val port = address.port
+            dst[offset] = 0
+            dst[offset + 1] = family.toByte()
+            writeShort(offset + 2, address.port xor MAGIC_COOKIE.shr(16))
+            // Note: InetAddress.getAddress returns a copy, so this isn't entirely free, but there's no better API
             val addressBytes = address.address.address
-            val addressMask = MAGIC_COOKIE + transactionId.bytes
             for (i in addressBytes.indices) {
-                addressBytes[i] = addressBytes[i].xor(addressMask[i])
-            }
-            val bytes = ByteArray(4 + addressBytes.size)
-            bytes[1] = family.toByte()
-            bytes[2] = port.shr(8).toByte().xor(MAGIC_COOKIE[0])
-            bytes[3] = port.toByte().xor(MAGIC_COOKIE[1])
-            addressBytes.copyInto(bytes, 4)
-            return bytes
-        }
-        fun encodeInt(value: Int): ByteArray {
-            return byteArrayOf(
-                value.shr(24).toByte(),
-                value.shr(16).toByte(),
-                value.shr(8).toByte(),
-                value.shr(0).toByte(),
-            )
-        }
-        fun encodeLong(value: Long): ByteArray {
-            return byteArrayOf(
-                value.shr(56).toByte(),
-                value.shr(48).toByte(),
-                value.shr(40).toByte(),
-                value.shr(32).toByte(),
-                value.shr(24).toByte(),
-                value.shr(16).toByte(),
-                value.shr(8).toByte(),
-                value.shr(0).toByte(),
-            )
-        }
-
-        val attributes = attributes.toMutableList()
-
-        if (type != StunType.Send) {
-            attributes.add(0, StunAttribute.Software(SOFTWARE))
-        }
-
-        val encodedAttrs = attributes.map { attr ->
-            when (attr) {
-                is StunAttribute.MappedAddress -> throw IllegalArgumentException("MappedAddress encoding not implemented.")
-                is StunAttribute.XorMappedAddress -> Pair(StunAttributeType.XorMappedAddress, encodeXorAddress(attr.address))
-                is StunAttribute.Username -> Pair(StunAttributeType.Username, attr.username.encodeToByteArray())
-                is StunAttribute.MessageIntegrity -> Pair(StunAttributeType.MessageIntegrity, ByteArray(20))
-                is StunAttribute.ErrorCode -> throw IllegalArgumentException("ErrorCode encoding not implemented.")
-                is StunAttribute.UnknownAttributes -> throw IllegalArgumentException("UnknownAttributes encoding not implemented.")
-                is StunAttribute.ChannelNumber -> Pair(StunAttributeType.ChannelNumber, encodeInt(attr.number.toInt().shl(16)))
-                is StunAttribute.Lifetime -> Pair(StunAttributeType.Lifetime, encodeInt(attr.seconds.toInt()))
-                is StunAttribute.XorPeerAddress -> Pair(StunAttributeType.XorPeerAddress, encodeXorAddress(attr.address))
-                is StunAttribute.Data -> Pair(StunAttributeType.Data, attr.bytes)
-                is StunAttribute.XorRelayedAddress -> Pair(StunAttributeType.XorRelayedAddress, encodeXorAddress(attr.address))
-                is StunAttribute.RequestedTransport -> Pair(StunAttributeType.RequestedTransport, byteArrayOf(17/*UDP*/, 0, 0, 0))
-                is StunAttribute.Priority -> Pair(StunAttributeType.Priority, encodeInt(attr.value))
-                is StunAttribute.UseCandidate -> Pair(StunAttributeType.UseCandidate, ByteArray(0))
-                is StunAttribute.Software -> Pair(StunAttributeType.Software, attr.value.encodeToByteArray())
-                is StunAttribute.TransactionTransmitCounter -> Pair(
-                    StunAttributeType.TransactionTransmitCounter,
-                    byteArrayOf(0, 0, attr.request.toByte(), attr.response.toByte()))
-                is StunAttribute.IceControlling -> Pair(StunAttributeType.IceControlling, encodeLong(attr.tiebreaker.toLong()))
-                is StunAttribute.IceControlled -> Pair(StunAttributeType.IceControlled, encodeLong(attr.tiebreaker.toLong()))
+                // The mask is the magic cookie followed by the transaction id, which is exactly what's in the header
+                dst[offset + 4 + i] = (addressBytes[i].toInt() xor dst[dstOffset + 4 + i].toInt()).toByte()
             }
         }
 
@@ -123,54 +105,120 @@ data class StunMessage(
                 .or(c.and(0b10).shl(7))
                 .or(c.and(0b1).shl(4))
         }
-        val attrsLength = encodedAttrs.sumOf { 4 + it.second.size.padToMultipleOf(4) }
-
-        val bytes = ByteArray(HEADER_SIZE + attrsLength)
-        bytes[0] = typeAndClass.shr(8).toByte()
-        bytes[1] = typeAndClass.toByte()
-        // Length written later because MessageIntegrity handling might overwrite it
-        MAGIC_COOKIE.copyInto(bytes, 4)
-        transactionId.bytes.copyInto(bytes, 8)
-
-        var offset = 20
-        for ((type, encodedAttr) in encodedAttrs) {
-            val attrLength = encodedAttr.size
-            bytes[offset] = type.id.shr(8).toByte()
-            bytes[offset + 1] = type.id.toByte()
-            bytes[offset + 2] = attrLength.shr(8).toByte()
-            bytes[offset + 3] = attrLength.toByte()
+        writeShort(dstOffset, typeAndClass)
+        writeShort(dstOffset + 2, size - HEADER_SIZE)
+        writeInt(dstOffset + 4, MAGIC_COOKIE)
+        transactionId.bytes.copyInto(dst, dstOffset + 8)
+
+        var offset = dstOffset + HEADER_SIZE
+        fun writeAttribute(attr: StunAttribute?) {
+            val type = attr?.encodedType() ?: StunAttributeType.Software
+            val length = attr?.encodedLength() ?: SOFTWARE_BYTES.size
+            writeShort(offset, type.id)
+            writeShort(offset + 2, length)
             offset += 4
-            encodedAttr.copyInto(bytes, offset)
-            offset += attrLength.padToMultipleOf(4)
-
-            if (type == StunAttributeType.MessageIntegrity) {
-                // The input to the HMAC is the content up to and including the **preceding** attribute
-                val verifiedLength = offset - 24
-                // The stored message length however includes the MessageIntegrity attribute
-                val storedLength = offset
-                bytes[2] = (storedLength - HEADER_SIZE).shr(8).toByte()
-                bytes[3] = (storedLength - HEADER_SIZE).toByte()
-                val key: ByteArray = attributes.firstNotNullOf { it as? StunAttribute.MessageIntegrity }.key
-                    ?: throw IOException("Cannot encode MessageIntegrity without password.")
-                val mac = Mac.getInstance("HmacSHA1")
-                mac.init(SecretKeySpec(key, "HmacSHA1"))
-                mac.update(bytes, 0, verifiedLength)
-                val hmac = mac.doFinal()
-                hmac.copyInto(bytes, offset - 20)
+            when (attr) {
+                null -> SOFTWARE_BYTES.copyInto(dst, offset)
+                is StunAttribute.MappedAddress -> throw IllegalArgumentException("MappedAddress encoding not implemented.")
+                is StunAttribute.XorMappedAddress -> writeXorAddress(offset, attr.address)
+                is StunAttribute.Username -> attr.username.encodeToByteArray().copyInto(dst, offset)
+                is StunAttribute.MessageIntegrity -> {
+                    val key = attr.key ?: throw IOException("Cannot encode MessageIntegrity without password.")
+                    // The input to the HMAC is the content up to and including the **preceding** attribute,
+                    // the length in the header however must include the MessageIntegrity attribute.
+                    val lengthField = offset + StunIntegrity.HMAC_SIZE - dstOffset - HEADER_SIZE
+                    StunIntegrity.get().hmac(key, dst, dstOffset, offset - 4, lengthField, dst, offset)
+                }
+                is StunAttribute.ErrorCode -> throw IllegalArgumentException("ErrorCode encoding not implemented.")
+                is StunAttribute.UnknownAttributes -> throw IllegalArgumentException("UnknownAttributes encoding not implemented.")
+                is StunAttribute.ChannelNumber -> writeInt(offset, attr.number.toInt().shl(16))
+                is StunAttribute.Lifetime -> writeInt(offset, attr.seconds.toInt())
+                is StunAttribute.XorPeerAddress -> writeXorAddress(offset, attr.address)
+                is StunAttribute.Data -> attr.bytes.copyInto(dst, offset)
+                is StunAttribute.XorRelayedAddress -> writeXorAddress(offset, attr.address)
+                is StunAttribute.RequestedTransport -> writeInt(offset, 17/*UDP*/ shl 24)
+                is StunAttribute.Priority -> writeInt(offset, attr.value)
+                is StunAttribute.UseCandidate -> {}
+                is StunAttribute.Software -> attr.value.encodeToByteArray().copyInto(dst, offset)
+                is StunAttribute.TransactionTransmitCounter -> writeInt(offset, attr.request.and(0xff).shl(8) or attr.response.and(0xff))
+                is StunAttribute.IceControlling -> writeLong(offset, attr.tiebreaker.toLong())
+                is StunAttribute.IceControlled -> writeLong(offset, attr.tiebreaker.toLong())
+                is StunAttribute.Fingerprint -> {
+                    val lengthField = offset + 4 - dstOffset - HEADER_SIZE
+                    writeInt(offset, StunIntegrity.get().fingerprint(dst, dstOffset, offset - 4, lengthField))
+                }
+            }
+            // Padding must be zero, but the caller's buffer may not be
+            for (i in offset + length until offset + length.padToMultipleOf(4)) {
+                dst[i] = 0
             }
+            offset += length.padToMultipleOf(4)
+        }
+
+        if (includeSoftware) {
+            writeAttribute(null)
+        }
+        for (attr in attributes) {
+            writeAttribute(attr)
         }
 
-        // And finally, the true length
-        bytes[2] = attrsLength.shr(8).toByte()
-        bytes[3] = attrsLength.toByte()
+        return size
+    }
 
-        return bytes
+    private val includeSoftware: Boolean
+        get() = type != StunType.Send && attributes.none { it is StunAttribute.Software }
+
+    private fun StunAttribute.encodedType(): StunAttributeType = when (this) {
+        is StunAttribute.MappedAddress -> StunAttributeType.MappedAddress
+        is StunAttribute.Username -> StunAttributeType.Username
+        is StunAttribute.MessageIntegrity -> StunAttributeType.MessageIntegrity
+        is StunAttribute.ErrorCode -> StunAttributeType.ErrorCode
+        is StunAttribute.UnknownAttributes -> StunAttributeType.UnknownAttributes
+        is StunAttribute.XorMappedAddress -> StunAttributeType.XorMappedAddress
+        is StunAttribute.ChannelNumber -> StunAttributeType.ChannelNumber
+        is StunAttribute.Lifetime -> StunAttributeType.Lifetime
+        is StunAttribute.XorPeerAddress -> StunAttributeType.XorPeerAddress
+        is StunAttribute.Data -> StunAttributeType.Data
+        is StunAttribute.XorRelayedAddress -> StunAttributeType.XorRelayedAddress
+        is StunAttribute.RequestedTransport -> StunAttributeType.RequestedTransport
+        is StunAttribute.Priority -> StunAttributeType.Priority
+        is StunAttribute.UseCandidate -> StunAttributeType.UseCandidate
+        is StunAttribute.Software -> StunAttributeType.Software
+        is StunAttribute.TransactionTransmitCounter -> StunAttributeType.TransactionTransmitCounter
+        is StunAttribute.IceControlling -> StunAttributeType.IceControlling
+        is StunAttribute.IceControlled -> StunAttributeType.IceControlled
+        is StunAttribute.Fingerprint -> StunAttributeType.Fingerprint
+    }
+
+    private fun StunAttribute.encodedLength(): Int = when (this) {
+        is StunAttribute.MappedAddress -> 0 // encoding not implemented, will throw when writing
+        is StunAttribute.XorMappedAddress -> xorAddressLength(address)
+        is StunAttribute.Username -> username.utf8Length()
+        is StunAttribute.MessageIntegrity -> StunIntegrity.HMAC_SIZE
+        is StunAttribute.ErrorCode -> 0 // encoding not implemented, will throw when writing
+        is StunAttribute.UnknownAttributes -> 0 // encoding not implemented, will throw when writing
+        is StunAttribute.ChannelNumber -> 4
+        is StunAttribute.Lifetime -> 4
+        is StunAttribute.XorPeerAddress -> xorAddressLength(address)
+        is StunAttribute.Data -> bytes.size
+        is StunAttribute.XorRelayedAddress -> xorAddressLength(address)
+        is StunAttribute.RequestedTransport -> 4
+        is StunAttribute.Priority -> 4
+        is StunAttribute.UseCandidate -> 0
+        is StunAttribute.Software -> value.utf8Length()
+        is StunAttribute.TransactionTransmitCounter -> 4
+        is StunAttribute.IceControlling -> 8
+        is StunAttribute.IceControlled -> 8
+        is StunAttribute.Fingerprint -> 4
     }
 
+    private fun xorAddressLength(address: InetSocketAddress): Int =
+        if (address.address is Inet6Address) 4 + 16 else 4 + 4
+
     companion object {
-        private val SOFTWARE = "essential.gg v${VersionInfo().essentialVersion}"
-        private const val HEADER_SIZE = 20
-        private val MAGIC_COOKIE = byteArrayOf(0x21, 0x12, 0xA4.toByte(), 0x42)
+        private val SOFTWARE_BYTES = "essential.gg v${VersionInfo().essentialVersion}".encodeToByteArray()
+        private const val HEADER_SIZE = StunMessageView.HEADER_SIZE
+        private const val MAGIC_COOKIE = StunMessageView.MAGIC_COOKIE
 
         fun looksLikeStun(bytes: ByteArray): Boolean {
             if (bytes.size < HEADER_SIZE) return false
@@ -179,7 +227,9 @@ data class StunMessage(
             // Message length is always aligned to multiples of 4 bytes
             if (bytes[3].toInt() and 0b00000011 != 0) return false
             // Magic cookie
-            if (!bytes.sliceArray(4 until 8).contentEquals(MAGIC_COOKIE)) return false
+            for (i in 0 until 4) {
+                if (bytes[4 + i] != MAGIC_COOKIE.shr(24 - i * 8).toByte()) return false
+            }
             // Certainly looks like STUN
             return true
         }
@@ -188,107 +238,49 @@ data class StunMessage(
             bytes: ByteArray,
             getServerKey: (user: String) -> ByteArray?,
             getClientKey: (tId: TransactionId) -> ByteArray?,
-        ): StunMessage {
-            val typeAndClass = bytes[0].toUByte().toInt()
-                .shl(8).or(bytes[1].toUByte().toInt())
-            if (typeAndClass and 0b1100000000000000 != 0) {
-                throw IOException("First two bits of STUN message must be 0.")
-            }
-            val msgTypeId = (typeAndClass and 0b11111000000000 shr 2) or (typeAndClass and 0b11100000 shr 1) or (typeAndClass and 0b1111)
-            val msgClassId = (typeAndClass and 0b100000000 shr 7) or (typeAndClass and 0b10000 shr 4)
+        ): StunMessage = decode(StunMessageView().apply { wrapOrThrow(bytes) }, getServerKey, getClientKey)
 
-            val msgType = StunType.byId[msgTypeId]
-                ?: throw IOException("Unknown message type $msgTypeId.")
-            val msgClass = StunClass.entries[msgClassId]
-            if (!msgType.isCompatible(msgClass)) {
-                throw IOException("Message type $msgType cannot be used with $msgClass.")
-            }
-
-            val length = bytes[2].toUByte().toInt()
-                .shl(8).or(bytes[3].toUByte().toInt())
-            if (length != length.padToMultipleOf(4)) {
-                throw IOException("Invalid message length, must be multiple of 4 but was $length.")
-            }
-            if (length > bytes.size - HEADER_SIZE) {
-                throw IOException("Invalid message length, was $length but only ${bytes.size - HEADER_SIZE} bytes remain.")
-            }
+        /** Fully decodes the message the given view currently points at. */
+        fun decode(
+            view: StunMessageView,
+            getServerKey: (user: String) -> ByteArray?,
+            getClientKey: (tId: TransactionId) -> ByteArray?,
+        ): StunMessage {
+            val bytes = view.bytes
+            val transactionId = view.transactionId()
 
-            val cookie = bytes.sliceArray(4 until 8)
-            if (!cookie.contentEquals(MAGIC_COOKIE)) {
-                throw IOException("Invalid magic cookie value ${cookie.contentToString()}")
+            if (view.verifyFingerprint() == false) {
+                throw IOException("Invalid FINGERPRINT")
             }
 
-            val transactionId = bytes.sliceArray(8 until 20)
-
             val attributes = mutableListOf<StunAttribute>()
 
-            var offset = HEADER_SIZE
-
-            fun decodeXorAddress(xorMask: ByteArray = MAGIC_COOKIE + transactionId): InetSocketAddress {
-                val addressBytes = when (val family = bytes[offset + 1].toUByte().toInt()) {
-                    1 -> 4
-                    2 -> 16
-                    else -> throw IOException("Unknown address family $family")
-                }
-                val port = bytes[offset + 2].xor(xorMask[0]).toUByte().toInt()
-                    .shl(8).or(bytes[offset + 3].xor(xorMask[1]).toUByte().toInt())
-                val address = bytes.sliceArray(offset + 4 until offset + 4 + addressBytes)
-                for (i in address.indices) {
-                    address[i] = address[i].xor(xorMask[i])
-                }
-                return InetSocketAddress(InetAddress.getByAddress(address), port)
-            }
-            fun decodeInt(): Int {
-                return bytes[offset + 0].toInt()
-                    .shl(8).or(bytes[offset + 1].toUByte().toInt())
-                    .shl(8).or(bytes[offset + 2].toUByte().toInt())
-                    .shl(8).or(bytes[offset + 3].toUByte().toInt())
-            }
-            fun decodeLong(): Long {
-                return bytes[offset + 0].toLong()
-                    .shl(8).or(bytes[offset + 1].toUByte().toLong())
-                    .shl(8).or(bytes[offset + 2].toUByte().toLong())
-                    .shl(8).or(bytes[offset + 3].toUByte().toLong())
-                    .shl(8).or(bytes[offset + 4].toUByte().toLong())
-                    .shl(8).or(bytes[offset + 5].toUByte().toLong())
-                    .shl(8).or(bytes[offset + 6].toUByte().toLong())
-                    .shl(8).or(bytes[offset + 7].toUByte().toLong())
-            }
-
-            while (offset < length + HEADER_SIZE) {
-                val attrType = bytes[offset].toUByte().toInt()
-                    .shl(8).or(bytes[offset + 1].toUByte().toInt())
-                val attrLength = bytes[offset + 2].toUByte().toInt()
-                    .shl(8).or(bytes[offset + 3].toUByte().toInt())
-
-                offset += 4
+            var offset = view.first()
+            while (offset != -1) {
+                val attrType = view.attributeType(offset)
+                val attrLength = view.attributeLength(offset)
 
                 attributes.add(when (StunAttributeType.byId[attrType]) {
-                    StunAttributeType.MappedAddress -> StunAttribute.MappedAddress(
-                        decodeXorAddress(
-                            xorMask = ByteArray(
-                                16
-                            )
-                        )
-                    )
-                    StunAttributeType.XorMappedAddress -> StunAttribute.XorMappedAddress(decodeXorAddress())
+                    StunAttributeType.MappedAddress -> {
+                        val buf = ByteArray(16)
+                        // MAPPED-ADDRESS has the same layout, just without the xor, so we simply undo that
+                        val len = view.xorAddressBytes(offset, buf)
+                        for (i in 0 until len) {
+                            buf[i] = (buf[i].toInt() xor bytes[view.offset + 4 + i].toInt()).toByte()
+                        }
+                        val port = view.readShort(offset + 2)
+                        StunAttribute.MappedAddress(InetSocketAddress(InetAddress.getByAddress(buf.copyOf(len)), port))
+                    }
+                    StunAttributeType.XorMappedAddress -> StunAttribute.XorMappedAddress(view.xorAddress(offset))
                     StunAttributeType.Username -> {
                         if (attrLength > 512) {
                             throw IOException("Invalid username, too long: $attrLength")
                         }
-                        StunAttribute.Username(bytes.sliceArray(offset until offset + attrLength).decodeToString())
+                        StunAttribute.Username(bytes.decodeToString(offset, offset + attrLength))
                     }
                     StunAttributeType.MessageIntegrity -> {
-                        // The input to the HMAC is the content up to and including the **preceding** attribute
-                        val verifiedLength = offset - 4
-                        val verifiedBytes = bytes.sliceArray(0 until verifiedLength)
-                        // The stored message length however includes the MessageIntegrity attribute
-                        val storedLength = offset + 20
-                        verifiedBytes[2] = (storedLength - HEADER_SIZE).shr(8).toByte()
-                        verifiedBytes[3] = (storedLength - HEADER_SIZE).toByte()
-
-                        val key = if (msgClass.isResponse) {
-                            getClientKey(TransactionId(transactionId))
+                        val key = if (view.cls.isResponse) {
+                            getClientKey(transactionId)
                         } else {
                             val username = attributes.firstNotNullOfOrNull { (it as? StunAttribute.Username)?.username }
                                 ?: throw IOException("Integrity protected requests must include a username.")
@@ -298,15 +290,11 @@ data class StunMessage(
                             attributes.add(StunAttribute.MessageIntegrity(null))
                             break
                         }
-                        val mac = Mac.getInstance("HmacSHA1")
-                        mac.init(SecretKeySpec(key, "HmacSHA1"))
-                        mac.update(verifiedBytes)
-                        val hmac = mac.doFinal()
-                        if (!hmac.contentEquals(bytes.sliceArray(offset until offset + 20))) {
+                        if (!view.verifyIntegrity(key)) {
                             throw IOException("Invalid HMAC")
                         }
                         attributes.add(StunAttribute.MessageIntegrity(key))
-                        break // ignore everything after this attribute (we don't support FINGERPRINT)
+                        break // ignore everything after this attribute (FINGERPRINT has already been checked above)
                     }
                     StunAttributeType.ErrorCode -> {
                         val cls = bytes[offset + 2].toUByte().toInt() and 0b111
@@ -318,48 +306,64 @@ data class StunMessage(
                     }
                     StunAttributeType.UnknownAttributes -> {
                         StunAttribute.UnknownAttributes((0 until attrLength step 2).map { i ->
-                            val id = bytes[offset + i].toUByte().toInt()
-                                .shl(8).or(bytes[offset + i + 1].toUByte().toInt())
+                            val id = view.readShort(offset + i)
                             StunAttributeType.byId[id] ?: throw IOException("Unknown attribute type $id")
                         })
                     }
                     StunAttributeType.ChannelNumber -> throw IOException("CHANNEL-NUMBER decoding not supported")
-                    StunAttributeType.Lifetime -> StunAttribute.Lifetime(decodeInt().toUInt())
-                    StunAttributeType.XorPeerAddress -> StunAttribute.XorPeerAddress(decodeXorAddress())
-                    StunAttributeType.Data -> StunAttribute.Data(bytes.sliceArray(offset until offset + attrLength))
-                    StunAttributeType.XorRelayedAddress -> StunAttribute.XorRelayedAddress(decodeXorAddress())
+                    StunAttributeType.Lifetime -> StunAttribute.Lifetime(view.readInt(offset).toUInt())
+                    StunAttributeType.XorPeerAddress -> StunAttribute.XorPeerAddress(view.xorAddress(offset))
+                    StunAttributeType.Data -> StunAttribute.Data(bytes.copyOfRange(offset, offset + attrLength))
+                    StunAttributeType.XorRelayedAddress -> StunAttribute.XorRelayedAddress(view.xorAddress(offset))
                     StunAttributeType.RequestedTransport -> throw IOException("REQUESTED-TRANSPORT decoding not supported")
-                    StunAttributeType.Priority -> StunAttribute.Priority(decodeInt())
+                    StunAttributeType.Priority -> StunAttribute.Priority(view.readInt(offset))
                     StunAttributeType.UseCandidate -> StunAttribute.UseCandidate
-                    StunAttributeType.Software -> StunAttribute.Software(
-                        bytes.decodeToString(
-                            offset,
-                            offset + attrLength
-                        )
-                    )
+                    StunAttributeType.Software -> StunAttribute.Software(bytes.decodeToString(offset, offset + attrLength))
                     StunAttributeType.TransactionTransmitCounter -> StunAttribute.TransactionTransmitCounter(
                         bytes[offset + 2].toInt(),
                         bytes[offset + 3].toInt(),
                     )
-                    StunAttributeType.IceControlled -> StunAttribute.IceControlled(decodeLong().toULong())
-                    StunAttributeType.IceControlling -> StunAttribute.IceControlling(decodeLong().toULong())
+                    StunAttributeType.Fingerprint -> StunAttribute.Fingerprint
+                    StunAttributeType.IceControlled -> StunAttribute.IceControlled(view.readLong(offset).toULong())
+                    StunAttributeType.IceControlling -> StunAttribute.IceControlling(view.readLong(offset).toULong())
                     null -> {
                         if (StunAttributeType.isComprehensionRequired(attrType)) {
                             // TODO Not what we should do for requests, but we can always just pretend packet loss :P
                             throw IOException("Unknown attribute type $attrType")
                         }
-                        offset += attrLength.padToMultipleOf(4)
+                        offset = view.next(offset)
                         continue
                     }
                 })
 
-                offset += attrLength.padToMultipleOf(4)
+                offset = view.next(offset)
             }
 
-            return StunMessage(msgType, msgClass, TransactionId(transactionId), attributes)
+            return StunMessage(view.type, view.cls, transactionId, attributes)
         }
 
         private fun Int.padToMultipleOf(multipleOf: Int): Int =
             (this + multipleOf - 1) / multipleOf * multipleOf
+
+        private fun String.utf8Length(): Int {
+            var length = 0
+            var i = 0
+            while (i < this.length) {
+                val c = this[i]
+                length += when {
+                    c.code < 0x80 -> 1
+                    c.code < 0x800 -> 2
+                    Character.isHighSurrogate(c) && i + 1 < this.length && Character.isLowSurrogate(this[i + 1]) -> {
+                        i++
+                        4
+                    }
+                    // lone surrogates are replaced by a single `?` when encoding
+                    Character.isSurrogate(c) -> 1
+                    else -> 3
+                }
+                i++
+            }
+            return length
+        }
     }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.ice.stun
+
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+
+/**
+ * A re-usable, read-only view of an encoded STUN message.
+ *
+ * Unlike [StunMessage.decode], this does not copy or decode anything up front, it merely validates the framing in
+ * [wrap] and then reads attributes straight out of the underlying array on demand. As such, it can be used on hot paths
+ * (e.g. to process binding responses or to drop unwanted packets early) without allocating anything.
+ *
+ * Attributes are addressed by the (absolute) offset of their value in [bytes], as returned by [first], [next] and
+ * [find]. In line with RFC 8489 section 14.5, attributes following MESSAGE-INTEGRITY are not visible through [find],
+ * with the exception of FINGERPRINT.
+ *
+ * A view must only be used by one thread at a time and is only valid as long as the underlying array is not modified.
+ */
+class StunMessageView {
+    var bytes: ByteArray = EMPTY
+        private set
+    var offset: Int = 0
+        private set
+    /** Total size of the message, including its header. */
+    var size: Int = 0
+        private set
+
+    /** Type of the message. Only valid after a successful call to [wrap]. */
+    lateinit var type: StunType
+        private set
+    /** Class of the message. Only valid after a successful call to [wrap]. */
+    lateinit var cls: StunClass
+        private set
+
+    /**
+     * Points this view at the message in `bytes[offset until offset + length]`.
+     * Any trailing bytes which are not covered by the message length in the STUN header are ignored.
+     *
+     * Returns `false` (and leaves the view in an unspecified state) if the bytes do not contain a well-formed message
+     * of a type known to us.
+     */
+    fun wrap(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size - offset): Boolean {
+        return try {
+            wrapOrThrow(bytes, offset, length)
+            true
+        } catch (e: IOException) {
+            false
+        }
+    }
+
+    /** Same as [wrap] but throws an [IOException] describing the problem if the message is not well-formed. */
+    fun wrapOrThrow(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size - offset) {
+        this.bytes = bytes
+        this.offset = offset
+        this.size = 0
+
+        if (length < HEADER_SIZE) {
+            throw IOException("Message too short, must be at least $HEADER_SIZE bytes but was $length.")
+        }
+
+        val typeAndClass = readShort(offset)
+        if (typeAndClass and 0b1100000000000000 != 0) {
+            throw IOException("First two bits of STUN message must be 0.")
+        }
+        val msgTypeId = (typeAndClass and 0b11111000000000 shr 2) or (typeAndClass and 0b11100000 shr 1) or (typeAndClass and 0b1111)
+        val msgClassId = (typeAndClass and 0b100000000 shr 7) or (typeAndClass and 0b10000 shr 4)
+
+        val msgType = StunType.byId[msgTypeId]
+            ?: throw IOException("Unknown message type $msgTypeId.")
+        val msgClass = StunClass.entries[msgClassId]
+        if (!msgType.isCompatible(msgClass)) {
+            throw IOException("Message type $msgType cannot be used with $msgClass.")
+        }
+
+        val msgLength = readShort(offset + 2)
+        if (msgLength and 0b11 != 0) {
+            throw IOException("Invalid message length, must be multiple of 4 but was $msgLength.")
+        }
+        if (msgLength > length - HEADER_SIZE) {
+            throw IOException("Invalid message length, was $msgLength but only ${length - HEADER_SIZE} bytes remain.")
+        }
+
+        if (readInt(offset + 4) != MAGIC_COOKIE) {
+            throw IOException("Invalid magic cookie value ${readInt(offset + 4)}")
+        }
+
+        val end = offset + HEADER_SIZE + msgLength
+        var attr = offset + HEADER_SIZE
+        while (attr < end) {
+            if (attr + 4 > end) {
+                throw IOException("Truncated attribute header at ${attr - offset}.")
+            }
+            val attrLength = readShort(attr + 2)
+            attr += 4 + attrLength.padToMultipleOf(4)
+            if (attr > end) {
+                throw IOException("Attribute at ${attr - offset} with length $attrLength exceeds message length.")
+            }
+        }
+
+        this.type = msgType
+        this.cls = msgClass
+        this.size = HEADER_SIZE + msgLength
+    }
+
+    private val end: Int
+        get() = offset + size
+
+    fun transactionIdEquals(transactionId: TransactionId): Boolean {
+        val expected = transactionId.bytes
+        for (i in 0 until 12) {
+            if (bytes[offset + 8 + i] != expected[i]) return false
+        }
+        return true
+    }
+
+    /** Copies the transaction id out of the message. */
+    fun transactionId(): TransactionId =
+        TransactionId(bytes.copyOfRange(offset + 8, offset + HEADER_SIZE))
+
+    /** Returns the value offset of the first attribute, or `-1` if the message has no attributes. */
+    fun first(): Int =
+        if (size > HEADER_SIZE) offset + HEADER_SIZE + 4 else -1
+
+    /** Returns the value offset of the attribute following the one at [valueOffset], or `-1` if there is none. */
+    fun next(valueOffset: Int): Int {
+        val next = valueOffset + attributeLength(valueOffset).padToMultipleOf(4) + 4
+        return if (next - 4 < end) next else -1
+    }
+
+    /** Returns the raw (possibly unknown) type id of the attribute at [valueOffset]. */
+    fun attributeType(valueOffset: Int): Int = readShort(valueOffset - 4)
+
+    /** Returns the unpadded length of the value of the attribute at [valueOffset]. */
+    fun attributeLength(valueOffset: Int): Int = readShort(valueOffset - 2)
+
+    /**
+     * Returns the value offset of the first attribute of the given type, or `-1` if there is none.
+     * Attributes following MESSAGE-INTEGRITY are ignored, unless [type] is [StunAttributeType.Fingerprint].
+     */
+    fun find(type: StunAttributeType): Int {
+        var seenIntegrity = false
+        var attr = first()
+        while (attr != -1) {
+            val attrType = attributeType(attr)
+            if (attrType == type.id && (!seenIntegrity || type == StunAttributeType.Fingerprint)) {
+                return attr
+            }
+            if (attrType == StunAttributeType.MessageIntegrity.id) {
+                seenIntegrity = true
+            }
+            attr = next(attr)
+        }
+        return -1
+    }
+
+    fun readShort(offset: Int): Int =
+        bytes[offset].toUByte().toInt().shl(8).or(bytes[offset + 1].toUByte().toInt())
+
+    fun readInt(offset: Int): Int =
+        bytes[offset].toInt()
+            .shl(8).or(bytes[offset + 1].toUByte().toInt())
+            .shl(8).or(bytes[offset + 2].toUByte().toInt())
+            .shl(8).or(bytes[offset + 3].toUByte().toInt())
+
+    fun readLong(offset: Int): Long =
+        readInt(offset).toLong().shl(32).or(readInt(offset + 4).toLong().and(0xffffffffL))
+
+    /** Returns the port of the XOR-encoded address attribute at [valueOffset]. */
+    fun xorAddressPort(valueOffset: Int): Int =
+        readShort(valueOffset + 2) xor (MAGIC_COOKIE ushr 16)
+
+    /**
+     * Decodes the address of the XOR-encoded address attribute at [valueOffset] into [dst] (which must have room for
+     * at least 16 bytes) and returns the number of bytes written (4 for IPv4, 16 for IPv6).
+     */
+    fun xorAddressBytes(valueOffset: Int, dst: ByteArray, dstOffset: Int = 0): Int {
+        val addressBytes = when (val family = bytes[valueOffset + 1].toInt()) {
+            1 -> 4
+            2 -> 16
+            else -> throw IOException("Unknown address family $family")
+        }
+        if (attributeLength(valueOffset) < 4 + addressBytes) {
+            throw IOException("Address attribute too short for family with $addressBytes bytes.")
+        }
+        for (i in 0 until addressBytes) {
+            // The mask is the magic cookie followed by the transaction id, which is exactly what's in the header
+            dst[dstOffset + i] = (bytes[valueOffset + 4 + i].toInt() xor bytes[offset + 4 + i].toInt()).toByte()
+        }
+        return addressBytes
+    }
+
+    /** Decodes the XOR-encoded address attribute at [valueOffset]. Unlike the other methods, this one allocates. */
+    fun xorAddress(valueOffset: Int): InetSocketAddress {
+        val buf = ByteArray(16)
+        val len = xorAddressBytes(valueOffset, buf)
+        return InetSocketAddress(InetAddress.getByAddress(buf.copyOf(len)), xorAddressPort(valueOffset))
+    }
+
+    /**
+     * Checks the MESSAGE-INTEGRITY attribute of this message against the given key.
+     * Returns `false` if the message does not have such an attribute.
+     */
+    fun verifyIntegrity(key: ByteArray): Boolean {
+        val attr = find(StunAttributeType.MessageIntegrity)
+        if (attr == -1 || attributeLength(attr) != StunIntegrity.HMAC_SIZE) return false
+        // The input to the HMAC is the content up to and including the **preceding** attribute,
+        // the length in the header however must include the MessageIntegrity attribute.
+        val lengthField = attr + StunIntegrity.HMAC_SIZE - offset - HEADER_SIZE
+        return StunIntegrity.get().verifyHmac(key, bytes, offset, attr - 4, lengthField, attr)
+    }
+
+    /**
+     * Checks the FINGERPRINT attribute of this message.
+     * Returns `null` if the message does not have such an attribute.
+     */
+    fun verifyFingerprint(): Boolean? {
+        val attr = find(StunAttributeType.Fingerprint)
+        if (attr == -1) return null
+        if (attributeLength(attr) != 4 || next(attr) != -1) return false
+        val lengthField = attr + 4 - offset - HEADER_SIZE
+        return StunIntegrity.get().fingerprint(bytes, offset, attr - 4, lengthField) == readInt(attr)
+    }
+
+    companion object {
+        private val EMPTY = ByteArray(0)
+        internal const val HEADER_SIZE = 20
+        internal const val MAGIC_COOKIE = 0x2112A442
+
+        internal fun Int.padToMultipleOf(multipleOf: Int): Int =
+            (this + multipleOf - 1) / multipleOf * multipleOf
+    }
+}
@@ -12,6 +12,8 @@
 package gg.essential.ice.stun
 
 import gg.essential.ice.DatagramPacket
+import gg.essential.ice.QueueMetrics
+import gg.essential.ice.meteredChannel
 import gg.essential.ice.toBase64String
 import gg.essential.ice.toHexString
 import gg.essential.slf4j.withKeyValue
@@ -39,6 +41,8 @@ import java.net.InetAddress
 import java.net.InetSocketAddress
 import java.net.NoRouteToHostException
 import java.net.SocketException
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
 import java.security.MessageDigest
 import kotlin.time.ComparableTimeMark
 import kotlin.time.Duration
@@ -49,6 +53,9 @@ import kotlin.time.TimeSource
 /**
  * This class extends a local DatagramSocket with [STUN](https://www.rfc-editor.org/rfc/rfc8489) and
  * [TURN](https://www.rfc-editor.org/rfc/rfc8656) functionality.
+ *
+ * If a [udpSelector] is given, the [hostSocket] must be backed by a non-blocking [DatagramChannel] (see
+ * [UdpSelector.openSocket]) and packets are received via the selector instead of a dedicated blocking thread.
  */
 class StunSocket(
     parentLogger: Logger,
@@ -56,6 +63,7 @@ class StunSocket(
     private val manager: StunManager,
     private val hostSocket: DatagramSocket,
     val hostAddress: InetSocketAddress,
+    private val udpSelector: UdpSelector? = null,
 ) {
     val scope = parentScope + Job(parentScope.coroutineContext.job)
     val logger = parentLogger.withKeyValue("hostAddress", hostAddress)
@@ -79,13 +87,19 @@ class StunSocket(
         }
     }
 
+    /** Depth and overflow drops of the queue of packets waiting to be sent via the host socket. */
+    val sendQueue = QueueMetrics()
+
     private val hostSendChannel: Channel<Pair<DatagramPacket, CompletableDeferred<Boolean>?>> =
-        Channel(1000, BufferOverflow.DROP_OLDEST) { (packet, deferred) ->
+        meteredChannel(sendQueue, 1000, BufferOverflow.DROP_OLDEST) { (packet, deferred) ->
             logger.warn("Failed to send packet of {} bytes to {}: hostSendChannel overflow", packet.length, packet.address)
             // On  overflow, we resolve the deferred as successful because overflow is not unrecoverable (just re-try)
             deferred?.complete(true)
         }
 
+    private val hostChannel: DatagramChannel? =
+        if (udpSelector != null) hostSocket.channel ?: error("Socket must be backed by a DatagramChannel") else null
+
     private val endpoints = mutableMapOf<InetSocketAddress, Endpoint>()
     private val stunBindings = mutableMapOf<InetSocketAddress, StunBinding>()
     private val relayAllocations = mutableMapOf<InetSocketAddress, RelayAllocation>()
@@ -113,7 +127,15 @@ class StunSocket(
                                 .addKeyValue("remoteAddress", packet.socketAddress)
                                 .log("Sending packet of {} bytes with checksum {}: {}", bytes.size, checksum, content)
                         }
-                        socket.send(packet)
+                        if (hostChannel != null) {
+                            val buf = ByteBuffer.wrap(packet.data, packet.offset, packet.length)
+                            if (hostChannel.send(buf, packet.socketAddress) == 0) {
+                                // Non-blocking and the send buffer is full, same as if it got lost on the way
+                                logger.trace("Dropped packet of {} bytes to {}: send buffer full", packet.length, packet.socketAddress)
+                            }
+                        } else {
+                            socket.send(packet)
+                        }
                     } catch (e: Exception) {
                         if (e is SocketException && e.message?.startsWith("Network is unreachable:") == true
                             || e is BindException && e.message == "Cannot assign requested address: no further information"
@@ -132,6 +154,14 @@ class StunSocket(
             }
         }
 
+        if (udpSelector != null) {
+            receiveViaSelector(udpSelector, hostChannel!!)
+        } else {
+            receiveBlocking()
+        }
+    }
+
+    private fun receiveBlocking() {
         val packetsToBeSorted = Channel<ReceivedPacket>(10)
         hostSocketScope.launch(Dispatchers.IO) {
             val sha256 = MessageDigest.getInstance("SHA-256")
@@ -152,12 +182,7 @@ class StunSocket(
                 val remoteAddress = InetSocketAddress(buf.address, buf.port)
                 val bytes = buf.data.sliceArray(buf.offset until buf.offset + buf.length)
                 if (LOG_UDP_PACKET_CONTENT) {
-                    val checksum = sha256.digest(bytes).toBase64String()
-                    val content = bytes.toBase64String()
-                    logger.atTrace()
-                        .addKeyValue("hostAddress", hostAddress)
-                        .addKeyValue("remoteAddress", remoteAddress)
-                        .log("Received packet of {} bytes with checksum {}: {}", bytes.size, checksum, content)
+                    logReceivedPacket(sha256, remoteAddress, bytes)
                 }
                 packetsToBeSorted.send(
                     ReceivedPacket(
@@ -174,31 +199,81 @@ class StunSocket(
 
         hostSocketScope.launch {
             for (packet in packetsToBeSorted) {
-                if (StunMessage.looksLikeStun(packet.data)) {
-                    val message = manager.messageReceived(logger, packet) ?: continue
-                    val relay = relayAllocations[packet.source]
-                    if (relay != null) {
-                        relay.stunMessageReceived(packet, message)
-                    } else {
-                        logger.atWarn()
-                            .addKeyValue("remoteAddress", packet.source)
-                            .addKeyValue("tId", message.transactionId)
-                            .log("Got unexpected STUN message: {}", message)
+                sortPacket(packet)
+            }
+        }
+    }
+
+    private fun receiveViaSelector(udpSelector: UdpSelector, channel: DatagramChannel) {
+        // The selector thread must never block, so if we can't keep up, we drop packets (the OS would have done the
+        // same if we weren't reading them fast enough).
+        val batchesToBeSorted = Channel<List<ReceivedPacket>>(100, BufferOverflow.DROP_OLDEST) { batch ->
+            logger.warn("Dropped {} received packets: receive queue overflow", batch.size)
+        }
+        val sha256 by lazy { MessageDigest.getInstance("SHA-256") }
+
+        udpSelector.register(channel) { batch ->
+            val timestamp = TimeSource.Monotonic.markNow()
+            val packets = ArrayList<ReceivedPacket>(batch.size)
+            for (i in 0 until batch.size) {
+                val buf = batch.buffer(i)
+                val bytes = ByteArray(buf.remaining())
+                buf.get(bytes)
+                val remoteAddress = batch.source(i)
+                if (LOG_UDP_PACKET_CONTENT) {
+                    logReceivedPacket(sha256, remoteAddress, bytes)
+                }
+                packets.add(ReceivedPacket(this, null, timestamp, remoteAddress, bytes))
+            }
+            batchesToBeSorted.trySend(packets)
+        }
+
+        hostSocketScope.launch {
+            try {
+                for (batch in batchesToBeSorted) {
+                    for (packet in batch) {
+                        sortPacket(packet)
                     }
+                }
+            } finally {
+                batchesToBeSorted.close()
+            }
+        }
+    }
+
+    private fun logReceivedPacket(sha256: MessageDigest, remoteAddress: InetSocketAddress, bytes: ByteArray) {
+        val checksum = sha256.digest(bytes).toBase64String()
+        val content = bytes.toBase64String()
+        logger.atTrace()
+            .addKeyValue("hostAddress", hostAddress)
+            .addKeyValue("remoteAddress", remoteAddress)
+            .log("Received packet of {} bytes with checksum {}: {}", bytes.size, checksum, content)
+    }
+
+    private suspend fun sortPacket(packet: ReceivedPacket) {
+        if (StunMessage.looksLikeStun(packet.data)) {
+            val message = manager.messageReceived(logger, packet) ?: return
+            val relay = relayAllocations[packet.source]
+            if (relay != null) {
+                relay.stunMessageReceived(packet, message)
+            } else {
+                logger.atWarn()
+                    .addKeyValue("remoteAddress", packet.source)
+                    .addKeyValue("tId", message.transactionId)
+                    .log("Got unexpected STUN message: {}", message)
+            }
+        } else {
+            val relay = relayAllocations[packet.source]
+            if (relay != null) {
+                relay.dataPacketReceived(packet)
+            } else {
+                val server = manager.getServer(packet.source)
+                if (server != null) {
+                    server.dataReceiveChannel.send(packet)
                 } else {
-                    val relay = relayAllocations[packet.source]
-                    if (relay != null) {
-                        relay.dataPacketReceived(packet)
-                    } else {
-                        val server = manager.getServer(packet.source)
-                        if (server != null) {
-                            server.dataReceiveChannel.send(packet)
-                        } else {
-                            logger.atWarn()
-                                .addKeyValue("remoteAddress", packet.source)
-                                .log("Got unexpected data packet of {} bytes", packet.data.size)
-                        }
-                    }
+                    logger.atWarn()
+                        .addKeyValue("remoteAddress", packet.source)
+                        .log("Got unexpected data packet of {} bytes", packet.data.size)
                 }
             }
         }
@@ -325,7 +400,8 @@ class StunSocket(
         val logger = this@StunSocket.logger.withKeyValue("turnServer", endpoint.address)
         val scope = this@StunSocket.scope.let { it + Job(it.coroutineContext.job) }
 
-        val sendChannel = Channel<DatagramPacket>(100, BufferOverflow.DROP_OLDEST)
+        val sendQueue = QueueMetrics()
+        val sendChannel = meteredChannel<DatagramPacket>(sendQueue, 100, BufferOverflow.DROP_OLDEST)
 
         val mappedAddress = CompletableDeferred<InetSocketAddress>(scope.coroutineContext.job)
         val relayedAddress = CompletableDeferred<InetSocketAddress>(scope.coroutineContext.job)
@@ -501,7 +577,7 @@ class StunSocket(
 
             val channelId = channelAddressToId[packet.socketAddress]
             if (channelId != null && channelId in boundChannels) {
-                val data = ChannelData.encode(channelId, packet.data.maybeSliceArray(packet.offset, packet.length))
+                val data = ChannelData.encode(channelId, packet.data, packet.offset, packet.length)
                 this@StunSocket.sendUnchecked(DatagramPacket(data, endpoint.address))
                 return
             }
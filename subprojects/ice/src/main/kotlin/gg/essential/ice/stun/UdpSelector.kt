@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.ice.stun
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.job
+import kotlinx.coroutines.launch
+import org.slf4j.Logger
+import java.io.IOException
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.net.DatagramSocket
+import java.net.Inet6Address
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.StandardProtocolFamily
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.DatagramChannel
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.function.Consumer
+
+/**
+ * Services the receive side of any number of non-blocking [DatagramChannel]s from a single thread, as an alternative to
+ * each [StunSocket] blocking one thread in [DatagramSocket.receive].
+ *
+ * Whenever a channel becomes readable, all datagrams which are ready are drained into pooled direct buffers (up to
+ * [MAX_BATCH_SIZE] at a time) and handed to the channel's [Receiver] as a single [Batch].
+ * The buffers are re-used for the next batch, so the receiver must copy out anything it wants to keep.
+ *
+ * Once warmed up, the selector thread itself does not allocate anything per datagram (the JDK re-uses the source address
+ * as long as it's the same as for the previous datagram), so any allocations are up to the receiver. The one exception
+ * is Java 8, where every select which finds a ready channel allocates an entry in the selected-key set.
+ */
+class UdpSelector(private val logger: Logger, scope: CoroutineScope) {
+    private val selector: Selector = Selector.open()
+    private val pendingRegistrations = ConcurrentLinkedQueue<Pair<DatagramChannel, Receiver>>()
+
+    // Only accessed from the selector thread
+    private val bufferPool = ArrayDeque<ByteBuffer>()
+    private val batch = Batch()
+    private val drainKey = Consumer<SelectionKey> { key ->
+        if (key.isValid) {
+            drain(key.channel() as DatagramChannel, key.attachment() as Receiver)
+        }
+    }
+
+    init {
+        scope.launch(Dispatchers.IO) {
+            coroutineContext.job.invokeOnCompletion { selector.wakeup() }
+            try {
+                while (coroutineContext.isActive) {
+                    selectOnce()
+                }
+            } finally {
+                selector.close()
+            }
+        }
+    }
+
+    /**
+     * Registers the given channel, which must be in non-blocking mode, with this selector.
+     * The [receiver] will be called on the selector thread with each batch of received datagrams.
+     *
+     * The registration is automatically removed when the channel is closed.
+     */
+    fun register(channel: DatagramChannel, receiver: Receiver) {
+        pendingRegistrations.add(Pair(channel, receiver))
+        selector.wakeup()
+    }
+
+    private fun selectOnce() {
+        while (true) {
+            val (channel, receiver) = pendingRegistrations.poll() ?: break
+            try {
+                channel.register(selector, SelectionKey.OP_READ, receiver)
+            } catch (e: ClosedChannelException) {
+                // Socket was already closed again, nothing to do
+            }
+        }
+
+        // With a timeout, so keys of closed channels are eventually cleaned up even if there's no other activity
+        if (SELECT_WITH_ACTION != null) {
+            SELECT_WITH_ACTION.invokeExact(selector, drainKey, SELECT_TIMEOUT_MS) as Int
+            return
+        }
+        if (selector.select(SELECT_TIMEOUT_MS) == 0) {
+            return
+        }
+
+        val iter = selector.selectedKeys().iterator()
+        while (iter.hasNext()) {
+            val key = iter.next()
+            iter.remove()
+            drainKey.accept(key)
+        }
+    }
+
+    private fun drain(channel: DatagramChannel, receiver: Receiver) {
+        while (true) {
+            val buffer = bufferPool.removeLastOrNull()?.apply { clear() } ?: ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE)
+            val source = try {
+                channel.receive(buffer)
+            } catch (e: IOException) {
+                bufferPool.addLast(buffer)
+                if (channel.isOpen) {
+                    // E.g. ICMP errors on Windows; any datagrams after it will be picked up by the next select
+                    logger.trace("Ignoring exception while receiving:", e)
+                }
+                break
+            }
+            if (source == null) {
+                bufferPool.addLast(buffer)
+                break
+            }
+            buffer.flip()
+            batch.add(buffer, source as InetSocketAddress)
+            if (batch.size == MAX_BATCH_SIZE) {
+                dispatch(receiver)
+            }
+        }
+        dispatch(receiver)
+    }
+
+    private fun dispatch(receiver: Receiver) {
+        if (batch.size == 0) return
+        try {
+            receiver.receive(batch)
+        } catch (e: Exception) {
+            logger.error("Failed to handle received datagrams:", e)
+        } finally {
+            batch.recycleInto(bufferPool)
+        }
+    }
+
+    fun interface Receiver {
+        /** Called on the selector thread. The batch and its buffers are only valid for the duration of the call. */
+        fun receive(batch: Batch)
+    }
+
+    class Batch internal constructor() {
+        private val buffers = ArrayList<ByteBuffer>(MAX_BATCH_SIZE)
+        private val sources = ArrayList<InetSocketAddress>(MAX_BATCH_SIZE)
+
+        val size: Int
+            get() = buffers.size
+
+        /** The content of the `index`-th datagram, from its position to its limit. */
+        fun buffer(index: Int): ByteBuffer = buffers[index]
+
+        fun source(index: Int): InetSocketAddress = sources[index]
+
+        internal fun add(buffer: ByteBuffer, source: InetSocketAddress) {
+            buffers.add(buffer)
+            sources.add(source)
+        }
+
+        internal fun recycleInto(pool: ArrayDeque<ByteBuffer>) {
+            // Not using addAll, it allocates an iterator
+            for (i in buffers.indices) {
+                pool.addLast(buffers[i])
+            }
+            buffers.clear()
+            sources.clear()
+        }
+    }
+
+    companion object {
+        /** Larger than any datagram we'd ever expect to receive over the internet; anything beyond is truncated. */
+        private const val MAX_DATAGRAM_SIZE = 1500
+        private const val MAX_BATCH_SIZE = 64
+        private const val SELECT_TIMEOUT_MS = 1000L
+
+        /**
+         * `Selector.select(Consumer, long)`, available since Java 11. Unlike the regular [Selector.select], it does not
+         * go through the selected-key set, and therefore doesn't need to allocate an entry in it for every select.
+         * `null` on Java 8.
+         */
+        private val SELECT_WITH_ACTION: MethodHandle? = try {
+            MethodHandles.publicLookup().findVirtual(
+                Selector::class.java,
+                "select",
+                MethodType.methodType(Int::class.javaPrimitiveType, Consumer::class.java, Long::class.javaPrimitiveType),
+            )
+        } catch (e: NoSuchMethodException) {
+            null
+        }
+
+        /** Whether receiving does not allocate anything on the selector thread, see [SELECT_WITH_ACTION]. */
+        internal val isAllocationFree: Boolean
+            get() = SELECT_WITH_ACTION != null
+
+        /**
+         * Opens a non-blocking [DatagramChannel] bound to an ephemeral port on the given address, ready to be passed to
+         * [register], and returns its [DatagramSocket] view.
+         */
+        fun openSocket(address: InetAddress): DatagramSocket {
+            val family = if (address is Inet6Address) StandardProtocolFamily.INET6 else StandardProtocolFamily.INET
+            val channel = DatagramChannel.open(family)
+            try {
+                channel.configureBlocking(false)
+                channel.bind(InetSocketAddress(address, 0))
+            } catch (e: Exception) {
+                channel.close()
+                throw e
+            }
+            return channel.socket()
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.ice
+
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class TransportMetricsTest {
+    @Test
+    fun testOverflowDropsOldest() {
+        val metrics = QueueMetrics()
+        val undelivered = mutableListOf<Int>()
+        val channel = meteredChannel(metrics, 2, BufferOverflow.DROP_OLDEST) { it: Int -> undelivered.add(it) }
+
+        for (i in 0 until 5) {
+            assertTrue(channel.trySend(i).isSuccess)
+        }
+        assertEquals(listOf(0, 1, 2), undelivered)
+        assertEquals(QueueMetrics.Snapshot(depth = 2, maxDepth = 3, drops = 3, discards = 0), metrics.sample())
+
+        assertEquals(3, channel.tryReceive().getOrThrow())
+        assertEquals(4, channel.tryReceive().getOrThrow())
+        assertTrue(channel.tryReceive().isFailure)
+        assertEquals(QueueMetrics.Snapshot(depth = 0, maxDepth = 2, drops = 3, discards = 0), metrics.sample())
+    }
+
+    @Test
+    fun testOverflowDropsLatest() = runBlocking {
+        val metrics = QueueMetrics()
+        val undelivered = mutableListOf<Int>()
+        val channel = meteredChannel(metrics, 2, BufferOverflow.DROP_LATEST) { it: Int -> undelivered.add(it) }
+
+        for (i in 0 until 5) {
+            channel.send(i)
+        }
+        assertEquals(listOf(2, 3, 4), undelivered)
+        assertEquals(QueueMetrics.Snapshot(depth = 2, maxDepth = 3, drops = 3, discards = 0), metrics.sample())
+        assertEquals(0, channel.receive())
+        assertEquals(1, channel.receive())
+        assertEquals(0, metrics.sample().depth)
+    }
+
+    @Test
+    fun testDepthAfterCloseAndDrain() = runBlocking {
+        val metrics = QueueMetrics()
+        val channel = meteredChannel<Int>(metrics, 8)
+
+        for (i in 0 until 5) {
+            channel.send(i)
+        }
+        channel.close()
+        assertEquals(5, metrics.sample().depth)
+
+        assertEquals(0, channel.receive())
+        assertEquals(1, channel.receiveCatching().getOrThrow())
+        assertEquals(2, channel.tryReceive().getOrThrow())
+        val rest = mutableListOf<Int>()
+        for (element in channel) {
+            rest.add(element)
+        }
+        assertEquals(listOf(3, 4), rest)
+        assertTrue(channel.receiveCatching().isClosed)
+        assertEquals(QueueMetrics.Snapshot(depth = 0, maxDepth = 5, drops = 0, discards = 0), metrics.sample())
+
+        // Sends and trySends after close never make it in
+        assertTrue(channel.trySend(5).isFailure)
+        assertTrue(runCatching { channel.send(6) }.isFailure)
+        assertEquals(QueueMetrics.Snapshot(depth = 0, maxDepth = 1, drops = 0, discards = 1), metrics.sample())
+    }
+
+    @Test
+    fun testCancelDiscardsBufferedElements() {
+        val metrics = QueueMetrics()
+        val undelivered = mutableListOf<Int>()
+        val channel = meteredChannel(metrics, 8, BufferOverflow.DROP_OLDEST) { it: Int -> undelivered.add(it) }
+
+        for (i in 0 until 3) {
+            channel.trySend(i)
+        }
+        channel.cancel()
+        assertEquals(listOf(0, 1, 2), undelivered)
+        assertEquals(QueueMetrics.Snapshot(depth = 0, maxDepth = 3, drops = 0, discards = 3), metrics.sample())
+    }
+
+    @Test
+    fun testCancelledSenderIsNotADrop() = runBlocking {
+        val metrics = QueueMetrics()
+        val undelivered = mutableListOf<Int>()
+        val channel = meteredChannel(metrics, 1) { it: Int -> undelivered.add(it) }
+
+        channel.send(0)
+        val sender = launch(start = CoroutineStart.UNDISPATCHED) { channel.send(1) } // suspends, channel is full
+        assertEquals(2, metrics.sample().depth)
+        sender.cancel()
+        sender.join()
+
+        assertEquals(listOf(1), undelivered)
+        assertEquals(QueueMetrics.Snapshot(depth = 1, maxDepth = 2, drops = 0, discards = 1), metrics.sample())
+        assertEquals(0, channel.receive())
+        assertEquals(0, metrics.sample().depth)
+    }
+
+    @Test
+    fun testMaxDepthIsResetBySample() {
+        val metrics = QueueMetrics()
+        val channel = meteredChannel<Int>(metrics, Channel.UNLIMITED)
+
+        for (i in 0 until 10) {
+            channel.trySend(i)
+        }
+        for (i in 0 until 7) {
+            channel.tryReceive()
+        }
+        assertEquals(QueueMetrics.Snapshot(depth = 3, maxDepth = 10, drops = 0, discards = 0), metrics.sample())
+        assertEquals(QueueMetrics.Snapshot(depth = 3, maxDepth = 3, drops = 0, discards = 0), metrics.sample())
+
+        channel.trySend(10)
+        channel.tryReceive()
+        assertEquals(QueueMetrics.Snapshot(depth = 3, maxDepth = 4, drops = 0, discards = 0), metrics.sample())
+    }
+
+    @Test
+    fun testQueuesAreIncludedInSnapshots() {
+        val metrics = TransportMetrics()
+        metrics.queue("b").enqueued()
+        metrics.attachQueue("a", QueueMetrics().apply { enqueued(); enqueued(); dequeued() })
+
+        val queues = metrics.sample().queues
+        assertEquals(listOf("a", "b"), queues.keys.toList())
+        assertEquals(QueueMetrics.Snapshot(depth = 1, maxDepth = 2, drops = 0, discards = 0), queues["a"])
+        assertEquals(1, metrics.sample().queues.getValue("b").depth)
+    }
+
+    @Test
+    fun testRates() {
+        val metrics = TransportMetrics()
+        val first = metrics.sample()
+        assertEquals(0, first.sendBytesPerSecond)
+        assertEquals(0, first.receiveBytesPerSecond)
+
+        repeat(100) { metrics.packetSent(1000) }
+        repeat(10) { metrics.packetReceived(500) }
+        Thread.sleep(100)
+        val second = metrics.sample()
+        val interval = (second.time - first.time).inWholeMilliseconds
+        assertTrue(interval >= 100, "$interval")
+        assertEquals(100, second.packetsSent)
+        assertEquals(100_000, second.bytesSent)
+        assertEquals(10, second.packetsReceived)
+        assertEquals(5_000, second.bytesReceived)
+        assertEquals(100_000 * 1000 / interval, second.sendBytesPerSecond)
+        assertEquals(5_000 * 1000 / interval, second.receiveBytesPerSecond)
+
+        // Rates only cover the time since the previous sample, totals keep growing
+        metrics.packetSent(1000)
+        Thread.sleep(50)
+        val third = metrics.sample()
+        assertEquals(1000 * 1000 / (third.time - second.time).inWholeMilliseconds, third.sendBytesPerSecond)
+        assertEquals(0, third.receiveBytesPerSecond)
+        assertEquals(101_000, third.bytesSent)
+
+        assertEquals(listOf(first, second, third), metrics.history)
+        assertEquals(third, metrics.latest)
+    }
+
+    @Test
+    fun testHistoryIsBounded() {
+        val metrics = TransportMetrics()
+        repeat(TransportMetrics.HISTORY_SIZE + 10) { metrics.sample() }
+        assertEquals(TransportMetrics.HISTORY_SIZE, metrics.history.size)
+    }
+}
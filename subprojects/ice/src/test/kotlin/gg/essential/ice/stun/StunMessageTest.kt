@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.ice.stun
+
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+/** Test vectors from RFC 5769. */
+class StunMessageTest {
+    @Test
+    fun testSampleRequest() {
+        val message = StunMessage.decode(SAMPLE_REQUEST, { user ->
+            assertEquals("evtj:h6vY", user)
+            SAMPLE_PASSWORD
+        }, { error("not a response") })
+
+        assertEquals(StunType.Binding, message.type)
+        assertEquals(StunClass.Request, message.cls)
+        assertContentEquals(SAMPLE_TRANSACTION_ID, message.transactionId.bytes)
+        assertEquals(
+            listOf(
+                StunAttribute.Software("STUN test client"),
+                StunAttribute.Priority(0x6e0001ff),
+                StunAttribute.IceControlled(0x932ff9b151263b36u),
+                StunAttribute.Username("evtj:h6vY"),
+            ),
+            message.attributes.dropLast(1),
+        )
+        assertContentEquals(SAMPLE_PASSWORD, message.integrityProtectionKey)
+    }
+
+    @Test
+    fun testSampleRequestWithWrongPassword() {
+        assertFailsWith<IOException> {
+            StunMessage.decode(SAMPLE_REQUEST, { "wrong".encodeToByteArray() }, { null })
+        }
+    }
+
+    @Test
+    fun testSampleRequestWithBadFingerprint() {
+        val bytes = SAMPLE_REQUEST.copyOf()
+        bytes[bytes.size - 1] = (bytes[bytes.size - 1] + 1).toByte()
+        assertFailsWith<IOException> {
+            StunMessage.decode(bytes, { SAMPLE_PASSWORD }, { null })
+        }
+    }
+
+    @Test
+    fun testSampleIPv4Response() {
+        val message = StunMessage.decode(SAMPLE_IPV4_RESPONSE, { error("not a request") }, { SAMPLE_PASSWORD })
+
+        assertEquals(StunClass.ResponseSuccess, message.cls)
+        assertEquals(StunAttribute.Software("test vector"), message.attribute<StunAttribute.Software>())
+        assertEquals(
+            InetSocketAddress(InetAddress.getByName("192.0.2.1"), 32853),
+            message.attribute<StunAttribute.XorMappedAddress>()?.address,
+        )
+        assertTrue(message.isIntegrityProtected)
+    }
+
+    @Test
+    fun testSampleIPv6Response() {
+        val message = StunMessage.decode(SAMPLE_IPV6_RESPONSE, { error("not a request") }, { SAMPLE_PASSWORD })
+
+        assertEquals(
+            InetSocketAddress(InetAddress.getByName("2001:db8:1234:5678:11:2233:4455:6677"), 32853),
+            message.attribute<StunAttribute.XorMappedAddress>()?.address,
+        )
+        assertTrue(message.isIntegrityProtected)
+    }
+
+    @Test
+    fun testViewWithoutDecoding() {
+        // Put the message in the middle of a larger buffer to make sure offsets are respected
+        val buf = ByteArray(SAMPLE_IPV6_RESPONSE.size + 10) { 0x55 }
+        SAMPLE_IPV6_RESPONSE.copyInto(buf, 5)
+
+        val view = StunMessageView()
+        assertTrue(view.wrap(buf, 5, SAMPLE_IPV6_RESPONSE.size + 2))
+        assertEquals(SAMPLE_IPV6_RESPONSE.size, view.size)
+        assertEquals(StunType.Binding, view.type)
+        assertEquals(StunClass.ResponseSuccess, view.cls)
+        assertTrue(view.transactionIdEquals(TransactionId(SAMPLE_TRANSACTION_ID)))
+        assertFalse(view.transactionIdEquals(TransactionId(ByteArray(12))))
+
+        assertTrue(view.verifyIntegrity(SAMPLE_PASSWORD))
+        assertFalse(view.verifyIntegrity("wrong".encodeToByteArray()))
+        assertEquals(true, view.verifyFingerprint())
+
+        val attr = view.find(StunAttributeType.XorMappedAddress)
+        assertEquals(20, view.attributeLength(attr))
+        assertEquals(32853, view.xorAddressPort(attr))
+        val address = ByteArray(16)
+        assertEquals(16, view.xorAddressBytes(attr, address))
+        assertContentEquals(InetAddress.getByName("2001:db8:1234:5678:11:2233:4455:6677").address, address)
+
+        assertEquals(-1, view.find(StunAttributeType.Username))
+    }
+
+    @Test
+    fun testViewRejectsTruncatedMessage() {
+        val view = StunMessageView()
+        assertFalse(view.wrap(SAMPLE_REQUEST, 0, SAMPLE_REQUEST.size - 4))
+        assertFalse(view.wrap(SAMPLE_REQUEST, 0, 19))
+    }
+
+    @Test
+    fun testEncodeRoundTrip() {
+        val message = StunMessage(StunType.Binding, StunClass.Request, TransactionId(SAMPLE_TRANSACTION_ID), listOf(
+            StunAttribute.Software("STUN test client"),
+            StunAttribute.Priority(0x6e0001ff),
+            StunAttribute.IceControlled(0x932ff9b151263b36u),
+            StunAttribute.Username("evtj:h6vY"),
+            StunAttribute.MessageIntegrity(SAMPLE_PASSWORD),
+            StunAttribute.Fingerprint,
+        ))
+
+        val bytes = message.encode()
+        // Same as the sample, except that we pad with zeros rather than spaces (and therefore get a different HMAC/CRC)
+        val expected = SAMPLE_REQUEST.copyOf()
+        expected.fill(0, 73, 76)
+        assertContentEquals(expected.copyOfRange(0, 80), bytes.copyOfRange(0, 80))
+
+        val view = StunMessageView()
+        assertTrue(view.wrap(bytes))
+        assertTrue(view.verifyIntegrity(SAMPLE_PASSWORD))
+        assertEquals(true, view.verifyFingerprint())
+
+        // Encoding into a dirty buffer at an offset must produce the exact same bytes
+        val buf = ByteArray(bytes.size + 7) { 0x55 }
+        assertEquals(bytes.size, message.encodeInto(buf, 7))
+        assertContentEquals(bytes, buf.copyOfRange(7, buf.size))
+
+        val decoded = StunMessage.decode(bytes, { SAMPLE_PASSWORD }, { null })
+        assertEquals(message.attributes.dropLast(2), decoded.attributes.dropLast(1))
+        assertNotNull(decoded.integrityProtectionKey)
+    }
+
+    @Test
+    fun testEncodeXorAddress() {
+        val address = InetSocketAddress(InetAddress.getByName("192.0.2.1"), 32853)
+        val message = StunMessage(StunType.Binding, StunClass.ResponseSuccess, TransactionId(SAMPLE_TRANSACTION_ID), listOf(
+            StunAttribute.XorMappedAddress(address),
+        ))
+
+        val bytes = message.encode()
+        val view = StunMessageView()
+        assertTrue(view.wrap(bytes))
+        val attr = view.find(StunAttributeType.XorMappedAddress)
+        // Same encoding as in the sample response
+        assertContentEquals(SAMPLE_IPV4_RESPONSE.copyOfRange(36, 48), bytes.copyOfRange(attr - 4, attr + 8))
+        assertEquals(address, view.xorAddress(attr))
+    }
+
+    private companion object {
+        val SAMPLE_PASSWORD = "VOkJxbRl1RmTxUk/WvJxBt".encodeToByteArray()
+
+        val SAMPLE_TRANSACTION_ID = hex("b7e7a701 bc34d686 fa87dfae")
+
+        val SAMPLE_REQUEST = hex("""
+            00010058 2112a442 b7e7a701 bc34d686 fa87dfae
+            80220010 5354554e 20746573 7420636c 69656e74
+            00240004 6e0001ff
+            80290008 932ff9b1 51263b36
+            00060009 6576746a 3a683676 59202020
+            00080014 9aeaa70c bfd8cb56 781ef2b5 b2d3f249 c1b571a2
+            80280004 e57a3bcf
+        """)
+
+        val SAMPLE_IPV4_RESPONSE = hex("""
+            0101003c 2112a442 b7e7a701 bc34d686 fa87dfae
+            8022000b 74657374 20766563 746f7220
+            00200008 0001a147 e112a643
+            00080014 2b91f599 fd9e90c3 8c7489f9 2af9ba53 f06be7d7
+            80280004 c07d4c96
+        """)
+
+        val SAMPLE_IPV6_RESPONSE = hex("""
+            01010048 2112a442 b7e7a701 bc34d686 fa87dfae
+            8022000b 74657374 20766563 746f7220
+            00200014 0002a147 0113a9fa a5d3f179 bc25f4b5 bed2b9d9
+            00080014 a382954e 4be67bf1 1784c97c 8292c275 bfe3ed41
+            80280004 c8fb0b4c
+        """)
+
+        fun hex(str: String): ByteArray =
+            str.filterNot { it.isWhitespace() }.chunked(2).map { it.toInt(16).toByte() }.toByteArray()
+    }
+}
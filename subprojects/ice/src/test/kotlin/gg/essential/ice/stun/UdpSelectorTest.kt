@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.ice.stun
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.slf4j.LoggerFactory
+import java.lang.management.ManagementFactory
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import kotlin.test.fail
+
+class UdpSelectorTest {
+    private val logger = LoggerFactory.getLogger(UdpSelectorTest::class.java)
+
+    @Test
+    fun testReceive() = withSelector { selector ->
+        val socket = UdpSelector.openSocket(InetAddress.getLoopbackAddress())
+        val received = mutableListOf<String>()
+        val lock = Any()
+        selector.register(socket.channel) { batch ->
+            for (i in 0 until batch.size) {
+                val buf = batch.buffer(i)
+                val bytes = ByteArray(buf.remaining()).also { buf.get(it) }
+                synchronized(lock) { received.add(String(bytes)) }
+            }
+        }
+
+        DatagramSocket(0, InetAddress.getLoopbackAddress()).use { sender ->
+            for (i in 0 until 100) {
+                val bytes = "packet $i".toByteArray()
+                sender.send(DatagramPacket(bytes, bytes.size, socket.localSocketAddress))
+            }
+            awaitCondition { synchronized(lock) { received.size } == 100 }
+        }
+        assertEquals((0 until 100).map { "packet $it" }, synchronized(lock) { received.toList() })
+
+        socket.close()
+    }
+
+    @Test
+    fun testSteadyStateReceiveDoesNotAllocate() = withSelector { selector ->
+        val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+        val socket = UdpSelector.openSocket(InetAddress.getLoopbackAddress())
+        val datagrams = AtomicInteger()
+        val batches = AtomicInteger()
+        val checksum = AtomicLong()
+        val selectorThread = AtomicReference<Thread>()
+        selector.register(socket.channel) { batch ->
+            selectorThread.lazySet(Thread.currentThread())
+            for (i in 0 until batch.size) {
+                val buf = batch.buffer(i)
+                checksum.addAndGet(buf.get(buf.position()).toLong())
+            }
+            batches.incrementAndGet()
+            datagrams.addAndGet(batch.size)
+        }
+
+        DatagramSocket(0, InetAddress.getLoopbackAddress()).use { sender ->
+            val packet = DatagramPacket(ByteArray(100) { 1 }, 100, socket.localSocketAddress)
+            var sent = 0
+            fun sendBurst() {
+                repeat(BURST_SIZE) { sender.send(packet) }
+                sent += BURST_SIZE
+                awaitCondition { datagrams.get() == sent }
+            }
+
+            // Warm up, so the JIT has done its thing (escape analysis in particular) before we start measuring
+            repeat(WARMUP_DATAGRAMS / BURST_SIZE) { sendBurst() }
+
+            val thread = selectorThread.get()
+            val datagramsBefore = datagrams.get()
+            val batchesBefore = batches.get()
+            val allocatedBefore = threadMXBean.getThreadAllocatedBytes(thread.id)
+            repeat(MEASURED_DATAGRAMS / BURST_SIZE) { sendBurst() }
+            val allocated = threadMXBean.getThreadAllocatedBytes(thread.id) - allocatedBefore
+            val measuredDatagrams = datagrams.get() - datagramsBefore
+            val measuredBatches = batches.get() - batchesBefore
+
+            assertEquals(MEASURED_DATAGRAMS, measuredDatagrams)
+            assertEquals(sent.toLong(), checksum.get())
+            // Allow for the odd one-off allocation, anything per datagram would amount to many times this
+            val allowed = if (UdpSelector.isAllocationFree) ONE_OFF_ALLOCATIONS else measuredBatches * JAVA_8_SELECT_ALLOCATIONS + ONE_OFF_ALLOCATIONS
+            assertTrue(
+                allocated <= allowed,
+                "Allocated $allocated bytes for $measuredDatagrams datagrams in $measuredBatches batches, expected at most $allowed",
+            )
+        }
+
+        socket.close()
+    }
+
+    private fun withSelector(block: (UdpSelector) -> Unit) {
+        val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+        try {
+            block(UdpSelector(logger, scope))
+        } finally {
+            scope.cancel()
+        }
+    }
+
+    private fun awaitCondition(condition: () -> Boolean) {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+        while (!condition()) {
+            if (System.nanoTime() - deadline > 0) fail("Timed out")
+            Thread.yield()
+        }
+    }
+
+    private companion object {
+        const val BURST_SIZE = 16
+        const val WARMUP_DATAGRAMS = 50_000
+        const val MEASURED_DATAGRAMS = 20_000
+        const val ONE_OFF_ALLOCATIONS = 4096L
+        /** Upper bound for an entry in the selected-key set plus an iterator over it, see [UdpSelector.isAllocationFree]. */
+        const val JAVA_8_SELECT_ALLOCATIONS = 96L
+    }
+}
@@ -12,9 +12,16 @@
 package gg.essential.quic.backend;
 
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
 
 public interface QuicBackend extends Closeable  {
 
+    /** Selects the transport parameters to use. Must be called before {@link #connect()} or {@link #accept(int)}. */
+    void setProfile(QuicProfile profile);
+
+    /** Collects the current statistics of the connection, completing with {@code null} if it is not yet established. */
+    CompletableFuture<QuicStats> collectStats();
+
     int connect();
 
     void accept(int httpPort);
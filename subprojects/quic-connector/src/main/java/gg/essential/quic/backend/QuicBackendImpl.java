@@ -38,9 +38,13 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.incubator.codec.quic.FlushStrategy;
 import io.netty.incubator.codec.quic.InsecureQuicTokenHandler;
 import io.netty.incubator.codec.quic.QuicChannel;
 import io.netty.incubator.codec.quic.QuicClientCodecBuilder;
+import io.netty.incubator.codec.quic.QuicCodecBuilder;
+import io.netty.incubator.codec.quic.QuicConnectionStats;
+import io.netty.incubator.codec.quic.QuicCongestionControlAlgorithm;
 import io.netty.incubator.codec.quic.QuicServerCodecBuilder;
 import io.netty.incubator.codec.quic.QuicSslContext;
 import io.netty.incubator.codec.quic.QuicSslContextBuilder;
@@ -55,6 +59,9 @@ import org.slf4j.Logger;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static gg.essential.quic.QuicUtil.LOCALHOST;
@@ -70,13 +77,6 @@ public class QuicBackendImpl implements QuicBackend {
         .applicationProtocols("minecraft")
         .build();
 
-    private static final QuicClientCodecBuilder quicClientCodec = new QuicClientCodecBuilder()
-        .sslContext(quicClientSslContext)
-        // See https://www.rfc-editor.org/rfc/rfc9000.html#name-transport-parameter-definit
-        .maxIdleTimeout(30, TimeUnit.SECONDS)
-        .initialMaxData(10_000_000)
-        .initialMaxStreamDataBidirectionalLocal(10_000_000)
-        ;
 
     private static final SelfSignedCert certificate;
     static {
@@ -92,27 +92,57 @@ public class QuicBackendImpl implements QuicBackend {
         .applicationProtocols("minecraft")
         .build();
 
-    private static final QuicServerCodecBuilder quicServerCodecBuilder = new QuicServerCodecBuilder()
-        .sslContext(quicServerSslContext)
-        .tokenHandler(InsecureQuicTokenHandler.INSTANCE) // ICE validates the target addresses
-        // See https://www.rfc-editor.org/rfc/rfc9000.html#name-transport-parameter-definit
-        .maxIdleTimeout(30, TimeUnit.SECONDS)
-        .initialMaxData(10_000_000)
-        .initialMaxStreamDataBidirectionalRemote(10_000_000)
-        .initialMaxStreamsBidirectional(10)
-        ;
+    private static QuicClientCodecBuilder quicClientCodecBuilder(QuicProfile profile) {
+        return applyProfile(new QuicClientCodecBuilder(), profile)
+            .sslContext(quicClientSslContext)
+            .initialMaxStreamDataBidirectionalLocal(profile.initialMaxStreamData);
+    }
+
+    private static QuicServerCodecBuilder quicServerCodecBuilder(QuicProfile profile) {
+        return applyProfile(new QuicServerCodecBuilder(), profile)
+            .sslContext(quicServerSslContext)
+            .tokenHandler(InsecureQuicTokenHandler.INSTANCE) // ICE validates the target addresses
+            .initialMaxStreamDataBidirectionalRemote(profile.initialMaxStreamData)
+            .initialMaxStreamsBidirectional(profile.maxStreamsBidirectional);
+    }
+
+    private static <B extends QuicCodecBuilder<B>> B applyProfile(B builder, QuicProfile profile) {
+        builder
+            // See https://www.rfc-editor.org/rfc/rfc9000.html#name-transport-parameter-definit
+            .maxIdleTimeout(30, TimeUnit.SECONDS)
+            .initialMaxData(profile.initialMaxData)
+            .maxAckDelay(profile.maxAckDelayMillis, TimeUnit.MILLISECONDS)
+            .congestionControlAlgorithm(QuicCongestionControlAlgorithm.valueOf(profile.congestionControl.name()))
+            .hystart(profile.hystart)
+            .flushStrategy(profile.flushAfterPackets > 0
+                ? FlushStrategy.afterNumPackets(profile.flushAfterPackets)
+                : FlushStrategy.DEFAULT);
+        if (profile.datagramQueueLength > 0) {
+            builder.datagram(profile.datagramQueueLength, profile.datagramQueueLength);
+        }
+        return builder;
+    }
+
+    // Shared groups for profiles which opt into them, keyed by thread count, see QuicProfile.eventLoopThreads
+    private static final Map<Integer, NioEventLoopGroup> sharedEventLoopGroups = new HashMap<>();
+
+    private static synchronized EventLoop nextSharedEventLoop(int threads) {
+        return sharedEventLoopGroups
+            .computeIfAbsent(threads, n -> new NioEventLoopGroup(n, new DefaultThreadFactory("QUIC Backend", true)))
+            .next();
+    }
 
     // Arbitrary addresses we can pass to netty's QUIC codec
     private static final InetSocketAddress QUIC_LOCAL_ADDRESS = new InetSocketAddress("172.16.10.10", 10000);
     private static final InetSocketAddress QUIC_REMOTE_ADDRESS = new InetSocketAddress("172.16.10.10", 10001);
 
-    private final NioEventLoopGroup group = new NioEventLoopGroup(1,
-        new DefaultThreadFactory("QUIC Backend", true));
-
     private final Logger logger;
     private final QuicListener listener;
 
-    private final EventLoop eventLoop = group.next();
+    private QuicProfile profile = QuicProfile.DEFAULT;
+    /** Our own group if the profile does not use a shared one, shut down once we're closed. */
+    private NioEventLoopGroup group;
+    private EventLoop eventLoop;
 
     private Channel transportChannel;
     private QuicChannel quicChannel;
@@ -123,7 +153,59 @@ public class QuicBackendImpl implements QuicBackend {
         this.listener = listener;
     }
 
+    @Override
+    public void setProfile(QuicProfile profile) {
+        if (eventLoop != null) {
+            throw new IllegalStateException("Profile must be set before connecting.");
+        }
+        this.profile = profile;
+    }
+
+    @Override
+    public CompletableFuture<QuicStats> collectStats() {
+        CompletableFuture<QuicStats> result = new CompletableFuture<>();
+        if (eventLoop == null) {
+            result.complete(null);
+            return result;
+        }
+        eventLoop.execute(() -> {
+            if (quicChannel == null) {
+                result.complete(null);
+                return;
+            }
+            quicChannel.collectStats().addListener((GenericFutureListener<Future<QuicConnectionStats>>) future -> {
+                if (!future.isSuccess()) {
+                    result.completeExceptionally(future.cause());
+                    return;
+                }
+                QuicConnectionStats stats = future.getNow();
+                result.complete(new QuicStats(
+                    stats.sent(),
+                    stats.recv(),
+                    stats.lost(),
+                    stats.retrans(),
+                    stats.sentBytes(),
+                    stats.recvBytes(),
+                    stats.lostBytes(),
+                    stats.streamRetransBytes()
+                ));
+            });
+        });
+        return result;
+    }
+
+    private void initEventLoop() {
+        if (profile.eventLoopThreads > 0) {
+            eventLoop = nextSharedEventLoop(profile.eventLoopThreads);
+        } else {
+            group = new NioEventLoopGroup(1, new DefaultThreadFactory("QUIC Backend", true));
+            eventLoop = group.next();
+        }
+    }
+
     public int connect() {
+        initEventLoop();
+
         Channel udpTransportChannel = new ServerBootstrap()
             .channel(LocalServerChannel.class)
             .group(eventLoop)
@@ -141,7 +223,7 @@ public class QuicBackendImpl implements QuicBackend {
         Channel quicConnectionChannel = new Bootstrap()
             .channel(LocalChannel.class)
             .group(eventLoop)
-            .handler(quicClientCodec.build())
+            .handler(quicClientCodecBuilder(profile).build())
             .connect(udpTransportChannel.localAddress())
             .awaitUninterruptibly()
             .channel();
@@ -200,6 +282,8 @@ public class QuicBackendImpl implements QuicBackend {
     }
 
     public void accept(int httpPort) {
+        initEventLoop();
+
         Channel udpTransportChannel = new ServerBootstrap()
             .channel(LocalServerChannel.class)
             .group(eventLoop)
@@ -222,9 +306,14 @@ public class QuicBackendImpl implements QuicBackend {
             .awaitUninterruptibly()
             .channel();
 
-        ChannelHandler serverCodec = quicServerCodecBuilder
-            .clone()
+        ChannelHandler serverCodec = quicServerCodecBuilder(profile)
             .handler(new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelActive(ChannelHandlerContext ctx) throws Exception {
+                    quicChannel = (QuicChannel) ctx.channel();
+                    super.channelActive(ctx);
+                }
+
                 @Override
                 public void channelInactive(ChannelHandlerContext ctx) throws Exception {
                     // Close our side of the transport
@@ -280,12 +369,18 @@ public class QuicBackendImpl implements QuicBackend {
     }
 
     private void finishClose() {
+        if (eventLoop == null) {
+            listener.onClosed(); // never connected, nothing to clean up
+            return;
+        }
         // Delay close actions by 1 second to allow for retransmits of the final CONNECTION_CLOSE frame
         eventLoop.schedule(() -> {
             if (transportChannel != null) {
                 transportChannel.close();
             }
-            group.shutdownGracefully();
+            if (group != null) {
+                group.shutdownGracefully();
+            }
             listener.onClosed();
         }, 1, TimeUnit.SECONDS);
     }
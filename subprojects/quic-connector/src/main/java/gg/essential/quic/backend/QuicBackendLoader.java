@@ -65,6 +65,9 @@ public class QuicBackendLoader {
 
         loader.addClassExclusion(QuicBackend.class.getName());
         loader.addClassExclusion(QuicListener.class.getName());
+        loader.addClassExclusion(QuicProfile.class.getName());
+        loader.addClassExclusion(QuicProfile.CongestionControl.class.getName());
+        loader.addClassExclusion(QuicStats.class.getName());
 
         // Netty's NativeLibraryLoader will throw an error if multiple resources for the same native are found on the
         // classpath. This is the case with mods such as e4mc and Luna, which include netty-incubator-codec-quic
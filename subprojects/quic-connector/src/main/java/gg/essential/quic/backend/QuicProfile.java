@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.quic.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A named set of QUIC transport parameters, see {@link QuicBackend#setProfile(QuicProfile)}.
+ * <p>
+ * This class is shared between the isolated QUIC class loader and the rest of the mod, so it must not refer to any
+ * netty classes.
+ */
+public final class QuicProfile {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QuicProfile.class);
+
+    /** The parameters we've always been using. */
+    public static final QuicProfile DEFAULT = new QuicProfile(
+        "default", CongestionControl.CUBIC, true, 10_000_000, 10_000_000, 10, 25, 0, 0, 0);
+
+    /** Favours quick delivery of small packets (movement, chat) over throughput. */
+    public static final QuicProfile LOW_LATENCY = new QuicProfile(
+        "low-latency", CongestionControl.BBR, true, 4_000_000, 2_000_000, 10, 5, 1, 128, 0);
+
+    /** Large windows and no early slow-start exit, so the burst of chunk data when joining a world ramps up quickly. */
+    public static final QuicProfile BULK_JOIN = new QuicProfile(
+        "bulk-join", CongestionControl.CUBIC, false, 32_000_000, 24_000_000, 10, 25, 0, 0, 0);
+
+    /** Small windows and BBR, so a host with little upload bandwidth doesn't fill up its own uplink buffers. */
+    public static final QuicProfile CONSTRAINED_UPLINK = new QuicProfile(
+        "constrained-uplink", CongestionControl.BBR, true, 2_000_000, 1_000_000, 10, 25, 1, 0, 0);
+
+    public static final Map<String, QuicProfile> PROFILES;
+    static {
+        Map<String, QuicProfile> profiles = new LinkedHashMap<>();
+        for (QuicProfile profile : Arrays.asList(DEFAULT, LOW_LATENCY, BULK_JOIN, CONSTRAINED_UPLINK)) {
+            profiles.put(profile.name, profile);
+        }
+        PROFILES = Collections.unmodifiableMap(profiles);
+    }
+
+    public final String name;
+    public final CongestionControl congestionControl;
+    /** Whether HyStart++ may exit slow start before the first loss. */
+    public final boolean hystart;
+    /** Initial flow-control window of the whole connection, in bytes. */
+    public final long initialMaxData;
+    /** Initial flow-control window of each bidirectional stream, in bytes. */
+    public final long initialMaxStreamData;
+    public final long maxStreamsBidirectional;
+    public final long maxAckDelayMillis;
+    /** Number of packets after which outgoing UDP packets are flushed, or 0 for netty's default (byte-based) strategy. */
+    public final int flushAfterPackets;
+    /** Length of the send and receive queues for QUIC DATAGRAM frames, or 0 if they should not be supported. */
+    public final int datagramQueueLength;
+    /**
+     * 0 to give each connection its own event loop thread (so guests of a hosted world don't compete for one), or the
+     * size of an event loop group shared by all connections using this number of threads.
+     */
+    public final int eventLoopThreads;
+
+    public QuicProfile(
+        String name,
+        CongestionControl congestionControl,
+        boolean hystart,
+        long initialMaxData,
+        long initialMaxStreamData,
+        long maxStreamsBidirectional,
+        long maxAckDelayMillis,
+        int flushAfterPackets,
+        int datagramQueueLength,
+        int eventLoopThreads
+    ) {
+        this.name = name;
+        this.congestionControl = congestionControl;
+        this.hystart = hystart;
+        this.initialMaxData = initialMaxData;
+        this.initialMaxStreamData = initialMaxStreamData;
+        this.maxStreamsBidirectional = maxStreamsBidirectional;
+        this.maxAckDelayMillis = maxAckDelayMillis;
+        this.flushAfterPackets = flushAfterPackets;
+        this.datagramQueueLength = datagramQueueLength;
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    /** Returns the profile with the given name, or {@link #DEFAULT} (with a warning) if there is no such profile. */
+    public static QuicProfile byName(String name) {
+        if (name == null) {
+            return DEFAULT;
+        }
+        QuicProfile profile = PROFILES.get(name);
+        if (profile == null) {
+            LOGGER.warn("Unknown QUIC profile \"{}\", using \"{}\" instead. Known profiles: {}",
+                name, DEFAULT, PROFILES.keySet());
+            return DEFAULT;
+        }
+        return profile;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    public enum CongestionControl {
+        RENO,
+        CUBIC,
+        BBR,
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2024 ModCore Inc. All rights reserved.
+ *
+ * This code is part of ModCore Inc.'s Essential Mod repository and is protected
+ * under copyright registration # TX0009138511. For the full license, see:
+ * https://github.com/EssentialGG/Essential/blob/main/LICENSE
+ *
+ * You may not use, copy, reproduce, modify, sell, license, distribute,
+ * commercialize, or otherwise exploit, or create derivative works based
+ * upon, this file or any other in this repository, all of which is reserved by Essential.
+ */
+package gg.essential.quic.backend;
+
+/**
+ * A snapshot of the statistics of a QUIC connection, see {@link QuicBackend#collectStats()}.
+ * <p>
+ * This class is shared between the isolated QUIC class loader and the rest of the mod, so it must not refer to any
+ * netty classes.
+ */
+public final class QuicStats {
+    public final long sentPackets;
+    public final long receivedPackets;
+    public final long lostPackets;
+    public final long retransmittedPackets;
+    public final long sentBytes;
+    public final long receivedBytes;
+    public final long lostBytes;
+    public final long retransmittedStreamBytes;
+
+    public QuicStats(
+        long sentPackets,
+        long receivedPackets,
+        long lostPackets,
+        long retransmittedPackets,
+        long sentBytes,
+        long receivedBytes,
+        long lostBytes,
+        long retransmittedStreamBytes
+    ) {
+        this.sentPackets = sentPackets;
+        this.receivedPackets = receivedPackets;
+        this.lostPackets = lostPackets;
+        this.retransmittedPackets = retransmittedPackets;
+        this.sentBytes = sentBytes;
+        this.receivedBytes = receivedBytes;
+        this.lostBytes = lostBytes;
+        this.retransmittedStreamBytes = retransmittedStreamBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "QuicStats{" +
+            "sentPackets=" + sentPackets +
+            ", receivedPackets=" + receivedPackets +
+            ", lostPackets=" + lostPackets +
+            ", retransmittedPackets=" + retransmittedPackets +
+            ", sentBytes=" + sentBytes +
+            ", receivedBytes=" + receivedBytes +
+            ", lostBytes=" + lostBytes +
+            ", retransmittedStreamBytes=" + retransmittedStreamBytes +
+            '}';
+    }
+}
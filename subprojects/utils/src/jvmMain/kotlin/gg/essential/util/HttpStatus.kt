@@ -14,7 +14,9 @@ package gg.essential.util
 object HttpStatus {
     // 2xx
     const val OK = 200
+    const val PARTIAL_CONTENT = 206
 
     const val FORBIDDEN = 403
     const val NOT_FOUND = 404
+    const val RANGE_NOT_SATISFIABLE = 416
 }